@@ -34,11 +34,13 @@ public class Activator implements BundleActivator {
 
     static final Logger LOG = LoggerFactory.getLogger(InterpolationConfigurationPlugin.class);
 
+    private volatile InterpolationConfigurationPlugin plugin;
+
     @Override
     public void start(BundleContext context) throws Exception {
         String directory = context.getProperty(DIR_PROPERTY);
 
-        ConfigurationPlugin plugin = new InterpolationConfigurationPlugin(context, directory);
+        plugin = new InterpolationConfigurationPlugin(context, directory);
         Dictionary<String, Object> props = new Hashtable<>();
         props.put(ConfigurationPlugin.CM_RANKING, PLUGIN_RANKING);
         props.put("config.plugin.id", "org.apache.felix.configadmin.plugin.interpolation");
@@ -53,5 +55,9 @@ public class Activator implements BundleActivator {
     @Override
     public void stop(BundleContext context) throws Exception {
         // Service is automatically unregistered when bundle is stopped.
+        if (plugin != null) {
+            plugin.stop();
+            plugin = null;
+        }
     }
 }
@@ -18,44 +18,44 @@ package org.apache.felix.configadmin.plugin.interpolation;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.ConfigurationPlugin;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 class InterpolationConfigurationPlugin implements ConfigurationPlugin {
     private static final String PREFIX = "$[";
     private static final String SUFFIX = "]";
 
-    private static final String ENV_PREFIX = PREFIX + "env:";
-    private static final Pattern ENV_PATTERN = createPattern(ENV_PREFIX);
-    private static final String PROP_PREFIX = PREFIX + "prop:";
-    private static final Pattern PROP_PATTERN = createPattern(PROP_PREFIX);
-    private static final String SECRET_PREFIX = PREFIX + "secret:";
-    private static final Pattern SECRET_PATTERN = createPattern(SECRET_PREFIX);
-
-    private static Pattern createPattern(String prefix) {
-        return Pattern.compile("\\Q" + prefix + "\\E.+?\\Q" + SUFFIX + "\\E");
-    }
+    private static final String ENV_TYPE = "env";
+    private static final String PROP_TYPE = "prop";
+    private static final String SECRET_TYPE = "secret";
 
     private final BundleContext context;
     private final File directory;
+    private final SecretCache secrets;
 
     InterpolationConfigurationPlugin(BundleContext bc, String dir) {
         context = bc;
         if (dir != null) {
             directory = new File(dir);
+            secrets = new SecretCache(SecretCache.DEFAULT_MAX_SIZE, this::redeliver);
             getLog().info("Configured directory for secrets: {}", dir);
         } else {
             directory = null;
+            secrets = null;
         }
     }
 
@@ -63,90 +63,200 @@ class InterpolationConfigurationPlugin implements ConfigurationPlugin {
         return Activator.LOG;
     }
 
+    void stop() {
+        if (secrets != null) {
+            secrets.close();
+        }
+    }
+
     @Override
     public void modifyConfiguration(ServiceReference<?> reference, Dictionary<String, Object> properties) {
+        Object pid = properties.get(Constants.SERVICE_PID);
+        Map<Path, String> secretFiles = secrets != null ? new HashMap<>() : null;
         for (Enumeration<String> keys = properties.keys(); keys.hasMoreElements(); ) {
             String key = keys.nextElement();
             Object val = properties.get(key);
             if (val instanceof String) {
                 String sv = (String) val;
-                int idx = sv.indexOf(PREFIX);
-                if (idx != -1) {
-                    String varStart = sv.substring(idx);
-                    Object pid = properties.get(Constants.SERVICE_PID);
-                    Object newVal = null;
-                    if (varStart.startsWith(SECRET_PREFIX)) {
-                        newVal = replaceVariablesFromFile(key, sv, pid);
-                    } else if (varStart.startsWith(ENV_PREFIX)) {
-                        newVal = replaceVariablesFromEnvironment(key, sv, pid);
-                    } else if (varStart.startsWith(PROP_PREFIX)) {
-                        newVal = replaceVariablesFromProperties(key, sv, pid);
-                    }
-
-                    if (newVal != null)
+                if (sv.contains(PREFIX)) {
+                    String newVal = replaceVariables(null, key, sv, pid, secretFiles);
+                    if (!newVal.equals(sv)) {
                         properties.put(key, newVal);
-
-                    getLog().info("Replaced value of configuration property '{}' for PID {}", key, pid);
+                        getLog().info("Replaced value of configuration property '{}' for PID {}", key, pid);
+                    }
                 }
             }
         }
+        if (secrets != null && pid != null) {
+            secrets.setUsages(pid.toString(), secretFiles);
+        }
     }
 
     Object replaceVariablesFromEnvironment(final String key, final String value, final Object pid) {
-        return replaceVariables(ENV_PREFIX, ENV_PATTERN, key, value, pid, n -> System.getenv(n));
+        return replaceVariables(ENV_TYPE, key, value, pid);
     }
 
     Object replaceVariablesFromProperties(final String key, final String value, final Object pid) {
-        return replaceVariables(PROP_PREFIX, PROP_PATTERN, key, value, pid, n -> context.getProperty(n));
+        return replaceVariables(PROP_TYPE, key, value, pid);
     }
 
     Object replaceVariablesFromFile(final String key, final String value, final Object pid) {
         if (directory == null) {
-            getLog().warn("Cannot replace property value {} for PID {}. No directory configured via framework property " +
-                    Activator.DIR_PROPERTY, key, pid);
+            warnNoDirectory(key, pid);
             return null;
         }
+        return replaceVariables(SECRET_TYPE, key, value, pid);
+    }
 
-        return replaceVariables(SECRET_PREFIX, SECRET_PATTERN, key, value, pid, n -> {
-            if (n.contains("..")) {
-                getLog().error("Illegal secret location: " + n + " Going up in the directory structure is not allowed");
-                return null;
+    /**
+     * Replaces the variables in the value in a single pass. Variables of an
+     * unknown type and variables which cannot be resolved are left as they are.
+     *
+     * @param type The type of variables to replace, {@code null} for all types.
+     */
+    String replaceVariables(final String type, final String key, final String value, final Object pid) {
+        return replaceVariables(type, key, value, pid, null);
+    }
+
+    /**
+     * Replaces the variables in the value, collecting the secret files used.
+     *
+     * @param secretFiles The map to add the secret files and their values to, may be {@code null}.
+     */
+    private String replaceVariables(final String type, final String key, final String value, final Object pid,
+            final Map<Path, String> secretFiles) {
+        int start = value.indexOf(PREFIX);
+        if (start == -1) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length());
+        int pos = 0;
+        while (start != -1) {
+            final int nameStart = start + PREFIX.length();
+            final int end = value.indexOf(SUFFIX, nameStart);
+            if (end == -1) {
+                break;
+            }
+            final String replacement = resolve(type, value.substring(nameStart, end), key, pid, secretFiles);
+            if (replacement != null) {
+                sb.append(value, pos, start).append(replacement);
+                pos = end + SUFFIX.length();
+                start = value.indexOf(PREFIX, pos);
+            } else {
+                start = value.indexOf(PREFIX, nameStart);
             }
+        }
+        sb.append(value, pos, value.length());
+        return sb.toString();
+    }
 
-            File file = new File(directory, n);
-            if (!file.isFile()) {
+    private String resolve(final String type, final String variable, final String key, final Object pid,
+            final Map<Path, String> secretFiles) {
+        final int idx = variable.indexOf(':');
+        if (idx == -1 || idx == variable.length() - 1) {
+            return null;
+        }
+        final String varType = variable.substring(0, idx);
+        if (type != null && !type.equals(varType)) {
+            return null;
+        }
+        final String name = variable.substring(idx + 1);
+        switch (varType) {
+        case ENV_TYPE:
+            return System.getenv(name);
+        case PROP_TYPE:
+            return context.getProperty(name);
+        case SECRET_TYPE:
+            return getSecret(name, key, pid, secretFiles);
+        default:
+            return null;
+        }
+    }
+
+    private String getSecret(final String name, final String key, final Object pid,
+            final Map<Path, String> secretFiles) {
+        if (directory == null) {
+            warnNoDirectory(key, pid);
+            return null;
+        }
+        if (name.contains("..")) {
+            getLog().error("Illegal secret location: " + name + " Going up in the directory structure is not allowed");
+            return null;
+        }
+
+        File file = new File(directory, name);
+        Path path = file.getAbsoluteFile().toPath();
+        String value = null;
+        try {
+            value = secrets.get(path);
+            if (value == null) {
                 getLog().warn("Cannot replace variable. Configured path is not a regular file: " + file);
-                return null;
             }
-            byte[] bytes;
-            try {
-                bytes = Files.readAllBytes(file.toPath());
-            } catch (IOException e) {
-                getLog().error("Problem replacing configuration property '{}' for PID {} from file {}",
-                        key, pid, file, e);
-
-                return null;
-            }
-            return new String(bytes).trim();
-        });
+        } catch (IOException e) {
+            getLog().error("Problem replacing configuration property '{}' for PID {} from file {}",
+                    key, pid, file, e);
+        }
+        if (secretFiles != null) {
+            // also a missing file, so that the configuration is delivered again once it is created
+            secretFiles.put(path, value);
+        }
+        return value;
     }
 
-    Object replaceVariables(final String prefix, final Pattern pattern,
-            final String key, final String value, final Object pid,
-            final Function<String, String> valueSource) {
-        final Matcher m = pattern.matcher(value);
-        final StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            final String var = m.group();
+    private void warnNoDirectory(final String key, final Object pid) {
+        getLog().warn("Cannot replace property value {} for PID {}. No directory configured via framework property " +
+                Activator.DIR_PROPERTY, key, pid);
+    }
 
-            final int len = var.length();
-            final String varName = var.substring(prefix.length(), len - SUFFIX.length());
-            String replacement = valueSource.apply(varName);
-            if (replacement != null)
-                m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+    /**
+     * Delivers the configurations of the given PIDs again, as a secret they
+     * use has changed. The configuration admin calls the plugins again when
+     * the configuration is updated.
+     */
+    void redeliver(final Set<String> pids) {
+        if (context == null) {
+            return;
+        }
+        final ServiceReference<ConfigurationAdmin> ref = context.getServiceReference(ConfigurationAdmin.class);
+        if (ref == null) {
+            return;
         }
-        m.appendTail(sb);
+        final ConfigurationAdmin ca = context.getService(ref);
+        if (ca == null) {
+            return;
+        }
+        try {
+            for (String pid : pids) {
+                try {
+                    Configuration[] configs = ca.listConfigurations(
+                            "(" + Constants.SERVICE_PID + "=" + escapeFilterValue(pid) + ")");
+                    if (configs != null) {
+                        for (Configuration config : configs) {
+                            config.update();
+                            getLog().info("Delivered configuration for PID {} again as a secret changed", pid);
+                        }
+                    } else {
+                        // the configuration has been deleted
+                        secrets.setUsages(pid, Collections.emptyMap());
+                    }
+                } catch (IOException | InvalidSyntaxException | IllegalStateException e) {
+                    getLog().error("Problem delivering configuration for PID {} again", pid, e);
+                }
+            }
+        } finally {
+            context.ungetService(ref);
+        }
+    }
 
+    private static String escapeFilterValue(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '*' || c == '(' || c == ')') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
         return sb.toString();
     }
 }
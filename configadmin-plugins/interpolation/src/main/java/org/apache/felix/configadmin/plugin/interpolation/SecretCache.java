@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.configadmin.plugin.interpolation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A bounded cache of the contents of secret files. The directories of cached
+ * files are watched with a {@link WatchService}. Any change in a directory
+ * removes all its files from the cache, as a file might be a symbolic link
+ * into a directory which has been swapped, like the {@code ..data} link of
+ * Kubernetes secrets. The PIDs which used a secret that changed are passed
+ * to the change listener, so that their configuration can be delivered again.
+ * As a change only removes values from the cache, the usages keep a hash of
+ * the content each PID was delivered with, and a PID is only passed to the
+ * listener if the content of the file differs from it.
+ */
+class SecretCache implements Closeable {
+    static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final int maxSize;
+    private final Consumer<Set<String>> changeListener;
+
+    private final Map<Path, String> values;
+    /** The secret files used by the last delivery of each PID, with the hash of their content. */
+    private final Map<String, Map<Path, String>> usages = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    /** Incremented for every change, a value read concurrently to a change is not cached. */
+    private final AtomicLong changes = new AtomicLong();
+
+    private WatchService watchService;
+    private Thread watcher;
+    private boolean closed;
+
+    SecretCache(int maxSize, Consumer<Set<String>> changeListener) {
+        this.maxSize = maxSize;
+        this.changeListener = changeListener;
+        this.values = new LinkedHashMap<Path, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, String> eldest) {
+                return size() > SecretCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the trimmed content of the given file.
+     *
+     * @param file The secret file.
+     * @return The content or {@code null} if the file is not a regular file.
+     * @throws IOException If the file cannot be read.
+     */
+    String get(Path file) throws IOException {
+        synchronized (values) {
+            String value = values.get(file);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        // watch before reading, so that a change while reading is not missed
+        boolean watched = watch(file.getParent());
+        long changeCount = changes.get();
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        String value = read(file);
+        synchronized (values) {
+            if (watched && changeCount == changes.get()) {
+                values.put(file, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Sets the secret files used by the configuration of a PID, replacing
+     * the files used by its previous delivery.
+     *
+     * @param pid The PID.
+     * @param files The secret files with the values delivered to the PID,
+     *        {@code null} for a file that could not be read. Empty if the PID
+     *        uses none.
+     */
+    void setUsages(String pid, Map<Path, String> files) {
+        if (files.isEmpty()) {
+            usages.remove(pid);
+        } else {
+            Map<Path, String> hashes = new HashMap<>();
+            for (Map.Entry<Path, String> entry : files.entrySet()) {
+                hashes.put(entry.getKey(), hash(entry.getValue()));
+            }
+            usages.put(pid, hashes);
+        }
+    }
+
+    int size() {
+        synchronized (values) {
+            return values.size();
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file)).trim();
+    }
+
+    /**
+     * Returns the hash of the value of a secret, the empty string for a
+     * secret that could not be read.
+     */
+    private static String hash(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private synchronized boolean watch(Path directory) {
+        if (closed || directory == null) {
+            return false;
+        }
+        if (watchedDirectories.contains(directory)) {
+            return true;
+        }
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                final WatchService ws = watchService;
+                watcher = new Thread(() -> processEvents(ws), "Apache Felix Configuration Interpolation Secret Watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.add(directory);
+            return true;
+        } catch (IOException e) {
+            Activator.LOG.warn("Cannot watch secrets directory {}, secrets from it are not cached", directory, e);
+            return false;
+        }
+    }
+
+    private void processEvents(WatchService ws) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            // the events are not matched by file name, a swapped link changes a file without an event for it
+            key.pollEvents();
+            Set<String> pids = new HashSet<>();
+            for (Path file : getFiles(directory)) {
+                changed(file, pids);
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(directory);
+            }
+            if (!pids.isEmpty()) {
+                try {
+                    changeListener.accept(pids);
+                } catch (RuntimeException e) {
+                    Activator.LOG.error("Problem delivering changed secrets to PIDs {}", pids, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached and the used secret files in the directory.
+     */
+    private Set<Path> getFiles(Path directory) {
+        Set<Path> files = new HashSet<>();
+        synchronized (values) {
+            for (Path file : values.keySet()) {
+                if (directory.equals(file.getParent())) {
+                    files.add(file);
+                }
+            }
+        }
+        for (Map<Path, String> used : usages.values()) {
+            for (Path file : used.keySet()) {
+                if (directory.equals(file.getParent())) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private void changed(Path file, Set<String> pids) {
+        synchronized (values) {
+            changes.incrementAndGet();
+            values.remove(file);
+        }
+        Map<String, String> users = new HashMap<>();
+        for (Map.Entry<String, Map<Path, String>> entry : usages.entrySet()) {
+            String delivered = entry.getValue().get(file);
+            if (delivered != null) {
+                users.put(entry.getKey(), delivered);
+            }
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+        // the file might only have been touched, or already been delivered again
+        String current = null;
+        try {
+            current = hash(Files.isRegularFile(file) ? read(file) : null);
+        } catch (IOException e) {
+            // the changed value is read again when the configuration is delivered
+        }
+        boolean changed = false;
+        for (Map.Entry<String, String> user : users.entrySet()) {
+            if (!user.getValue().equals(current)) {
+                pids.add(user.getKey());
+                changed = true;
+            }
+        }
+        if (changed) {
+            Activator.LOG.info("Secret {} changed", file);
+        }
+    }
+
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            if (watchService == null) {
+                return;
+            }
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                Activator.LOG.warn("Problem closing secrets watcher", e);
+            }
+            watchService = null;
+            thread = watcher;
+            watcher = null;
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (values) {
+            values.clear();
+        }
+    }
+}
@@ -16,19 +16,29 @@
  */
 package org.apache.felix.configadmin.plugin.interpolation;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 
 public class InterpolationConfigurationPluginTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testModifyConfiguration() throws Exception {
         String envUser = System.getenv("USER");
@@ -128,4 +138,56 @@ public class InterpolationConfigurationPluginTest {
 
         assertEquals("foo", plugin.replaceVariablesFromFile("akey", "foo", "apid"));
     }
+
+    @Test
+    public void testMixedVariables() throws Exception {
+        String rf = getClass().getResource("/testfile.txt").getFile();
+        BundleContext bc = Mockito.mock(BundleContext.class);
+        Mockito.when(bc.getProperty("foo.bar")).thenReturn("hello");
+        InterpolationConfigurationPlugin plugin = new InterpolationConfigurationPlugin(bc,
+                new File(rf).getParent());
+
+        Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("mixed", "$[prop:foo.bar] $[secret:testfile.txt] $[env:boo] $[");
+        plugin.modifyConfiguration(null, dict);
+        plugin.stop();
+
+        assertEquals("hello la la la $[env:boo] $[", dict.get("mixed"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testChangedSecretIsDeliveredAgain() throws Exception {
+        File secret = folder.newFile("secret");
+        Files.write(secret.toPath(), "one".getBytes());
+
+        BundleContext bc = Mockito.mock(BundleContext.class);
+        ServiceReference<ConfigurationAdmin> ref = Mockito.mock(ServiceReference.class);
+        ConfigurationAdmin ca = Mockito.mock(ConfigurationAdmin.class);
+        Configuration config = Mockito.mock(Configuration.class);
+        Mockito.when(bc.getServiceReference(ConfigurationAdmin.class)).thenReturn(ref);
+        Mockito.when(bc.getService(ref)).thenReturn(ca);
+        Mockito.when(ca.listConfigurations("(service.pid=my.service)")).thenReturn(new Configuration[] {config});
+
+        InterpolationConfigurationPlugin plugin = new InterpolationConfigurationPlugin(bc,
+                folder.getRoot().getPath());
+        try {
+            assertEquals("one", modify(plugin, "$[secret:secret]"));
+
+            // the cached value is used as long as the file does not change
+            Files.write(secret.toPath(), "two".getBytes());
+            Mockito.verify(config, Mockito.timeout(TimeUnit.SECONDS.toMillis(30))).update();
+            assertEquals("two", modify(plugin, "$[secret:secret]"));
+        } finally {
+            plugin.stop();
+        }
+    }
+
+    private static Object modify(InterpolationConfigurationPlugin plugin, String value) {
+        Dictionary<String, Object> dict = new Hashtable<>();
+        dict.put("value", value);
+        dict.put(Constants.SERVICE_PID, "my.service");
+        plugin.modifyConfiguration(null, dict);
+        return dict.get("value");
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.configadmin.plugin.interpolation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SecretCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBounded() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Files.write(folder.newFile("secret" + i).toPath(), (" value" + i + "\n").getBytes());
+        }
+        SecretCache cache = new SecretCache(2, pids -> {});
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals("value" + i, cache.get(new File(folder.getRoot(), "secret" + i).toPath()));
+            }
+            assertEquals(2, cache.size());
+            assertNull(cache.get(new File(folder.getRoot(), "missing").toPath()));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testChangeIsReported() throws Exception {
+        File file = folder.newFile("secret");
+        Files.write(file.toPath(), "old".getBytes());
+        BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        SecretCache cache = new SecretCache(SecretCache.DEFAULT_MAX_SIZE, changes::add);
+        try {
+            assertEquals("old", cache.get(file.toPath()));
+            cache.setUsages("pid1", Collections.singletonMap(file.toPath(), "old"));
+            cache.setUsages("pid2", Collections.singletonMap(file.toPath(), "old"));
+            assertEquals(1, cache.size());
+
+            Files.write(file.toPath(), "new".getBytes());
+            Set<String> expected = new HashSet<>(Arrays.asList("pid1", "pid2"));
+            assertEquals(expected, changes.poll(30, TimeUnit.SECONDS));
+            assertEquals("new", cache.get(file.toPath()));
+
+            // writing a file might be reported as more than one change
+            Files.delete(file.toPath());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (cache.get(file.toPath()) != null && System.nanoTime() < deadline) {
+                changes.poll(10, TimeUnit.MILLISECONDS);
+            }
+            assertNull(cache.get(file.toPath()));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testSwappedDataLinkIsReported() throws Exception {
+        // the layout of a Kubernetes secret volume
+        Path root = folder.getRoot().toPath();
+        Files.write(Files.createDirectory(root.resolve("..2020_01")).resolve("secret"), "old".getBytes());
+        Files.createSymbolicLink(root.resolve("..data"), root.resolve("..2020_01").getFileName());
+        Path file = Files.createSymbolicLink(root.resolve("secret"), root.resolve("..data").getFileName().resolve("secret"));
+
+        BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        SecretCache cache = new SecretCache(SecretCache.DEFAULT_MAX_SIZE, changes::add);
+        try {
+            assertEquals("old", cache.get(file));
+            cache.setUsages("pid", Collections.singletonMap(file, "old"));
+
+            Files.write(Files.createDirectory(root.resolve("..2020_02")).resolve("secret"), "new".getBytes());
+            Files.createSymbolicLink(root.resolve("..data_tmp"), root.resolve("..2020_02").getFileName());
+            Files.move(root.resolve("..data_tmp"), root.resolve("..data"), StandardCopyOption.ATOMIC_MOVE);
+
+            assertEquals(Collections.singleton("pid"), changes.poll(30, TimeUnit.SECONDS));
+            assertEquals("new", cache.get(file));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testReplacedUsagesAreNotReported() throws Exception {
+        File file = folder.newFile("secret");
+        Files.write(file.toPath(), "old".getBytes());
+        BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        SecretCache cache = new SecretCache(SecretCache.DEFAULT_MAX_SIZE, changes::add);
+        try {
+            assertEquals("old", cache.get(file.toPath()));
+            cache.setUsages("pid1", Collections.singletonMap(file.toPath(), "old"));
+            cache.setUsages("pid2", Collections.singletonMap(file.toPath(), "old"));
+            cache.setUsages("pid1", Collections.emptyMap());
+
+            Files.write(file.toPath(), "new".getBytes());
+            assertEquals(Collections.singleton("pid2"), changes.poll(30, TimeUnit.SECONDS));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedContentIsNotReported() throws Exception {
+        File directory = folder.newFolder("secrets");
+        File file = new File(directory, "secret");
+        File other = new File(directory, "other");
+        Files.write(file.toPath(), "old".getBytes());
+        Files.write(other.toPath(), "old".getBytes());
+        BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        SecretCache cache = new SecretCache(1, changes::add);
+        try {
+            assertEquals("old", cache.get(file.toPath()));
+            cache.setUsages("pid1", Collections.singletonMap(file.toPath(), "old"));
+            // already delivered with the new value
+            cache.setUsages("pid2", Collections.singletonMap(file.toPath(), "new"));
+            // evicts the value of the file
+            assertEquals("old", cache.get(other.toPath()));
+            cache.setUsages("pid3", Collections.singletonMap(other.toPath(), "old"));
+
+            replace(file, "new");
+            assertEquals(Collections.singleton("pid1"), changes.poll(30, TimeUnit.SECONDS));
+            cache.setUsages("pid1", Collections.singletonMap(file.toPath(), "new"));
+
+            // rewriting the same content is not reported
+            replace(file, "new");
+            replace(other, "new");
+            assertEquals(Collections.singleton("pid3"), changes.poll(30, TimeUnit.SECONDS));
+        } finally {
+            cache.close();
+        }
+    }
+
+    /**
+     * Replaces the content of the file at once, from outside of its directory.
+     */
+    private void replace(File file, String content) throws Exception {
+        Path tmp = folder.newFile().toPath();
+        Files.write(tmp, content.getBytes());
+        Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
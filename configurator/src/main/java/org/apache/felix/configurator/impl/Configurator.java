@@ -32,6 +32,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.configurator.impl.json.BinUtil;
 import org.apache.felix.configurator.impl.json.JSONUtil;
@@ -76,6 +84,8 @@ public class Configurator {
 
     private final List<ServiceReference<ConfigurationAdmin>> configAdminReferences;
 
+    private final AtomicBoolean processScheduled = new AtomicBoolean();
+
     /**
      * Create a new configurator and start it
      *
@@ -88,9 +98,9 @@ public class Configurator {
         this.configAdminReferences = configAdminReferences;
         State s = null;
         try {
-            s = State.createOrReadState(bundleContext.getDataFile(State.FILE_NAME));
+            s = State.createOrReadState(bundleContext.getDataFile(State.DIRECTORY_NAME));
         } catch ( final ClassNotFoundException | IOException e ) {
-            SystemLogger.error("Unable to read persisted state from " + State.FILE_NAME, e);
+            SystemLogger.error("Unable to read persisted state from " + State.DIRECTORY_NAME, e);
             s = new State();
         }
         this.state = s;
@@ -110,7 +120,7 @@ public class Configurator {
                         @Override
                         public void run() {
                             if ( processAddBundle(bundle) ) {
-                                process();
+                                scheduleProcess();
                             }
                         }
                     });
@@ -134,7 +144,7 @@ public class Configurator {
                         public void run() {
                             try {
                                 if ( processRemoveBundle(bundle.getBundleId()) ) {
-                                    process();
+                                    scheduleProcess();
                                 }
                             } catch ( final IllegalStateException ise) {
                                 SystemLogger.error("Error processing bundle " + getBundleIdentity(bundle), ise);
@@ -148,13 +158,25 @@ public class Configurator {
     }
 
     public void configAdminAdded() {
-        queue.enqueue(new Runnable() {
+        scheduleProcess();
+    }
 
-            @Override
-            public void run() {
-                process();
-            }
-        });
+    /**
+     * Schedule processing of the state unless it is already scheduled.
+     * Bundles added or removed before the processing starts are applied
+     * to the configuration admin in a single pass.
+     */
+    private void scheduleProcess() {
+        if ( this.processScheduled.compareAndSet(false, true) ) {
+            queue.enqueue(new Runnable() {
+
+                @Override
+                public void run() {
+                    processScheduled.set(false);
+                    process();
+                }
+            });
+        }
     }
 
     private String getBundleIdentity(final Bundle bundle) {
@@ -281,13 +303,15 @@ public class Configurator {
 
         final Bundle[] bundles = this.bundleContext.getBundles();
         final Set<Long> ids = new HashSet<>();
+        final List<Bundle> changedBundles = new ArrayList<>();
         for(final Bundle b : bundles) {
             ids.add(b.getBundleId());
             final int state = b.getState();
-            if ( state == Bundle.ACTIVE || state == Bundle.STARTING ) {
-                processAddBundle(b);
+            if ( (state == Bundle.ACTIVE || state == Bundle.STARTING) && hasChanged(b) ) {
+                changedBundles.add(b);
             }
         }
+        processAddBundles(changedBundles);
         for(final long id : state.getKnownBundleIds()) {
             if ( !ids.contains(id) ) {
                 processRemoveBundle(id);
@@ -297,16 +321,89 @@ public class Configurator {
         this.tracker.open();
     }
 
-    public boolean processAddBundle(final Bundle bundle) {
-        final long bundleId = bundle.getBundleId();
-        final long bundleLastModified = bundle.getLastModified();
+    /**
+     * Check whether a bundle has been modified since it has been processed
+     * @param bundle The bundle
+     * @return {@code true} if the bundle needs to be processed
+     */
+    private boolean hasChanged(final Bundle bundle) {
+        final Long lastModified = state.getLastModified(bundle.getBundleId());
+        return lastModified == null || lastModified.longValue() != bundle.getLastModified();
+    }
 
-        final Long lastModified = state.getLastModified(bundleId);
-        if ( lastModified != null && lastModified.longValue() == bundleLastModified ) {
+    /**
+     * Process the added bundles. The configurations of the bundles are read
+     * in parallel and then added to the state in the order of the bundles.
+     * @param bundles The bundles
+     */
+    private void processAddBundles(final List<Bundle> bundles) {
+        final int threads = Math.min(bundles.size(), Runtime.getRuntime().availableProcessors());
+        if ( threads < 2 ) {
+            for(final Bundle b : bundles) {
+                processAddBundle(b);
+            }
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Apache Felix Configurator Reader Thread " + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<BundleState>> futures = new ArrayList<>();
+            final long[] lastModified = new long[bundles.size()];
+            for(int i=0;i<bundles.size();i++) {
+                final Bundle bundle = bundles.get(i);
+                lastModified[i] = bundle.getLastModified();
+                futures.add(executor.submit(new Callable<BundleState>() {
+
+                    @Override
+                    public BundleState call() {
+                        return readConfigurations(bundle);
+                    }
+                }));
+            }
+            for(int i=0;i<bundles.size();i++) {
+                final Bundle bundle = bundles.get(i);
+                BundleState config = null;
+                try {
+                    config = futures.get(i).get();
+                } catch ( final ExecutionException ee ) {
+                    SystemLogger.error("Error processing bundle " + getBundleIdentity(bundle), ee.getCause());
+                } catch ( final InterruptedException ie ) {
+                    Thread.currentThread().interrupt();
+                    SystemLogger.error("Interrupted processing bundle " + getBundleIdentity(bundle), ie);
+                }
+                processAddBundle(bundle, lastModified[i], config);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean processAddBundle(final Bundle bundle) {
+        if ( !hasChanged(bundle) ) {
             // no changes, nothing to do
             return false;
         }
+        final long bundleLastModified = bundle.getLastModified();
+        return processAddBundle(bundle, bundleLastModified, readConfigurations(bundle));
+    }
 
+    /**
+     * Read the configurations of a bundle. This does not access the state
+     * and can be called concurrently for different bundles.
+     * @param bundle The bundle
+     * @return The configurations or {@code null} if the bundle does not
+     *         provide configurations
+     */
+    private BundleState readConfigurations(final Bundle bundle) {
         BundleState config = null;
         try {
             final Set<String> paths = Util.isConfigurerBundle(bundle, this.bundleContext.getBundle().getBundleId());
@@ -344,6 +441,12 @@ public class Configurator {
         } catch ( final IllegalStateException ise) {
             SystemLogger.error("Error processing bundle " + getBundleIdentity(bundle), ise);
         }
+        return config;
+    }
+
+    private boolean processAddBundle(final Bundle bundle, final long bundleLastModified, final BundleState config) {
+        final long bundleId = bundle.getBundleId();
+        final Long lastModified = state.getLastModified(bundleId);
         if ( lastModified != null ) {
             processRemoveBundle(bundleId);
         }
@@ -363,6 +466,9 @@ public class Configurator {
             for(final String pid : state.getPids()) {
                 final ConfigList configList = state.getConfigurations(pid);
                 configList.uninstall(bundleId);
+                if ( configList.hasChanges() ) {
+                    state.setChanged(pid);
+                }
             }
             return true;
         }
@@ -393,13 +499,8 @@ public class Configurator {
                 final ConfigList configList = state.getConfigurations(pid);
 
                 if ( configList.hasChanges() ) {
-                    if ( process(configList) ) {
-                        try {
-                            State.writeState(this.bundleContext.getDataFile(State.FILE_NAME), state);
-                        } catch ( final IOException ioe) {
-                            SystemLogger.error("Unable to persist state to " + State.FILE_NAME, ioe);
-                        }
-                    } else {
+                    state.setChanged(pid);
+                    if ( !process(configList) ) {
                         retry = true;
                     }
                 }
@@ -412,21 +513,18 @@ public class Configurator {
         }
         if ( !retry ) {
             // check whether there is a stale config admin bundle id
-            boolean changed = false;
             for(final Long bundleId : this.state.getBundleIdsUsingConfigAdmin()) {
                 if ( this.state.getLastModified(bundleId) == null ) {
                     this.state.removeConfigAdminBundleId(bundleId);
-                    changed = true;
-                }
-            }
-            if ( changed ) {
-                try {
-                    State.writeState(this.bundleContext.getDataFile(State.FILE_NAME), state);
-                } catch ( final IOException ioe) {
-                    SystemLogger.error("Unable to persist state to " + State.FILE_NAME, ioe);
                 }
             }
         }
+        // write all changes of this pass at once
+        try {
+            State.writeState(this.bundleContext.getDataFile(State.DIRECTORY_NAME), state);
+        } catch ( final IOException ioe) {
+            SystemLogger.error("Unable to persist state to " + State.DIRECTORY_NAME, ioe);
+        }
     }
 
     /**
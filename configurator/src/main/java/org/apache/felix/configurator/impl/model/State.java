@@ -18,6 +18,10 @@
  */
 package org.apache.felix.configurator.impl.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,11 +29,26 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * The state of the configurator.
+ *
+ * The state is persisted in a directory. The bundle information is kept in
+ * an index file and the configurations of each pid in a record file of
+ * their own, so only the records of changed pids are written. Record files
+ * are named by a hash of the pid, as pids differing in case only must not
+ * share a file on case insensitive file systems.
+ */
 public class State extends AbstractState implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -37,14 +56,31 @@ public class State extends AbstractState implements Serializable {
     /** Serialization version. */
     private static final int VERSION = 1;
 
+    /** Version of the index file. Version 1 named the records by the encoded pid. */
+    private static final int INDEX_VERSION = 2;
+
+    /** Name of the file containing the state of previous versions. */
     public static final String FILE_NAME = "state.ser";
 
+    /** Name of the directory containing the state. */
+    public static final String DIRECTORY_NAME = "state";
+
+    private static final String INDEX_FILE_NAME = "index";
+
+    private static final String RECORD_SUFFIX = ".ser";
+
     private Map<Long, Long> bundlesLastModified = new HashMap<>();
 
     private Map<Long, Long> bundlesConfigAdminBundleId = new HashMap<>();
 
     private volatile Set<String> initialHashes;
 
+    /** Whether the bundle information has changed since the state has been written. */
+    private transient boolean changed;
+
+    /** The pids changed since the state has been written. */
+    private transient Set<String> changedPids = new HashSet<>();
+
     /**
      * Serialize the object
      * - write version id
@@ -75,40 +111,201 @@ public class State extends AbstractState implements Serializable {
         this.bundlesLastModified =(Map<Long, Long>) in.readObject();
         this.bundlesConfigAdminBundleId = (Map<Long, Long>) in.readObject();
         initialHashes = (Set<String>) in.readObject();
+        this.changedPids = new HashSet<>();
     }
 
-    public static State createOrReadState(final File f)
+    /**
+     * Read the state from the directory. If the directory does not exist,
+     * the state of previous versions is read from the {@link #FILE_NAME} file
+     * next to it and written to the directory the next time the state is
+     * written.
+     * @param dir The directory or {@code null}
+     * @return The state
+     * @throws ClassNotFoundException If a record can't be read
+     * @throws IOException If reading fails
+     */
+    public static State createOrReadState(final File dir)
     throws ClassNotFoundException, IOException {
-        if ( f == null || !f.exists() ) {
+        if ( dir == null ) {
             return new State();
         }
-        try ( final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f)) ) {
+        final File indexFile = new File(dir, INDEX_FILE_NAME);
+        if ( !indexFile.exists() ) {
+            final File legacyFile = new File(dir.getParentFile(), FILE_NAME);
+            if ( !legacyFile.exists() ) {
+                return new State();
+            }
+            final State state;
+            try ( final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(legacyFile)) ) {
+                state = (State) ois.readObject();
+            }
+            state.changed = true;
+            state.changedPids.addAll(state.getPids());
+            return state;
+        }
 
-            return (State) ois.readObject();
+        final State state = new State();
+        try ( final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))) ) {
+            final int version = in.readInt();
+            if ( version < 1 || version > INDEX_VERSION ) {
+                throw new IOException("Unsupported state version " + version);
+            }
+            readMap(in, state.bundlesLastModified);
+            readMap(in, state.bundlesConfigAdminBundleId);
+            final int hashCount = in.readInt();
+            if ( hashCount >= 0 ) {
+                final Set<String> hashes = new HashSet<>();
+                for(int i=0;i<hashCount;i++) {
+                    hashes.add(in.readUTF());
+                }
+                state.initialHashes = hashes;
+            }
+            final Set<String> recordNames = new HashSet<>();
+            final int pidCount = in.readInt();
+            for(int i=0;i<pidCount;i++) {
+                final String pid = in.readUTF();
+                final File recordFile = version == 1 ? getLegacyRecordFile(dir, pid) : getRecordFile(dir, pid);
+                try ( final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(recordFile))) ) {
+                    state.getConfigurations().put(pid, (ConfigList) ois.readObject());
+                }
+                recordNames.add(recordFile.getName());
+            }
+            if ( version == 1 ) {
+                // rewrite all records with their new names
+                state.changed = true;
+                state.changedPids.addAll(state.getPids());
+            }
+
+            // records not in the index are left over from removed pids or failed writes
+            final File[] files = dir.listFiles();
+            if ( files != null ) {
+                for(final File f : files) {
+                    if ( f.getName().endsWith(RECORD_SUFFIX) && !recordNames.contains(f.getName()) ) {
+                        f.delete();
+                    }
+                }
+            }
         }
+        return state;
     }
 
-    public static void writeState(final File f, final State state)
+    /**
+     * Write the changes of the state to the directory. The records of the
+     * changed pids are written first and the index last, each by replacing
+     * the file, so a failure leaves the previous state readable.
+     * @param dir The directory or {@code null}
+     * @param state The state
+     * @throws IOException If writing fails
+     */
+    public static void writeState(final File dir, final State state)
     throws IOException {
-        if ( f == null ) {
+        if ( dir == null ) {
             // do nothing, no file system support
             return;
         }
-        try ( final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f)) ) {
-            oos.writeObject(state);
+        if ( !state.changed && state.changedPids.isEmpty() ) {
+            return;
+        }
+        if ( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        for(final String pid : state.changedPids) {
+            final ConfigList list = state.getConfigurations(pid);
+            final File recordFile = getRecordFile(dir, pid);
+            if ( list == null ) {
+                recordFile.delete();
+                continue;
+            }
+            final File tmpFile = new File(dir, recordFile.getName() + ".tmp");
+            try ( final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))) ) {
+                oos.writeObject(list);
+            }
+            Files.move(tmpFile.toPath(), recordFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final File tmpFile = new File(dir, INDEX_FILE_NAME + ".tmp");
+        try ( final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))) ) {
+            out.writeInt(INDEX_VERSION);
+            writeMap(out, state.bundlesLastModified);
+            writeMap(out, state.bundlesConfigAdminBundleId);
+            final Set<String> hashes = state.initialHashes;
+            if ( hashes == null ) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(hashes.size());
+                for(final String hash : hashes) {
+                    out.writeUTF(hash);
+                }
+            }
+            out.writeInt(state.getPids().size());
+            for(final String pid : state.getPids()) {
+                out.writeUTF(pid);
+            }
+        }
+        Files.move(tmpFile.toPath(), new File(dir, INDEX_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        state.changed = false;
+        state.changedPids.clear();
+
+        // the state of previous versions is not needed anymore
+        new File(dir.getParentFile(), FILE_NAME).delete();
+    }
+
+    static File getRecordFile(final File dir, final String pid) throws IOException {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(pid.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for(final byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(dir, sb.append(RECORD_SUFFIX).toString());
+        } catch ( final NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae);
         }
     }
 
+    private static File getLegacyRecordFile(final File dir, final String pid) throws IOException {
+        return new File(dir, URLEncoder.encode(pid, "UTF-8").concat(RECORD_SUFFIX));
+    }
+
+    private static void readMap(final DataInputStream in, final Map<Long, Long> map) throws IOException {
+        final int size = in.readInt();
+        for(int i=0;i<size;i++) {
+            final long key = in.readLong();
+            map.put(key, in.readLong());
+        }
+    }
+
+    private static void writeMap(final DataOutputStream out, final Map<Long, Long> map) throws IOException {
+        out.writeInt(map.size());
+        for(final Map.Entry<Long, Long> entry : map.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * Mark the configurations of a pid as changed, so they are written
+     * the next time the state is written.
+     * @param pid The pid
+     */
+    public void setChanged(final String pid) {
+        this.changedPids.add(pid);
+    }
+
     public Long getLastModified(final long bundleId) {
         return this.bundlesLastModified.get(bundleId);
     }
 
     public void setLastModified(final long bundleId, final long lastModified) {
         this.bundlesLastModified.put(bundleId, lastModified);
+        this.changed = true;
     }
 
     public void removeLastModified(final long bundleId) {
         this.bundlesLastModified.remove(bundleId);
+        this.changed = true;
     }
 
     public Long getConfigAdminBundleId(final long bundleId) {
@@ -117,10 +314,12 @@ public class State extends AbstractState implements Serializable {
 
     public void setConfigAdminBundleId(final long bundleId, final long lastModified) {
         this.bundlesConfigAdminBundleId.put(bundleId, lastModified);
+        this.changed = true;
     }
 
     public void removeConfigAdminBundleId(final long bundleId) {
         this.bundlesConfigAdminBundleId.remove(bundleId);
+        this.changed = true;
     }
 
     public Set<Long> getKnownBundleIds() {
@@ -133,6 +332,7 @@ public class State extends AbstractState implements Serializable {
 
     public void setInitialHashes(final Set<String> value) {
         this.initialHashes = value;
+        this.changed = true;
     }
 
     /**
@@ -18,8 +18,10 @@
  */
 package org.apache.felix.configurator.impl;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -250,4 +252,28 @@ public class ConfiguratorTest {
         inorder.verify(c2).delete();
         inorder.verifyNoMoreInteractions();
     }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testStartReadsAllBundles() throws Exception {
+        final Bundle b1 = setupBundle(1);
+        final Bundle b2 = setupBundle(2);
+        when(bundleContext.getBundles()).thenReturn(new Bundle[] {b1, b2});
+
+        Configuration c1 = mock(Configuration.class);
+        Configuration c2 = mock(Configuration.class);
+        Configuration c3 = mock(Configuration.class);
+        when(configurationAdmin.getConfiguration("a", "?")).thenReturn(c1);
+        when(configurationAdmin.getConfiguration("b", "?")).thenReturn(c2);
+        when(configurationAdmin.getConfiguration("c", "?")).thenReturn(c3);
+
+        configurator.start();
+        configurator.shutdown();
+
+        // the configurations of both bundles are applied in a single pass
+        verify(c1, times(1)).updateIfDifferent(any(Dictionary.class));
+        verify(c2, times(1)).updateIfDifferent(any(Dictionary.class));
+        final Dictionary<String, Object> props3 = new Hashtable<>();
+        props3.put("c", "1");
+        verify(c3).updateIfDifferent(props3);
+    }
 }
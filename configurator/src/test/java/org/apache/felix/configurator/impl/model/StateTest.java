@@ -19,16 +19,27 @@
 package org.apache.felix.configurator.impl.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Collections;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class StateTest {
 
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
     @Test public void testReadWrite() throws Exception {
         final State state = new State();
 
@@ -68,4 +79,131 @@ public class StateTest {
         assertEquals(1, state.getConfigurations("a").size());
         assertEquals(1, state.getConfigurations("b").size());
     }
+
+    @Test public void testWriteReadDirectory() throws Exception {
+        final File dir = new File(folder.getRoot(), State.DIRECTORY_NAME);
+        final State state = new State();
+        state.add(new Config("a", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.add(new Config("b", null, 2, 10, ConfigPolicy.DEFAULT));
+        state.setChanged("a");
+        state.setChanged("b");
+        state.setLastModified(1, 5);
+        state.setConfigAdminBundleId(1, 3);
+        state.setInitialHashes(Collections.singleton("hash"));
+        State.writeState(dir, state);
+
+        State s = State.createOrReadState(dir);
+        assertEquals(1, s.getConfigurations("a").size());
+        assertEquals(1, s.getConfigurations("b").size());
+        assertEquals(5L, (Object)s.getLastModified(1));
+        assertEquals(3L, (Object)s.getConfigAdminBundleId(1));
+        assertEquals(Collections.singleton("hash"), s.getInitialHashes());
+
+        // only the record of the changed pid is written
+        final File recordB = State.getRecordFile(dir, "b");
+        final long lastModifiedB = recordB.lastModified();
+        recordB.setLastModified(lastModifiedB - 10000);
+        state.add(new Config("a", null, 3, 0, ConfigPolicy.DEFAULT));
+        state.setChanged("a");
+        State.writeState(dir, state);
+        assertEquals(lastModifiedB - 10000, recordB.lastModified());
+
+        s = State.createOrReadState(dir);
+        assertEquals(2, s.getConfigurations("a").size());
+        assertEquals(1, s.getConfigurations("b").size());
+    }
+
+    @Test public void testReadPreviousVersion() throws Exception {
+        final File dir = new File(folder.getRoot(), State.DIRECTORY_NAME);
+        final File legacyFile = new File(folder.getRoot(), State.FILE_NAME);
+        final State state = new State();
+        state.add(new Config("a", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.setLastModified(1, 5);
+        try ( final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacyFile))) {
+            oos.writeObject(state);
+        }
+
+        final State s = State.createOrReadState(dir);
+        assertEquals(1, s.getConfigurations("a").size());
+        assertEquals(5L, (Object)s.getLastModified(1));
+        assertNull(s.getInitialHashes());
+
+        // the state is moved to the directory
+        State.writeState(dir, s);
+        assertFalse(legacyFile.exists());
+        assertTrue(State.getRecordFile(dir, "a").exists());
+        assertEquals(1, State.createOrReadState(dir).getConfigurations("a").size());
+    }
+
+    @Test public void testPidsDifferingInCase() throws Exception {
+        final File dir = new File(folder.getRoot(), State.DIRECTORY_NAME);
+        final State state = new State();
+        state.add(new Config("pid", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.add(new Config("PID", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.add(new Config("PID", null, 2,  0, ConfigPolicy.DEFAULT));
+        state.setChanged("pid");
+        state.setChanged("PID");
+        State.writeState(dir, state);
+
+        assertFalse(State.getRecordFile(dir, "pid").getName().equalsIgnoreCase(State.getRecordFile(dir, "PID").getName()));
+        final State s = State.createOrReadState(dir);
+        assertEquals(1, s.getConfigurations("pid").size());
+        assertEquals(2, s.getConfigurations("PID").size());
+    }
+
+    @Test public void testUnindexedRecordsDeleted() throws Exception {
+        final File dir = new File(folder.getRoot(), State.DIRECTORY_NAME);
+        final State state = new State();
+        state.add(new Config("a", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.add(new Config("b", null, 1,  0, ConfigPolicy.DEFAULT));
+        state.setChanged("a");
+        state.setChanged("b");
+        State.writeState(dir, state);
+
+        // a record written without the index being written afterwards
+        final File orphan = State.getRecordFile(dir, "c");
+        assertTrue(State.getRecordFile(dir, "b").renameTo(orphan));
+        state.setChanged("b");
+        State.writeState(dir, state);
+        assertTrue(orphan.exists());
+
+        final State s = State.createOrReadState(dir);
+        assertEquals(1, s.getConfigurations("a").size());
+        assertEquals(1, s.getConfigurations("b").size());
+        assertNull(s.getConfigurations("c"));
+        assertFalse(orphan.exists());
+        assertTrue(State.getRecordFile(dir, "a").exists());
+        assertTrue(State.getRecordFile(dir, "b").exists());
+    }
+
+    @Test public void testReadIndexVersion1() throws Exception {
+        final File dir = new File(folder.getRoot(), State.DIRECTORY_NAME);
+        dir.mkdirs();
+        final ConfigList list = new ConfigList();
+        list.add(new Config("a/b", null, 1,  0, ConfigPolicy.DEFAULT));
+        final File legacyRecord = new File(dir, "a%2Fb.ser");
+        try ( final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacyRecord))) {
+            oos.writeObject(list);
+        }
+        try ( final DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, "index")))) {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(1);
+            out.writeLong(5);
+            out.writeInt(0);
+            out.writeInt(-1);
+            out.writeInt(1);
+            out.writeUTF("a/b");
+        }
+
+        final State s = State.createOrReadState(dir);
+        assertEquals(1, s.getConfigurations("a/b").size());
+        assertEquals(5L, (Object)s.getLastModified(1));
+
+        // the records are written with their new names
+        State.writeState(dir, s);
+        assertTrue(State.getRecordFile(dir, "a/b").exists());
+        assertEquals(1, State.createOrReadState(dir).getConfigurations("a/b").size());
+        assertFalse(legacyRecord.exists());
+    }
 }
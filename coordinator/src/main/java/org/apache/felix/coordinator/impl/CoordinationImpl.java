@@ -25,8 +25,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
 
+import org.apache.felix.coordinator.impl.TimeoutScheduler.Timeout;
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
 import org.osgi.service.coordinator.CoordinationException;
@@ -74,7 +74,7 @@ public class CoordinationImpl implements Coordination
 
     private final Map<Class<?>, Object> variables;
 
-    private TimerTask timeoutTask;
+    private Timeout timeoutTask;
 
     private Thread associatedThread;
 
@@ -506,22 +506,20 @@ public class CoordinationImpl implements Coordination
     {
         if (timeoutTask != null)
         {
-            owner.schedule(timeoutTask, -1);
+            timeoutTask.cancel();
             timeoutTask = null;
         }
 
         if (deadLine > System.currentTimeMillis())
         {
-            timeoutTask = new TimerTask()
+            timeoutTask = owner.schedule(new Runnable()
             {
                 @Override
                 public void run()
                 {
                     CoordinationImpl.this.timeout();
                 }
-            };
-
-            owner.schedule(timeoutTask, deadLine);
+            }, deadLine);
         }
     }
 
@@ -20,17 +20,15 @@ package org.apache.felix.coordinator.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.felix.coordinator.impl.TimeoutScheduler.Timeout;
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
 import org.osgi.service.coordinator.CoordinationException;
@@ -48,15 +46,55 @@ public class CoordinationMgr
         public CoordinationHolder holder;
     }
 
-    private ThreadLocal<Stack<CoordinationImpl>> perThreadStack;
+    /**
+     * Key for the participants map comparing participants by identity.
+     */
+    private static final class ParticipantKey
+    {
+        private final Participant participant;
+
+        ParticipantKey(final Participant participant)
+        {
+            this.participant = participant;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(participant);
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            return obj instanceof ParticipantKey && ((ParticipantKey) obj).participant == participant;
+        }
+    }
+
+    /**
+     * The stack of coordinations pushed in a thread. The list is only ever
+     * accessed by its thread and therefore not synchronized.
+     */
+    private ThreadLocal<ArrayList<CoordinationImpl>> perThreadStack;
 
     private final AtomicLong ctr;
 
-    private final Map<Long, CoordinationImpl> coordinations;
+    private final ConcurrentMap<Long, CoordinationImpl> coordinations;
 
-    private final Map<Participant, CoordinationImpl> participants;
+    private final ConcurrentMap<ParticipantKey, CoordinationImpl> participants;
 
-    private final Timer coordinationTimer;
+    /**
+     * Monitor for threads waiting for a participant to be released.
+     */
+    private final Object participantLock = new Object();
+
+    /**
+     * Number of threads waiting for a participant to be released, so
+     * releasing does not need to notify if nobody is waiting.
+     */
+    private final AtomicInteger participantWaiters = new AtomicInteger();
+
+    private final TimeoutScheduler coordinationTimer;
 
     /**
      * Wait at most 60 seconds for participant to be eligible for participation
@@ -68,25 +106,21 @@ public class CoordinationMgr
 
     CoordinationMgr()
     {
-        perThreadStack = new ThreadLocal<Stack<CoordinationImpl>>();
+        perThreadStack = new ThreadLocal<ArrayList<CoordinationImpl>>();
         ctr = new AtomicLong(-1);
-        coordinations = new HashMap<Long, CoordinationImpl>();
-        participants = new IdentityHashMap<Participant, CoordinationImpl>();
-        coordinationTimer = new Timer("Coordination Timer", true);
+        coordinations = new ConcurrentHashMap<Long, CoordinationImpl>();
+        participants = new ConcurrentHashMap<ParticipantKey, CoordinationImpl>();
+        coordinationTimer = new TimeoutScheduler("Coordination Timer");
     }
 
     void cleanUp()
     {
         // terminate coordination timeout timer
-        coordinationTimer.purge();
-        coordinationTimer.cancel();
+        coordinationTimer.stop();
 
         // terminate all active coordinations
-        final List<CoordinationImpl> coords = new ArrayList<CoordinationImpl>();
-        synchronized ( this.coordinations ) {
-            coords.addAll(this.coordinations.values());
-            this.coordinations.clear();
-        }
+        final List<CoordinationImpl> coords = new ArrayList<CoordinationImpl>(this.coordinations.values());
+        this.coordinations.clear();
         for(final CoordinationImpl c : coords)
         {
             if ( !c.isTerminated() )
@@ -96,24 +130,25 @@ public class CoordinationMgr
         }
 
         // release all participants
-        synchronized ( this.participants )
+        participants.clear();
+        synchronized ( participantLock )
         {
-            participants.clear();
+            participantLock.notifyAll();
         }
 
         // cannot really clear out the thread local but we can let it go
         perThreadStack = null;
     }
 
-    private Stack<CoordinationImpl> getThreadStack(final boolean create)
+    private ArrayList<CoordinationImpl> getThreadStack(final boolean create)
     {
-        final ThreadLocal<Stack<CoordinationImpl>> tl = this.perThreadStack;
-        Stack<CoordinationImpl> stack = null;
+        final ThreadLocal<ArrayList<CoordinationImpl>> tl = this.perThreadStack;
+        ArrayList<CoordinationImpl> stack = null;
         if ( tl != null )
         {
             stack = tl.get();
             if ( stack == null && create ) {
-                stack = new Stack<CoordinationImpl>();
+                stack = new ArrayList<CoordinationImpl>(4);
                 tl.set(stack);
             }
         }
@@ -125,71 +160,82 @@ public class CoordinationMgr
         this.participationTimeOut = participationTimeout;
     }
 
-    void schedule(final TimerTask task, final long deadLine)
+    Timeout schedule(final Runnable task, final long deadLine)
     {
-        if (deadLine < 0)
-        {
-            task.cancel();
-        }
-        else
-        {
-            coordinationTimer.schedule(task, new Date(deadLine));
-        }
+        return coordinationTimer.schedule(task, deadLine);
     }
 
     void lockParticipant(final Participant p, final CoordinationImpl c)
     {
-        synchronized (participants)
+        final ParticipantKey key = new ParticipantKey(p);
+
+        // fast path: participant not participating in any coordination
+        CoordinationImpl current = participants.putIfAbsent(key, c);
+        if (current == null || current == c)
         {
-            // wait for participant to be released
-            long completeWaitTime = participationTimeOut;
-            long cutOff = System.currentTimeMillis() + completeWaitTime;
+            return;
+        }
 
-            CoordinationImpl current = participants.get(p);
-            while (current != null && current != c)
+        synchronized (participantLock)
+        {
+            participantWaiters.incrementAndGet();
+            try
             {
-                final long waitTime = (completeWaitTime > 500) ? 500 : completeWaitTime;
-                completeWaitTime = completeWaitTime - waitTime;
-                if (current.getThread() != null && current.getThread() == c.getThread())
-                {
-                    throw new CoordinationException("Participant " + p + " already participating in Coordination "
-                        + current.getId() + "/" + current.getName() + " in this thread", c,
-                        CoordinationException.DEADLOCK_DETECTED);
-                }
+                // wait for participant to be released
+                long completeWaitTime = participationTimeOut;
+                long cutOff = System.currentTimeMillis() + completeWaitTime;
 
-                try
-                {
-                    participants.wait(waitTime);
-                }
-                catch (InterruptedException ie)
+                // check again, the participant may have been released meanwhile
+                current = participants.putIfAbsent(key, c);
+                while (current != null && current != c)
                 {
-                    throw new CoordinationException("Interrupted waiting to add Participant " + p
-                        + " currently participating in Coordination " + current.getId() + "/" + current.getName()
-                        + " in this thread", c, CoordinationException.LOCK_INTERRUPTED);
+                    final long waitTime = (completeWaitTime > 500) ? 500 : completeWaitTime;
+                    completeWaitTime = completeWaitTime - waitTime;
+                    if (current.getThread() != null && current.getThread() == c.getThread())
+                    {
+                        throw new CoordinationException("Participant " + p + " already participating in Coordination "
+                            + current.getId() + "/" + current.getName() + " in this thread", c,
+                            CoordinationException.DEADLOCK_DETECTED);
+                    }
+
+                    try
+                    {
+                        participantLock.wait(waitTime);
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        throw new CoordinationException("Interrupted waiting to add Participant " + p
+                            + " currently participating in Coordination " + current.getId() + "/" + current.getName()
+                            + " in this thread", c, CoordinationException.LOCK_INTERRUPTED);
+                    }
+
+                    // timeout waiting for participation
+                    if (System.currentTimeMillis() >= cutOff)
+                    {
+                        throw new CoordinationException("Timed out waiting to join coordinaton", c,
+                            CoordinationException.FAILED, Coordination.TIMEOUT);
+                    }
+
+                    // check again and lock participant into coordination
+                    current = participants.putIfAbsent(key, c);
                 }
-
-                // timeout waiting for participation
-                if (System.currentTimeMillis() >= cutOff)
-                {
-                    throw new CoordinationException("Timed out waiting to join coordinaton", c,
-                        CoordinationException.FAILED, Coordination.TIMEOUT);
-                }
-
-                // check again
-                current = participants.get(p);
             }
-
-            // lock participant into coordination
-            participants.put(p, c);
+            finally
+            {
+                participantWaiters.decrementAndGet();
+            }
         }
     }
 
     void releaseParticipant(final Participant p)
     {
-        synchronized (participants)
+        participants.remove(new ParticipantKey(p));
+        if (participantWaiters.get() > 0)
         {
-            participants.remove(p);
-            participants.notifyAll();
+            synchronized (participantLock)
+            {
+                participantLock.notifyAll();
+            }
         }
     }
 
@@ -199,22 +245,16 @@ public class CoordinationMgr
     {
         final long id = ctr.incrementAndGet();
         final CreationResult result = CoordinationImpl.create(owner, id, name, timeout);
-        synchronized ( this.coordinations )
-        {
-            coordinations.put(id, result.coordination);
-        }
+        coordinations.put(id, result.coordination);
         return result;
     }
 
     void unregister(final CoordinationImpl c, final boolean removeFromThread)
     {
-        synchronized ( this.coordinations )
-        {
-            coordinations.remove(c.getId());
-        }
+        coordinations.remove(c.getId());
         if ( removeFromThread )
         {
-            final Stack<CoordinationImpl> stack = this.getThreadStack(false);
+            final ArrayList<CoordinationImpl> stack = this.getThreadStack(false);
             if (stack != null)
             {
                 stack.remove(c);
@@ -224,7 +264,7 @@ public class CoordinationMgr
 
     void push(final CoordinationImpl c)
     {
-        Stack<CoordinationImpl> stack = this.getThreadStack(true);
+        final ArrayList<CoordinationImpl> stack = this.getThreadStack(true);
         if ( stack != null)
         {
             if ( stack.contains(c) )
@@ -232,16 +272,16 @@ public class CoordinationMgr
                 throw new CoordinationException("Coordination already pushed", c, CoordinationException.ALREADY_PUSHED);
             }
             c.setAssociatedThread(Thread.currentThread());
-            stack.push(c);
+            stack.add(c);
         }
     }
 
     Coordination pop()
     {
-        final Stack<CoordinationImpl> stack = this.getThreadStack(false);
+        final ArrayList<CoordinationImpl> stack = this.getThreadStack(false);
         if (stack != null && !stack.isEmpty())
         {
-            final CoordinationImpl c = stack.pop();
+            final CoordinationImpl c = stack.remove(stack.size() - 1);
             if ( c != null ) {
                 c.setAssociatedThread(null);
             }
@@ -252,10 +292,10 @@ public class CoordinationMgr
 
     Coordination peek()
     {
-        final Stack<CoordinationImpl> stack = this.getThreadStack(false);
+        final ArrayList<CoordinationImpl> stack = this.getThreadStack(false);
         if (stack != null && !stack.isEmpty())
         {
-            return stack.peek();
+            return stack.get(stack.size() - 1);
         }
         return null;
     }
@@ -263,34 +303,28 @@ public class CoordinationMgr
     Collection<Coordination> getCoordinations()
     {
         final ArrayList<Coordination> result = new ArrayList<Coordination>();
-        synchronized ( this.coordinations )
+        for(final CoordinationImpl c : this.coordinations.values() )
         {
-            for(final CoordinationImpl c : this.coordinations.values() )
-            {
-                result.add(c.getHolder());
-            }
+            result.add(c.getHolder());
         }
         return result;
     }
 
     Coordination getCoordinationById(final long id)
     {
-        synchronized ( this.coordinations )
-        {
-            final CoordinationImpl c = coordinations.get(id);
-            return (c == null || c.isTerminated()) ? null : c;
-        }
+        final CoordinationImpl c = coordinations.get(id);
+        return (c == null || c.isTerminated()) ? null : c;
     }
 
 	public Coordination getEnclosingCoordination(final CoordinationImpl c)
 	{
-        final Stack<CoordinationImpl> stack = this.getThreadStack(false);
+        final ArrayList<CoordinationImpl> stack = this.getThreadStack(false);
         if ( stack != null )
         {
         	final int index = stack.indexOf(c);
         	if ( index > 0 )
         	{
-        		return stack.elementAt(index - 1);
+        		return stack.get(index - 1);
         	}
         }
 		return null;
@@ -299,7 +333,7 @@ public class CoordinationMgr
 	public CoordinationException endNestedCoordinations(final CoordinationImpl c)
 	{
 	    CoordinationException partiallyFailed = null;
-        final Stack<CoordinationImpl> stack = this.getThreadStack(false);
+        final ArrayList<CoordinationImpl> stack = this.getThreadStack(false);
         if ( stack != null )
         {
         	final int index = stack.indexOf(c) + 1;
@@ -308,7 +342,7 @@ public class CoordinationMgr
         		final int count = stack.size()-index;
         		for(int i=0;i<count;i++)
         		{
-        			final CoordinationImpl nested = stack.pop();
+        			final CoordinationImpl nested = stack.remove(stack.size() - 1);
         			try
         			{
         			    if ( partiallyFailed != null)
@@ -333,17 +367,14 @@ public class CoordinationMgr
 	 */
     public void dispose(final Bundle owner) {
         final List<CoordinationImpl> candidates = new ArrayList<CoordinationImpl>();
-        synchronized ( this.coordinations )
+        final Iterator<Map.Entry<Long, CoordinationImpl>> iter = this.coordinations.entrySet().iterator();
+        while ( iter.hasNext() )
         {
-            final Iterator<Map.Entry<Long, CoordinationImpl>> iter = this.coordinations.entrySet().iterator();
-            while ( iter.hasNext() )
+            final Map.Entry<Long, CoordinationImpl> entry = iter.next();
+            final CoordinationImpl c = entry.getValue();
+            if ( c.getBundle().getBundleId() == owner.getBundleId() )
             {
-                final Map.Entry<Long, CoordinationImpl> entry = iter.next();
-                final CoordinationImpl c = entry.getValue();
-                if ( c.getBundle().getBundleId() == owner.getBundleId() )
-                {
-                    candidates.add(c);
-                }
+                candidates.add(c);
             }
         }
         if ( candidates.size() > 0 )
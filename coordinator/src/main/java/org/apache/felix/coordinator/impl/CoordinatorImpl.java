@@ -21,8 +21,8 @@ package org.apache.felix.coordinator.impl;
 import java.security.Permission;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.TimerTask;
 
+import org.apache.felix.coordinator.impl.TimeoutScheduler.Timeout;
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
 import org.osgi.service.coordinator.CoordinationException;
@@ -281,9 +281,9 @@ public class CoordinatorImpl implements Coordinator
         mgr.unregister(c, removeFromStack);
     }
 
-    void schedule(final TimerTask task, final long deadLine)
+    Timeout schedule(final Runnable task, final long deadLine)
     {
-        mgr.schedule(task, deadLine);
+        return mgr.schedule(task, deadLine);
     }
 
     void lockParticipant(final Participant p, final CoordinationImpl c)
@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The <code>TimeoutScheduler</code> is a hashed timing wheel used to time out
+ * coordinations.
+ * <p>
+ * Scheduling and cancelling a timeout only enqueue the request, they are
+ * applied to the wheel by the timer thread upon its next tick. A timeout
+ * cancelled before it has been added to the wheel is just dropped by the
+ * timer thread. Timeouts are therefore fired with a precision of one tick. The timer thread is started
+ * on the first timeout and only ticks while timeouts are pending.
+ */
+public class TimeoutScheduler
+{
+    /** Timeout handle as returned by {@link TimeoutScheduler#schedule(Runnable, long)}. */
+    public static final class Timeout
+    {
+        private static final int ST_PENDING = 0;
+        private static final int ST_SCHEDULED = 1;
+        private static final int ST_CANCELLED = 2;
+        private static final int ST_EXPIRED = 3;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimeoutScheduler scheduler;
+
+        private final Runnable task;
+
+        private final long deadLineNanos;
+
+        private volatile int state = ST_PENDING;
+
+        /** The number of full wheel rounds remaining, only accessed by the timer thread. */
+        long remainingRounds;
+
+        /** The bucket this timeout is linked into, only accessed by the timer thread. */
+        Bucket bucket;
+
+        Timeout next;
+
+        Timeout prev;
+
+        Timeout(final TimeoutScheduler scheduler, final Runnable task, final long deadLineNanos)
+        {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.deadLineNanos = deadLineNanos;
+        }
+
+        /**
+         * Cancels this timeout if it has not fired yet.
+         *
+         * @return <code>true</code> if the timeout has been cancelled.
+         */
+        public boolean cancel()
+        {
+            while ( true )
+            {
+                final int current = state;
+                if ( current == ST_PENDING )
+                {
+                    if ( STATE.compareAndSet(this, ST_PENDING, ST_CANCELLED) )
+                    {
+                        // not on the wheel yet, dropped upon transfer
+                        return true;
+                    }
+                }
+                else if ( current == ST_SCHEDULED )
+                {
+                    if ( STATE.compareAndSet(this, ST_SCHEDULED, ST_CANCELLED) )
+                    {
+                        scheduler.cancelled.add(this);
+                        return true;
+                    }
+                }
+                else
+                {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Marks this timeout as added to the wheel.
+         *
+         * @return <code>false</code> if this timeout has been cancelled.
+         */
+        boolean schedule()
+        {
+            return STATE.compareAndSet(this, ST_PENDING, ST_SCHEDULED);
+        }
+
+        void expire()
+        {
+            if ( STATE.compareAndSet(this, ST_SCHEDULED, ST_EXPIRED) )
+            {
+                try
+                {
+                    task.run();
+                }
+                catch ( final Throwable t )
+                {
+                    LogWrapper.getLogger().log(LogWrapper.LOG_ERROR, "Unexpected problem running coordination timeout", t);
+                }
+            }
+        }
+    }
+
+    /** Doubly linked list of timeouts, only accessed by the timer thread. */
+    private static final class Bucket
+    {
+        private Timeout head;
+
+        private Timeout tail;
+
+        void add(final Timeout timeout)
+        {
+            timeout.bucket = this;
+            if ( head == null )
+            {
+                head = tail = timeout;
+            }
+            else
+            {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(final Timeout timeout)
+        {
+            final Timeout next = timeout.next;
+            if ( timeout.prev != null )
+            {
+                timeout.prev.next = next;
+            }
+            if ( timeout.next != null )
+            {
+                timeout.next.prev = timeout.prev;
+            }
+            if ( timeout == head )
+            {
+                head = next;
+            }
+            if ( timeout == tail )
+            {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        int expire()
+        {
+            int count = 0;
+            Timeout timeout = head;
+            while ( timeout != null )
+            {
+                if ( timeout.remainingRounds <= 0 )
+                {
+                    final Timeout next = remove(timeout);
+                    timeout.expire();
+                    count++;
+                    timeout = next;
+                }
+                else
+                {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+            return count;
+        }
+    }
+
+    /** Default duration of a tick in milliseconds. */
+    private static final long DEFAULT_TICK_MS = 10;
+
+    /** Default number of buckets, must be a power of two. */
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final long tickNanos;
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+
+    /** Number of timeouts scheduled and neither fired nor cancelled. */
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final String threadName;
+
+    private volatile boolean running = true;
+
+    private Thread timerThread;
+
+    private long startTime;
+
+    private long tick;
+
+    public TimeoutScheduler(final String threadName)
+    {
+        this(threadName, DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+    }
+
+    TimeoutScheduler(final String threadName, final long tickMs, final int wheelSize)
+    {
+        if ( Integer.bitCount(wheelSize) != 1 )
+        {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.threadName = threadName;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.wheel = new Bucket[wheelSize];
+        for ( int i = 0; i < wheel.length; i++ )
+        {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedules the task to run at the given time.
+     *
+     * @param task The task to run
+     * @param deadLine The time in milliseconds since the epoch to run the task at
+     * @return The handle to cancel the timeout or <code>null</code> if this
+     *         scheduler has been stopped.
+     */
+    public Timeout schedule(final Runnable task, final long deadLine)
+    {
+        if ( !running )
+        {
+            return null;
+        }
+        final long delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadLine - System.currentTimeMillis()));
+        final Timeout timeout = new Timeout(this, task, System.nanoTime() + delayNanos);
+        pending.add(timeout);
+        if ( active.getAndIncrement() == 0 )
+        {
+            wakeUp();
+        }
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Pending timeouts will not fire any more.
+     */
+    public void stop()
+    {
+        final Thread t;
+        synchronized ( this )
+        {
+            running = false;
+            t = timerThread;
+            timerThread = null;
+            notifyAll();
+        }
+        if ( t != null && t != Thread.currentThread() )
+        {
+            t.interrupt();
+        }
+        pending.clear();
+        cancelled.clear();
+    }
+
+    private synchronized void wakeUp()
+    {
+        if ( !running )
+        {
+            return;
+        }
+        if ( timerThread == null )
+        {
+            startTime = System.nanoTime();
+            tick = 0;
+            timerThread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    TimeoutScheduler.this.run();
+                }
+            }, threadName);
+            timerThread.setDaemon(true);
+            timerThread.start();
+        }
+        else
+        {
+            notifyAll();
+        }
+    }
+
+    private void run()
+    {
+        while ( running )
+        {
+            if ( !waitForNextTick() )
+            {
+                return;
+            }
+
+            transferCancelled();
+            transferPending();
+
+            final int expired = wheel[(int) (tick & mask)].expire();
+            if ( expired > 0 )
+            {
+                active.addAndGet(-expired);
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Waits for the next tick, or for a timeout to be scheduled if none is
+     * currently active.
+     *
+     * @return <code>false</code> if the scheduler has been stopped.
+     */
+    private boolean waitForNextTick()
+    {
+        try
+        {
+            synchronized ( this )
+            {
+                if ( active.get() == 0 )
+                {
+                    while ( running && active.get() == 0 )
+                    {
+                        wait();
+                    }
+                    // the wheel was idle, continue from the current time
+                    tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos);
+                }
+            }
+
+            final long deadLine = startTime + (tick + 1) * tickNanos;
+            long sleepNanos = deadLine - System.nanoTime();
+            while ( running && sleepNanos > 0 )
+            {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                sleepNanos = deadLine - System.nanoTime();
+            }
+        }
+        catch ( final InterruptedException ie )
+        {
+            // stopped
+        }
+        return running;
+    }
+
+    private void transferPending()
+    {
+        Timeout timeout;
+        while ( (timeout = pending.poll()) != null )
+        {
+            if ( !timeout.schedule() )
+            {
+                active.decrementAndGet();
+                continue;
+            }
+            final long calculated = (timeout.deadLineNanos - startTime) / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            final long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void transferCancelled()
+    {
+        Timeout timeout;
+        while ( (timeout = cancelled.poll()) != null )
+        {
+            if ( timeout.bucket != null )
+            {
+                timeout.bucket.remove(timeout);
+            }
+            active.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the {@link TimeoutScheduler} with the <code>java.util.Timer</code>
+ * previously used to time out coordinations. Most coordinations end before
+ * their timeout, so each operation schedules a timeout and cancels it again.
+ * This is not run as part of the build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.coordinator.impl.TimeoutSchedulerBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class TimeoutSchedulerBenchmark
+{
+    private static final long TIMEOUT = 30000;
+
+    static volatile Object sink;
+
+    interface Scheduler
+    {
+        Object schedule(Runnable task, long deadLine);
+
+        void cancel(Object timeout);
+
+        void stop();
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("%-12s %8s %12s", "scheduler", "threads", "ns/op"));
+        for ( final int n : threads > 1 ? new int[] { 1, threads } : new int[] { 1 } )
+        {
+            for ( int round = 0; round < 2; round++ )
+            {
+                final boolean warmup = round == 0;
+                report("Timer", n, warmup, run(timer(), n, iterations));
+                report("wheel", n, warmup, run(wheel(), n, iterations));
+            }
+        }
+    }
+
+    private static void report(final String name, final int threads, final boolean warmup, final double nanos)
+    {
+        if ( !warmup )
+        {
+            System.out.println(String.format("%-12s %8d %12.1f", name, threads, nanos));
+        }
+    }
+
+    /**
+     * @return the time per schedule and cancel in nanoseconds.
+     */
+    private static double run(final Scheduler scheduler, final int threads, final int iterations) throws Exception
+    {
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sink = this;
+            }
+        };
+        final int perThread = iterations / threads;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for ( int t = 0; t < threads; t++ )
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for ( int i = 0; i < perThread; i++ )
+                        {
+                            final Object timeout = scheduler.schedule(task, System.currentTimeMillis() + TIMEOUT);
+                            scheduler.cancel(timeout);
+                        }
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long time = System.nanoTime() - begin;
+        scheduler.stop();
+        return (double) time / (perThread * threads);
+    }
+
+    private static Scheduler timer()
+    {
+        final Timer timer = new Timer("Coordination Timer", true);
+        return new Scheduler()
+        {
+            @Override
+            public Object schedule(final Runnable task, final long deadLine)
+            {
+                final TimerTask timerTask = new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        task.run();
+                    }
+                };
+                timer.schedule(timerTask, new Date(deadLine));
+                return timerTask;
+            }
+
+            @Override
+            public void cancel(final Object timeout)
+            {
+                ((TimerTask) timeout).cancel();
+            }
+
+            @Override
+            public void stop()
+            {
+                timer.purge();
+                timer.cancel();
+            }
+        };
+    }
+
+    private static Scheduler wheel()
+    {
+        final TimeoutScheduler scheduler = new TimeoutScheduler("Coordination Timer");
+        return new Scheduler()
+        {
+            @Override
+            public Object schedule(final Runnable task, final long deadLine)
+            {
+                return scheduler.schedule(task, deadLine);
+            }
+
+            @Override
+            public void cancel(final Object timeout)
+            {
+                ((TimeoutScheduler.Timeout) timeout).cancel();
+            }
+
+            @Override
+            public void stop()
+            {
+                scheduler.stop();
+            }
+        };
+    }
+}
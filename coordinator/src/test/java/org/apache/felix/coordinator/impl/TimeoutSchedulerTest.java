@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TimeoutSchedulerTest extends TestCase
+{
+
+    private TimeoutScheduler scheduler;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        // small wheel to have timeouts spanning several rounds
+        scheduler = new TimeoutScheduler("Test Timer", 5, 8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        scheduler.stop();
+
+        super.tearDown();
+    }
+
+    public void test_timeout() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+
+        final long start = System.currentTimeMillis();
+        scheduler.schedule(task, start);
+        scheduler.schedule(task, start + 20);
+        scheduler.schedule(task, start + 150);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    public void test_cancel() throws Exception
+    {
+        final AtomicInteger fired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final TimeoutScheduler.Timeout timeout = scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fired.incrementAndGet();
+            }
+        }, System.currentTimeMillis() + 50);
+        scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        }, System.currentTimeMillis() + 100);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, fired.get());
+    }
+
+    public void test_stop()
+    {
+        scheduler.stop();
+        assertNull(scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fail("Must not run");
+            }
+        }, System.currentTimeMillis()));
+    }
+}
@@ -23,17 +23,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.felix.das.util.DriverIndex;
 import org.apache.felix.das.util.DriverLoader;
 import org.apache.felix.das.util.DriverMatcher;
 import org.apache.felix.das.util.Util;
@@ -65,6 +69,12 @@ public class DeviceManager implements Log
 
     private final long DEFAULT_TIMEOUT_SEC = 1;
 
+    /**
+     * framework property for the number of devices that are attached in parallel,
+     * defaults to the number of processors, at most 4.
+     */
+    public static final String ATTACH_THREADS_PROPERTY = "org.apache.felix.das.attach.threads";
+
     // the logger
     private volatile LogService m_log;
 
@@ -83,9 +93,31 @@ public class DeviceManager implements Log
     // the drivers
     private Map<ServiceReference, DriverAttributes> m_drivers;
 
+    // the drivers by device category
+    private DriverIndex m_driverIndex;
+
+    // the devices being attached, mapped to whether they have to be attached again
+    private final Map<ServiceReference, Boolean> m_attaching = new HashMap<ServiceReference, Boolean>();
+
+    // whether idle drivers are being uninstalled, guarded by m_attaching
+    private boolean m_uninstalling;
+
+    // whether idle drivers have to be uninstalled once no device is attached, guarded by m_attaching
+    private boolean m_uninstallPending;
+
+    // held while drivers loaded from the locators are in use
+    private final ReentrantLock m_driverLoadLock = new ReentrantLock();
+
+    // the locations of the driver bundles loaded by the attach holding m_driverLoadLock,
+    // which might unload them once it is done
+    private final Set<String> m_loadingLocations = Collections.synchronizedSet( new HashSet<String>() );
+
     // performs all the background actions
     private ExecutorService m_worker;
 
+    // attaches the devices
+    private ExecutorService m_attacher;
+
     // used to add delayed actions
     private ScheduledExecutorService m_delayed;
 
@@ -143,6 +175,8 @@ public class DeviceManager implements Log
     {
         m_locators = Collections.synchronizedList( new ArrayList<DriverLocator>() );
         m_worker = Executors.newSingleThreadExecutor( new NamedThreadFactory( "Apache Felix Device Manager" ) );
+        m_attacher = Executors.newFixedThreadPool( getAttachThreads(), new NamedThreadFactory(
+            "Apache Felix Device Manager - attach" ) );
         m_delayed = Executors.newScheduledThreadPool( 1, new NamedThreadFactory(
             "Apache Felix Device Manager - delayed" ) );
         m_deviceImplFilter = Util.createFilter( "(%s=%s)", new Object[]
@@ -152,11 +186,32 @@ public class DeviceManager implements Log
     }
 
 
+    private int getAttachThreads()
+    {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        int threads = Math.min( processors, 4 );
+        final String value = m_context.getProperty( ATTACH_THREADS_PROPERTY );
+        if ( value != null )
+        {
+            try
+            {
+                threads = Integer.parseInt( value.trim() );
+            }
+            catch ( NumberFormatException e )
+            {
+                // keep the default
+            }
+        }
+        return Math.max( threads, 1 );
+    }
+
+
     @SuppressWarnings("unused")
     private void start()
     {
-        m_drivers = new HashMap<ServiceReference, DriverAttributes>();
-        m_devices = new HashMap<ServiceReference, Object>();
+        m_drivers = new ConcurrentHashMap<ServiceReference, DriverAttributes>();
+        m_driverIndex = new DriverIndex();
+        m_devices = new ConcurrentHashMap<ServiceReference, Object>();
         submit( new WaitForStartFramework() );
     }
 
@@ -170,6 +225,7 @@ public class DeviceManager implements Log
     public void destroy()
     {
         m_worker.shutdownNow();
+        m_attacher.shutdownNow();
         m_delayed.shutdownNow();
     }
 
@@ -206,7 +262,9 @@ public class DeviceManager implements Log
     public void driverAdded( ServiceReference ref, Object obj )
     {
         final Driver driver = Driver.class.cast( obj );
-        m_drivers.put( ref, new DriverAttributes( ref, driver ) );
+        final DriverAttributes da = new DriverAttributes( ref, driver );
+        m_drivers.put( ref, da );
+        m_driverIndex.add( da );
 
         debug( "driver appeared: " + Util.showDriver( ref ) );
         
@@ -219,8 +277,10 @@ public class DeviceManager implements Log
         final Driver driver = Driver.class.cast( obj );
         
         debug( "driver modified: " + Util.showDriver( ref ) );
-        m_drivers.remove( ref );
-        m_drivers.put( ref , new DriverAttributes( ref, driver ) );
+        // a new instance picks up the modified device categories
+        final DriverAttributes da = new DriverAttributes( ref, driver );
+        m_drivers.put( ref, da );
+        m_driverIndex.add( da );
 
         // check if devices have become idle
         // after some time
@@ -231,6 +291,7 @@ public class DeviceManager implements Log
     {
         debug( "driver lost: " + Util.showDriver( ref ) );
         m_drivers.remove( ref );
+        m_driverIndex.remove( ref );
 
         // check if devices have become idle
         // after some time
@@ -243,7 +304,7 @@ public class DeviceManager implements Log
     {
         m_devices.put( ref, device );
         debug( "device appeared: " + Util.showDevice( ref ) );
-        submit( new DriverAttachAlgorithm( ref, device ) );
+        submit( new AttachDevice( ref, device ) );
     }
 
 
@@ -278,6 +339,105 @@ public class DeviceManager implements Log
     }
 
 
+    /**
+     * attach the device on the attach threads. If the device is being attached
+     * already, it will be attached again once that is done.
+     * 
+     * @param ref the device reference
+     * @param device the device
+     */
+    private void attach( ServiceReference ref, Object device )
+    {
+        synchronized ( m_attaching )
+        {
+            if ( m_attaching.containsKey( ref ) )
+            {
+                m_attaching.put( ref, Boolean.TRUE );
+                return;
+            }
+            m_attaching.put( ref, Boolean.FALSE );
+        }
+        m_attacher.submit( new LoggedCall( new DriverAttachAlgorithm( ref, device ) ) );
+    }
+
+
+    private void attachDone( ServiceReference ref )
+    {
+        final Object device = m_devices.get( ref );
+        boolean again = false;
+        boolean uninstall = false;
+        synchronized ( m_attaching )
+        {
+            if ( Boolean.TRUE.equals( m_attaching.get( ref ) ) && device != null )
+            {
+                m_attaching.put( ref, Boolean.FALSE );
+                again = true;
+            }
+            else
+            {
+                m_attaching.remove( ref );
+            }
+            if ( m_uninstallPending && m_attaching.isEmpty() )
+            {
+                m_uninstallPending = false;
+                uninstall = true;
+            }
+        }
+        if ( again )
+        {
+            m_attacher.submit( new LoggedCall( new DriverAttachAlgorithm( ref, device ) ) );
+        }
+        if ( uninstall )
+        {
+            submit( new IdleDriverUninstallAlgorithm() );
+        }
+    }
+
+
+    /**
+     * waits until idle drivers are no longer being uninstalled, so that an
+     * attach does not match a driver that is being uninstalled.
+     */
+    private void awaitUninstalled() throws InterruptedException
+    {
+        synchronized ( m_attaching )
+        {
+            while ( m_uninstalling )
+            {
+                m_attaching.wait();
+            }
+        }
+    }
+
+
+    /**
+     * get the drivers that might match the device. If one of them was loaded by an
+     * attach that is not done yet, that attach might still unload it, so this waits
+     * for it to be done, and keeps the driver load lock until the caller releases it.
+     * 
+     * @param ref the device reference
+     * @return the candidates
+     */
+    private List<DriverAttributes> getCandidates( ServiceReference ref )
+    {
+        synchronized ( m_loadingLocations )
+        {
+            final List<DriverAttributes> candidates = m_driverIndex.getCandidates( ref );
+            boolean loading = false;
+            for ( DriverAttributes da : candidates )
+            {
+                loading |= m_loadingLocations.contains( da.getBundleLocation() );
+            }
+            if ( !loading )
+            {
+                return candidates;
+            }
+        }
+        m_driverLoadLock.lock();
+        return m_driverIndex.getCandidates( ref );
+    }
+
+
     /**
      * perform this task after the default delay.
      * 
@@ -322,7 +482,7 @@ public class DeviceManager implements Log
             m_latch.await();
             for ( Map.Entry<ServiceReference, Object> entry : m_devices.entrySet() )
             {
-                submit( new DriverAttachAlgorithm( entry.getKey(), entry.getValue() ) );
+                attach( entry.getKey(), entry.getValue() );
             }
             // cleanup
             if ( addedAsListener )
@@ -417,6 +577,37 @@ public class DeviceManager implements Log
         }
     }
 
+    /**
+     * Hands a new device to the attach threads. Runs on the worker, so that
+     * devices are not attached before the framework has started.
+     * 
+     * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+     */
+    private class AttachDevice implements Callable<Object>
+    {
+
+        private final ServiceReference m_ref;
+
+        private final Object m_device;
+
+
+        public AttachDevice( ServiceReference ref, Object device )
+        {
+            m_ref = ref;
+            m_device = device;
+        }
+
+
+        public Object call() throws Exception
+        {
+            if ( m_devices.containsKey( m_ref ) )
+            {
+                attach( m_ref, m_device );
+            }
+            return null;
+        }
+    }
+
     /**
      * Checks for Idle devices, and attaches them
      * 
@@ -431,7 +622,11 @@ public class DeviceManager implements Log
             for ( ServiceReference ref : getIdleDevices() )
             {
                 info( "IDLE: " + ref.getBundle().getSymbolicName() );
-                submit( new DriverAttachAlgorithm( ref, m_devices.get( ref ) ) );
+                Object device = m_devices.get( ref );
+                if ( device != null )
+                {
+                    attach( ref, device );
+                }
             }
 
             submit( new IdleDriverUninstallAlgorithm() );
@@ -492,7 +687,10 @@ public class DeviceManager implements Log
 
     /**
      * 
-     * Used to uninstall unused drivers
+     * Used to uninstall unused drivers. A driver loaded by an attach might
+     * not be attached yet, so the drivers are only uninstalled while no
+     * device is being attached. Otherwise this is done once the last attach
+     * is done.
      * 
      * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
      */
@@ -501,19 +699,40 @@ public class DeviceManager implements Log
 
         public Object call() throws Exception
         {
+            synchronized ( m_attaching )
+            {
+                if ( !m_attaching.isEmpty() )
+                {
+                    debug( "devices are being attached, cleaning driver cache later" );
+                    m_uninstallPending = true;
+                    return null;
+                }
+                m_uninstalling = true;
+            }
 
-            info( "cleaning driver cache" );
-            for ( DriverAttributes da : m_drivers.values() )
+            try
             {
-                // just call the tryUninstall; the da itself
-                // will know if it should really uninstall the driver.
-                try 
-                { 
-                	da.tryUninstall(); 
+                info( "cleaning driver cache" );
+                for ( DriverAttributes da : m_drivers.values() )
+                {
+                    // just call the tryUninstall; the da itself
+                    // will know if it should really uninstall the driver.
+                    try 
+                    { 
+                    	da.tryUninstall(); 
+                    }
+                    catch (Exception e) 
+                    {
+                    	debug(da.getDriverId() + " uninstall failed");
+                    }
                 }
-                catch (Exception e) 
+            }
+            finally
+            {
+                synchronized ( m_attaching )
                 {
-                	debug(da.getDriverId() + " uninstall failed");
+                    m_uninstalling = false;
+                    m_attaching.notifyAll();
                 }
             }
 
@@ -536,6 +755,13 @@ public class DeviceManager implements Log
 
         private DriverAttributes m_finalDriver;
 
+        // the locations of the driver bundles loaded by this attach
+        private final List<String> m_loadedLocations = new ArrayList<String>();
+
+        // the match values of this attach, so that the drivers are not asked
+        // again when the attach is retried with the remaining drivers
+        private final Map<DriverAttributes, Integer> m_matches = new HashMap<DriverAttributes, Integer>();
+
 
         public DriverAttachAlgorithm( ServiceReference ref, Object obj )
         {
@@ -569,37 +795,61 @@ public class DeviceManager implements Log
         @SuppressWarnings("all")
         public Object call() throws Exception
         {
+            try
+            {
+                awaitUninstalled();
+            }
+            catch ( InterruptedException e )
+            {
+                attachDone( m_ref );
+                throw e;
+            }
+
             info( "finding suitable driver for: " + Util.showDevice( m_ref ) );
 
             final Dictionary dict = createDictionary( m_ref );
 
-            // first create a copy of all the drivers that are already there.
-            // during the process, drivers will be added, but also excluded.
-            m_included = new ArrayList<DriverAttributes>( m_drivers.values() );
-            m_excluded = new ArrayList<DriverAttributes>();
-
-            // first find matching driver bundles
-            // if there are no driver locators
-            // we'll have to do with the drivers that were
-            // added 'manually'
-            Set<String> driverIds = m_driverLoader.findDrivers( m_locators, dict );
-
-            // remove the driverIds that are already available
-            for ( DriverAttributes da : m_drivers.values() )
-            {
-                driverIds.remove( da.getDriverId() );
-            }
-            driverIds.removeAll( m_drivers.keySet() );
             try
             {
+                // first create a copy of the drivers that are already there
+                // and might match the device category.
+                // during the process, drivers will be added, but also excluded.
+                m_included = getCandidates( m_ref );
+                m_excluded = new ArrayList<DriverAttributes>();
+
+                // first find matching driver bundles
+                // if there are no driver locators
+                // we'll have to do with the drivers that were
+                // added 'manually'
+                Set<String> driverIds = m_driverLoader.findDrivers( m_locators, dict );
+
+                // remove the driverIds that are already available
+                for ( DriverAttributes da : m_drivers.values() )
+                {
+                    driverIds.remove( da.getDriverId() );
+                }
+                driverIds.removeAll( m_drivers.keySet() );
+
             	debug("entering attach phase for " + Util.showDevice( m_ref ) );
                 return driverAttachment( dict, driverIds.toArray( new String[0] ) );
             }
             finally
             {
-                // unload loaded drivers
-                // that were unnecessarily loaded
-                m_driverLoader.unload( m_finalDriver );
+                try
+                {
+                    // unload loaded drivers
+                    // that were unnecessarily loaded
+                    m_driverLoader.unload( m_finalDriver );
+                }
+                finally
+                {
+                    m_loadingLocations.removeAll( m_loadedLocations );
+                    while ( m_driverLoadLock.isHeldByCurrentThread() )
+                    {
+                        m_driverLoadLock.unlock();
+                    }
+                    attachDone( m_ref );
+                }
             }
         }
 
@@ -612,6 +862,23 @@ public class DeviceManager implements Log
             // remove the excluded drivers
             m_included.removeAll( m_excluded );
 
+            // drivers are loaded by one device at a time, as the
+            // drivers that are not used are unloaded at the end
+            if ( driverIds.length > 0 && !m_driverLoadLock.isHeldByCurrentThread() )
+            {
+                m_driverLoadLock.lock();
+            }
+
+            // hide the drivers from other attaches until this attach is done
+            for ( String driverId : driverIds )
+            {
+                final String location = DriverLoader.DRIVER_LOCATION_PREFIX + driverId;
+                if ( m_loadingLocations.add( location ) )
+                {
+                    m_loadedLocations.add( location );
+                }
+            }
+
             // now load the drivers
             List<ServiceReference> driverRefs = m_driverLoader.loadDrivers( m_locators, driverIds );
             // these are the possible driver references that have been added
@@ -632,12 +899,17 @@ public class DeviceManager implements Log
             {
                 try
                 {
-                    int match = driver.match( m_ref );
-                    if ( match <= Device.MATCH_NONE ) 
+                    Integer match = m_matches.get( driver );
+                    if ( match == null )
+                    {
+                        match = Integer.valueOf( driver.match( m_ref ) );
+                        m_matches.put( driver, match );
+                    }
+                    if ( match.intValue() <= Device.MATCH_NONE ) 
                     {
                         continue;
                     }
-                    mi.add( match, driver );
+                    mi.add( match.intValue(), driver );
                 }
                 catch ( Throwable t )
                 {
@@ -19,6 +19,8 @@
 package org.apache.felix.das;
 
 
+import java.util.Set;
+
 import org.apache.felix.das.util.DriverLoader;
 import org.apache.felix.das.util.Util;
 import org.osgi.framework.Bundle;
@@ -44,12 +46,15 @@ public class DriverAttributes
 
     private final boolean m_dynamic;
 
+    private final Set<String> m_categories;
+
     public DriverAttributes( ServiceReference ref, Driver driver )
     {
         m_ref = ref;
         m_driver = driver;
         m_bundle = ref.getBundle();
         m_dynamic = m_bundle.getLocation().startsWith( DriverLoader.DRIVER_LOCATION_PREFIX );
+        m_categories = Util.getCategories( ref );
     }
 
 
@@ -59,12 +64,31 @@ public class DriverAttributes
     }
 
 
+    public String getBundleLocation()
+    {
+        return m_bundle.getLocation();
+    }
+
+
     public String getDriverId()
     {
         return m_ref.getProperty( Constants.DRIVER_ID ).toString();
     }
 
 
+    /**
+     * the device categories the driver declares with its
+     * <code>DEVICE_CATEGORY</code> service property.
+     * 
+     * @return the categories, or <code>null</code> if the driver does not
+     *  declare any and has to be matched against all devices
+     */
+    public Set<String> getCategories()
+    {
+        return m_categories;
+    }
+
+
     public int match( ServiceReference ref ) throws Exception
     {
         return m_driver.match( ref );
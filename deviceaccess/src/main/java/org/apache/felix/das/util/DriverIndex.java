@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.das.util;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.das.DriverAttributes;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * Indexes the drivers by the device categories they declare, so that a
+ * device is only matched against the drivers of its categories. Drivers
+ * which do not declare a category are candidates for every device, as are
+ * all drivers for a device without a category.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DriverIndex
+{
+
+    private final Map<ServiceReference, DriverAttributes> m_drivers = new HashMap<ServiceReference, DriverAttributes>();
+
+    private final Map<String, List<DriverAttributes>> m_byCategory = new HashMap<String, List<DriverAttributes>>();
+
+    private final List<DriverAttributes> m_uncategorized = new ArrayList<DriverAttributes>();
+
+
+    public synchronized void add( DriverAttributes da )
+    {
+        remove( da.getReference() );
+        m_drivers.put( da.getReference(), da );
+
+        final Set<String> categories = da.getCategories();
+        if ( categories == null )
+        {
+            m_uncategorized.add( da );
+            return;
+        }
+        for ( String category : categories )
+        {
+            List<DriverAttributes> list = m_byCategory.get( category );
+            if ( list == null )
+            {
+                list = new ArrayList<DriverAttributes>();
+                m_byCategory.put( category, list );
+            }
+            list.add( da );
+        }
+    }
+
+
+    public synchronized void remove( ServiceReference ref )
+    {
+        final DriverAttributes da = m_drivers.remove( ref );
+        if ( da == null )
+        {
+            return;
+        }
+
+        final Set<String> categories = da.getCategories();
+        if ( categories == null )
+        {
+            m_uncategorized.remove( da );
+            return;
+        }
+        for ( String category : categories )
+        {
+            List<DriverAttributes> list = m_byCategory.get( category );
+            if ( list != null )
+            {
+                list.remove( da );
+                if ( list.isEmpty() )
+                {
+                    m_byCategory.remove( category );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * the drivers that might match the given device.
+     * 
+     * @param deviceRef the device
+     * @return a copy of the candidate drivers
+     */
+    public synchronized List<DriverAttributes> getCandidates( ServiceReference deviceRef )
+    {
+        final Set<String> categories = Util.getCategories( deviceRef );
+        if ( categories == null )
+        {
+            return new ArrayList<DriverAttributes>( m_drivers.values() );
+        }
+
+        final Set<DriverAttributes> candidates = new LinkedHashSet<DriverAttributes>( m_uncategorized );
+        for ( String category : categories )
+        {
+            List<DriverAttributes> list = m_byCategory.get( category );
+            if ( list != null )
+            {
+                candidates.addAll( list );
+            }
+        }
+        return new ArrayList<DriverAttributes>( candidates );
+    }
+}
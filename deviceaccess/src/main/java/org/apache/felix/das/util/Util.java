@@ -19,6 +19,10 @@
 package org.apache.felix.das.util;
 
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
@@ -99,6 +103,41 @@ public class Util
     }
 
 
+    /**
+     * the values of the <code>DEVICE_CATEGORY</code> property of a service.
+     * 
+     * @return the categories, or <code>null</code> if the service has no such property
+     */
+    public static Set<String> getCategories( ServiceReference ref )
+    {
+        Object category = ref.getProperty( org.osgi.service.device.Constants.DEVICE_CATEGORY );
+        if ( category == null )
+        {
+            return null;
+        }
+        final Set<String> categories = new HashSet<String>();
+        if ( Object[].class.isInstance( category ) )
+        {
+            for ( Object obj : Object[].class.cast( category ) )
+            {
+                categories.add( String.valueOf( obj ) );
+            }
+        }
+        else if ( Collection.class.isInstance( category ) )
+        {
+            for ( Object obj : Collection.class.cast( category ) )
+            {
+                categories.add( String.valueOf( obj ) );
+            }
+        }
+        else
+        {
+            categories.add( String.valueOf( category ) );
+        }
+        return categories;
+    }
+
+
     public static String createFilterString( String input, Object[] data )
     {
         return String.format( input, data );
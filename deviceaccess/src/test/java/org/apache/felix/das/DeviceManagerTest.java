@@ -21,12 +21,19 @@ package org.apache.felix.das;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -87,6 +94,9 @@ public class DeviceManagerTest
     	m_context = m_osgi.getBundleContext();
     	
         m_manager = new DeviceManager( m_context );
+
+        // attach devices concurrently, even on a single processor
+        Mockito.when( m_context.getProperty( DeviceManager.ATTACH_THREADS_PROPERTY ) ).thenReturn( "2" );
         
         Utils.invoke( m_manager, "init" );
         
@@ -514,6 +524,177 @@ public class DeviceManagerTest
     }
 
 
+    /**
+     * The best matching driver fails to attach, so the attach is retried with
+     * the remaining driver. The drivers are matched only once per attach.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void AttachRetryDoesNotMatchAgain() throws Exception
+    {
+
+        Device device = tstCreateDevice( new String[] { "org.apache.felix" } );
+        Driver failing = tstCreateDriver( "org.apache.felix.driver-1.0", 2 );
+        Driver driver = tstCreateDriver( "org.apache.felix.driver-1.1", 1 );
+
+        Mockito.when( failing.attach( m_osgi.getReference( device ) ) )
+            .thenThrow( new IllegalStateException( "test exception" ) );
+        CountDownLatch attachLatch = tstExpectAttach( driver, device );
+
+        m_manager.driverAdded( m_osgi.getReference( failing ), failing );
+        m_manager.driverAdded( m_osgi.getReference( driver ), driver );
+        m_manager.deviceAdded( m_osgi.getReference( device ), device );
+
+        if ( !attachLatch.await( 5, TimeUnit.SECONDS ) )
+        {
+            Assert.fail( "expected attach" );
+        }
+
+        Mockito.verify( driver, Mockito.times( 1 ) ).match( m_osgi.getReference( device ) );
+    }
+
+
+    /**
+     * Idle drivers are not uninstalled while a device is being attached, as
+     * the driver might not be attached yet. They are uninstalled once the
+     * attach is done.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void IdleDriversNotUninstalledWhileAttaching() throws Exception
+    {
+
+        Device device = tstCreateDevice( new String[] { "org.apache.felix" } );
+        Driver driver = tstCreateDriver( "org.apache.felix.driver-1.0", 1 );
+        Bundle bundle = m_osgi.getBundle( m_osgi.getReference( driver ) );
+
+        // the driver may already be uninstalled as idle before the device is added
+        final AtomicInteger uninstalls = new AtomicInteger();
+        Mockito.doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation ) throws Throwable
+            {
+                uninstalls.incrementAndGet();
+                return null;
+            }
+        } ).when( bundle ).uninstall();
+
+        final CountDownLatch attaching = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        Mockito.when( driver.attach( m_osgi.getReference( device ) ) ).thenAnswer( new Answer<String>()
+        {
+            public String answer( InvocationOnMock invocation ) throws Throwable
+            {
+                attaching.countDown();
+                release.await( 5, TimeUnit.SECONDS );
+                return null;
+            }
+        } );
+
+        m_manager.driverAdded( m_osgi.getReference( driver ), driver );
+        m_manager.deviceAdded( m_osgi.getReference( device ), device );
+
+        if ( !attaching.await( 5, TimeUnit.SECONDS ) )
+        {
+            Assert.fail( "expected attach" );
+        }
+        final int idle = uninstalls.get();
+
+        Class<?> clazz = Class.forName( DeviceManager.class.getName() + "$IdleDriverUninstallAlgorithm" );
+        Constructor<?> constructor = clazz.getDeclaredConstructor( DeviceManager.class );
+        constructor.setAccessible( true );
+        ( ( Callable<?> ) constructor.newInstance( m_manager ) ).call();
+
+        Assert.assertEquals( idle, uninstalls.get() );
+
+        release.countDown();
+
+        Mockito.verify( bundle, Mockito.timeout( 5000 ).times( idle + 1 ) ).uninstall();
+    }
+
+
+    /**
+     * A device is attached while another attach loaded drivers from a locator. The
+     * drivers must not be used until that attach is done, as it unloads the drivers
+     * it does not attach to.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void LoadedDriversNotUsedByOtherAttaches() throws Exception
+    {
+        final String driverIdA = "org.apache.felix.a.driver-1.0";
+        final String driverIdB = "org.apache.felix.b.driver-1.0";
+
+        DriverLocator locator = Mockito.mock( DriverLocator.class );
+        Map<String, Driver> drivers = tstExpectDriverLocatorFor( locator,
+            new String[] { driverIdA, driverIdB },
+            new int[] { 10, 10 } );
+        Driver driverA = drivers.get( driverIdA );
+        final Driver driverB = drivers.get( driverIdB );
+
+        Device deviceA = tstCreateDevice( new String[] { "org.apache.felix.a" } );
+        final Device deviceB = tstCreateDevice( new String[] { "org.apache.felix.b" } );
+
+        final List<String> events = Collections.synchronizedList( new ArrayList<String>() );
+
+        // the attach of device B, if it uses driver B, is done while device A is attached
+        final CountDownLatch attachingA = new CountDownLatch( 1 );
+        final CountDownLatch attachedB = new CountDownLatch( 1 );
+        Mockito.when( driverA.attach( m_osgi.getReference( deviceA ) ) ).thenAnswer( new Answer<String>()
+        {
+            public String answer( InvocationOnMock invocation ) throws Throwable
+            {
+                attachingA.countDown();
+                attachedB.await( 1, TimeUnit.SECONDS );
+                return null;
+            }
+        } );
+        Mockito.when( driverB.attach( m_osgi.getReference( deviceB ) ) ).thenAnswer( new Answer<String>()
+        {
+            public String answer( InvocationOnMock invocation ) throws Throwable
+            {
+                events.add( "attach" );
+                attachedB.countDown();
+                return null;
+            }
+        } );
+
+        // uninstalling driver B unregisters it
+        final ServiceReference driverRefB = m_osgi.getReference( driverB );
+        final Bundle bundleB = m_osgi.getBundle( driverRefB );
+        Mockito.when( bundleB.getServicesInUse() ).thenReturn( new ServiceReference[] { m_osgi.getReference( deviceB ) } );
+        Mockito.doAnswer( new Answer<Object>()
+        {
+            public Object answer( InvocationOnMock invocation ) throws Throwable
+            {
+                events.add( "uninstall" );
+                m_manager.driverRemoved( driverRefB );
+                return null;
+            }
+        } ).when( bundleB ).uninstall();
+
+        m_manager.locatorAdded( locator );
+        m_manager.deviceAdded( m_osgi.getReference( deviceA ), deviceA );
+        if ( !attachingA.await( 5, TimeUnit.SECONDS ) )
+        {
+            Assert.fail( "expected an attach of device A" );
+        }
+
+        m_manager.deviceAdded( m_osgi.getReference( deviceB ), deviceB );
+        if ( !attachedB.await( 5, TimeUnit.SECONDS ) )
+        {
+            Assert.fail( "expected an attach of device B" );
+        }
+
+        // driver B is unloaded by the attach of device A before it is loaded again
+        Mockito.verify( driverB, Mockito.timeout( 5000 ) ).attach( m_osgi.getReference( deviceB ) );
+        Assert.assertEquals( Arrays.asList( "uninstall", "attach" ), events );
+    }
+
+
     /**
      * 	We add a device, but there are no driver locators, however, there is a driver
      *  but it sadly doesn't match. Thus a <code>noDriverFound()</code> is called.
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.das.util;
+
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.felix.das.DriverAttributes;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.device.Constants;
+import org.osgi.service.device.Driver;
+
+
+/**
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ *
+ */
+public class DriverIndexTest
+{
+
+    private DriverAttributes createDriver( Object category )
+    {
+        ServiceReference ref = Mockito.mock( ServiceReference.class );
+        Bundle bundle = Mockito.mock( Bundle.class );
+        Mockito.when( ref.getBundle() ).thenReturn( bundle );
+        Mockito.when( bundle.getLocation() ).thenReturn( "test-driverbundle" );
+        Mockito.when( ref.getProperty( Constants.DEVICE_CATEGORY ) ).thenReturn( category );
+        return new DriverAttributes( ref, Mockito.mock( Driver.class ) );
+    }
+
+
+    private ServiceReference createDevice( Object category )
+    {
+        ServiceReference ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getProperty( Constants.DEVICE_CATEGORY ) ).thenReturn( category );
+        return ref;
+    }
+
+
+    @Test
+    public void CandidatesByCategory()
+    {
+        DriverIndex index = new DriverIndex();
+
+        DriverAttributes any = createDriver( null );
+        DriverAttributes usb = createDriver( "usb" );
+        DriverAttributes serial = createDriver( new String[] { "serial", "modem" } );
+        index.add( any );
+        index.add( usb );
+        index.add( serial );
+
+        List<DriverAttributes> candidates = index.getCandidates( createDevice( new String[] { "usb" } ) );
+        Assert.assertEquals( 2, candidates.size() );
+        Assert.assertTrue( candidates.contains( any ) );
+        Assert.assertTrue( candidates.contains( usb ) );
+
+        candidates = index.getCandidates( createDevice( "modem" ) );
+        Assert.assertEquals( 2, candidates.size() );
+        Assert.assertTrue( candidates.contains( any ) );
+        Assert.assertTrue( candidates.contains( serial ) );
+
+        // a device without a category is matched against all drivers
+        Assert.assertEquals( 3, index.getCandidates( createDevice( null ) ).size() );
+    }
+
+
+    @Test
+    public void RemovedDriverIsNoCandidate()
+    {
+        DriverIndex index = new DriverIndex();
+
+        DriverAttributes usb = createDriver( "usb" );
+        index.add( usb );
+        index.remove( usb.getReference() );
+
+        Assert.assertTrue( index.getCandidates( createDevice( "usb" ) ).isEmpty() );
+        Assert.assertTrue( index.getCandidates( createDevice( null ) ).isEmpty() );
+    }
+}
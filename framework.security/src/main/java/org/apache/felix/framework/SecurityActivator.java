@@ -28,13 +28,16 @@ import org.apache.felix.framework.security.condpermadmin.ConditionalPermissionAd
 import org.apache.felix.framework.security.permissionadmin.PermissionAdminImpl;
 import org.apache.felix.framework.security.util.Conditions;
 import org.apache.felix.framework.security.util.LocalPermissions;
+import org.apache.felix.framework.security.util.PermissionDecisionCache;
 import org.apache.felix.framework.security.util.Permissions;
 import org.apache.felix.framework.security.util.PropertiesCache;
 import org.apache.felix.framework.util.SecureAction;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.service.condpermadmin.ConditionalPermissionAdmin;
 import org.osgi.service.permissionadmin.PermissionAdmin;
 
@@ -84,6 +87,12 @@ import org.osgi.service.permissionadmin.PermissionAdmin;
  * certificates. The urls must be separated by a guard (i.e., <tt>|</tt>). The
  * default is {@link SecurityConstants#CRL_FILE_VALUE}.
  * </p>
+ * <p>
+ * {@link SecurityConstants#DECISION_CACHE_SIZE_PROP} - The maximum number of
+ * permission decisions of the {@link ConditionalPermissionAdmin} cached per
+ * bundle revision, <tt>0</tt> disables the cache. The default is
+ * {@link SecurityConstants#DECISION_CACHE_SIZE_VALUE}.
+ * </p>
  * </p>
  */
 /*
@@ -96,6 +105,9 @@ import org.osgi.service.permissionadmin.PermissionAdmin;
  */
 public final class SecurityActivator implements BundleActivator
 {
+    private ConditionalPermissionAdminImpl m_cpai;
+    private SynchronousBundleListener m_listener;
+
     public synchronized void start(BundleContext context) throws Exception
     {
         PermissionAdminImpl pai = null;
@@ -150,9 +162,49 @@ public final class SecurityActivator implements BundleActivator
             LocalPermissions localPermissions = new LocalPermissions(
                 permissions);
 
+            String cacheSize = getProperty(context,
+                SecurityConstants.DECISION_CACHE_SIZE_PROP,
+                SecurityConstants.DECISION_CACHE_SIZE_VALUE);
+            PermissionDecisionCache decisions;
+            try
+            {
+                decisions = new PermissionDecisionCache(Integer.parseInt(cacheSize.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new BundleException("Invalid "
+                    + SecurityConstants.DECISION_CACHE_SIZE_PROP + ": " + cacheSize);
+            }
+
             cpai = new ConditionalPermissionAdminImpl(permissions,
                 new Conditions(action), localPermissions, new PropertiesCache(
-                    cpaCache, tmp, action), pai);
+                    cpaCache, tmp, action), pai, decisions);
+
+            if (decisions.isEnabled())
+            {
+                // Decisions include the local permissions and conditions of
+                // bundles, so start over whenever a bundle changes.
+                final ConditionalPermissionAdminImpl finalCpai = cpai;
+                m_listener = new SynchronousBundleListener()
+                {
+                    public void bundleChanged(BundleEvent event)
+                    {
+                        switch (event.getType())
+                        {
+                            case BundleEvent.INSTALLED:
+                            case BundleEvent.UPDATED:
+                            case BundleEvent.UNRESOLVED:
+                            case BundleEvent.UNINSTALLED:
+                                finalCpai.clearDecisions();
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                };
+                context.addBundleListener(m_listener);
+            }
+            m_cpai = cpai;
         }
 
         if ((pai != null) || (cpai != null))
@@ -222,6 +274,18 @@ public final class SecurityActivator implements BundleActivator
     public synchronized void stop(BundleContext context) throws Exception
     {
         ((Felix) context.getBundle(0)).setSecurityProvider(null);
+
+        if (m_listener != null)
+        {
+            context.removeBundleListener(m_listener);
+            m_listener = null;
+        }
+        if (m_cpai != null)
+        {
+            ((Felix) context.getBundle(0)).getLogger().log(Logger.LOG_DEBUG,
+                "Permission decision cache: " + m_cpai.getDecisionCache());
+            m_cpai = null;
+        }
     }
 
     private String getProperty(BundleContext context, String key,
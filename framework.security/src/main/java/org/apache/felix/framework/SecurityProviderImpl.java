@@ -18,10 +18,13 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
 import java.security.Permission;
 import java.security.ProtectionDomain;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.cache.BundleArchiveRevision;
 import org.apache.felix.framework.ext.SecurityProvider;
 import org.apache.felix.framework.security.condpermadmin.ConditionalPermissionAdminImpl;
 import org.apache.felix.framework.security.permissionadmin.PermissionAdminImpl;
@@ -62,7 +65,7 @@ public final class SecurityProviderImpl implements SecurityProvider
     {
         BundleRevisionImpl module = (BundleRevisionImpl) bundle.adapt(BundleRevisionImpl.class);
         m_parser.checkDNChains(module, module.getContent(),
-            Bundle.SIGNERS_TRUSTED);
+            Bundle.SIGNERS_TRUSTED, getRevisionDir(bundle));
     }
 
     /**
@@ -71,7 +74,25 @@ public final class SecurityProviderImpl implements SecurityProvider
     public Object getSignerMatcher(final Bundle bundle, int signersType)
     {
         BundleRevisionImpl module = (BundleRevisionImpl) bundle.adapt(BundleRevisionImpl.class);
-        return m_parser.getDNChains(module, module.getContent(), signersType);
+        return m_parser.getDNChains(module, module.getContent(), signersType,
+            getRevisionDir(bundle));
+    }
+
+    /**
+     * Returns the directory of the current revision of the given bundle in
+     * the cache, which is used to keep the result of the verification of its
+     * entries across restarts.
+     */
+    private File getRevisionDir(Bundle bundle)
+    {
+        if (!(bundle instanceof BundleImpl))
+        {
+            return null;
+        }
+        BundleArchive archive = ((BundleImpl) bundle).getArchive();
+        BundleArchiveRevision revision = (archive != null) ? archive
+            .getCurrentRevision() : null;
+        return (revision != null) ? revision.getRevisionRootDir() : null;
     }
 
     /**
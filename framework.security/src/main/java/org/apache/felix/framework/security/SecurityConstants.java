@@ -43,4 +43,8 @@ public interface SecurityConstants
     public static final String ENABLE_PERMISSIONADMIN_PROP = "felix.security.permissionadmin";
 
     public static final String ENABLE_PERMISSIONADMIN_VALUE = "true";
+
+    public static final String DECISION_CACHE_SIZE_PROP = "felix.security.decisioncache.size";
+
+    public static final String DECISION_CACHE_SIZE_VALUE = "1024";
 }
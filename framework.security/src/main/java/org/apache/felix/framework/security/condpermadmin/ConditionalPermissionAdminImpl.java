@@ -55,6 +55,7 @@ import org.apache.felix.framework.FakeBundle;
 import org.apache.felix.framework.security.permissionadmin.PermissionAdminImpl;
 import org.apache.felix.framework.security.util.Conditions;
 import org.apache.felix.framework.security.util.LocalPermissions;
+import org.apache.felix.framework.security.util.PermissionDecisionCache;
 import org.apache.felix.framework.security.util.Permissions;
 import org.apache.felix.framework.security.util.PropertiesCache;
 import org.apache.felix.framework.util.manifestparser.NativeLibrary;
@@ -219,11 +220,14 @@ public final class ConditionalPermissionAdminImpl implements
     private final Conditions m_conditions;
     private final LocalPermissions m_localPermissions;
     private final PermissionAdminImpl m_pai;
+    private final PermissionDecisionCache m_decisions;
 
     public ConditionalPermissionAdminImpl(Permissions permissions,
         Conditions condtions, LocalPermissions localPermissions,
-        PropertiesCache cache, PermissionAdminImpl pai) throws IOException
+        PropertiesCache cache, PermissionAdminImpl pai,
+        PermissionDecisionCache decisions) throws IOException
     {
+        m_decisions = decisions;
         m_propertiesCache = cache;
         m_permissions = permissions;
         m_conditions = condtions;
@@ -282,6 +286,7 @@ public final class ConditionalPermissionAdminImpl implements
                 {
                     tmp = null;
                 }
+                m_decisions.clear();
             }
 
             try
@@ -297,6 +302,7 @@ public final class ConditionalPermissionAdminImpl implements
                         m_condPermInfos.clear();
                         m_condPermInfos.putAll(tmp);
                     }
+                    m_decisions.clear();
                 }
                 ex.printStackTrace();
                 throw new IllegalStateException(ex.getMessage());
@@ -511,7 +517,7 @@ public final class ConditionalPermissionAdminImpl implements
                 {
                     return result.booleanValue();
                 }
-                if (eval(posts, new BundleRevisionImpl(fake, Long.toString(fake.getBundleId())), permission, m_pai))
+                if (eval(posts, new BundleRevisionImpl(fake, Long.toString(fake.getBundleId())), permission, m_pai, null))
                 {
                     if (!posts.isEmpty())
                     {
@@ -706,16 +712,46 @@ public final class ConditionalPermissionAdminImpl implements
             }
         }
 
+        // Decisions are neither cached nor looked up while a condition is
+        // evaluated, as the recursion guard may deny permissions meanwhile.
+        boolean cache = (admin == m_pai) && !Conditions.isEvaluating();
+        // taken before anything is evaluated, so that a decision computed
+        // against a policy changed meanwhile is not cached
+        Object generation = cache ? m_decisions.getGeneration() : null;
+        Integer decision = cache ? m_decisions.get(module, permission) : null;
+
         // check the local permissions. they need to all the permission if there
         // are any
-        if (!impliesLocal(module.getBundle(), content, permission))
+        if ((decision == PermissionDecisionCache.LOCAL_DENIED)
+            || ((decision == null) && !impliesLocal(module.getBundle(),
+                content, permission)))
         {
+            if (cache)
+            {
+                m_decisions.put(generation, module, permission,
+                    PermissionDecisionCache.LOCAL_DENIED);
+            }
             return false;
         }
 
         List posts = new ArrayList();
 
-        boolean result = eval(posts, module, permission, admin);
+        boolean result;
+        if (decision != null)
+        {
+            result = (decision == PermissionDecisionCache.GRANTED);
+        }
+        else
+        {
+            boolean[] immutable = new boolean[] { cache };
+            result = eval(posts, module, permission, admin, immutable);
+            if (immutable[0] && posts.isEmpty())
+            {
+                m_decisions.put(generation, module, permission,
+                    result ? PermissionDecisionCache.GRANTED
+                        : PermissionDecisionCache.DENIED);
+            }
+        }
 
         domains.remove(pd);
 
@@ -766,9 +802,10 @@ public final class ConditionalPermissionAdminImpl implements
     // de note the permission in question unless the conditions are postponed
     // then we make sure their permissions imply the permission and add them
     // to the list of posts. Return true in case we pass or have posts
-    // else falls and clear the posts first.
+    // else falls and clear the posts first. In case a decision depends on
+    // mutable conditions, immutable[0] is set to false.
     private boolean eval(List posts, BundleRevisionImpl module, Permission permission,
-        Object admin)
+        Object admin, boolean[] immutable)
     {
         List condPermInfos = null;
 
@@ -800,8 +837,13 @@ public final class ConditionalPermissionAdminImpl implements
             List currentPosts = new ArrayList();
 
             Conditions conds = m_conditions.getConditions(module, conditions);
-            if (!conds.isSatisfied(currentPosts, m_permissions
-                .getPermissions(cpi._getPermissionInfos()), permission))
+            boolean satisfied = conds.isSatisfied(currentPosts, m_permissions
+                .getPermissions(cpi._getPermissionInfos()), permission);
+            if ((immutable != null) && !conds.isImmutable())
+            {
+                immutable[0] = false;
+            }
+            if (!satisfied)
             {
                 continue;
             }
@@ -937,4 +979,18 @@ public final class ConditionalPermissionAdminImpl implements
     {
         m_stack.set(null);
     }
+
+    /**
+     * Clears the cached permission decisions, to be called whenever a bundle
+     * (and hence its local permissions) changes.
+     */
+    public void clearDecisions()
+    {
+        m_decisions.clear();
+    }
+
+    public PermissionDecisionCache getDecisionCache()
+    {
+        return m_decisions;
+    }
 }
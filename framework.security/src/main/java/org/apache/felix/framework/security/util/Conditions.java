@@ -264,6 +264,43 @@ public final class Conditions
         return true;
     }
 
+    /**
+     * Returns true in case the result of the last {@link #isSatisfied} call can
+     * not change any more, i.e., all conditions it evaluated are immutable.
+     */
+    public boolean isImmutable()
+    {
+        if ((m_conditionInfos == null) || (m_module == null))
+        {
+            return true;
+        }
+        synchronized (m_conditions)
+        {
+            for (int i = 0; i < m_conditions.length; i++)
+            {
+                if (m_conditions[i] == Condition.FALSE)
+                {
+                    // conditions after an unsatisfied one are not evaluated
+                    return true;
+                }
+                if (m_conditions[i] != Condition.TRUE)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true in case the current thread is evaluating a condition. Checks
+     * done meanwhile may fail due to the recursion guard.
+     */
+    public static boolean isEvaluating()
+    {
+        return m_conditionStack.get() != null;
+    }
+
     public boolean evalRecursive(List entries)
     {
         Map contexts = new HashMap();
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.security.util;
+
+import java.security.Permission;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache for the decisions of the conditional permission admin. Decisions are
+ * cached per bundle revision and permission, but only if they do not depend on
+ * mutable or postponed conditions. The cache has to be cleared whenever the
+ * permission table, a bundle, or its local permissions change.
+ * <p>
+ * A decision is put together with the generation of the cache taken before
+ * the decision was computed. A decision computed concurrently with a clear
+ * therefore belongs to the discarded generation and is dropped.
+ */
+public final class PermissionDecisionCache
+{
+    /**
+     * The permission is not implied by the local permissions of the bundle.
+     */
+    public static final Integer LOCAL_DENIED = new Integer(0);
+
+    /**
+     * The permission is granted by the permission table.
+     */
+    public static final Integer GRANTED = new Integer(1);
+
+    /**
+     * The permission is denied by the permission table.
+     */
+    public static final Integer DENIED = new Integer(2);
+
+    private final int m_maxSize;
+
+    // The current generation, replaced as a whole on clear. All the fields
+    // below are guarded by this.
+    private Map m_decisions = new HashMap();
+
+    private long m_hits;
+    private long m_misses;
+    private long m_clears;
+
+    /**
+     * @param maxSize
+     *            the maximum number of decisions cached per bundle revision,
+     *            0 to disable the cache.
+     */
+    public PermissionDecisionCache(int maxSize)
+    {
+        m_maxSize = maxSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return m_maxSize > 0;
+    }
+
+    /**
+     * Returns the cached decision, i.e., {@link #LOCAL_DENIED},
+     * {@link #GRANTED}, {@link #DENIED}, or <tt>null</tt> if there is none.
+     */
+    public Integer get(Object revision, Permission permission)
+    {
+        if (m_maxSize <= 0)
+        {
+            return null;
+        }
+        synchronized (this)
+        {
+            Map decisions = (Map) m_decisions.get(revision);
+            Integer result = (decisions != null) ? (Integer) decisions
+                .get(permission) : null;
+            if (result != null)
+            {
+                m_hits++;
+            }
+            else
+            {
+                m_misses++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns the current generation of the cache. It has to be taken before a
+     * decision is computed and passed to
+     * {@link #put(Object, Object, Permission, Integer)}.
+     */
+    public synchronized Object getGeneration()
+    {
+        return m_decisions;
+    }
+
+    /**
+     * Caches a decision in the given generation. If the cache was cleared
+     * since the generation was taken, the decision is dropped.
+     */
+    public void put(Object generation, Object revision, Permission permission,
+        Integer decision)
+    {
+        if (m_maxSize <= 0)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (generation != m_decisions)
+            {
+                return;
+            }
+            Map decisions = (Map) m_decisions.get(revision);
+            if (decisions == null)
+            {
+                decisions = new HashMap();
+                m_decisions.put(revision, decisions);
+            }
+            if (decisions.size() >= m_maxSize)
+            {
+                // Permissions not implementing equals can not be found again;
+                // start over instead of growing without bound.
+                decisions.clear();
+            }
+            decisions.put(permission, decision);
+        }
+    }
+
+    public synchronized void clear()
+    {
+        m_decisions = new HashMap();
+        m_clears++;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return m_hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return m_misses;
+    }
+
+    public synchronized long getClearCount()
+    {
+        return m_clears;
+    }
+
+    /**
+     * Returns the ratio of cache hits to lookups, between 0 and 1.
+     */
+    public synchronized double getHitRatio()
+    {
+        long lookups = m_hits + m_misses;
+        return (lookups == 0) ? 0 : ((double) m_hits) / lookups;
+    }
+
+    public String toString()
+    {
+        return "PermissionDecisionCache[hits=" + getHitCount() + ", misses="
+            + getMissCount() + ", hitRatio=" + getHitRatio() + ", clears="
+            + getClearCount() + "]";
+    }
+}
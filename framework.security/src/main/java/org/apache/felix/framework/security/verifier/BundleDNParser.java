@@ -18,24 +18,40 @@
  */
 package org.apache.felix.framework.security.verifier;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.security.cert.CRL;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 
 import org.apache.felix.framework.BundleRevisionImpl;
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.JarContent;
 import org.apache.felix.framework.security.util.BundleInputStream;
 import org.apache.felix.framework.security.util.TrustManager;
 /*
@@ -79,16 +95,35 @@ public final class BundleDNParser
         m_getCertificates = getCertificates;
     }
 
+    // The name of the file in the revision directory the signers of the
+    // entries are stored in, so they survive a restart.
+    private static final String SIGNERS_FILE = "bundle.signers";
+    private static final int SIGNERS_MAGIC = 0x46534731;
+    private static final int UNSIGNED = -1;
+
+    // Entries digested by a single thread at least
+    private static final int DIGEST_THRESHOLD = 32;
+    private static final int CHAIN_CACHE_SIZE = 256;
+
     private final Logger m_logger;
     private final Map m_cache = new WeakHashMap();
     private final Map m_allCache = new WeakHashMap();
+    private final Map m_signers = new WeakHashMap();
+    private final Map m_chainCache = new HashMap();
 
     private final TrustManager m_manager;
+    private final int m_threads;
 
     public BundleDNParser(TrustManager manager, Logger logger)
+    {
+        this(manager, logger, Runtime.getRuntime().availableProcessors());
+    }
+
+    BundleDNParser(TrustManager manager, Logger logger, int threads)
     {
         m_manager = manager;
         m_logger = logger;
+        m_threads = threads;
     }
 
     public Map getCache()
@@ -109,6 +144,17 @@ public final class BundleDNParser
 
     public void checkDNChains(BundleRevisionImpl root, Content content, int signersType)
         throws Exception
+    {
+        checkDNChains(root, content, signersType, null);
+    }
+
+    /**
+     * Like {@link #checkDNChains(BundleRevisionImpl, Content, int)} but keeps
+     * the signers of the entries in the given revision directory, if any, so
+     * that the entries do not need to be verified again after a restart.
+     */
+    public void checkDNChains(BundleRevisionImpl root, Content content, int signersType,
+        File revisionDir) throws Exception
     {
         if (signersType == Bundle.SIGNERS_TRUSTED)
         {
@@ -145,8 +191,8 @@ public final class BundleDNParser
         Exception org = null;
         try
         {
-            result = _getDNChains(content,
-                signersType == Bundle.SIGNERS_TRUSTED);
+            result = _getDNChains(root, content,
+                signersType == Bundle.SIGNERS_TRUSTED, revisionDir);
         }
         catch (Exception ex)
         {
@@ -176,6 +222,12 @@ public final class BundleDNParser
 
     public Map getDNChains(BundleRevisionImpl root, Content bundleRevision,
         int signersType)
+    {
+        return getDNChains(root, bundleRevision, signersType, null);
+    }
+
+    public Map getDNChains(BundleRevisionImpl root, Content bundleRevision,
+        int signersType, File revisionDir)
     {
         if (signersType == Bundle.SIGNERS_TRUSTED)
         {
@@ -206,8 +258,8 @@ public final class BundleDNParser
 
         try
         {
-            result = _getDNChains(bundleRevision,
-                signersType == Bundle.SIGNERS_TRUSTED);
+            result = _getDNChains(root, bundleRevision,
+                signersType == Bundle.SIGNERS_TRUSTED, revisionDir);
         }
         catch (Exception ex)
         {
@@ -232,12 +284,13 @@ public final class BundleDNParser
         return (result == null) ? new HashMap() : new HashMap(result);
     }
 
-    private Map _getDNChains(Content content, boolean check)
-        throws IOException
+    private Map _getDNChains(BundleRevisionImpl root, Content content,
+        boolean check, File revisionDir) throws IOException
     {
         X509Certificate[] certificates = null;
 
-        certificates = getCertificates(new BundleInputStream(content), check);
+        certificates = getCertificates(getSigners(root, content, revisionDir),
+            check);
 
         if (certificates == null)
         {
@@ -271,8 +324,96 @@ public final class BundleDNParser
         throw new IOException();
     }
 
-    private X509Certificate[] getCertificates(InputStream input, boolean check)
-        throws IOException
+    /**
+     * The signers of the entries of a bundle, in the order they are verified
+     * in. Verification stops at the first unsigned entry or failure, as
+     * nothing after it is relevant.
+     */
+    private static final class Signers
+    {
+        // The distinct certificates of the entries
+        private final Certificate[][] m_certificates;
+        // For each entry the index of its certificates or UNSIGNED
+        private final int[] m_entries;
+        // The failure verifying the last entry, if any
+        private final Exception m_failure;
+
+        Signers(Certificate[][] certificates, int[] entries, Exception failure)
+        {
+            m_certificates = certificates;
+            m_entries = entries;
+            m_failure = failure;
+        }
+
+        static Signers create(Certificate[][] entries, Exception failure)
+        {
+            List distinct = new ArrayList();
+            Map index = new HashMap();
+            int[] result = new int[entries.length];
+            for (int i = 0; i < entries.length; i++)
+            {
+                if ((entries[i] == null) || (entries[i].length == 0))
+                {
+                    result[i] = UNSIGNED;
+                    continue;
+                }
+                List key = Arrays.asList(entries[i]);
+                Integer current = (Integer) index.get(key);
+                if (current == null)
+                {
+                    current = new Integer(distinct.size());
+                    index.put(key, current);
+                    distinct.add(entries[i]);
+                }
+                result[i] = current.intValue();
+            }
+            return new Signers((Certificate[][]) distinct
+                .toArray(new Certificate[distinct.size()][]), result, failure);
+        }
+    }
+
+    private Signers getSigners(BundleRevisionImpl root, Content content,
+        File revisionDir) throws IOException
+    {
+        synchronized (m_signers)
+        {
+            if (m_signers.containsKey(root))
+            {
+                return (Signers) m_signers.get(root);
+            }
+        }
+
+        File jar = (content instanceof JarContent) ? ((JarContent) content)
+            .getFile() : null;
+        File store = ((jar != null) && (revisionDir != null)) ? new File(
+            revisionDir, SIGNERS_FILE) : null;
+
+        Signers signers = (store != null) ? load(store, jar) : null;
+        if (signers == null)
+        {
+            signers = (jar != null) ? digest(jar) : digest(new BundleInputStream(
+                content));
+            if ((store != null) && (signers != null)
+                && (signers.m_failure == null))
+            {
+                save(store, jar, signers);
+            }
+        }
+
+        synchronized (m_signers)
+        {
+            m_signers.put(root, signers);
+        }
+        return signers;
+    }
+
+    /**
+     * Verifies the entries of the given bundle stream one after the other.
+     *
+     * @return the signers of the entries or <tt>null</tt> in case there is no
+     *         manifest.
+     */
+    private Signers digest(InputStream input) throws IOException
     {
         JarInputStream bundle = new JarInputStream(input, true);
 
@@ -281,9 +422,8 @@ public final class BundleDNParser
             return null;
         }
 
-        List certificateChains = new ArrayList();
-
-        int count = certificateChains.size();
+        List entries = new ArrayList();
+        Exception failure = null;
 
         // This is tricky: jdk1.3 doesn't say anything about what is happening
         // if a bad sig is detected on an entry - later jdk's do say that they
@@ -292,63 +432,300 @@ public final class BundleDNParser
         for (JarEntry entry = bundle.getNextJarEntry(); entry != null; entry = bundle
             .getNextJarEntry())
         {
-
-            if (entry.isDirectory() || 
-                (entry.getName().startsWith("META-INF/") && 
-                (entry.getName().indexOf('/', "META-INF/".length()) < 0)))
+            if (skip(entry))
             {
                 continue;
             }
 
-            for (byte[] tmp = new byte[4096]; bundle.read(tmp, 0, tmp.length) != -1;)
+            try
             {
+                for (byte[] tmp = new byte[4096]; bundle.read(tmp, 0, tmp.length) != -1;)
+                {
+                }
             }
+            catch (SecurityException ex)
+            {
+                failure = ex;
+                break;
+            }
+
+            Certificate[] certificates = getCertificates(entry);
+            entries.add(certificates);
+            if ((certificates == null) || (certificates.length == 0))
+            {
+                break;
+            }
+        }
 
-            Certificate[] certificates = entry.getCertificates();
+        return Signers.create((Certificate[][]) entries
+            .toArray(new Certificate[entries.size()][]), failure);
+    }
 
-            // Workaround stupid bug in the sun jdk 1.5.x - getCertificates()
-            // returns null there even if there are valid certificates.
-            // This is a regression bug that has been fixed in 1.6.
-            // 
-            // We use reflection to see whether we have a SignerCertPath
-            // for the entry (available >= 1.5) and if so check whether
-            // there are valid certificates - don't try this at home.
-            if ((certificates == null) && (m_getCodeSigners != null))
+    /**
+     * Verifies the entries of the given jar file in parallel.
+     *
+     * @return the signers of the entries or <tt>null</tt> in case there is no
+     *         manifest.
+     */
+    private Signers digest(File file) throws IOException
+    {
+        final JarFile jar = new JarFile(file, true);
+        try
+        {
+            List list = new ArrayList();
+            boolean signed = false;
+            boolean first = true;
+            for (Enumeration e = jar.entries(); e.hasMoreElements();)
             {
-                try
+                JarEntry entry = (JarEntry) e.nextElement();
+                String name = entry.getName();
+
+                // Like the JarInputStream, only accept a manifest at the start
+                if (first && !name.equalsIgnoreCase("META-INF/"))
+                {
+                    if (!name.equalsIgnoreCase(JarFile.MANIFEST_NAME))
+                    {
+                        return null;
+                    }
+                    first = false;
+                }
+
+                if (name.startsWith("META-INF/")
+                    && (name.indexOf('/', "META-INF/".length()) < 0)
+                    && name.toUpperCase().endsWith(".SF"))
+                {
+                    signed = true;
+                }
+                if (!skip(entry))
+                {
+                    list.add(entry);
+                }
+            }
+            if (first)
+            {
+                return null;
+            }
+
+            if (!signed)
+            {
+                // Not signed at all, the first entry will be unsigned
+                return Signers.create(list.isEmpty() ? new Certificate[0][]
+                    : new Certificate[1][], null);
+            }
+
+            final JarEntry[] entries = (JarEntry[]) list.toArray(new JarEntry[list.size()]);
+            final Certificate[][] certificates = new Certificate[entries.length][];
+            final Exception[] failures = new Exception[entries.length];
+
+            int threads = Math.min(m_threads,
+                (entries.length + DIGEST_THRESHOLD - 1) / DIGEST_THRESHOLD);
+            if (threads <= 1)
+            {
+                digest(jar, entries, certificates, failures, 0, entries.length);
+            }
+            else
+            {
+                digest(jar, entries, certificates, failures, threads);
+            }
+
+            // Keep what is relevant for the sequential evaluation
+            for (int i = 0; i < entries.length; i++)
+            {
+                if (failures[i] != null)
                 {
-                    Object[] signers = (Object[]) m_getCodeSigners.invoke(
-                        entry, null);
+                    Certificate[][] result = new Certificate[i][];
+                    System.arraycopy(certificates, 0, result, 0, i);
+                    return Signers.create(result, failures[i]);
+                }
+                if ((certificates[i] == null) || (certificates[i].length == 0))
+                {
+                    Certificate[][] result = new Certificate[i + 1][];
+                    System.arraycopy(certificates, 0, result, 0, i + 1);
+                    return Signers.create(result, null);
+                }
+            }
+            return Signers.create(certificates, null);
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
 
-                    if (signers != null)
+    private void digest(JarFile jar, JarEntry[] entries,
+        Certificate[][] certificates, Exception[] failures, int from, int to)
+    {
+        byte[] tmp = new byte[4096];
+        for (int i = from; i < to; i++)
+        {
+            InputStream input = null;
+            try
+            {
+                input = jar.getInputStream(entries[i]);
+                while (input.read(tmp, 0, tmp.length) != -1)
+                {
+                }
+                certificates[i] = getCertificates(entries[i]);
+            }
+            catch (Exception ex)
+            {
+                failures[i] = ex;
+            }
+            finally
+            {
+                if (input != null)
+                {
+                    try
+                    {
+                        input.close();
+                    }
+                    catch (IOException ex)
                     {
-                        List certChains = new ArrayList();
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
 
-                        for (int i = 0; i < signers.length; i++)
+    /**
+     * Verifies the entries in as many slices of about the same size as there
+     * are threads given. The calling thread takes the first slice.
+     */
+    private void digest(final JarFile jar, final JarEntry[] entries,
+        final Certificate[][] certificates, final Exception[] failures,
+        int threads)
+    {
+        final int slice = (entries.length + threads - 1) / threads;
+
+        // Threads inherit the access control context of the thread creating
+        // them, don't let that be a bundle's.
+        final Thread[] workers = (Thread[]) AccessController.doPrivileged(
+            new PrivilegedAction()
+            {
+                public Object run()
+                {
+                    List result = new ArrayList();
+                    for (int from = slice; from < entries.length; from += slice)
+                    {
+                        final int start = from;
+                        final int end = Math.min(from + slice, entries.length);
+                        Thread worker = new Thread(new Runnable()
                         {
-                            Object path = m_getSignerCertPath.invoke(
-                                signers[i], null);
+                            public void run()
+                            {
+                                digest(jar, entries, certificates, failures,
+                                    start, end);
+                            }
+                        }, "FelixBundleVerifier");
+                        worker.setDaemon(true);
+                        worker.start();
+                        result.add(worker);
+                    }
+                    return result.toArray(new Thread[result.size()]);
+                }
+            });
 
-                            certChains.addAll((List) m_getCertificates.invoke(
-                                path, null));
-                        }
+        digest(jar, entries, certificates, failures, 0, slice);
 
-                        certificates = (Certificate[]) certChains
-                            .toArray(new Certificate[certChains.size()]);
-                    }
+        boolean interrupted = false;
+        for (int i = 0; i < workers.length; i++)
+        {
+            while (workers[i].isAlive())
+            {
+                try
+                {
+                    workers[i].join();
                 }
-                catch (Exception ex)
+                catch (InterruptedException ex)
                 {
-                    ex.printStackTrace();
-                    // Not much we can do - probably we are not on >= 1.5
+                    interrupted = true;
                 }
             }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            if ((certificates == null) || (certificates.length == 0))
+    private static boolean skip(JarEntry entry)
+    {
+        return entry.isDirectory() ||
+            (entry.getName().startsWith("META-INF/") &&
+            (entry.getName().indexOf('/', "META-INF/".length()) < 0));
+    }
+
+    /**
+     * Returns the certificates of the given entry, which must have been read
+     * completely.
+     */
+    private Certificate[] getCertificates(JarEntry entry)
+    {
+        Certificate[] certificates = entry.getCertificates();
+
+        // Workaround stupid bug in the sun jdk 1.5.x - getCertificates()
+        // returns null there even if there are valid certificates.
+        // This is a regression bug that has been fixed in 1.6.
+        // 
+        // We use reflection to see whether we have a SignerCertPath
+        // for the entry (available >= 1.5) and if so check whether
+        // there are valid certificates - don't try this at home.
+        if ((certificates == null) && (m_getCodeSigners != null))
+        {
+            try
+            {
+                Object[] signers = (Object[]) m_getCodeSigners.invoke(
+                    entry, null);
+
+                if (signers != null)
+                {
+                    List certChains = new ArrayList();
+
+                    for (int i = 0; i < signers.length; i++)
+                    {
+                        Object path = m_getSignerCertPath.invoke(
+                            signers[i], null);
+
+                        certChains.addAll((List) m_getCertificates.invoke(
+                            path, null));
+                    }
+
+                    certificates = (Certificate[]) certChains
+                        .toArray(new Certificate[certChains.size()]);
+                }
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+                // Not much we can do - probably we are not on >= 1.5
+            }
+        }
+
+        return certificates;
+    }
+
+    private X509Certificate[] getCertificates(Signers signers, boolean check)
+        throws IOException
+    {
+        if (signers == null)
+        {
+            return null;
+        }
+
+        List certificateChains = new ArrayList();
+
+        int count = certificateChains.size();
+
+        for (int e = 0; e < signers.m_entries.length; e++)
+        {
+            if (signers.m_entries[e] == UNSIGNED)
             {
                 return null;
             }
 
+            Certificate[] certificates = signers.m_certificates[signers.m_entries[e]];
+
             List chains = new ArrayList();
 
             getRootChains(certificates, chains, check);
@@ -395,6 +772,19 @@ public final class BundleDNParser
             }
         }
 
+        if (signers.m_failure instanceof RuntimeException)
+        {
+            throw (RuntimeException) signers.m_failure;
+        }
+        if (signers.m_failure instanceof IOException)
+        {
+            throw (IOException) signers.m_failure;
+        }
+        if (signers.m_failure != null)
+        {
+            throw new IOException(signers.m_failure.toString());
+        }
+
         List result = new ArrayList();
 
         for (Iterator iter = certificateChains.iterator(); iter.hasNext();)
@@ -406,6 +796,132 @@ public final class BundleDNParser
             .size()]) : null);
     }
 
+    private Signers load(File store, File jar)
+    {
+        if (!store.isFile())
+        {
+            return null;
+        }
+        DataInputStream input = null;
+        try
+        {
+            input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(store)));
+            if ((input.readInt() != SIGNERS_MAGIC)
+                || (input.readLong() != jar.length())
+                || (input.readLong() != jar.lastModified()))
+            {
+                return null;
+            }
+            Map factories = new HashMap();
+            Certificate[][] certificates = new Certificate[input.readInt()][];
+            for (int i = 0; i < certificates.length; i++)
+            {
+                certificates[i] = new Certificate[input.readInt()];
+                for (int j = 0; j < certificates[i].length; j++)
+                {
+                    String type = input.readUTF();
+                    CertificateFactory factory = (CertificateFactory) factories.get(type);
+                    if (factory == null)
+                    {
+                        factory = CertificateFactory.getInstance(type);
+                        factories.put(type, factory);
+                    }
+                    byte[] encoded = new byte[input.readInt()];
+                    input.readFully(encoded);
+                    certificates[i][j] = factory.generateCertificate(
+                        new ByteArrayInputStream(encoded));
+                }
+            }
+            int[] entries = new int[input.readInt()];
+            for (int i = 0; i < entries.length; i++)
+            {
+                entries[i] = input.readInt();
+                if ((entries[i] < UNSIGNED) || (entries[i] >= certificates.length))
+                {
+                    return null;
+                }
+            }
+            return new Signers(certificates, entries, null);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Unable to read signers from " + store, ex);
+            return null;
+        }
+        finally
+        {
+            if (input != null)
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private void save(File store, File jar, Signers signers)
+    {
+        File tmp = new File(store.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try
+        {
+            output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+            output.writeInt(SIGNERS_MAGIC);
+            output.writeLong(jar.length());
+            output.writeLong(jar.lastModified());
+            output.writeInt(signers.m_certificates.length);
+            for (int i = 0; i < signers.m_certificates.length; i++)
+            {
+                output.writeInt(signers.m_certificates[i].length);
+                for (int j = 0; j < signers.m_certificates[i].length; j++)
+                {
+                    byte[] encoded = signers.m_certificates[i][j].getEncoded();
+                    output.writeUTF(signers.m_certificates[i][j].getType());
+                    output.writeInt(encoded.length);
+                    output.write(encoded);
+                }
+            }
+            output.writeInt(signers.m_entries.length);
+            for (int i = 0; i < signers.m_entries.length; i++)
+            {
+                output.writeInt(signers.m_entries[i]);
+            }
+            output.close();
+            output = null;
+            if (!tmp.renameTo(store) && (!store.delete() || !tmp.renameTo(store)))
+            {
+                throw new IOException("Unable to rename " + tmp + " to " + store);
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Unable to write signers to " + store, ex);
+            tmp.delete();
+        }
+        finally
+        {
+            if (output != null)
+            {
+                try
+                {
+                    output.close();
+                }
+                catch (IOException ex)
+                {
+                    // Ignore
+                }
+                tmp.delete();
+            }
+        }
+    }
+
     private boolean isRevoked(Certificate certificate)
     {
         for (Iterator iter = m_manager.getCRLs().iterator(); iter.hasNext();)
@@ -419,8 +935,85 @@ public final class BundleDNParser
         return false;
     }
 
+    private static final class CachedChains
+    {
+        private final List m_chains;
+        private final long m_validUntil;
+
+        CachedChains(List chains, long validUntil)
+        {
+            m_chains = chains;
+            m_validUntil = validUntil;
+        }
+    }
+
+    /**
+     * Determines the root chains of the given certificates. The result only
+     * changes once a certificate involved becomes valid or expires, as the CA
+     * certificates and CRLs are only read once, so it is cached until then.
+     */
     private void getRootChains(Certificate[] certificates, List chains,
         boolean check)
+    {
+        List key = new ArrayList(Arrays.asList(certificates));
+        key.add(Boolean.valueOf(check));
+        long now = System.currentTimeMillis();
+
+        CachedChains cached;
+        synchronized (m_chainCache)
+        {
+            cached = (CachedChains) m_chainCache.get(key);
+        }
+
+        if ((cached == null) || (cached.m_validUntil <= now))
+        {
+            List result = new ArrayList();
+            _getRootChains(certificates, result, check);
+            long validUntil = Long.MAX_VALUE;
+            if (check)
+            {
+                validUntil = validUntil(Arrays.asList(certificates), now, validUntil);
+                validUntil = validUntil(m_manager.getCaCerts(), now, validUntil);
+            }
+            cached = new CachedChains(result, validUntil);
+            synchronized (m_chainCache)
+            {
+                if (m_chainCache.size() >= CHAIN_CACHE_SIZE)
+                {
+                    m_chainCache.clear();
+                }
+                m_chainCache.put(key, cached);
+            }
+        }
+
+        for (Iterator iter = cached.m_chains.iterator(); iter.hasNext();)
+        {
+            chains.add(new ArrayList((List) iter.next()));
+        }
+    }
+
+    private static long validUntil(Collection certificates, long now,
+        long validUntil)
+    {
+        for (Iterator iter = certificates.iterator(); iter.hasNext();)
+        {
+            Object certificate = iter.next();
+            if (certificate instanceof X509Certificate)
+            {
+                long notBefore = ((X509Certificate) certificate).getNotBefore().getTime();
+                if (notBefore > now)
+                {
+                    validUntil = Math.min(validUntil, notBefore);
+                }
+                validUntil = Math.min(validUntil,
+                    ((X509Certificate) certificate).getNotAfter().getTime() + 1);
+            }
+        }
+        return validUntil;
+    }
+
+    private void _getRootChains(Certificate[] certificates, List chains,
+        boolean check)
     {
         List chain = new ArrayList();
 
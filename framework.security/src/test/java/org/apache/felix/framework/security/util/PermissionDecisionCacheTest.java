@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.security.util;
+
+import java.security.AllPermission;
+import java.security.Permission;
+import java.util.PropertyPermission;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class PermissionDecisionCacheTest extends TestCase
+{
+    private static final Permission READ = new PropertyPermission("test", "read");
+
+    public void testUpdate()
+    {
+        PermissionDecisionCache cache = new PermissionDecisionCache(10);
+        Object revision = new Object();
+        assertNull(cache.get(revision, READ));
+
+        cache.put(cache.getGeneration(), revision, READ,
+            PermissionDecisionCache.GRANTED);
+        assertSame(PermissionDecisionCache.GRANTED, cache.get(revision, READ));
+        assertNull(cache.get(new Object(), READ));
+
+        cache.put(cache.getGeneration(), revision, READ,
+            PermissionDecisionCache.DENIED);
+        assertSame(PermissionDecisionCache.DENIED, cache.get(revision, READ));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    public void testBounded()
+    {
+        PermissionDecisionCache cache = new PermissionDecisionCache(2);
+        Object revision = new Object();
+        cache.put(cache.getGeneration(), revision, READ,
+            PermissionDecisionCache.GRANTED);
+        cache.put(cache.getGeneration(), revision, new AllPermission(),
+            PermissionDecisionCache.GRANTED);
+        cache.put(cache.getGeneration(), revision, new PropertyPermission(
+            "other", "read"), PermissionDecisionCache.GRANTED);
+        assertNull(cache.get(revision, READ));
+    }
+
+    public void testDisabled()
+    {
+        PermissionDecisionCache cache = new PermissionDecisionCache(0);
+        Object revision = new Object();
+        cache.put(cache.getGeneration(), revision, READ,
+            PermissionDecisionCache.GRANTED);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(revision, READ));
+    }
+
+    public void testClear()
+    {
+        PermissionDecisionCache cache = new PermissionDecisionCache(10);
+        Object revision = new Object();
+        cache.put(cache.getGeneration(), revision, READ,
+            PermissionDecisionCache.GRANTED);
+        cache.clear();
+        assertNull(cache.get(revision, READ));
+        assertEquals(1, cache.getClearCount());
+    }
+
+    public void testDecisionComputedBeforeClearIsDiscarded()
+    {
+        PermissionDecisionCache cache = new PermissionDecisionCache(10);
+        Object revision = new Object();
+
+        Object generation = cache.getGeneration();
+        // the policy changes while the decision is computed
+        cache.clear();
+        cache.put(generation, revision, READ, PermissionDecisionCache.GRANTED);
+
+        assertNull(cache.get(revision, READ));
+    }
+
+    /**
+     * Permission checks run concurrently with policy changes, which are
+     * followed by a clear like in the conditional permission admin. Once a
+     * change is done, only decisions of the new policy may be cached.
+     */
+    public void testConcurrentChecks() throws Exception
+    {
+        final PermissionDecisionCache cache = new PermissionDecisionCache(10);
+        final Object revision = new Object();
+        final AtomicInteger policy = new AtomicInteger();
+        final boolean[] stop = new boolean[1];
+
+        Thread[] checkers = new Thread[4];
+        for (int i = 0; i < checkers.length; i++)
+        {
+            checkers[i] = new Thread()
+            {
+                public void run()
+                {
+                    while (!isStopped(stop))
+                    {
+                        Object generation = cache.getGeneration();
+                        if (cache.get(revision, READ) == null)
+                        {
+                            Integer decision = decide(policy.get());
+                            Thread.yield();
+                            cache.put(generation, revision, READ, decision);
+                        }
+                    }
+                }
+            };
+            checkers[i].start();
+        }
+
+        try
+        {
+            for (int i = 0; i < 2000; i++)
+            {
+                int current = policy.incrementAndGet();
+                cache.clear();
+                Thread.yield();
+                Integer cached = cache.get(revision, READ);
+                if (cached != null)
+                {
+                    assertSame("stale decision cached after policy change "
+                        + current, decide(current), cached);
+                }
+            }
+        }
+        finally
+        {
+            synchronized (stop)
+            {
+                stop[0] = true;
+            }
+            for (int i = 0; i < checkers.length; i++)
+            {
+                checkers[i].join();
+            }
+        }
+    }
+
+    private static boolean isStopped(boolean[] stop)
+    {
+        synchronized (stop)
+        {
+            return stop[0];
+        }
+    }
+
+    private static Integer decide(int policy)
+    {
+        return (policy % 2 == 0) ? PermissionDecisionCache.GRANTED
+            : PermissionDecisionCache.DENIED;
+    }
+}
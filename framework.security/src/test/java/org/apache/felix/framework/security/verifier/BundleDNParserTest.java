@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.security.verifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.cache.Content;
+import org.apache.felix.framework.cache.JarContent;
+import org.apache.felix.framework.security.util.TrustManager;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.osgi.framework.Bundle;
+
+public class BundleDNParserTest extends TestCase
+{
+    private static final String SIGNER = "CN=Test Signer, O=Apache Felix";
+
+    private File m_dir;
+    private final List m_contents = new ArrayList();
+
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("verifier", ".test");
+        m_dir.delete();
+        m_dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        for (Iterator iter = m_contents.iterator(); iter.hasNext();)
+        {
+            ((Content) iter.next()).close();
+        }
+        delete(m_dir);
+    }
+
+    public void testSigned() throws Exception
+    {
+        File jar = signedBundle(null, null);
+
+        assertSigned(parser(1).getDNChains(null, content(jar), Bundle.SIGNERS_ALL));
+        assertSigned(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL));
+        parser(4).checkDNChains(null, content(jar), Bundle.SIGNERS_ALL);
+    }
+
+    public void testTamperedEntry() throws Exception
+    {
+        File jar = signedBundle("org/test/Entry20.txt", "tampered\n".getBytes());
+
+        assertTrue(parser(1).getDNChains(null, content(jar), Bundle.SIGNERS_ALL).isEmpty());
+        assertTrue(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL).isEmpty());
+        try
+        {
+            parser(4).checkDNChains(null, content(jar), Bundle.SIGNERS_ALL);
+            fail("Tampered entry not detected");
+        }
+        catch (Exception ex)
+        {
+            // Expected
+        }
+    }
+
+    public void testUnsignedEntry() throws Exception
+    {
+        File jar = signedBundle("org/test/Unsigned.txt", "unsigned\n".getBytes());
+
+        assertTrue(parser(1).getDNChains(null, content(jar), Bundle.SIGNERS_ALL).isEmpty());
+        assertTrue(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL).isEmpty());
+    }
+
+    public void testUnsignedBundle() throws Exception
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        File jar = new File(m_dir, "unsigned.jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try
+        {
+            for (int i = 0; i < 40; i++)
+            {
+                output.putNextEntry(new ZipEntry("org/test/Entry" + i + ".txt"));
+                output.write(("entry " + i + "\n").getBytes());
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+
+        assertTrue(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL).isEmpty());
+        assertFalse(new File(m_dir, "bundle.signers").exists());
+    }
+
+    public void testPersistedSigners() throws Exception
+    {
+        File jar = signedBundle(null, null);
+        File revisionDir = new File(m_dir, "revision");
+        revisionDir.mkdirs();
+
+        assertSigned(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL,
+            revisionDir));
+        File store = new File(revisionDir, "bundle.signers");
+        assertTrue(store.isFile());
+        long stored = store.lastModified();
+
+        // A new parser, like after a restart, reads the persisted signers
+        assertSigned(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL,
+            revisionDir));
+        assertEquals(stored, store.lastModified());
+    }
+
+    public void testInvalidatedPersistedSigners() throws Exception
+    {
+        File jar = signedBundle(null, null);
+        File revisionDir = new File(m_dir, "revision");
+        revisionDir.mkdirs();
+
+        assertSigned(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL,
+            revisionDir));
+        assertTrue(new File(revisionDir, "bundle.signers").isFile());
+
+        // Replace the jar the persisted signers were computed for
+        long lastModified = jar.lastModified();
+        File tampered = signedBundle("org/test/Entry20.txt", "tampered\n".getBytes());
+        assertTrue(jar.delete() && tampered.renameTo(jar));
+        jar.setLastModified(lastModified + 2000);
+
+        assertTrue(parser(4).getDNChains(null, content(jar), Bundle.SIGNERS_ALL,
+            revisionDir).isEmpty());
+    }
+
+    private BundleDNParser parser(int threads)
+    {
+        return new BundleDNParser(new TrustManager("", "", "", "", null),
+            new Logger(), threads);
+    }
+
+    private Content content(File jar)
+    {
+        Content content = new JarContent(new Logger(), new HashMap(),
+            new WeakZipFileFactory(1), new Object(), m_dir, jar, null);
+        m_contents.add(content);
+        return content;
+    }
+
+    private static void assertSigned(Map chains)
+    {
+        assertEquals(1, chains.size());
+        X509Certificate certificate = (X509Certificate) chains.keySet().iterator().next();
+        assertEquals(SIGNER, certificate.getSubjectDN().getName());
+    }
+
+    /**
+     * Copies the signed test bundle, replacing or adding the given entry.
+     */
+    private File signedBundle(String name, byte[] data) throws IOException
+    {
+        File result = File.createTempFile("bundle", ".jar", m_dir);
+        ZipInputStream input = new ZipInputStream(
+            getClass().getResourceAsStream("signed.jar"));
+        ZipOutputStream output = new ZipOutputStream(new FileOutputStream(result));
+        try
+        {
+            boolean found = false;
+            for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry())
+            {
+                output.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().equals(name))
+                {
+                    output.write(data);
+                    found = true;
+                }
+                else
+                {
+                    copy(input, output);
+                }
+            }
+            if ((name != null) && !found)
+            {
+                output.putNextEntry(new ZipEntry(name));
+                output.write(data);
+            }
+        }
+        finally
+        {
+            input.close();
+            output.close();
+        }
+        return result;
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException
+    {
+        byte[] buffer = new byte[4096];
+        for (int len = input.read(buffer); len != -1; len = input.read(buffer))
+        {
+            output.write(buffer, 0, len);
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                delete(files[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import org.apache.felix.framework.Logger;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.AccessController;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class implements a content-addressed store for the files of the
+ * bundle cache, i.e., bundle JAR files as well as extracted embedded JAR
+ * files and native libraries. Each distinct content is stored exactly once
+ * as a blob named after its SHA-256 hash and hard linked into the revision
+ * directories using it. Installing the same JAR file many times therefore
+ * only costs the hashing of its content.
+ * </p>
+ * <p>
+ * Blobs are reference counted by the file system: the link count of a blob
+ * is the number of revision files referring to it plus one. Deleting a
+ * revision directory thus releases its blobs, which are removed once they
+ * are no longer linked by {@link #gc()}.
+ * </p>
+ * <p>
+ * The store requires hard links and the <tt>unix:nlink</tt> file attribute,
+ * which are only available on Java 7 and later on file systems supporting
+ * them. If these are not available, the store is not used and files are
+ * copied into the revision directories as before.
+ * </p>
+**/
+@IgnoreJRERequirement
+class BlobStore
+{
+    private static final transient String BLOB_DIR_NAME = "blobs";
+    private static final transient String TEMP_PREFIX = "blob";
+    private static final transient String TEMP_SUFFIX = ".tmp";
+    private static final transient String HASH_ALGORITHM = "SHA-256";
+    private static final transient char[] HEX =
+        "0123456789abcdef".toCharArray();
+
+    // Bytes transferred from the input stream per invocation of transferFrom
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private final Logger m_logger;
+    private final File m_dir;
+
+    private long m_stored;
+    private long m_deduplicated;
+
+    private BlobStore(Logger logger, File dir)
+    {
+        m_logger = logger;
+        m_dir = dir;
+    }
+
+    /**
+     * Creates the blob store of the given cache directory, if it is enabled
+     * and supported.
+     * @return the blob store or <tt>null</tt> if files should be copied.
+    **/
+    static BlobStore create(Logger logger, Map configMap, File cacheDir)
+    {
+        Object enabled = configMap.get(BundleCache.CACHE_BLOBSTORE_PROP);
+        if ((enabled != null) && !Boolean.valueOf(enabled.toString()).booleanValue())
+        {
+            return null;
+        }
+
+        try
+        {
+            Class.forName("java.nio.file.Files");
+        }
+        catch (Throwable ex)
+        {
+            return null;
+        }
+
+        File dir = new File(cacheDir, BLOB_DIR_NAME);
+        if (!BundleCache.getSecureAction().fileExists(dir)
+            && !BundleCache.getSecureAction().mkdirs(dir))
+        {
+            logger.log(Logger.LOG_WARNING, "Unable to create blob directory: " + dir);
+            return null;
+        }
+
+        BlobStore store = new BlobStore(logger, dir);
+        if (!store.isSupported())
+        {
+            logger.log(Logger.LOG_DEBUG,
+                "Hard links are not supported by the bundle cache, copying files.");
+            BundleCache.deleteDirectoryTree(dir);
+            return null;
+        }
+
+        // Remove whatever was left over or released since the last run.
+        File[] files = BundleCache.getSecureAction().listDirectory(dir);
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            if (!BundleCache.getSecureAction().isFileDirectory(files[i]))
+            {
+                BundleCache.getSecureAction().deleteFile(files[i]);
+            }
+        }
+        store.gc();
+
+        return store;
+    }
+
+    /**
+     * Stores the given input stream and links it to the specified file. The
+     * content is hashed while being copied into the store and only kept if
+     * it is not already stored.
+     * @param is the input stream to store, which is closed afterwards.
+     * @param target the file to which the content should be linked.
+    **/
+    void copy(InputStream is, File target) throws IOException
+    {
+        File tmp = null;
+        try
+        {
+            MessageDigest digest;
+            try
+            {
+                digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            }
+            catch (Exception ex)
+            {
+                throw new IOException("Unable to hash content: " + ex);
+            }
+
+            tmp = BundleCache.getSecureAction().createTempFile(
+                TEMP_PREFIX, TEMP_SUFFIX, m_dir);
+            FileOutputStream os = BundleCache.getSecureAction().getFileOutputStream(tmp);
+            try
+            {
+                FileChannel out = os.getChannel();
+                ReadableByteChannel in = Channels.newChannel(
+                    new DigestInputStream(is, digest));
+                long position = 0;
+                for (long n = out.transferFrom(in, position, TRANSFER_SIZE); n > 0;
+                    n = out.transferFrom(in, position, TRANSFER_SIZE))
+                {
+                    position += n;
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+
+            String hash = toHex(digest.digest());
+            File blob = new File(new File(m_dir, hash.substring(0, 2)), hash);
+
+            synchronized (this)
+            {
+                m_stored++;
+                if (BundleCache.getSecureAction().fileExists(blob)
+                    && (blob.length() == tmp.length()))
+                {
+                    m_deduplicated++;
+                }
+                else
+                {
+                    File blobDir = blob.getParentFile();
+                    if ((!BundleCache.getSecureAction().fileExists(blobDir)
+                        && !BundleCache.getSecureAction().mkdirs(blobDir))
+                        || (BundleCache.getSecureAction().fileExists(blob)
+                        && !BundleCache.getSecureAction().deleteFile(blob))
+                        || !BundleCache.getSecureAction().renameFile(tmp, blob))
+                    {
+                        throw new IOException("Unable to store blob: " + blob);
+                    }
+                }
+
+                try
+                {
+                    link(target, blob);
+                }
+                catch (IOException ex)
+                {
+                    // The target might be on a different file system, so
+                    // fall back to a private copy of the blob.
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Unable to link " + target + " to " + blob, ex);
+                    copyFile(blob, target);
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                if (is != null) is.close();
+            }
+            finally
+            {
+                if ((tmp != null) && BundleCache.getSecureAction().fileExists(tmp))
+                {
+                    BundleCache.getSecureAction().deleteFile(tmp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes blobs no longer linked to any revision directory.
+    **/
+    synchronized void gc()
+    {
+        int removed = 0;
+        File[] dirs = BundleCache.getSecureAction().listDirectory(m_dir);
+        for (int i = 0; (dirs != null) && (i < dirs.length); i++)
+        {
+            if (!BundleCache.getSecureAction().isFileDirectory(dirs[i]))
+            {
+                // Files being copied into the store
+                continue;
+            }
+            File[] blobs = BundleCache.getSecureAction().listDirectory(dirs[i]);
+            for (int j = 0; (blobs != null) && (j < blobs.length); j++)
+            {
+                try
+                {
+                    if (getLinkCount(blobs[j]) <= 1)
+                    {
+                        if (BundleCache.getSecureAction().deleteFile(blobs[j]))
+                        {
+                            removed++;
+                        }
+                    }
+                }
+                catch (IOException ex)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Unable to determine references of blob: " + blobs[j], ex);
+                }
+            }
+            blobs = BundleCache.getSecureAction().listDirectory(dirs[i]);
+            if ((blobs != null) && (blobs.length == 0))
+            {
+                BundleCache.getSecureAction().deleteFile(dirs[i]);
+            }
+        }
+        if (removed > 0)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Removed " + removed
+                + " unreferenced blobs, " + m_deduplicated + " of " + m_stored
+                + " files stored were duplicates.");
+        }
+    }
+
+    private boolean isSupported()
+    {
+        File probe = new File(m_dir, TEMP_PREFIX + TEMP_SUFFIX);
+        File link = new File(m_dir, TEMP_PREFIX + "-link" + TEMP_SUFFIX);
+        try
+        {
+            BundleCache.getSecureAction().getFileOutputStream(probe).close();
+            link(link, probe);
+            return getLinkCount(probe) == 2;
+        }
+        catch (Throwable ex)
+        {
+            return false;
+        }
+        finally
+        {
+            BundleCache.getSecureAction().deleteFile(link);
+            BundleCache.getSecureAction().deleteFile(probe);
+        }
+    }
+
+    private static void link(final File link, final File existing) throws IOException
+    {
+        try
+        {
+            AccessController.doPrivileged(new PrivilegedExceptionAction<Object>()
+            {
+                public Object run() throws Exception
+                {
+                    java.nio.file.Files.createLink(link.toPath(), existing.toPath());
+                    return null;
+                }
+            });
+        }
+        catch (PrivilegedActionException ex)
+        {
+            throw toIOException(ex.getException());
+        }
+        catch (RuntimeException ex)
+        {
+            throw toIOException(ex);
+        }
+    }
+
+    private static int getLinkCount(final File file) throws IOException
+    {
+        try
+        {
+            return ((Number) AccessController.doPrivileged(
+                new PrivilegedExceptionAction<Object>()
+                {
+                    public Object run() throws Exception
+                    {
+                        return java.nio.file.Files.getAttribute(
+                            file.toPath(), "unix:nlink");
+                    }
+                })).intValue();
+        }
+        catch (PrivilegedActionException ex)
+        {
+            throw toIOException(ex.getException());
+        }
+        catch (RuntimeException ex)
+        {
+            throw toIOException(ex);
+        }
+    }
+
+    private static void copyFile(File source, File target) throws IOException
+    {
+        FileInputStream is = BundleCache.getSecureAction().getFileInputStream(source);
+        try
+        {
+            FileOutputStream os = BundleCache.getSecureAction().getFileOutputStream(target);
+            try
+            {
+                FileChannel in = is.getChannel();
+                long size = in.size();
+                for (long position = 0; position < size; )
+                {
+                    position += in.transferTo(position, size - position, os.getChannel());
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static IOException toIOException(Exception ex)
+    {
+        if (ex instanceof IOException)
+        {
+            return (IOException) ex;
+        }
+        IOException result = new IOException(ex.toString());
+        result.initCause(ex);
+        return result;
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(result);
+    }
+}
@@ -78,6 +78,7 @@ public class BundleArchive
     private final Logger m_logger;
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
+    private final BlobStore m_blobStore;
     private final File m_archiveRootDir;
 
     private long m_id = -1;
@@ -124,10 +125,20 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir, long id, int startLevel, String location, InputStream is)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, null, archiveRootDir, id, startLevel,
+            location, is);
+    }
+
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        BlobStore blobStore, File archiveRootDir, long id, int startLevel,
+        String location, InputStream is)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
+        m_blobStore = blobStore;
         m_archiveRootDir = archiveRootDir;
         m_id = id;
         if (m_id <= 0)
@@ -163,10 +174,18 @@ public class BundleArchive
     public BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File archiveRootDir)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, null, archiveRootDir);
+    }
+
+    BundleArchive(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        BlobStore blobStore, File archiveRootDir)
+        throws Exception
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
+        m_blobStore = blobStore;
         m_archiveRootDir = archiveRootDir;
 
         readBundleInfo();
@@ -531,6 +550,7 @@ public class BundleArchive
         if (BundleCache.getSecureAction().fileExists(revisionDir))
         {
             BundleCache.deleteDirectoryTree(revisionDir);
+            releaseBlobs();
         }
 
         return true;
@@ -620,6 +640,7 @@ public class BundleArchive
                 Logger.LOG_ERROR,
                 "Unable to delete archive directory - " + m_archiveRootDir);
         }
+        releaseBlobs();
     }
 
     /**
@@ -661,6 +682,7 @@ public class BundleArchive
                 }
             }
         }
+        releaseBlobs();
 
         // If the revision has native libraries, then rename its directory
         // to avoid the issue of being unable to load the same native library
@@ -784,20 +806,20 @@ public class BundleArchive
                 else
                 {
                     result = new JarRevision(m_logger, m_configMap,
-                        m_zipFactory, revisionRootDir, location, true, null);
+                        m_zipFactory, m_blobStore, revisionRootDir, location, true, null);
                 }
             }
             else if (location.startsWith(INPUTSTREAM_PROTOCOL))
             {
                 // Assume all input streams point to JAR files.
                 result = new JarRevision(m_logger, m_configMap,
-                    m_zipFactory, revisionRootDir, location, false, is);
+                    m_zipFactory, m_blobStore, revisionRootDir, location, false, is);
             }
             else
             {
                 // Anything else is assumed to be a URL to a JAR file.
                 result = new JarRevision(m_logger, m_configMap,
-                    m_zipFactory, revisionRootDir, location, false, null);
+                    m_zipFactory, m_blobStore, revisionRootDir, location, false, null);
             }
         }
         catch (Exception ex)
@@ -859,6 +881,16 @@ public class BundleArchive
         return result.toString();
     }
 
+    // Removes the blobs of the bundle cache no longer linked, after
+    // revision directories have been deleted.
+    private void releaseBlobs()
+    {
+        if (m_blobStore != null)
+        {
+            m_blobStore.gc();
+        }
+    }
+
     private void readBundleInfo() throws Exception
     {
         File infoFile = new File(m_archiveRootDir, BUNDLE_INFO_FILE);
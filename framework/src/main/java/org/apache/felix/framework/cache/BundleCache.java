@@ -75,6 +75,12 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.blobstore</tt> - Enables or disables storing bundle
+ *       JAR files and extracted content only once per distinct content, hard
+ *       linked into the bundle directories. This is enabled by default, but
+ *       only used if the file system supports hard links; set this property
+ *       to <tt>false</tt> to always copy the files.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +93,7 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_BLOBSTORE_PROP = "felix.cache.blobstore";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
@@ -101,6 +108,7 @@ public class BundleCache
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
     private final Object m_lock;
+    private final BlobStore m_blobStore;
 
     public BundleCache(Logger logger, Map configMap)
         throws Exception
@@ -184,6 +192,8 @@ public class BundleCache
         {
             m_lock = null;
         }
+
+        m_blobStore = BlobStore.create(m_logger, m_configMap, cacheDir);
     }
 
     // Parse the main attributes of the manifest of the given jarfile.
@@ -431,7 +441,8 @@ public class BundleCache
                 {
                     archiveList.add(
                         new BundleArchive(
-                            m_logger, m_configMap, m_zipFactory, children[i]));
+                            m_logger, m_configMap, m_zipFactory, m_blobStore,
+                            children[i]));
                 }
                 catch (Exception ex)
                 {
@@ -461,8 +472,8 @@ public class BundleCache
             // Create the archive and add it to the list of archives.
             BundleArchive ba =
                 new BundleArchive(
-                    m_logger, m_configMap, m_zipFactory, archiveRootDir,
-                    id, startLevel, location, is);
+                    m_logger, m_configMap, m_zipFactory, m_blobStore,
+                    archiveRootDir, id, startLevel, location, is);
             return ba;
         }
         catch (Exception ex)
@@ -567,6 +578,26 @@ public class BundleCache
         }
     }
 
+    /**
+     * This method copies an input stream to the specified file, sharing the
+     * content with other files of the same content if a blob store is given.
+     * @param blobStore the blob store to use or <tt>null</tt>.
+     * @param is the input stream to copy.
+     * @param outputFile the file to which the input stream should be copied.
+    **/
+    static void copyStreamToFile(BlobStore blobStore, InputStream is, File outputFile)
+        throws IOException
+    {
+        if (blobStore != null)
+        {
+            blobStore.copy(is, outputFile);
+        }
+        else
+        {
+            copyStreamToFile(is, outputFile);
+        }
+    }
+
     static boolean deleteDirectoryTree(File target)
     {
         if (!deleteDirectoryTreeRecursive(target))
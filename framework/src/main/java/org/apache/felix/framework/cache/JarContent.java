@@ -44,6 +44,7 @@ public class JarContent implements Content
     private final Logger m_logger;
     private final Map m_configMap;
     private final WeakZipFileFactory m_zipFactory;
+    private final BlobStore m_blobStore;
     private final Object m_revisionLock;
     private final File m_rootDir;
     private final File m_file;
@@ -53,10 +54,18 @@ public class JarContent implements Content
 
     public JarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
+    {
+        this(logger, configMap, zipFactory, null, revisionLock, rootDir, file, zipFile);
+    }
+
+    JarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        BlobStore blobStore, Object revisionLock, File rootDir, File file,
+        WeakZipFile zipFile)
     {
         m_logger = logger;
         m_configMap = configMap;
         m_zipFactory = zipFactory;
+        m_blobStore = blobStore;
         m_revisionLock = revisionLock;
         m_rootDir = rootDir;
         m_file = file;
@@ -201,8 +210,8 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            return new JarContent(m_logger, m_configMap, m_zipFactory, m_blobStore,
+                m_revisionLock, m_rootDir, m_file, m_zipFile);
         }
 
         // Remove any leading slash.
@@ -257,12 +266,13 @@ public class JarContent implements Content
                             }
 
                             // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
+                            BundleCache.copyStreamToFile(
+                                m_blobStore, m_zipFile.getInputStream(ze), extractJar);
                         }
                     }
                 }
                 return new JarContent(
-                    m_logger, m_configMap, m_zipFactory, m_revisionLock,
+                    m_logger, m_configMap, m_zipFactory, m_blobStore, m_revisionLock,
                     extractJar.getParentFile(), extractJar, null);
             }
             catch (Exception ex)
@@ -338,7 +348,8 @@ public class JarContent implements Content
                         try
                         {
                             // Create the file.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), libFile);
+                            BundleCache.copyStreamToFile(
+                                m_blobStore, m_zipFile.getInputStream(ze), libFile);
 
                             // Perform exec permission command on extracted library
                             // if one is configured.
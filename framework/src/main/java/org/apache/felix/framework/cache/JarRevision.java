@@ -24,6 +24,10 @@ import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,12 +47,21 @@ import java.util.zip.ZipEntry;
  * either case, some of the contents may be extracted into the revision
  * directory, such as embedded JAR files and native libraries.
  * </p>
+ * <p>
+ * The main attributes of the manifest are kept in the revision's directory
+ * along with the size and modification time of the JAR file they were read
+ * from. As long as the JAR file does not change, they are read from there
+ * and the JAR file is only opened once its content is accessed.
+ * </p>
 **/
 class JarRevision extends BundleArchiveRevision
 {
     private static final transient String BUNDLE_JAR_FILE = "bundle.jar";
+    private static final transient String BUNDLE_HEADERS_FILE = "bundle.headers";
+    private static final transient int BUNDLE_HEADERS_MAGIC = 0x46484431;
 
     private final WeakZipFileFactory m_zipFactory;
+    private final BlobStore m_blobStore;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
 
@@ -56,10 +69,21 @@ class JarRevision extends BundleArchiveRevision
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         File revisionRootDir, String location, boolean byReference, InputStream is)
         throws Exception
+    {
+        this(logger, configMap, zipFactory, null, revisionRootDir, location,
+            byReference, is);
+    }
+
+    JarRevision(
+        Logger logger, Map configMap, WeakZipFileFactory zipFactory,
+        BlobStore blobStore, File revisionRootDir, String location,
+        boolean byReference, InputStream is)
+        throws Exception
     {
         super(logger, configMap, revisionRootDir, location);
 
         m_zipFactory = zipFactory;
+        m_blobStore = blobStore;
 
         if (byReference)
         {
@@ -75,12 +99,13 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
-        // Open shared copy of the JAR file.
+        // Open shared copy of the JAR file, the JAR file itself is only opened
+        // once needed.
         WeakZipFile zipFile = null;
         try
         {
             // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
+            zipFile = m_zipFactory.create(m_bundleFile, true);
             // Error if no jar file.
             if (zipFile == null)
             {
@@ -97,10 +122,25 @@ class JarRevision extends BundleArchiveRevision
 
     public Map<String, Object> getManifestHeader() throws Exception
     {
+        // Use the headers read before, if the JAR file did not change since.
+        File headersFile = new File(getRevisionRootDir(), BUNDLE_HEADERS_FILE);
+        long length = m_bundleFile.length();
+        long lastModified = m_bundleFile.lastModified();
+        Map<String, Object> manifest = readHeaders(headersFile, length, lastModified);
+        if (manifest != null)
+        {
+            return manifest;
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
-        Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+        manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+
+        if (manifest != null)
+        {
+            writeHeaders(headersFile, length, lastModified, manifest);
+        }
 
         return manifest;
     }
@@ -108,7 +148,7 @@ class JarRevision extends BundleArchiveRevision
     public Content getContent() throws Exception
     {
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
-            this, getRevisionRootDir(), m_bundleFile, m_zipFile);
+            m_blobStore, this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
 
     protected void close() throws Exception
@@ -120,6 +160,114 @@ class JarRevision extends BundleArchiveRevision
     // Private methods.
     //
 
+    private Map<String, Object> readHeaders(File headersFile, long length, long lastModified)
+    {
+        if (!BundleCache.getSecureAction().fileExists(headersFile))
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(
+                BundleCache.getSecureAction().getFileInputStream(headersFile)));
+            if ((in.readInt() != BUNDLE_HEADERS_MAGIC)
+                || (in.readLong() != length) || (in.readLong() != lastModified))
+            {
+                return null;
+            }
+            Map<String, Object> headers = new StringMap();
+            for (int i = in.readInt(); i > 0; i--)
+            {
+                headers.put(readString(in, length).intern(), readString(in, length));
+            }
+            return headers;
+        }
+        catch (Exception ex)
+        {
+            getLogger().log(Logger.LOG_DEBUG,
+                "Unable to read cached headers: " + headersFile, ex);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                if (in != null) in.close();
+            }
+            catch (IOException ex)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+
+    private void writeHeaders(
+        File headersFile, long length, long lastModified, Map<String, Object> headers)
+    {
+        File tmpFile = new File(headersFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream(new BufferedOutputStream(
+                BundleCache.getSecureAction().getFileOutputStream(tmpFile)));
+            out.writeInt(BUNDLE_HEADERS_MAGIC);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, Object> entry : headers.entrySet())
+            {
+                writeString(out, entry.getKey());
+                writeString(out, (String) entry.getValue());
+            }
+            out.close();
+            out = null;
+            BundleCache.getSecureAction().deleteFile(headersFile);
+            if (!BundleCache.getSecureAction().renameFile(tmpFile, headersFile))
+            {
+                throw new IOException("Unable to rename " + tmpFile);
+            }
+        }
+        catch (Exception ex)
+        {
+            getLogger().log(Logger.LOG_DEBUG,
+                "Unable to cache headers: " + headersFile, ex);
+            BundleCache.getSecureAction().deleteFile(tmpFile);
+        }
+        finally
+        {
+            try
+            {
+                if (out != null) out.close();
+            }
+            catch (IOException ex)
+            {
+                // Not much we can do.
+            }
+        }
+    }
+
+    // Unlike writeUTF(), header values may exceed 64k.
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long max) throws IOException
+    {
+        int size = in.readInt();
+        if ((size < 0) || (size > max))
+        {
+            throw new IOException("Corrupt headers");
+        }
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     private void initialize(boolean byReference, InputStream is)
         throws Exception
     {
@@ -167,7 +315,7 @@ class JarRevision extends BundleArchiveRevision
                         }
 
                         // Save the bundle jar file.
-                        BundleCache.copyStreamToFile(is, m_bundleFile);
+                        BundleCache.copyStreamToFile(m_blobStore, is, m_bundleFile);
                     }
                     finally
                     {
@@ -19,6 +19,7 @@
 package org.apache.felix.framework.util;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.SoftReference;
@@ -75,7 +76,20 @@ public class WeakZipFileFactory
      */
     public WeakZipFile create(File file) throws IOException
     {
-        WeakZipFile wzf = new WeakZipFile(file);
+        return create(file, false);
+    }
+
+    /**
+     * Factory method used to create weak zip files.
+     * @param file the target zip file.
+     * @param lazy whether to defer opening the zip file until it is used.
+     * @return the created weak zip file.
+     * @throws IOException if the zip file could not be opened or, if it
+     *         is opened lazily, does not exist.
+     */
+    public WeakZipFile create(File file, boolean lazy) throws IOException
+    {
+        WeakZipFile wzf = new WeakZipFile(file, lazy);
 
         if (m_limit > 0)
         {
@@ -84,6 +98,11 @@ public class WeakZipFileFactory
             try
             {
                 m_zipFiles.add(wzf);
+                if (lazy)
+                {
+                    // Will be reopened on first use.
+                    return wzf;
+                }
                 m_openFiles.add(wzf);
                 if (m_openFiles.size() > m_limit)
                 {
@@ -161,12 +180,26 @@ public class WeakZipFileFactory
          * Constructor is private since instances need to be centrally
          * managed.
          * @param file the target zip file.
+         * @param lazy whether to defer opening the zip file until it is used.
          * @throws IOException if the zip file could not be opened.
          */
-        private WeakZipFile(File file) throws IOException
+        private WeakZipFile(File file, boolean lazy) throws IOException
         {
             m_file = file;
-            m_zipFile = m_secureAction.openZipFile(m_file);
+            if (lazy)
+            {
+                if (!m_secureAction.fileExists(m_file))
+                {
+                    throw new FileNotFoundException(m_file.getPath());
+                }
+                // Without a limit, the zip file is opened by the first use
+                // while open; otherwise it is reopened like a weakly closed one.
+                m_status = (m_limit > 0) ? WEAKLY_CLOSED : OPEN;
+            }
+            else
+            {
+                m_zipFile = m_secureAction.openZipFile(m_file);
+            }
             m_timestamp = System.currentTimeMillis();
         }
 
@@ -433,6 +466,10 @@ public class WeakZipFileFactory
         {
             if (m_limit == 0)
             {
+                if (m_zipFile == null)
+                {
+                    openLazily();
+                }
                 return;
             }
 
@@ -498,6 +535,33 @@ public class WeakZipFileFactory
             }
         }
 
+        /**
+         * This internal method is used to open a zip file created lazily if
+         * there is no limit, in which case there is no local mutex.
+         */
+        private synchronized void openLazily()
+        {
+            if ((m_zipFile == null) && (m_status == OPEN))
+            {
+                try
+                {
+                    m_zipFile = m_secureAction.openZipFile(m_file);
+                }
+                catch (IOException ex)
+                {
+                    __close();
+                    IllegalStateException ise =
+                        new IllegalStateException("Zip file is closed: " + m_file);
+                    ise.initCause(ex);
+                    throw ise;
+                }
+            }
+            if (m_zipFile == null)
+            {
+                throw new IllegalStateException("Zip file is closed: " + m_file);
+            }
+        }
+
         /**
          * Thie internal method is used to reopen a weakly closed zip file.
          * It makes a best effort, but may fail and leave the zip file member
@@ -170,6 +170,51 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testCachedHeaders() throws Exception
+    {
+        BundleArchive archive = cache.create(1, 1, jarFile.toURI().toURL().toString(), null);
+        Map<String, Object> headers = archive.getCurrentRevision().getManifestHeader();
+        assertEquals("bar", headers.get("foo"));
+        assertTrue(new File(archive.getCurrentRevision().getRevisionRootDir(), "bundle.headers").isFile());
+        archive.close();
+
+        BundleArchive[] archives = cache.getArchives();
+        assertEquals(1, archives.length);
+        assertEquals(headers, archives[0].getCurrentRevision().getManifestHeader());
+        assertEquals("bar", archives[0].getCurrentRevision().getManifestHeader().get("FOO"));
+        testRevision(archives[0]);
+        archives[0].close();
+    }
+
+    public void testBlobStore() throws Exception
+    {
+        BundleArchive first = cache.create(1, 1, "first", new FileInputStream(jarFile));
+        BundleArchive second = cache.create(2, 1, "second", new FileInputStream(jarFile));
+
+        File blobDir = new File(cacheDir, "blobs");
+        if (!blobDir.isDirectory())
+        {
+            // Hard links are not supported here
+            return;
+        }
+
+        File firstJar = new File(first.getCurrentRevision().getRevisionRootDir(), "bundle.jar");
+        File secondJar = new File(second.getCurrentRevision().getRevisionRootDir(), "bundle.jar");
+        assertTrue(java.nio.file.Files.isSameFile(firstJar.toPath(), secondJar.toPath()));
+
+        Content embedded = first.getCurrentRevision().getContent().getEntryAsContent("inner/i+?äö \\§$%nner.jar");
+        assertNotNull(embedded);
+        assertEquals("file1", new String(embedded.getEntryAsBytes("file1"), "UTF-8"));
+        embedded.close();
+
+        first.closeAndDelete();
+        assertTrue(secondJar.isFile());
+        assertEquals(jarFile.length(), secondJar.length());
+
+        second.closeAndDelete();
+        assertEquals(0, blobDir.list().length);
+    }
+
     private void testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null);
@@ -94,4 +94,39 @@ public class WeakZipFileTest extends TestCase
             fail("Unable to read zip file entry: " + ex);
         }
     }
+
+    public void testLazyOpen() throws IOException
+    {
+        File tmpZip = File.createTempFile("felix.test", ".zip");
+        tmpZip.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry(ENTRY_NAME));
+        zos.write("content".getBytes("UTF-8"));
+        zos.close();
+
+        WeakZipFileFactory factory = new WeakZipFileFactory(1);
+        WeakZipFile zipFile = factory.create(tmpZip, true);
+        assertTrue("Zip file not recorded.",
+            factory.getZipZiles().contains(zipFile));
+        assertFalse("Lazy zip file recorded as open.",
+            factory.getOpenZipZiles().contains(zipFile));
+        assertNotNull("Zip entry not found", zipFile.getEntry(ENTRY_NAME));
+        assertTrue("Open zip file not recorded.",
+            factory.getOpenZipZiles().contains(zipFile));
+        zipFile.close();
+
+        zipFile = new WeakZipFileFactory(0).create(tmpZip, true);
+        assertNotNull("Zip entry not found", zipFile.getEntry(ENTRY_NAME));
+        zipFile.close();
+
+        try
+        {
+            factory.create(new File(tmpZip.getPath() + ".missing"), true);
+            fail("Missing zip file not detected.");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
 }
\ No newline at end of file
@@ -81,7 +81,9 @@ public class Closure implements Function, Evaluate
         {
             try
             {
-                this.program = new Parser(source).program();
+                this.program = source != null
+                        ? session.program(source)
+                        : new Parser(source).program();
             }
             catch (Exception e)
             {
@@ -458,9 +460,10 @@ public class Closure implements Function, Evaluate
             errTok2 = tokens.get(2);
         }
 
-        for (Token t : tokens)
+        Slot[] slots = statement.slots();
+        for (int i = 0; i < slots.length; i++)
         {
-            Object v = eval(t, values.isEmpty());
+            Object v = slots[i].eval(this, tokens.get(i), values.isEmpty());
 
 //            if ((Token.Type.EXECUTION == t.type) && (tokens.size() == 1)) {
 //                return v;
@@ -768,6 +771,72 @@ public class Closure implements Function, Evaluate
         return def;
     }
 
+    /**
+     * How a token of a statement is evaluated. Tokens without any special
+     * character evaluate to a constant, and tokens only referring to a
+     * variable are looked up directly, so neither is expanded again on
+     * each execution.
+     */
+    static final class Slot
+    {
+        private static final Slot EXPAND = new Slot(null, null);
+
+        // characters requiring expansion, quote removal, brace or file name generation
+        private static final String SPECIAL = "%$\\\"'{*(|<[?";
+
+        private final Object literal;
+        private final String variable;
+
+        private Slot(Object literal, String variable)
+        {
+            this.literal = literal;
+            this.variable = variable;
+        }
+
+        static Slot compile(Token t)
+        {
+            if (t instanceof Parser.Closure || t instanceof Sequence || t instanceof Array
+                    || t.length() == 0)
+            {
+                return EXPAND;
+            }
+            if (t.charAt(0) == '$' && t.length() > 1)
+            {
+                for (int i = 1; i < t.length(); i++)
+                {
+                    char c = t.charAt(i);
+                    if (!(Character.isJavaIdentifierPart(c) && c != '$' || c == '.'))
+                    {
+                        return EXPAND;
+                    }
+                }
+                return new Slot(null, t.subSequence(1, t.length()).toString());
+            }
+            for (int i = 0; i < t.length(); i++)
+            {
+                if (SPECIAL.indexOf(t.charAt(i)) >= 0)
+                {
+                    return EXPAND;
+                }
+            }
+            return new Slot(Closure.eval((Object) t), null);
+        }
+
+        Object eval(Closure closure, Token t, boolean convertNumeric) throws Exception
+        {
+            if (variable != null)
+            {
+                Object v = closure.get(variable);
+                return v == t && convertNumeric ? Closure.eval(v) : v;
+            }
+            if (this != EXPAND)
+            {
+                return convertNumeric ? literal : t;
+            }
+            return closure.eval(t, convertNumeric);
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -34,6 +34,7 @@ import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.service.command.*;
 import org.apache.felix.service.threadio.ThreadIO;
@@ -54,6 +55,30 @@ public class CommandProcessorImpl implements CommandProcessor
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<>();
     protected boolean stopped;
 
+    /**
+     * Maximum number of parsed programs kept.
+     */
+    private static final int MAX_PROGRAMS = 256;
+
+    /**
+     * Maximum number of resolved commands kept.
+     */
+    private static final int MAX_RESOLVED = 1024;
+
+    // parsed programs by source, least recently used first
+    private final Map<String, Parser.Program> programs = new LinkedHashMap<String, Parser.Program>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Parser.Program> eldest)
+        {
+            return size() > MAX_PROGRAMS;
+        }
+    };
+
+    // resolved commands by name and scope path, valid for one version of the commands
+    private final ConcurrentMap<String, Object[]> resolved = new ConcurrentHashMap<>();
+    private final AtomicLong commandsVersion = new AtomicLong();
+
     public CommandProcessorImpl()
     {
         this(null);
@@ -143,6 +168,29 @@ public class CommandProcessorImpl implements CommandProcessor
         return Collections.unmodifiableSet(commands.keySet());
     }
 
+    /**
+     * Parses the given source, reusing the program parsed the last time the
+     * same source was executed. Programs are not modified by their execution.
+     */
+    Parser.Program program(CharSequence source)
+    {
+        String key = source.toString();
+        synchronized (programs)
+        {
+            Parser.Program program = programs.get(key);
+            if (program != null)
+            {
+                return program;
+            }
+        }
+        Parser.Program program = new Parser(source).program();
+        synchronized (programs)
+        {
+            programs.put(key, program);
+        }
+        return program;
+    }
+
     protected Function getCommand(String name, final Object path)
     {
         int colon = name.indexOf(':');
@@ -152,6 +200,33 @@ public class CommandProcessorImpl implements CommandProcessor
             return null;
         }
 
+        // the same commands are looked up again and again by scripts
+        String key = name + '\u0000' + path;
+        long version = commandsVersion.get();
+        Object[] entry = resolved.get(key);
+        if (entry != null && (Long) entry[0] == version)
+        {
+            return (Function) entry[1];
+        }
+        Function function = resolveCommand(name, path);
+        if (resolved.size() >= MAX_RESOLVED)
+        {
+            resolved.clear();
+        }
+        resolved.put(key, new Object[] { version, function });
+        return function;
+    }
+
+    private void commandsChanged()
+    {
+        commandsVersion.incrementAndGet();
+        resolved.clear();
+    }
+
+    private Function resolveCommand(String name, final Object path)
+    {
+        int colon = name.indexOf(':');
+
         name = name.toLowerCase();
         String cfunction = name.substring(colon);
         boolean anyScope = (colon == 1 && name.charAt(0) == '*');
@@ -257,6 +332,7 @@ public class CommandProcessorImpl implements CommandProcessor
             cmdMap = commands.get(key);
         }
         cmdMap.put(target, ranking);
+        commandsChanged();
     }
 
     public void removeCommand(String scope, String function)
@@ -264,6 +340,7 @@ public class CommandProcessorImpl implements CommandProcessor
         // TODO: WARNING: this method does remove all mapping for scope:function
         String key = (scope + ":" + function).toLowerCase();
         commands.remove(key);
+        commandsChanged();
     }
 
     public void removeCommand(String scope, String function, Object target)
@@ -275,6 +352,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        commandsChanged();
     }
 
     public void removeCommand(Object target)
@@ -283,6 +361,7 @@ public class CommandProcessorImpl implements CommandProcessor
         {
             cmdMap.remove(target);
         }
+        commandsChanged();
     }
 
     private String[] getFunctions(Class<?> target)
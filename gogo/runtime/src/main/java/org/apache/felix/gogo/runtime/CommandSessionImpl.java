@@ -127,6 +127,11 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor;
     }
 
+    Parser.Program program(CharSequence source)
+    {
+        return processor.program(source);
+    }
+
     public ConcurrentMap<String, Object> getVariables()
     {
         return variables;
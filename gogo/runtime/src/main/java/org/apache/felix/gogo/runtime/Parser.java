@@ -44,6 +44,7 @@ public class Parser
     {
         private final List<Token> tokens;
         private final List<Token> redirections;
+        private volatile org.apache.felix.gogo.runtime.Closure.Slot[] slots;
 
         public Statement(Token cs, List<Token> tokens, List<Token> redirections)
         {
@@ -60,6 +61,24 @@ public class Parser
         public List<Token> redirections() {
             return redirections;
         }
+
+        /**
+         * @return how the tokens are evaluated, determined on first execution
+         */
+        org.apache.felix.gogo.runtime.Closure.Slot[] slots()
+        {
+            org.apache.felix.gogo.runtime.Closure.Slot[] s = slots;
+            if (s == null)
+            {
+                s = new org.apache.felix.gogo.runtime.Closure.Slot[tokens.size()];
+                for (int i = 0; i < s.length; i++)
+                {
+                    s[i] = org.apache.felix.gogo.runtime.Closure.Slot.compile(tokens.get(i));
+                }
+                slots = s;
+            }
+            return s;
+        }
     }
 
     /**
@@ -19,6 +19,8 @@
 package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -27,11 +29,16 @@ import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -50,6 +57,27 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while"));
 
+    /**
+     * Maximum number of argument type signatures for which the selected
+     * method is remembered, per class and name.
+     */
+    private static final int MAX_PLANS = 64;
+
+    /**
+     * Maximum number of names for which the candidate methods are remembered,
+     * per class.
+     */
+    private static final int MAX_LOOKUPS = 256;
+
+    private static final ClassValue<Dispatch> DISPATCH = new ClassValue<Dispatch>()
+    {
+        @Override
+        protected Dispatch computeValue(Class<?> type)
+        {
+            return new Dispatch(type);
+        }
+    };
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -63,94 +91,73 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
         name = name.toLowerCase(Locale.ENGLISH);
 
-        String org = name;
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
-        if (KEYWORDS.contains(name))
+        Candidates candidates = null;
+        if (target instanceof Class<?>)
+        {
+            candidates = DISPATCH.get((Class<?>) target).lookup(name);
+        }
+        if (candidates == null || candidates.methods.length == 0)
         {
-            name = "_" + name;
+            candidates = DISPATCH.get(target.getClass()).lookup(name);
         }
 
-        if (target instanceof Class<?>)
+        // Try the method selected the last time the arguments had the same types
+        Signature signature = candidates.signature(session, args);
+        Integer plan = signature != null ? candidates.plans.get(signature) : null;
+        if (plan != null)
         {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
+            Candidate candidate = candidates.methods[plan];
+            Object[] parms = new Object[candidate.types.length];
+            if (coerce(session, target, candidate, parms, args, name) == 0)
             {
-                String mname = m.getName().toLowerCase(Locale.ENGLISH);
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
-                {
-                    methods = staticMethods;
-                    break;
-                }
+                return candidate.invoke(target, parms);
             }
         }
 
-        Method bestMethod = null;
+        Candidate bestMethod = null;
         Object[] bestArgs = null;
+        int bestIndex = -1;
         int lowestMatch = Integer.MAX_VALUE;
         ArrayList<Class<?>[]> possibleTypes = new ArrayList<>();
 
-        for (Method m : methods)
+        for (int i = 0; i < candidates.methods.length; i++)
         {
-            String mname = m.getName().toLowerCase(Locale.ENGLISH);
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<>(args);
-
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, org);
-                }
-
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
+            Candidate candidate = candidates.methods[i];
+            Object[] parms = new Object[candidate.types.length];
+            int match = coerce(session, target, candidate, parms, args, name);
 
-                if (match < 0)
+            if (match < 0)
+            {
+                // coerce failed
+                possibleTypes.add(candidate.types);
+            }
+            else
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = candidate;
+                    bestArgs = parms;
+                    bestIndex = i;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
-            try
-            {
-                return bestMethod.invoke(target, bestArgs);
-            }
-            catch (InvocationTargetException e)
+            // A method matching without conversion is selected because of
+            // the argument types only, unless it depends on @Parameter names
+            if (lowestMatch == 0 && signature != null
+                && bestIndex < candidates.firstAnnotated)
             {
-                Throwable cause = e.getCause();
-                if (cause instanceof Exception)
-                {
-                    throw (Exception) cause;
-                }
-                throw e;
+                candidates.plan(signature, bestIndex);
             }
+            return bestMethod.invoke(target, bestArgs);
         }
         else
         {
@@ -168,7 +175,7 @@ public final class Reflective
                 for (Field f : fields)
                 {
                     String mname = f.getName().toLowerCase(Locale.ENGLISH);
-                    if (mname.equals(name))
+                    if (mname.equals(candidates.name))
                     {
                         return f.get(target);
                     }
@@ -202,10 +209,25 @@ public final class Reflective
             }
 
             throw new IllegalArgumentException(String.format(
-                "Cannot coerce %s(%s) to any of %s", name, params, list));
+                "Cannot coerce %s(%s) to any of %s", candidates.name, params, list));
         }
     }
 
+    private static int coerce(CommandSession session, Object target, Candidate candidate,
+        Object[] parms, List<Object> args, String name)
+    {
+        ArrayList<Object> xargs = new ArrayList<>(args);
+
+        // pass command name as argv[0] to main, so it can handle
+        // multiple commands
+        if (candidate.main)
+        {
+            xargs.add(0, name);
+        }
+
+        return coerce(session, target, candidate.method, candidate.types, parms, xargs);
+    }
+
     /**
      * transform name/value parameters into ordered argument list.
      * params: --param2, value2, --flag1, arg3
@@ -639,4 +661,344 @@ public final class Reflective
         return null;
     }
 
+    /**
+     * The public methods of a class, with the candidates for each name they
+     * have been invoked by.
+     */
+    private static final class Dispatch
+    {
+        private final Method[] methods;
+        private final String[] names;
+        private final ConcurrentMap<String, Candidates> lookups = new ConcurrentHashMap<>();
+
+        Dispatch(Class<?> type)
+        {
+            methods = type.getMethods();
+            names = new String[methods.length];
+            for (int i = 0; i < methods.length; i++)
+            {
+                names[i] = methods[i].getName().toLowerCase(Locale.ENGLISH);
+            }
+        }
+
+        Candidates lookup(String name)
+        {
+            Candidates candidates = lookups.get(name);
+            if (candidates == null)
+            {
+                candidates = new Candidates(this, name);
+                if (lookups.size() >= MAX_LOOKUPS)
+                {
+                    // names of properties computed by scripts, do not keep them
+                    return candidates;
+                }
+                Candidates existing = lookups.putIfAbsent(name, candidates);
+                if (existing != null)
+                {
+                    candidates = existing;
+                }
+            }
+            return candidates;
+        }
+    }
+
+    /**
+     * The methods which may be invoked by a given name, ordered by arity and
+     * specificity of the parameter types, and the method selected for the argument types seen so far.
+     */
+    private static final class Candidates
+    {
+        private static final Comparator<Candidate> ORDER = new Comparator<Candidate>()
+        {
+            @Override
+            public int compare(Candidate c1, Candidate c2)
+            {
+                int result = c1.types.length - c2.types.length;
+                if (result == 0)
+                {
+                    // more specific types first
+                    result = c2.specificity - c1.specificity;
+                }
+                for (int i = 0; result == 0 && i < c1.types.length; i++)
+                {
+                    result = c1.types[i].getName().compareTo(c2.types[i].getName());
+                }
+                return result;
+            }
+        };
+
+        private final String name;
+        private final Candidate[] methods;
+        private final int firstAnnotated;
+        private final ConcurrentMap<Signature, Integer> plans = new ConcurrentHashMap<>();
+
+        Candidates(Dispatch dispatch, String org)
+        {
+            String get = "get" + org;
+            String is = "is" + org;
+            String set = "set" + org;
+            name = KEYWORDS.contains(org) ? "_" + org : org;
+
+            List<Candidate> list = new ArrayList<>();
+            for (int i = 0; i < dispatch.methods.length; i++)
+            {
+                String mname = dispatch.names[i];
+                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                    || mname.equals(is) || mname.equals(MAIN))
+                {
+                    list.add(new Candidate(dispatch.methods[i], mname.equals(MAIN)));
+                }
+            }
+            // stable, so methods with the same parameter types keep their order
+            Collections.sort(list, ORDER);
+            methods = list.toArray(new Candidate[list.size()]);
+
+            int annotated = methods.length;
+            for (int i = 0; i < methods.length; i++)
+            {
+                if (methods[i].annotated)
+                {
+                    annotated = i;
+                    break;
+                }
+            }
+            firstAnnotated = annotated;
+        }
+
+        /**
+         * @return the types of the session and arguments, or null if the
+         * selected method may depend on the argument values.
+         */
+        Signature signature(CommandSession session, List<Object> args)
+        {
+            if (methods.length == 0)
+            {
+                return null;
+            }
+            Class<?>[] types = new Class<?>[args.size() + 1];
+            types[0] = session != null ? session.getClass() : null;
+            for (int i = 0; i < args.size(); i++)
+            {
+                Object arg = args.get(i);
+                if (arg instanceof Token)
+                {
+                    return null;
+                }
+                types[i + 1] = arg != null ? arg.getClass() : null;
+            }
+            return new Signature(types);
+        }
+
+        /**
+         * Remembers the method selected for the given signature, which is
+         * kept weakly.
+         */
+        void plan(Signature signature, int index)
+        {
+            if (plans.size() >= MAX_PLANS)
+            {
+                // drop the plans of argument types which have been unloaded
+                for (Iterator<Signature> it = plans.keySet().iterator(); it.hasNext();)
+                {
+                    if (it.next().isCleared())
+                    {
+                        it.remove();
+                    }
+                }
+                if (plans.size() >= MAX_PLANS)
+                {
+                    return;
+                }
+            }
+            plans.putIfAbsent(signature.weak(), index);
+        }
+    }
+
+    /**
+     * The types of the session and arguments of an invocation. The
+     * dispatch of a class lives as long as the class, so the signatures of
+     * its plans reference the types weakly, in order not to keep the class
+     * loaders of argument types which may be unloaded earlier.
+     */
+    private static final class Signature
+    {
+        private final Class<?>[] types;
+        private final Reference<Class<?>>[] refs;
+        private final int hash;
+
+        Signature(Class<?>[] types)
+        {
+            this.types = types;
+            this.refs = null;
+            this.hash = Arrays.hashCode(types);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Signature(Signature signature)
+        {
+            this.types = null;
+            this.refs = new Reference[signature.types.length];
+            for (int i = 0; i < refs.length; i++)
+            {
+                Class<?> type = signature.types[i];
+                refs[i] = type != null ? new WeakReference<Class<?>>(type) : null;
+            }
+            this.hash = signature.hash;
+        }
+
+        /**
+         * @return a signature with the same types, referenced weakly
+         */
+        Signature weak()
+        {
+            return types != null ? new Signature(this) : this;
+        }
+
+        /**
+         * @return whether one of the types has been unloaded
+         */
+        boolean isCleared()
+        {
+            if (refs != null)
+            {
+                for (Reference<Class<?>> ref : refs)
+                {
+                    if (ref != null && ref.get() == null)
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private int size()
+        {
+            return types != null ? types.length : refs.length;
+        }
+
+        private Class<?> get(int i)
+        {
+            if (types != null)
+            {
+                return types[i];
+            }
+            return refs[i] != null ? refs[i].get() : null;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Signature))
+            {
+                return false;
+            }
+            Signature other = (Signature) obj;
+            if (hash != other.hash || size() != other.size() || isCleared() || other.isCleared())
+            {
+                return false;
+            }
+            for (int i = 0; i < size(); i++)
+            {
+                if (get(i) != other.get(i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A method which may be invoked by a name.
+     */
+    private static final class Candidate
+    {
+        private final Method method;
+        private final Class<?>[] types;
+        private final boolean main;
+        private final boolean annotated;
+        private final int specificity;
+        private volatile boolean accessible;
+
+        Candidate(Method method, boolean main)
+        {
+            this.method = method;
+            this.types = method.getParameterTypes();
+            this.main = main;
+            boolean annotated = false;
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    annotated |= a instanceof Parameter;
+                }
+            }
+            this.annotated = annotated;
+            int specificity = 0;
+            for (Class<?> type : types)
+            {
+                specificity += depth(type);
+            }
+            this.specificity = specificity;
+        }
+
+        /**
+         * @return the depth of the type in the type hierarchy
+         */
+        private static int depth(Class<?> type)
+        {
+            if (type.isPrimitive())
+            {
+                return 16;
+            }
+            if (type.isArray())
+            {
+                return 1 + depth(type.getComponentType());
+            }
+            int depth = 0;
+            for (Class<?> c = type.getSuperclass(); c != null; c = c.getSuperclass())
+            {
+                depth++;
+            }
+            for (Class<?> i : type.getInterfaces())
+            {
+                depth = Math.max(depth, 1 + depth(i));
+            }
+            return depth;
+        }
+
+        Object invoke(Object target, Object[] args) throws Exception
+        {
+            if (!accessible)
+            {
+                method.setAccessible(true);
+                accessible = true;
+            }
+            try
+            {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
 }
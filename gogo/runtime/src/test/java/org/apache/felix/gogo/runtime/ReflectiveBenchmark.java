@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.felix.gogo.runtime.threadio.ThreadIOImpl;
+import org.apache.felix.service.command.CommandSession;
+
+/**
+ * Measures the invocation of methods by {@link Reflective}, compared to a
+ * plain {@link Method#invoke(Object, Object...)}. This is not run as part of
+ * the build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.gogo.runtime.ReflectiveBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class ReflectiveBenchmark
+{
+    static volatile Object sink;
+
+    public static class Target
+    {
+        public String echo(String s)
+        {
+            return s;
+        }
+
+        public int add(int a, int b)
+        {
+            return a + b;
+        }
+
+        public long add(long a, long b)
+        {
+            return a + b;
+        }
+
+        public String getName()
+        {
+            return "target";
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ThreadIOImpl threadIO = new ThreadIOImpl();
+        threadIO.start();
+        try
+        {
+            PrintStream out = new PrintStream(new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+            });
+            CommandSession session = new CommandProcessorImpl(threadIO).createSession(
+                    new ByteArrayInputStream(new byte[0]), out, out);
+            run(session, iterations);
+        }
+        finally
+        {
+            threadIO.stop();
+        }
+    }
+
+    private static void run(CommandSession session, int iterations) throws Exception
+    {
+        final Target target = new Target();
+        final Method echo = Target.class.getMethod("echo", String.class);
+        final Object[] echoArgs = { "hello" };
+        final List<Object> exact = new ArrayList<Object>(Arrays.asList("hello"));
+        final List<Object> converted = new ArrayList<Object>(Arrays.asList("1", "2"));
+        final List<Object> none = new ArrayList<Object>();
+
+        Runnable[] cases = {
+            new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        sink = echo.invoke(target, echoArgs);
+                    }
+                    catch (Exception e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            },
+            invoke(session, target, "echo", exact),
+            invoke(session, target, "add", converted),
+            invoke(session, target, "name", none),
+        };
+        String[] names = { "Method.invoke", "exact match", "overloaded", "property" };
+
+        System.out.println(String.format("%-20s %12s", "call", "ns/op"));
+        for (int i = 0; i < cases.length; i++)
+        {
+            run(cases[i], iterations);
+            long start = System.nanoTime();
+            run(cases[i], iterations);
+            long time = System.nanoTime() - start;
+            System.out.println(String.format("%-20s %12.1f", names[i], (double) time / iterations));
+        }
+    }
+
+    private static Runnable invoke(final CommandSession session, final Object target,
+            final String name, final List<Object> args)
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    sink = Reflective.invoke(session, target, name, new ArrayList<Object>(args));
+                }
+                catch (Exception e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private static void run(Runnable runnable, int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            runnable.run();
+        }
+    }
+}
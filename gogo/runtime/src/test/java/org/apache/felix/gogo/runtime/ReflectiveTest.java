@@ -68,7 +68,51 @@ public class ReflectiveTest {
                 Collections.<Object>singletonList(conv));
     }
 
+    @Test
+    public void testRepeatedInvocation() throws Exception {
+        // the selected method is remembered per argument types
+        for (int i = 0; i < 3; i++) {
+            assertEquals("int", invoke("overloaded", Arrays.<Object>asList(1)));
+            assertEquals("string", invoke("overloaded", Arrays.<Object>asList("a")));
+            assertEquals("object", invoke("overloaded", Arrays.<Object>asList(1.0d)));
+            assertEquals("string", invoke("overloaded", Arrays.<Object>asList("a")));
+        }
+        assertEquals("42", invoke("convert", Arrays.<Object>asList(42)));
+        assertEquals("42", invoke("convert", Arrays.<Object>asList(42)));
+        assertEquals("static", invoke("staticmethod", Collections.emptyList()));
+        try {
+            invoke("primitive", Collections.<Object>singletonList(null));
+            Assert.fail("null should not be passed as a primitive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     static class Target {
+        public String overloaded(Integer i) {
+            return "int";
+        }
+
+        public String overloaded(String s) {
+            return "string";
+        }
+
+        public String overloaded(Object o) {
+            return "object";
+        }
+
+        public String convert(String s) {
+            return s;
+        }
+
+        public static String staticMethod() {
+            return "static";
+        }
+
+        public int primitive(int i) {
+            return i;
+        }
+
         public Object test1(CommandSession session, Object[] argv) {
             return argv;
         }
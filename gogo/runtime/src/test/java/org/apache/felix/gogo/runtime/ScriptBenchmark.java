@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.gogo.runtime.threadio.ThreadIOImpl;
+import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.service.command.Function;
+
+/**
+ * Measures the execution of typical scripts. This is not run as part of the
+ * build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.gogo.runtime.ScriptBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class ScriptBenchmark
+{
+    private static final String[][] SCRIPTS = {
+        { "command", "noop a b c 1 2 3" },
+        { "variables", "noop $a $b $c" },
+        { "assignment", "x = 1 ; y = $x ; noop $y" },
+        { "method calls", "$list size ; $list get 0 ; $list isEmpty" },
+        { "closure loop", "repeat 100 { noop $it a b }" },
+        { "nested closures", "repeat 10 { repeat 10 { noop $it } }" },
+        { "expansion", "noop \"$a-$b\" ${c} 'quoted'" },
+        { "arithmetic", "repeat 100 { noop %(1+2*3) }" },
+        { "pipeline", "noop a | noop b" },
+    };
+
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        ThreadIOImpl threadIO = new ThreadIOImpl();
+        threadIO.start();
+        try
+        {
+            PrintStream out = new PrintStream(new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+            });
+            CommandProcessorImpl processor = new CommandProcessorImpl(threadIO);
+            processor.addCommand("bench", new Function()
+            {
+                @Override
+                public Object execute(CommandSession session, List<Object> arguments)
+                {
+                    return arguments.size();
+                }
+            }, "noop");
+            processor.addCommand("bench", new Function()
+            {
+                @Override
+                public Object execute(CommandSession session, List<Object> arguments) throws Exception
+                {
+                    int count = Integer.parseInt(arguments.get(0).toString());
+                    Function body = (Function) arguments.get(1);
+                    Object result = null;
+                    for (int i = 0; i < count; i++)
+                    {
+                        List<Object> values = new ArrayList<>();
+                        values.add(i);
+                        result = body.execute(session, values);
+                    }
+                    return result;
+                }
+            }, "repeat");
+
+            CommandSession session = processor.createSession(
+                    new ByteArrayInputStream(new byte[0]), out, out);
+            session.put("a", "alpha");
+            session.put("b", 42L);
+            session.put("c", "gamma");
+            List<Object> list = new ArrayList<>();
+            list.add("element");
+            session.put("list", list);
+
+            System.out.println(String.format("%-20s %12s", "script", "us/op"));
+            for (String[] script : SCRIPTS)
+            {
+                int n = script[1].contains("repeat") ? iterations / 50 : iterations;
+                run(session, script[1], n);
+                long start = System.nanoTime();
+                run(session, script[1], n);
+                long time = System.nanoTime() - start;
+                System.out.println(String.format("%-20s %12.2f", script[0], time / 1000.0 / n));
+            }
+        }
+        finally
+        {
+            threadIO.stop();
+        }
+    }
+
+    private static void run(CommandSession session, String script, int n) throws Exception
+    {
+        for (int i = 0; i < n; i++)
+        {
+            session.execute(script);
+        }
+    }
+}
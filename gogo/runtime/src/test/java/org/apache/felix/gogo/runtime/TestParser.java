@@ -88,6 +88,36 @@ public class TestParser extends AbstractParserTest
         }
     }
 
+    @Test
+    public void testRepeatedExecution() throws Exception
+    {
+        Context c = new Context();
+        c.addCommand("echo", this);
+
+        // the parsed script and its tokens are reused, but not their values
+        for (int i = 0; i < 3; i++)
+        {
+            c.set("x", "v" + i);
+            assertEquals("a v" + i + " 2", c.execute("echo a $x 2").toString());
+            assertEquals(42L, c.execute("42"));
+            assertEquals("v" + i, c.execute("$x"));
+        }
+
+        // resolved commands follow the registered ones
+        c.removeCommand("test", "echo");
+        try
+        {
+            c.execute("echo a $x 2");
+            fail("Execution should have failed due to missing command");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        c.addCommand("echo", this);
+        assertEquals("a v2 2", c.execute("echo a $x 2").toString());
+    }
+
     @Test
     public void testSpecialValues() throws Exception
     {
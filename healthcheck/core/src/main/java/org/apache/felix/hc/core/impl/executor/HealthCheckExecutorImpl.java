@@ -20,6 +20,7 @@ package org.apache.felix.hc.core.impl.executor;
 import static org.apache.felix.hc.api.FormattingResultLog.msHumanReadable;
 import static org.apache.felix.hc.core.impl.executor.HealthCheckExecutorImplConfiguration.LONGRUNNING_FUTURE_THRESHOLD_CRITICAL_DEFAULT_MS;
 import static org.apache.felix.hc.core.impl.executor.HealthCheckExecutorImplConfiguration.RESULT_CACHE_TTL_DEFAULT_MS;
+import static org.apache.felix.hc.core.impl.executor.HealthCheckExecutorImplConfiguration.RESULT_CACHE_STALE_WHILE_REVALIDATE_DEFAULT_MS;
 import static org.apache.felix.hc.core.impl.executor.HealthCheckExecutorImplConfiguration.TIMEOUT_DEFAULT_MS;
 
 import java.text.DateFormat;
@@ -29,7 +30,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -37,9 +37,12 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.time.StopWatch;
 import org.apache.felix.hc.api.FormattingResultLog;
 import org.apache.felix.hc.api.HealthCheck;
 import org.apache.felix.hc.api.Result;
@@ -84,13 +87,16 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
 
     private long resultCacheTtlInMs;
 
+    private long resultCacheStaleWhileRevalidateInMs;
+
     private String[] defaultTags;
 
     private HealthCheckResultCache healthCheckResultCache = new HealthCheckResultCache();
 
     private TempUnavailableGracePeriodEvaluator tempUnavailableGracePeriodEvaluator;
     
-    private final Map<HealthCheckMetadata, HealthCheckFuture> stillRunningFutures = new HashMap<HealthCheckMetadata, HealthCheckFuture>();
+    /** Futures of running checks, concurrent requests for the same check wait for the same future */
+    private final Map<HealthCheckMetadata, HealthCheckFuture> stillRunningFutures = new ConcurrentHashMap<HealthCheckMetadata, HealthCheckFuture>();
 
     @Reference
     private AsyncHealthCheckExecutor asyncHealthCheckExecutor;
@@ -98,6 +104,9 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
     @Reference
     HealthCheckExecutorThreadPool healthCheckExecutorThreadPool;
 
+    @Reference
+    HealthCheckMetrics healthCheckMetrics;
+
     private BundleContext bundleContext;
 
     @Activate
@@ -149,6 +158,11 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
             this.resultCacheTtlInMs = RESULT_CACHE_TTL_DEFAULT_MS;
         }
 
+        this.resultCacheStaleWhileRevalidateInMs = configuration.resultCacheStaleWhileRevalidateInMs();
+        if (this.resultCacheStaleWhileRevalidateInMs < 0L) {
+            this.resultCacheStaleWhileRevalidateInMs = RESULT_CACHE_STALE_WHILE_REVALIDATE_DEFAULT_MS;
+        }
+
         this.defaultTags = configuration.defaultTags();
 
         tempUnavailableGracePeriodEvaluator = new TempUnavailableGracePeriodEvaluator(configuration.temporarilyAvailableGracePeriodInMs());
@@ -162,6 +176,7 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
         if (event.getType() == ServiceEvent.UNREGISTERING) {
             final Long serviceId = (Long) event.getServiceReference().getProperty(Constants.SERVICE_ID);
             this.healthCheckResultCache.removeCachedResult(serviceId);
+            this.healthCheckMetrics.remove(serviceId);
         }
     }
 
@@ -262,6 +277,16 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
             healthCheckResultCache.useValidCacheResults(healthCheckDescriptors, results, resultCacheTtlInMs);
         }
 
+        // serve outdated results within the stale period, the checks are executed again in the background
+        if (!options.isForceInstantExecution() && resultCacheStaleWhileRevalidateInMs > 0) {
+            final List<HealthCheckMetadata> staleChecks = healthCheckResultCache.useStaleCacheResults(healthCheckDescriptors, results,
+                    resultCacheTtlInMs, resultCacheStaleWhileRevalidateInMs);
+            if (!staleChecks.isEmpty()) {
+                logger.debug("Revalidating {} stale results in the background", staleChecks.size());
+                createOrReuseFutures(staleChecks);
+            }
+        }
+
         // everything else is executed in parallel via futures
         List<HealthCheckFuture> futures = createOrReuseFutures(healthCheckDescriptors);
 
@@ -310,89 +335,68 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
     /** Create or reuse future for the list of health checks */
     private List<HealthCheckFuture> createOrReuseFutures(final List<HealthCheckMetadata> healthCheckDescriptors) {
         final List<HealthCheckFuture> futuresForResultOfThisCall = new LinkedList<HealthCheckFuture>();
-
-        synchronized (this.stillRunningFutures) {
-            for (final HealthCheckMetadata md : healthCheckDescriptors) {
-
-                futuresForResultOfThisCall.add(createOrReuseFuture(md));
-
-            }
+        for (final HealthCheckMetadata md : healthCheckDescriptors) {
+            futuresForResultOfThisCall.add(createOrReuseFuture(md));
         }
         return futuresForResultOfThisCall;
     }
 
-    /** Create or reuse future for the health check This method must be synchronized by the caller(!) on stillRunningFutures */
+    /** Create or reuse future for the health check, concurrent calls for the same health check get the same future */
     private HealthCheckFuture createOrReuseFuture(final HealthCheckMetadata metadata) {
         HealthCheckFuture future = this.stillRunningFutures.get(metadata);
         if (future != null) {
             logger.debug("Found a future that is still running for {}", metadata);
-        } else {
-            logger.debug("Creating future for {}", metadata);
-            future = new HealthCheckFuture(metadata, bundleContext, new HealthCheckFuture.Callback() {
-
-                @Override
-                public void finished(final HealthCheckExecutionResult result) {
-                    healthCheckResultCache.updateWith(result);
-                    asyncHealthCheckExecutor.updateWith(result);
-                    tempUnavailableGracePeriodEvaluator.updateTemporarilyUnavailableTimestampWith(result);
-                    synchronized (stillRunningFutures) {
-                        stillRunningFutures.remove(metadata);
-                    }
-                }
-            });
-            this.stillRunningFutures.put(metadata, future);
-
-            final HealthCheckFuture newFuture = future;
-
-            healthCheckExecutorThreadPool.execute(new Runnable() {
-                @Override
-                public void run() {
-                    newFuture.run();
-                    synchronized (stillRunningFutures) {
-                        // notify executor threads that newFuture is finished. Wrapping it in another runnable
-                        // ensures that newFuture.isDone() will return true (if e.g. done in callback above, there are
-                        // still a few lines of code until the future is really done and hence then the executor thread
-                        // is sometime notified a bit too early, still receives the result isDone()=false and then waits
-                        // for another 50ms, even though the future was about to be done one ms later)
-                        stillRunningFutures.notifyAll();
-                    }
-                }
-            });
+            return future;
         }
 
-        return future;
+        final HealthCheckFuture newFuture = new HealthCheckFuture(metadata, bundleContext, new HealthCheckFuture.Callback() {
+
+            @Override
+            public void finished(final HealthCheckExecutionResult result) {
+                healthCheckResultCache.updateWith(result);
+                healthCheckMetrics.updateWith(result);
+                asyncHealthCheckExecutor.updateWith(result);
+                tempUnavailableGracePeriodEvaluator.updateTemporarilyUnavailableTimestampWith(result);
+                stillRunningFutures.remove(metadata);
+            }
+        });
+        future = this.stillRunningFutures.putIfAbsent(metadata, newFuture);
+        if (future != null) {
+            logger.debug("Found a future that was just created for {}", metadata);
+            return future;
+        }
+
+        logger.debug("Creating future for {}", metadata);
+        healthCheckExecutorThreadPool.execute(newFuture);
+        return newFuture;
     }
 
     /** Wait for the futures until the timeout is reached */
     private void waitForFuturesRespectingTimeout(final List<HealthCheckFuture> futuresForResultOfThisCall,
             HealthCheckExecutionOptions options) {
-        final StopWatch callExcutionTimeStopWatch = new StopWatch();
-        callExcutionTimeStopWatch.start();
-        boolean allFuturesDone;
-
         long effectiveTimeout = this.timeoutInMs;
         if (options != null && options.getOverrideGlobalTimeout() > 0) {
             effectiveTimeout = options.getOverrideGlobalTimeout();
         }
 
-        if (futuresForResultOfThisCall.isEmpty()) {
-            return; // nothing to wait for (usually because of cached results)
-        }
-
-        do {
+        final long deadline = System.currentTimeMillis() + effectiveTimeout;
+        for (final HealthCheckFuture healthCheckFuture : futuresForResultOfThisCall) {
+            final long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                return;
+            }
             try {
-                synchronized (stillRunningFutures) {
-                    stillRunningFutures.wait(50); // wait for notifications of callbacks of HealthCheckFutures
-                }
+                healthCheckFuture.get(remainingTime, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException te) {
+                return;
+            } catch (final ExecutionException ee) {
+                // reported when collecting the result
             } catch (final InterruptedException ie) {
                 logger.warn("Unexpected InterruptedException while waiting for healthCheckContributors", ie);
+                Thread.currentThread().interrupt();
+                return;
             }
-
-            allFuturesDone = true;
-            for (final HealthCheckFuture healthCheckFuture : futuresForResultOfThisCall) {
-                allFuturesDone &= healthCheckFuture.isDone();
-            }
-        } while (!allFuturesDone && callExcutionTimeStopWatch.getTime() < effectiveTimeout);
+        }
     }
 
     /** Collect the results from all futures
@@ -439,6 +443,7 @@ public class HealthCheckExecutorImpl implements ExtendedHealthCheckExecutor, Ser
 
         } else {
             logger.debug("Health Check timed out: {}", hcMetadata);
+            healthCheckMetrics.timedOut(hcMetadata.getServiceId());
             // Futures must not be cancelled as interrupting a health check might leave the system in invalid state
             // (worst case could be a corrupted repository index if using write operations)
 
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.felix.hc.core.impl.executor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.felix.hc.api.Result;
+import org.apache.felix.hc.api.execution.HealthCheckExecutionResult;
+import org.osgi.service.component.annotations.Component;
+
+/** Collects the execution durations and the status history of health checks, as exposed by the metrics format of the
+ * servlet. */
+@Component(service = HealthCheckMetrics.class)
+public class HealthCheckMetrics {
+
+    private final Map<Long, CheckMetrics> metrics = new ConcurrentHashMap<Long, CheckMetrics>();
+
+    /** Update the metrics with the result of an execution */
+    public void updateWith(HealthCheckExecutionResult result) {
+        final ExecutionResult executionResult = (ExecutionResult) result;
+        getOrCreate(executionResult.getServiceId()).update(executionResult);
+    }
+
+    /** Count a timeout of the given health check */
+    public void timedOut(long serviceId) {
+        getOrCreate(serviceId).timedOut();
+    }
+
+    /** @return the metrics of the health check or null if it has not been executed yet */
+    public CheckMetrics getMetrics(long serviceId) {
+        return metrics.get(serviceId);
+    }
+
+    /** Remove the metrics of a health check */
+    public void remove(Long serviceId) {
+        metrics.remove(serviceId);
+    }
+
+    private CheckMetrics getOrCreate(long serviceId) {
+        return metrics.computeIfAbsent(serviceId, id -> new CheckMetrics());
+    }
+
+    /** Metrics of a single health check. */
+    public static final class CheckMetrics {
+        private final long[] executions = new long[Result.Status.values().length];
+        private long durationSumInMs;
+        private long timeouts;
+        private long statusChanges;
+        private Result.Status lastStatus;
+        private long lastStatusChange;
+
+        synchronized void update(ExecutionResult result) {
+            final Result.Status status = result.getHealthCheckResult().getStatus();
+            executions[status.ordinal()]++;
+            durationSumInMs += result.getElapsedTimeInMs();
+            if (status != lastStatus) {
+                if (lastStatus != null) {
+                    statusChanges++;
+                }
+                lastStatus = status;
+                lastStatusChange = result.getFinishedAt() != null ? result.getFinishedAt().getTime() : System.currentTimeMillis();
+            }
+        }
+
+        synchronized void timedOut() {
+            timeouts++;
+        }
+
+        /** @return the number of executions that finished with the given status */
+        public synchronized long getExecutions(Result.Status status) {
+            return executions[status.ordinal()];
+        }
+
+        /** @return the number of finished executions */
+        public synchronized long getExecutions() {
+            long count = 0;
+            for (long c : executions) {
+                count += c;
+            }
+            return count;
+        }
+
+        /** @return the sum of the durations of all finished executions */
+        public synchronized long getDurationSumInMs() {
+            return durationSumInMs;
+        }
+
+        /** @return the number of requests for which the check was still running after the timeout */
+        public synchronized long getTimeouts() {
+            return timeouts;
+        }
+
+        /** @return the number of times the status changed between executions */
+        public synchronized long getStatusChanges() {
+            return statusChanges;
+        }
+
+        /** @return the time of the last change of status, in ms since the epoch */
+        public synchronized long getLastStatusChange() {
+            return lastStatusChange;
+        }
+    }
+}
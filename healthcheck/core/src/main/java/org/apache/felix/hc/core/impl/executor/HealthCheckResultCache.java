@@ -85,6 +85,38 @@ public class HealthCheckResultCache {
         results.addAll(cachedResults);
     }
 
+    /** Get the outdated cache results which are still within the stale period after the TTL. The checks of these results have to be
+     * executed again, without waiting for them.
+     *
+     * @return the health checks to be executed again */
+    public List<HealthCheckMetadata> useStaleCacheResults(final List<HealthCheckMetadata> metadatas,
+            final Collection<HealthCheckExecutionResult> results,
+            final long resultCacheTtlInMs, final long staleWhileRevalidateInMs) {
+        final List<HealthCheckMetadata> staleChecks = new ArrayList<HealthCheckMetadata>();
+        final Set<HealthCheckExecutionResult> staleResults = new TreeSet<HealthCheckExecutionResult>();
+        final Iterator<HealthCheckMetadata> checksIt = metadatas.iterator();
+        while (checksIt.hasNext()) {
+            final HealthCheckMetadata md = checksIt.next();
+            final HealthCheckExecutionResult result = cache.get(md.getServiceId());
+            if (result == null || result.getFinishedAt() == null) {
+                continue;
+            }
+            long staleUntil = result.getFinishedAt().getTime() + getEffectiveTtl(md, resultCacheTtlInMs) + staleWhileRevalidateInMs;
+            if (staleUntil < 0) { // overflow
+                staleUntil = Long.MAX_VALUE;
+            }
+            if (staleUntil > System.currentTimeMillis()) {
+                logger.debug("Stale cache hit: staleUntil={} cachedResult={}", new Date(staleUntil), result);
+                staleResults.add(result);
+                staleChecks.add(md);
+                checksIt.remove();
+            }
+        }
+        logger.debug("Adding {} stale results from cache", staleResults.size());
+        results.addAll(staleResults);
+        return staleChecks;
+    }
+
     /** Return the cached result if it's still valid. */
     public HealthCheckExecutionResult getValidCacheResult(final HealthCheckMetadata metadata,
             final long resultCacheTtlInMs) {
@@ -55,7 +55,7 @@ import org.slf4j.LoggerFactory;
  * Parameters:
  * <ul>
  * <li>tags: The health check tags to take into account
- * <li>format: html|json|jsonp|txt|verbose.txt
+ * <li>format: html|json|jsonp|txt|verbose.txt|metrics (Prometheus text format, always answered with http status 200)
  * <li>includeDebug: If true, debug messages from result log are included.
  * <li>callback: For jsonp, the JS callback function name (defaults to "processHealthCheckResults")
  * <li>httpStatus: health check status to http status mapping in format httpStatus=WARN:418,CRITICAL:503,HEALTH_CHECK_ERROR:500.
@@ -85,7 +85,7 @@ public class HealthCheckExecutorServlet extends HttpServlet {
 
     static final Param PARAM_TAGS = new Param("tags",
             "Comma-separated list of health checks tags to select - can also be specified via path, e.g. /system/health/tag1,tag2.json. Exclusions can be done by prepending '-' to the tag name");
-    static final Param PARAM_FORMAT = new Param("format", "Output format, html|json|jsonp|txt - an extension in the URL overrides this");
+    static final Param PARAM_FORMAT = new Param("format", "Output format, html|json|jsonp|txt|verbose.txt|metrics - an extension in the URL overrides this");
     static final Param PARAM_HTTP_STATUS = new Param("httpStatus", "Specify HTTP result code, for example"
             + " CRITICAL:503 (status 503 if result >= CRITICAL)"
             + " or CRITICAL:503,HEALTH_CHECK_ERROR:500,OK:418 for more specific HTTP status");
@@ -114,11 +114,13 @@ public class HealthCheckExecutorServlet extends HttpServlet {
     static final String FORMAT_JSONP = "jsonp";
     static final String FORMAT_TXT = "txt";
     static final String FORMAT_VERBOSE_TXT = "verbose.txt";
+    static final String FORMAT_METRICS = "metrics";
 
     private static final String CONTENT_TYPE_HTML = "text/html";
     private static final String CONTENT_TYPE_TXT = "text/plain";
     private static final String CONTENT_TYPE_JSON = "application/json";
     private static final String CONTENT_TYPE_JSONP = "application/javascript";
+    private static final String CONTENT_TYPE_METRICS = "text/plain; version=0.0.4";
     private static final String STATUS_HEADER_NAME = "X-Health";
 
     private static final String CACHE_CONTROL_KEY = "Cache-control";
@@ -158,6 +160,9 @@ public class HealthCheckExecutorServlet extends HttpServlet {
     @Reference
     ResultTxtVerboseSerializer verboseTxtSerializer;
 
+    @Reference
+    ResultMetricsSerializer metricsSerializer;
+
     @Activate
     protected final void activate(final HealthCheckExecutorServletConfiguration configuration) {
         this.servletPath = configuration.servletPath();
@@ -196,6 +201,7 @@ public class HealthCheckExecutorServlet extends HttpServlet {
         servletsToRegister.put(this.servletPath + "." + FORMAT_JSONP, new ProxyServlet(FORMAT_JSONP));
         servletsToRegister.put(this.servletPath + "." + FORMAT_TXT, new ProxyServlet(FORMAT_TXT));
         servletsToRegister.put(this.servletPath + "." + FORMAT_VERBOSE_TXT, new ProxyServlet(FORMAT_VERBOSE_TXT));
+        servletsToRegister.put(this.servletPath + "." + FORMAT_METRICS, new ProxyServlet(FORMAT_METRICS));
 
         for (final Map.Entry<String, HttpServlet> servlet : servletsToRegister.entrySet()) {
             try {
@@ -286,7 +292,8 @@ public class HealthCheckExecutorServlet extends HttpServlet {
         sendNoCacheHeaders(response);
         sendCorsHeaders(response);
 
-        Integer httpStatus = statusMapping.get(overallResult.getStatus());
+        // a scrape must not fail for an unhealthy system, the status is part of the metrics
+        Integer httpStatus = FORMAT_METRICS.equals(format) ? HttpServletResponse.SC_OK : statusMapping.get(overallResult.getStatus());
         response.setStatus(httpStatus);
 
         response.setHeader(STATUS_HEADER_NAME, overallResult.getStatus().toString());
@@ -299,9 +306,11 @@ public class HealthCheckExecutorServlet extends HttpServlet {
             sendJsonResponse(overallResult, executionResults, jsonpCallback, response, includeDebug);
         } else if (StringUtils.endsWith(format, FORMAT_TXT)) {
             sendTxtResponse(overallResult, response, StringUtils.equals(format, FORMAT_VERBOSE_TXT), executionResults, includeDebug);
+        } else if (FORMAT_METRICS.equals(format)) {
+            sendMetricsResponse(overallResult, executionResults, response);
         } else {
             response.setContentType("text/plain");
-            response.getWriter().println("Invalid format " + format + " - supported formats: html|json|jsonp|txt|verbose.txt");
+            response.getWriter().println("Invalid format " + format + " - supported formats: html|json|jsonp|txt|verbose.txt|metrics");
         }
     }
 
@@ -317,7 +326,7 @@ public class HealthCheckExecutorServlet extends HttpServlet {
     }
 
     private String[] splitFormat(String pathInfo) {
-        for (String format : new String[] { FORMAT_HTML, FORMAT_JSON, FORMAT_JSONP, FORMAT_VERBOSE_TXT, FORMAT_TXT }) {
+        for (String format : new String[] { FORMAT_HTML, FORMAT_JSON, FORMAT_JSONP, FORMAT_VERBOSE_TXT, FORMAT_TXT, FORMAT_METRICS }) {
             String formatWithDot = "." + format;
             if (StringUtils.endsWith(pathInfo, formatWithDot)) {
                 return new String[] { StringUtils.substringBeforeLast(pathInfo, formatWithDot), format };
@@ -337,6 +346,13 @@ public class HealthCheckExecutorServlet extends HttpServlet {
         }
     }
 
+    private void sendMetricsResponse(final Result overallResult, final List<HealthCheckExecutionResult> executionResults,
+            final HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE_METRICS);
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(metricsSerializer.serialize(overallResult, executionResults));
+    }
+
     private void sendJsonResponse(final Result overallResult, final List<HealthCheckExecutionResult> executionResults,
             final String jsonpCallback,
             final HttpServletResponse response, boolean includeDebug)
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.felix.hc.core.impl.servlet;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.felix.hc.api.Result;
+import org.apache.felix.hc.api.execution.HealthCheckExecutionResult;
+import org.apache.felix.hc.api.execution.HealthCheckMetadata;
+import org.apache.felix.hc.core.impl.executor.HealthCheckMetrics;
+import org.apache.felix.hc.core.impl.executor.HealthCheckMetrics.CheckMetrics;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/** Serializes health check results and the metrics of the health checks into the Prometheus text format. Status values are the
+ * ordinals of {@link Result.Status}. */
+@Component(service = ResultMetricsSerializer.class)
+public class ResultMetricsSerializer {
+
+    private static final String PREFIX = "felix_hc_";
+
+    @Reference
+    HealthCheckMetrics healthCheckMetrics;
+
+    public String serialize(final Result overallResult, final List<HealthCheckExecutionResult> executionResults) {
+        final StringBuilder sb = new StringBuilder();
+
+        header(sb, "overall_status", "gauge", "Overall status of the selected health checks, " + getStatusValues());
+        sb.append(PREFIX).append("overall_status ").append(overallResult.getStatus().ordinal()).append('\n');
+
+        header(sb, "status", "gauge", "Current status of the health check, " + getStatusValues());
+        for (HealthCheckExecutionResult result : executionResults) {
+            sample(sb, "status", result.getHealthCheckMetadata(), null, result.getHealthCheckResult().getStatus().ordinal());
+        }
+
+        header(sb, "duration_seconds", "gauge", "Duration of the execution which created the current result");
+        for (HealthCheckExecutionResult result : executionResults) {
+            sample(sb, "duration_seconds", result.getHealthCheckMetadata(), null, seconds(result.getElapsedTimeInMs()));
+        }
+
+        header(sb, "execution_duration_seconds", "summary", "Durations of all finished executions");
+        for (HealthCheckExecutionResult result : executionResults) {
+            final CheckMetrics metrics = healthCheckMetrics.getMetrics(result.getHealthCheckMetadata().getServiceId());
+            if (metrics != null) {
+                sample(sb, "execution_duration_seconds_sum", result.getHealthCheckMetadata(), null, seconds(metrics.getDurationSumInMs()));
+                sample(sb, "execution_duration_seconds_count", result.getHealthCheckMetadata(), null, metrics.getExecutions());
+            }
+        }
+
+        header(sb, "executions_total", "counter", "Finished executions by resulting status");
+        for (HealthCheckExecutionResult result : executionResults) {
+            final CheckMetrics metrics = healthCheckMetrics.getMetrics(result.getHealthCheckMetadata().getServiceId());
+            if (metrics != null) {
+                for (Result.Status status : Result.Status.values()) {
+                    sample(sb, "executions_total", result.getHealthCheckMetadata(), status, metrics.getExecutions(status));
+                }
+            }
+        }
+
+        header(sb, "timeouts_total", "counter", "Requests for which the health check was still running after the timeout");
+        for (HealthCheckExecutionResult result : executionResults) {
+            final CheckMetrics metrics = healthCheckMetrics.getMetrics(result.getHealthCheckMetadata().getServiceId());
+            if (metrics != null) {
+                sample(sb, "timeouts_total", result.getHealthCheckMetadata(), null, metrics.getTimeouts());
+            }
+        }
+
+        header(sb, "status_changes_total", "counter", "Changes of the status between executions");
+        for (HealthCheckExecutionResult result : executionResults) {
+            final CheckMetrics metrics = healthCheckMetrics.getMetrics(result.getHealthCheckMetadata().getServiceId());
+            if (metrics != null) {
+                sample(sb, "status_changes_total", result.getHealthCheckMetadata(), null, metrics.getStatusChanges());
+            }
+        }
+
+        header(sb, "last_status_change_timestamp_seconds", "gauge", "Time of the last change of the status");
+        for (HealthCheckExecutionResult result : executionResults) {
+            final CheckMetrics metrics = healthCheckMetrics.getMetrics(result.getHealthCheckMetadata().getServiceId());
+            if (metrics != null) {
+                sample(sb, "last_status_change_timestamp_seconds", result.getHealthCheckMetadata(), null,
+                        seconds(metrics.getLastStatusChange()));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String getStatusValues() {
+        final StringBuilder sb = new StringBuilder();
+        for (Result.Status status : Result.Status.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(status.ordinal()).append('=').append(status);
+        }
+        return sb.toString();
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder sb, final String name, final HealthCheckMetadata metadata,
+            final Result.Status status, final Object value) {
+        sb.append(PREFIX).append(name).append("{name=\"");
+        escapeLabelValue(sb, metadata.getName());
+        sb.append("\",service_id=\"").append(metadata.getServiceId()).append('"');
+        if (status != null) {
+            sb.append(",status=\"").append(status).append('"');
+        }
+        sb.append("} ").append(value).append('\n');
+    }
+
+    private static String seconds(final long ms) {
+        return String.format(Locale.ROOT, "%.3f", ms / 1000.0);
+    }
+
+    private static void escapeLabelValue(final StringBuilder sb, final String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -57,6 +57,9 @@ public class HealthCheckExecutorImplTest {
     @Spy
     private HealthCheckResultCache healthCheckResultCache = new HealthCheckResultCache();
 
+    @Spy
+    private HealthCheckMetrics healthCheckMetrics = new HealthCheckMetrics();
+
     @Before
     public void setup() {
         initMocks(this);
@@ -140,6 +140,34 @@ public class HealthCheckResultCacheTest {
 
     }
 
+    @Test
+    public void testHealthCheckResultCacheStale() {
+
+        HealthCheckMetadata hc1 = setupHealthCheckMetadata(1, HC_TIMEOUT_NOT_SET);
+        ExecutionResult executionResult1 = spy(new ExecutionResult(hc1, new Result(Result.Status.OK, "result for hc1"), 1));
+        doReturn(new Date(new Date().getTime() - DUR_2_MIN)).when(executionResult1).getFinishedAt();
+        healthCheckResultCache.updateWith(executionResult1);
+
+        HealthCheckMetadata hc2 = setupHealthCheckMetadata(2, HC_TIMEOUT_NOT_SET);
+        ExecutionResult executionResult2 = spy(new ExecutionResult(hc2, new Result(Result.Status.OK, "result for hc2"), 1));
+        doReturn(new Date(new Date().getTime() - DUR_4_MIN)).when(executionResult2).getFinishedAt();
+        healthCheckResultCache.updateWith(executionResult2);
+
+        HealthCheckMetadata hc3 = setupHealthCheckMetadata(3, HC_TIMEOUT_NOT_SET);
+        // no result for this yet
+
+        List<HealthCheckMetadata> hcList = new ArrayList<HealthCheckMetadata>(Arrays.asList(hc1, hc2, hc3));
+        List<HealthCheckExecutionResult> results = new ArrayList<HealthCheckExecutionResult>();
+
+        // ttl of 1min, results may be used for another 2min while being executed again
+        List<HealthCheckMetadata> staleChecks = healthCheckResultCache.useStaleCacheResults(hcList, results, DUR_1_MIN, DUR_2_MIN);
+
+        assertEquals(Arrays.asList(hc1), staleChecks); // two min old result is stale, but still used
+        assertTrue(results.contains(executionResult1));
+        assertFalse(results.contains(executionResult2)); // four min old result is past the stale period
+        assertEquals(Arrays.asList(hc2, hc3), hcList);
+    }
+
     private HealthCheckMetadata setupHealthCheckMetadataWithStickyResults(long id, long nonOkStickyForSec) {
         reset(serviceRef);
         doReturn(id).when(serviceRef).getProperty(Constants.SERVICE_ID);
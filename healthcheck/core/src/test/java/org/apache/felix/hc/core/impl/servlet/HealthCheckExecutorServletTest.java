@@ -83,6 +83,9 @@ public class HealthCheckExecutorServletTest {
     @Mock
     private ResultTxtVerboseSerializer verboseTxtSerializer;
 
+    @Mock
+    private ResultMetricsSerializer metricsSerializer;
+
     @Mock
     private ServiceReference hcServiceRef;
 
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The SF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.felix.hc.core.impl.servlet;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.felix.hc.api.HealthCheck;
+import org.apache.felix.hc.api.Result;
+import org.apache.felix.hc.api.execution.HealthCheckExecutionResult;
+import org.apache.felix.hc.api.execution.HealthCheckMetadata;
+import org.apache.felix.hc.core.impl.executor.ExecutionResult;
+import org.apache.felix.hc.core.impl.executor.HealthCheckMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+public class ResultMetricsSerializerTest {
+
+    @Mock
+    private ServiceReference<HealthCheck> serviceReference;
+
+    ResultMetricsSerializer resultMetricsSerializer = new ResultMetricsSerializer();
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        when(serviceReference.getProperty(HealthCheck.NAME)).thenReturn("Test \"quoted\"");
+        when(serviceReference.getProperty(Constants.SERVICE_ID)).thenReturn(1L);
+
+        resultMetricsSerializer.healthCheckMetrics = new HealthCheckMetrics();
+    }
+
+    @Test
+    public void testMetricsSerialisation() {
+        HealthCheckMetadata hcMetadata = new HealthCheckMetadata(serviceReference);
+        HealthCheckMetrics metrics = resultMetricsSerializer.healthCheckMetrics;
+        metrics.updateWith(new ExecutionResult(hcMetadata, new Result(Result.Status.OK, "ok"), 1000L));
+        metrics.updateWith(new ExecutionResult(hcMetadata, new Result(Result.Status.WARN, "warn"), 500L));
+        metrics.timedOut(1L);
+
+        List<HealthCheckExecutionResult> executionResults = Arrays
+                .<HealthCheckExecutionResult> asList(new ExecutionResult(hcMetadata, new Result(Result.Status.WARN, "warn"), 500L));
+        String metricsText = resultMetricsSerializer.serialize(new Result(Result.Status.WARN, "Overall status WARN"), executionResults);
+
+        assertThat(metricsText, containsString("felix_hc_overall_status 1\n"));
+        assertThat(metricsText, containsString("felix_hc_status{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 1\n"));
+        assertThat(metricsText, containsString("felix_hc_duration_seconds{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 0.500\n"));
+        assertThat(metricsText, containsString("felix_hc_execution_duration_seconds_sum{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 1.500\n"));
+        assertThat(metricsText, containsString("felix_hc_execution_duration_seconds_count{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 2\n"));
+        assertThat(metricsText, containsString("felix_hc_executions_total{name=\"Test \\\"quoted\\\"\",service_id=\"1\",status=\"OK\"} 1\n"));
+        assertThat(metricsText, containsString("felix_hc_timeouts_total{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 1\n"));
+        assertThat(metricsText, containsString("felix_hc_status_changes_total{name=\"Test \\\"quoted\\\"\",service_id=\"1\"} 1\n"));
+    }
+}
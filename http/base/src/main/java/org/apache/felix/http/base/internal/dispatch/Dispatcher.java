@@ -25,6 +25,7 @@ import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,6 +35,7 @@ import org.apache.felix.http.base.internal.context.ExtServletContext;
 import org.apache.felix.http.base.internal.handler.FilterHandler;
 import org.apache.felix.http.base.internal.handler.HttpSessionWrapper;
 import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.apache.felix.http.base.internal.registry.EventListenerRegistry;
 import org.apache.felix.http.base.internal.registry.HandlerRegistry;
 import org.apache.felix.http.base.internal.registry.PathResolution;
 import org.apache.felix.http.base.internal.registry.PerContextHandlerRegistry;
@@ -84,90 +86,107 @@ public final class Dispatcher
         if ( session != null )
         {
             final Set<String> names = HttpSessionWrapper.getExpiredSessionContextNames(session);
-            mgr.sessionDestroyed(session, names);
+            if ( !names.isEmpty() )
+            {
+                mgr.sessionDestroyed(session, names);
+            }
         }
 
         // invoke preprocessors and then dispatching
-        mgr.invokePreprocessors(req, res, new Preprocessor() {
-
-			@Override
-			public void init(final FilterConfig filterConfig) throws ServletException
-			{
-				// nothing to do
-		    }
-
-			@Override
-			public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
-			throws IOException, ServletException
-			{
-				final HttpServletRequest req = (HttpServletRequest)request;
-				final HttpServletResponse res = (HttpServletResponse)response;
-		        // get full decoded path for dispatching
-		        // we can't use req.getRequestURI() or req.getRequestURL() as these are returning the encoded path
-		        String path = req.getServletPath();
-		        if ( path == null )
-		        {
-		            path = "";
-		        }
-		        if ( req.getPathInfo() != null )
-		        {
-		            path = path.concat(req.getPathInfo());
-		        }
-		        final String requestURI = path;
-
-		        // Determine which servlet we should forward the request to...
-		        final PathResolution pr = handlerRegistry.resolveServlet(requestURI);
-
-		        final PerContextHandlerRegistry errorRegistry = (pr != null ? pr.handlerRegistry : handlerRegistry.getBestMatchingRegistry(requestURI));
-		        final String servletName = (pr != null ? pr.handler.getName() : null);
-		        final HttpServletResponse wrappedResponse = new ServletResponseWrapper(req, res, servletName, errorRegistry);
-		        if ( pr == null )
-		        {
-		            wrappedResponse.sendError(404);
-		            return;
-		        }
-
-		        final ExtServletContext servletContext = pr.handler.getContext();
-		        final RequestInfo requestInfo = new RequestInfo(pr.servletPath, pr.pathInfo, null, req.getRequestURI());
-
-		        final HttpServletRequest wrappedRequest = new ServletRequestWrapper(req, servletContext, requestInfo, null,
-		                pr.handler.getServletInfo().isAsyncSupported(),
-		                pr.handler.getMultipartConfig(),
-		                pr.handler.getMultipartSecurityContext());
-		        final FilterHandler[] filterHandlers = handlerRegistry.getFilters(pr, req.getDispatcherType(), pr.requestURI);
-
-		        try
-		        {
-		            if ( servletContext.getServletRequestListener() != null )
-		            {
-		                servletContext.getServletRequestListener().requestInitialized(new ServletRequestEvent(servletContext, wrappedRequest));
-		            }
-		            final FilterChain filterChain = new InvocationChain(pr.handler, filterHandlers);
-		            filterChain.doFilter(wrappedRequest, wrappedResponse);
-
-		        }
-		        catch ( final Exception e)
-		        {
-		            SystemLogger.error("Exception while processing request to " + requestURI, e);
-		            req.setAttribute(RequestDispatcher.ERROR_EXCEPTION, e);
-		            req.setAttribute(RequestDispatcher.ERROR_EXCEPTION_TYPE, e.getClass().getName());
-
-		            wrappedResponse.sendError(500);
-		        }
-		        finally
-		        {
-		            if ( servletContext.getServletRequestListener() != null )
-		            {
-		                servletContext.getServletRequestListener().requestDestroyed(new ServletRequestEvent(servletContext, wrappedRequest));
-		            }
-		        }			}
-
-			@Override
-			public void destroy()
-			{
-				// nothing to do
-			}
-		});
-
+        mgr.invokePreprocessors(req, res, this.dispatchPreprocessor);
     }
+
+    /**
+     * The final step of the preprocessor chain doing the actual dispatching. It is
+     * stateless and therefore shared by all requests.
+     */
+    private final Preprocessor dispatchPreprocessor = new Preprocessor()
+    {
+        @Override
+        public void init(final FilterConfig filterConfig) throws ServletException
+        {
+            // nothing to do
+        }
+
+        @Override
+        public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+        throws IOException, ServletException
+        {
+            final HttpServletRequest req = (HttpServletRequest)request;
+            final HttpServletResponse res = (HttpServletResponse)response;
+            // get full decoded path for dispatching
+            // we can't use req.getRequestURI() or req.getRequestURL() as these are returning the encoded path
+            String path = req.getServletPath();
+            if ( path == null )
+            {
+                path = "";
+            }
+            if ( req.getPathInfo() != null )
+            {
+                path = path.concat(req.getPathInfo());
+            }
+            final String requestURI = path;
+
+            // Determine which servlet we should forward the request to...
+            final PathResolution pr = handlerRegistry.resolveServlet(requestURI);
+
+            final PerContextHandlerRegistry errorRegistry = (pr != null ? pr.handlerRegistry : handlerRegistry.getBestMatchingRegistry(requestURI));
+            final String servletName = (pr != null ? pr.handler.getName() : null);
+            final HttpServletResponse wrappedResponse = new ServletResponseWrapper(req, res, servletName, errorRegistry);
+            if ( pr == null )
+            {
+                wrappedResponse.sendError(404);
+                return;
+            }
+
+            final ExtServletContext servletContext = pr.handler.getContext();
+            final RequestInfo requestInfo = new RequestInfo(pr.servletPath, pr.pathInfo, null, req.getRequestURI());
+
+            final HttpServletRequest wrappedRequest = new ServletRequestWrapper(req, servletContext, requestInfo, null,
+                    pr.handler.getServletInfo().isAsyncSupported(),
+                    pr.handler.getMultipartConfig(),
+                    pr.handler.getMultipartSecurityContext());
+            // the filters are computed once per request uri and cached by the registry
+            final FilterHandler[] filterHandlers = handlerRegistry.getFilters(pr, req.getDispatcherType(), pr.requestURI);
+
+            // the event is only created if there is a listener and is used for both notifications
+            ServletRequestListener listener = servletContext.getServletRequestListener();
+            if ( listener instanceof EventListenerRegistry && !((EventListenerRegistry)listener).hasServletRequestListeners() )
+            {
+                listener = null;
+            }
+            final ServletRequestEvent event = (listener != null ? new ServletRequestEvent(servletContext, wrappedRequest) : null);
+            try
+            {
+                if ( listener != null )
+                {
+                    listener.requestInitialized(event);
+                }
+                final FilterChain filterChain = new InvocationChain(pr.handler, filterHandlers);
+                filterChain.doFilter(wrappedRequest, wrappedResponse);
+
+            }
+            catch ( final Exception e)
+            {
+                SystemLogger.error("Exception while processing request to " + requestURI, e);
+                req.setAttribute(RequestDispatcher.ERROR_EXCEPTION, e);
+                req.setAttribute(RequestDispatcher.ERROR_EXCEPTION_TYPE, e.getClass().getName());
+
+                wrappedResponse.sendError(500);
+            }
+            finally
+            {
+                if ( listener != null )
+                {
+                    listener.requestDestroyed(event);
+                }
+            }
+        }
+
+        @Override
+        public void destroy()
+        {
+            // nothing to do
+        }
+    };
 }
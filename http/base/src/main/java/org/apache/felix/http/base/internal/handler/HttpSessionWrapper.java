@@ -21,9 +21,12 @@ package org.apache.felix.http.base.internal.handler;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -50,14 +53,26 @@ public class HttpSessionWrapper implements HttpSession
     /** For each internal session, the attributes are prefixed with this followed by the context id */
     private static final String ATTR_PREFIX = PREFIX + "attr.";
 
-    /** The created time for the internal session (appended with context id) */
-    private static final String ATTR_CREATED = PREFIX + "created.";
+    /** The contexts using the container session, see {@link #getContexts(HttpSession)}. */
+    private static final String ATTR_CONTEXTS = PREFIX + "contexts";
 
-    /** The last accessed time for the internal session (appended with context id), as Epoch time (milliseconds). */
-    private static final String ATTR_LAST_ACCESSED = PREFIX + "lastaccessed.";
+    /** Index of the created time in the values of a context. */
+    private static final int CREATED = 0;
 
-    /** The max inactive time (appended with context id), in seconds. */
-    private static final String ATTR_MAX_INACTIVE = PREFIX + "maxinactive.";
+    /** Index of the last accessed time in the values of a context. */
+    private static final int LAST_ACCESSED = 1;
+
+    /** Index of the max inactive time in the values of a context. */
+    private static final int MAX_INACTIVE = 2;
+
+    /** The created time for the internal session (appended with context id), used by previous versions. */
+    private static final String LEGACY_ATTR_CREATED = PREFIX + "created.";
+
+    /** The last accessed time for the internal session (appended with context id), used by previous versions. */
+    private static final String LEGACY_ATTR_LAST_ACCESSED = PREFIX + "lastaccessed.";
+
+    /** The max inactive time (appended with context id), used by previous versions. */
+    private static final String LEGACY_ATTR_MAX_INACTIVE = PREFIX + "maxinactive.";
 
     /** The underlying container session. */
     private final HttpSession delegate;
@@ -97,32 +112,35 @@ public class HttpSessionWrapper implements HttpSession
 
     public static boolean hasSession(final String contextName, final HttpSession session)
     {
-        return session.getAttribute(ATTR_CREATED.concat(contextName)) != null;
+        final Map<String, long[]> contexts = getContexts(session);
+        return contexts != null && contexts.containsKey(contextName);
     }
 
     public static Set<String> getExpiredSessionContextNames(final HttpSession session)
     {
+        final Map<String, long[]> contexts = getContexts(session);
+        if ( contexts == null )
+        {
+            return Collections.emptySet();
+        }
         final long now = System.currentTimeMillis();
 
-        final Set<String> names = new HashSet<>();
-        final Enumeration<String> attrNames = session.getAttributeNames();
-        while (attrNames.hasMoreElements())
+        Set<String> names = null;
+        for(final Map.Entry<String, long[]> entry : contexts.entrySet())
         {
-            final String name = attrNames.nextElement();
-            if (name.startsWith(ATTR_LAST_ACCESSED))
-            {
-                final String id = name.substring(ATTR_LAST_ACCESSED.length());
-
-                final long lastAccess = (Long) session.getAttribute(name);
-                final long maxTimeout = 1000L * ((Integer) session.getAttribute(ATTR_MAX_INACTIVE + id));
+            final long[] values = entry.getValue();
+            final long maxTimeout = 1000L * values[MAX_INACTIVE];
 
-                if ((maxTimeout > 0) && (lastAccess + maxTimeout) < now)
+            if ((maxTimeout > 0) && (values[LAST_ACCESSED] + maxTimeout) < now)
+            {
+                if ( names == null )
                 {
-                    names.add(id);
+                    names = new HashSet<>();
                 }
+                names.add(entry.getKey());
             }
         }
-        return names;
+        return names == null ? Collections.<String>emptySet() : names;
     }
 
     /**
@@ -132,19 +150,123 @@ public class HttpSessionWrapper implements HttpSession
      */
     public static Set<String> getSessionContextNames(final HttpSession session)
     {
-        final Set<String> names = new HashSet<>();
+        final Map<String, long[]> contexts = getContexts(session);
+        if ( contexts == null )
+        {
+            return new HashSet<>();
+        }
+        return new HashSet<>(contexts.keySet());
+    }
+
+    /**
+     * Get the contexts using a container session. They are kept in a single
+     * attribute, a map from the context id to the created and last accessed
+     * time (as Epoch time in milliseconds) and the max inactive time (in seconds)
+     * of the internal session. Only JDK types are stored, so the container can
+     * deserialize the session without this bundle. The map and its values are
+     * never modified once stored, see {@link #setContext(HttpSession, String, long[])}.
+     *
+     * Contexts still using the separate attributes of previous versions are
+     * moved to the map. As long as no context uses the session, this costs
+     * going through the attributes of the container session.
+     * @param session The underlying session
+     * @return The contexts or {@code null} if no context uses the session
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, long[]> getContexts(final HttpSession session)
+    {
+        final Object contexts = session.getAttribute(ATTR_CONTEXTS);
+        if ( contexts instanceof Map )
+        {
+            return (Map<String, long[]>) contexts;
+        }
+
+        List<String> legacyIds = null;
         final Enumeration<String> attrNames = session.getAttributeNames();
         while (attrNames.hasMoreElements())
         {
             final String name = attrNames.nextElement();
-            if (name.startsWith(ATTR_LAST_ACCESSED))
+            if (name.startsWith(LEGACY_ATTR_LAST_ACCESSED))
             {
-                final String id = name.substring(ATTR_LAST_ACCESSED.length());
-                names.add(id);
+                if ( legacyIds == null )
+                {
+                    legacyIds = new ArrayList<>();
+                }
+                legacyIds.add(name.substring(LEGACY_ATTR_LAST_ACCESSED.length()));
             }
         }
+        if ( legacyIds == null )
+        {
+            return null;
+        }
 
-        return names;
+        synchronized ( session )
+        {
+            final Map<String, long[]> result = new HashMap<>();
+            final Object current = session.getAttribute(ATTR_CONTEXTS);
+            if ( current instanceof Map )
+            {
+                result.putAll((Map<String, long[]>) current);
+            }
+            for(final String id : legacyIds)
+            {
+                final Object lastAccessed = session.getAttribute(LEGACY_ATTR_LAST_ACCESSED.concat(id));
+                final Object created = session.getAttribute(LEGACY_ATTR_CREATED.concat(id));
+                final Object maxInactive = session.getAttribute(LEGACY_ATTR_MAX_INACTIVE.concat(id));
+                if ( lastAccessed instanceof Long && !result.containsKey(id) )
+                {
+                    result.put(id, new long[] {
+                            created instanceof Long ? (Long) created : (Long) lastAccessed,
+                            (Long) lastAccessed,
+                            maxInactive instanceof Integer ? (Integer) maxInactive : session.getMaxInactiveInterval()});
+                }
+            }
+            if ( !result.isEmpty() )
+            {
+                session.setAttribute(ATTR_CONTEXTS, result);
+            }
+            for(final String id : legacyIds)
+            {
+                session.removeAttribute(LEGACY_ATTR_CREATED.concat(id));
+                session.removeAttribute(LEGACY_ATTR_LAST_ACCESSED.concat(id));
+                session.removeAttribute(LEGACY_ATTR_MAX_INACTIVE.concat(id));
+            }
+            return result.isEmpty() ? null : result;
+        }
+    }
+
+    /**
+     * Set or remove the values of a context. The map of the contexts is
+     * replaced, which also lets containers replicating sessions notice the
+     * change. Changes are serialized per container session, so concurrent
+     * requests of the same session do not lose a context.
+     * @param session The underlying session
+     * @param id The context id
+     * @param values The values or {@code null} to remove the context
+     */
+    private static void setContext(final HttpSession session, final String id, final long[] values)
+    {
+        synchronized ( session )
+        {
+            final Map<String, long[]> current = getContexts(session);
+            final Map<String, long[]> contexts = current == null ? new HashMap<String, long[]>() : new HashMap<>(current);
+            if ( values == null )
+            {
+                contexts.remove(id);
+            }
+            else
+            {
+                contexts.put(id, values);
+            }
+            if ( contexts.isEmpty() )
+            {
+                session.removeAttribute(ATTR_CONTEXTS);
+            }
+            else
+            {
+                session.setAttribute(ATTR_CONTEXTS, contexts);
+            }
+        }
     }
 
     /**
@@ -161,32 +283,32 @@ public class HttpSessionWrapper implements HttpSession
         this.sessionId = context.getServletContextName();
         this.keyPrefix = ATTR_PREFIX.concat(this.sessionId).concat(".");
 
-        final String createdAttrName = ATTR_CREATED.concat(this.sessionId);
-
         final long now = System.currentTimeMillis();
-        if ( session.getAttribute(createdAttrName) == null )
+        final Map<String, long[]> contexts = getContexts(session);
+        final long[] values = contexts == null ? null : contexts.get(this.sessionId);
+        if ( values == null )
         {
             this.created = now;
             this.maxTimeout = session.getMaxInactiveInterval();
             this.isNew = true;
 
-            session.setAttribute(createdAttrName, this.created);
-            session.setAttribute(ATTR_MAX_INACTIVE.concat(this.sessionId), this.maxTimeout);
+            setContext(session, this.sessionId, new long[] {this.created, now, this.maxTimeout});
 
             context.getHttpSessionListener().sessionCreated(new HttpSessionEvent(this));
         }
         else
         {
-            this.created = (Long)session.getAttribute(createdAttrName);
-            this.maxTimeout = (Integer)session.getAttribute(ATTR_MAX_INACTIVE.concat(this.sessionId));
+            this.created = values[CREATED];
+            this.maxTimeout = (int) values[MAX_INACTIVE];
             this.isNew = false;
+
+            if ( !terminate )
+            {
+                setContext(session, this.sessionId, new long[] {this.created, now, this.maxTimeout});
+            }
         }
 
         this.lastAccessed = now;
-        if ( !terminate )
-        {
-            session.setAttribute(ATTR_LAST_ACCESSED.concat(this.sessionId), this.lastAccessed);
-        }
     }
 
     /**
@@ -327,9 +449,7 @@ public class HttpSessionWrapper implements HttpSession
         // session listener must be called before the session is invalidated
         context.getHttpSessionListener().sessionDestroyed(new HttpSessionEvent(this));
 
-        this.delegate.removeAttribute(ATTR_CREATED + this.sessionId);
-        this.delegate.removeAttribute(ATTR_LAST_ACCESSED + this.sessionId);
-        this.delegate.removeAttribute(ATTR_MAX_INACTIVE + this.sessionId);
+        setContext(this.delegate, this.sessionId, null);
 
         // remove all attributes belonging to this session
         final Enumeration<String> names = this.delegate.getAttributeNames();
@@ -440,7 +560,15 @@ public class HttpSessionWrapper implements HttpSession
             this.delegate.setMaxInactiveInterval(interval);
         }
         this.maxTimeout = interval;
-        this.delegate.setAttribute(ATTR_MAX_INACTIVE + this.sessionId, interval);
+        synchronized ( this.delegate )
+        {
+            final Map<String, long[]> contexts = getContexts(this.delegate);
+            final long[] values = contexts == null ? null : contexts.get(this.sessionId);
+            if ( values != null )
+            {
+                setContext(this.delegate, this.sessionId, new long[] {values[CREATED], values[LAST_ACCESSED], interval});
+            }
+        }
     }
 
     @Override
@@ -327,6 +327,16 @@ public final class EventListenerRegistry implements
         }
     }
 
+    /**
+     * Check whether servlet request listeners are registered, allowing
+     * the dispatcher to skip creating request events if there are none.
+     * @return {@code true} if a servlet request listener is active
+     */
+    public boolean hasServletRequestListeners()
+    {
+        return this.requestListeners.hasActiveListeners();
+    }
+
     @Override
     public void requestDestroyed(final ServletRequestEvent sre)
     {
@@ -21,6 +21,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.NotNull;
@@ -40,9 +42,54 @@ import org.osgi.service.http.runtime.dto.ServletContextDTO;
  */
 public final class FilterRegistry
 {
+    private static final FilterHandler[] EMPTY_FILTER_HANDLER = new FilterHandler[0];
+
+    /** Maximum number of filter chains cached per dispatcher type. */
+    private static final int MAX_CHAINS = 1024;
+
     /** List of all filter registrations. These are sorted by the status objects. */
     private volatile List<FilterRegistrationStatus> filters = Collections.emptyList();
 
+    /**
+     * The filter chains by dispatcher type and request uri, computed for the current filters.
+     * Replaced as a whole whenever the filters change, always after the filters are updated.
+     */
+    private volatile CachedChains chains = new CachedChains();
+
+    /**
+     * The filters applying to a request uri and the servlet it has been resolved to.
+     */
+    private static final class CachedChain
+    {
+        final ServletHandler servletHandler;
+        final FilterHandler[] filterHandlers;
+
+        CachedChain(final ServletHandler servletHandler, final FilterHandler[] filterHandlers)
+        {
+            this.servletHandler = servletHandler;
+            this.filterHandlers = filterHandlers;
+        }
+    }
+
+    private static final class CachedChains
+    {
+        @SuppressWarnings("unchecked")
+        private final Map<String, CachedChain>[] byDispatcherType = new Map[DispatcherType.values().length];
+
+        CachedChains()
+        {
+            for(int i = 0; i < byDispatcherType.length; i++)
+            {
+                byDispatcherType[i] = new ConcurrentHashMap<String, CachedChain>();
+            }
+        }
+
+        Map<String, CachedChain> get(final DispatcherType dispatcherType)
+        {
+            return byDispatcherType[dispatcherType.ordinal()];
+        }
+    }
+
     /**
      * The status object keeps track of the registration status of a filter and holds
      * the resolvers to match against a uri.
@@ -126,6 +173,7 @@ public final class FilterRegistry
         Collections.sort(newList);
 
         this.filters = newList;
+        this.chains = new CachedChains();
     }
 
     /**
@@ -151,6 +199,7 @@ public final class FilterRegistry
         if ( found != null )
         {
             this.filters = newList;
+            this.chains = new CachedChains();
 
             if ( found.getResult() == -1 && destroy )
             {
@@ -162,6 +211,7 @@ public final class FilterRegistry
     public synchronized void cleanup()
     {
         this.filters = Collections.emptyList();
+        this.chains = new CachedChains();
     }
 
     /**
@@ -176,9 +226,32 @@ public final class FilterRegistry
             @NotNull final DispatcherType dispatcherType,
             @NotNull final String requestURI)
     {
-        final List<FilterHandler> result = new ArrayList<FilterHandler>();
-        final List<FilterRegistrationStatus> allFilters = this.filters;
+        // the chains must be read before the filters, see chains
+        final Map<String, CachedChain> cache = this.chains.get(dispatcherType);
+        final CachedChain cached = cache.get(requestURI);
+        if ( cached != null && cached.servletHandler == handler )
+        {
+            return cached.filterHandlers;
+        }
 
+        final FilterHandler[] result = this.computeFilterHandlers(this.filters, handler, dispatcherType, requestURI);
+        if ( cache.size() >= MAX_CHAINS )
+        {
+            cache.clear();
+        }
+        cache.put(requestURI, new CachedChain(handler, result));
+        return result;
+    }
+
+    private @NotNull FilterHandler[] computeFilterHandlers(@NotNull final List<FilterRegistrationStatus> allFilters,
+            @Nullable final ServletHandler handler,
+            @NotNull final DispatcherType dispatcherType,
+            @NotNull final String requestURI)
+    {
+        // check for servlet name if it's not a resource
+        final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
+
+        List<FilterHandler> result = null;
         for(final FilterRegistrationStatus status : allFilters)
         {
             // as soon as we encounter a failing filter, we can stop
@@ -193,29 +266,36 @@ public final class FilterRegistry
                 {
                     if ( resolver.resolve(requestURI) != null )
                     {
-                        result.add(status.getHandler());
                         added = true;
                         break;
                     }
                 }
-                // check for servlet name if it's not a resource
-                final String servletName = (handler != null && !handler.getServletInfo().isResource()) ? handler.getName() : null;
                 if ( !added && servletName != null && status.getHandler().getFilterInfo().getServletNames() != null )
                 {
                     for(final String name : status.getHandler().getFilterInfo().getServletNames())
                     {
                         if ( servletName.equals(name) )
                         {
-                            result.add(status.getHandler());
                             added = true;
                             break;
                         }
                     }
                 }
-
+                if ( added )
+                {
+                    if ( result == null )
+                    {
+                        result = new ArrayList<FilterHandler>();
+                    }
+                    result.add(status.getHandler());
+                }
             }
         }
 
+        if ( result == null )
+        {
+            return EMPTY_FILTER_HANDLER;
+        }
         return result.toArray(new FilterHandler[result.size()]);
     }
 
@@ -121,6 +121,17 @@ public class ListenerMap<T extends EventListener> {
         return null;
     }
 
+    /**
+     * Check whether there is an active listener, without iterating.
+     * @return {@code true} if there is at least one active listener
+     */
+    public boolean hasActiveListeners()
+    {
+        final List<ListenerRegistrationStatus<T>> list = this.handlers;
+        // active listeners are sorted first
+        return !list.isEmpty() && list.get(0).getResult() == -1;
+    }
+
     public Iterable<ListenerHandler> getActiveHandlers()
     {
         final List<ListenerRegistrationStatus<T>> list = this.handlers;
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.base.internal.dispatch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.http.base.internal.HttpConfig;
+import org.apache.felix.http.base.internal.context.ExtServletContext;
+import org.apache.felix.http.base.internal.handler.HttpServiceFilterHandler;
+import org.apache.felix.http.base.internal.handler.HttpServiceServletHandler;
+import org.apache.felix.http.base.internal.handler.ServletHandler;
+import org.apache.felix.http.base.internal.registry.EventListenerRegistry;
+import org.apache.felix.http.base.internal.registry.HandlerRegistry;
+import org.apache.felix.http.base.internal.runtime.FilterInfo;
+import org.apache.felix.http.base.internal.runtime.ServletInfo;
+import org.apache.felix.http.base.internal.whiteboard.WhiteboardManager;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Measures the requests per second and the bytes allocated per request by
+ * the {@link Dispatcher}, without and with a filter. The container is
+ * replaced by proxies, whose overhead is included in the numbers.
+ * This is not run as part of the build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.http.base.internal.dispatch.DispatchBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class DispatchBenchmark
+{
+    public static void main(final String[] args) throws Exception
+    {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        final HandlerRegistry registry = new HandlerRegistry(new HttpConfig());
+        registry.init();
+        final Dispatcher dispatcher = new Dispatcher(registry);
+        dispatcher.setWhiteboardManager(new WhiteboardManager(stub(BundleContext.class),
+                null, registry));
+
+        final Map<String, Object> contextResults = new HashMap<>();
+        contextResults.put("getServletRequestListener", new EventListenerRegistry());
+        contextResults.put("handleSecurity", true);
+        final ExtServletContext context = stub(ExtServletContext.class, contextResults);
+
+        final ServletInfo info = new ServletInfo("bench", "/bench/*", Collections.<String, String> emptyMap());
+        final ServletHandler handler = new HttpServiceServletHandler(context, info, stub(Servlet.class));
+        registry.getRegistry(handler.getContextServiceId()).registerServlet(handler);
+
+        final Map<String, Object> requestResults = new HashMap<>();
+        requestResults.put("getServletPath", "/bench");
+        requestResults.put("getPathInfo", "/path");
+        requestResults.put("getRequestURI", "/bench/path");
+        requestResults.put("getDispatcherType", DispatcherType.REQUEST);
+        final HttpServletRequest req = stub(HttpServletRequest.class, requestResults);
+        final HttpServletResponse res = stub(HttpServletResponse.class);
+
+        System.out.println(String.format("%-12s %12s %12s", "filters", "requests/s", "bytes/req"));
+        run(dispatcher, req, res, iterations, "none");
+
+        registry.getRegistry(handler.getContextServiceId()).registerFilter(new HttpServiceFilterHandler(context,
+                new FilterInfo(null, "/bench/.*", 0, Collections.<String, String> emptyMap()), new Filter()
+                {
+                    @Override
+                    public void init(final javax.servlet.FilterConfig filterConfig)
+                    {
+                    }
+
+                    @Override
+                    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+                            throws java.io.IOException, javax.servlet.ServletException
+                    {
+                        chain.doFilter(request, response);
+                    }
+
+                    @Override
+                    public void destroy()
+                    {
+                    }
+                }));
+        run(dispatcher, req, res, iterations, "one");
+    }
+
+    private static void run(final Dispatcher dispatcher, final HttpServletRequest req, final HttpServletResponse res,
+            final int iterations, final String label) throws Exception
+    {
+        // warm up
+        for (int i = 0; i < iterations; i++)
+        {
+            dispatcher.dispatch(req, res);
+        }
+        final long bytes = allocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            dispatcher.dispatch(req, res);
+        }
+        final long time = System.nanoTime() - start;
+        final long allocated = allocatedBytes() - bytes;
+        System.out.println(String.format("%-12s %12.0f %12d", label,
+                iterations * 1e9 / time, allocated / iterations));
+    }
+
+    private static long allocatedBytes()
+    {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static <T> T stub(final Class<T> type)
+    {
+        return stub(type, Collections.<String, Object> emptyMap());
+    }
+
+    /**
+     * Creates a proxy returning the given results by method name, much cheaper
+     * than a mock which would dominate the measurement.
+     */
+    private static <T> T stub(final Class<T> type, final Map<String, Object> results)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            {
+                final Object result = results.get(method.getName());
+                if (result == null && method.getReturnType() == boolean.class)
+                {
+                    return false;
+                }
+                if (result == null && method.getReturnType() == int.class)
+                {
+                    return 0;
+                }
+                return result;
+            }
+        }));
+    }
+}
@@ -19,17 +19,20 @@
 
 package org.apache.felix.http.base.internal.handler;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionListener;
@@ -73,15 +76,144 @@ public class HttpSessionWrapperTest
 
     private HttpSession createMockSession(String sessionName, long lastAccessed, int maxInactive)
     {
-        String attrLastAccessed = String.format("org.apache.felix.http.session.context.lastaccessed.%s", sessionName);
-        String attrMaxInactive = String.format("org.apache.felix.http.session.context.maxinactive.%s", sessionName);
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("org.apache.felix.http.session.context.lastaccessed." + sessionName, lastAccessed);
+        attributes.put("org.apache.felix.http.session.context.maxinactive." + sessionName, maxInactive);
+
+        return createContainerSession(attributes);
+    }
+
+    @Test
+    public void testSessionContextNames()
+    {
+        final Map<String, Object> attributes = new HashMap<>();
+        final HttpSession containerSession = createContainerSession(attributes);
+        final HttpConfig config = new HttpConfig();
+
+        assertTrue(HttpSessionWrapper.getSessionContextNames(containerSession).isEmpty());
+        assertFalse(HttpSessionWrapper.hasSession("a", containerSession));
+
+        final HttpSession a = new HttpSessionWrapper(containerSession, createContext("a"), config, false);
+        a.setAttribute("foo", "bar");
+        final HttpSession b = new HttpSessionWrapper(containerSession, createContext("b"), config, false);
+        assertTrue(a.isNew());
+        assertTrue(b.isNew());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), HttpSessionWrapper.getSessionContextNames(containerSession));
+        assertTrue(HttpSessionWrapper.hasSession("a", containerSession));
+
+        // all contexts are tracked by a single attribute holding JDK types only
+        assertEquals(2, attributes.size());
+        final Object contexts = attributes.get("org.apache.felix.http.session.context.contexts");
+        assertEquals(HashMap.class, contexts.getClass());
+        for(final Object values : ((Map<?, ?>) contexts).values())
+        {
+            assertEquals(long[].class, values.getClass());
+        }
+
+        final HttpSession again = new HttpSessionWrapper(containerSession, createContext("a"), config, false);
+        assertFalse(again.isNew());
+        assertEquals(a.getCreationTime(), again.getCreationTime());
+        assertEquals("bar", again.getAttribute("foo"));
+
+        again.invalidate();
+        assertEquals(Collections.singleton("b"), HttpSessionWrapper.getSessionContextNames(containerSession));
+        assertFalse(HttpSessionWrapper.hasSession("a", containerSession));
+        assertTrue(HttpSessionWrapper.getExpiredSessionContextNames(containerSession).isEmpty());
+    }
 
-        HttpSession session = mock(HttpSession.class);
-        when(session.getAttributeNames()).thenReturn(Collections.enumeration(Arrays.asList(attrLastAccessed)));
-        when(session.getAttribute(eq(attrLastAccessed))).thenReturn(lastAccessed);
-        when(session.getAttribute(eq(attrMaxInactive))).thenReturn(maxInactive);
+    @Test
+    public void testMigrateLegacyAttributes()
+    {
+        final long now = System.currentTimeMillis();
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("org.apache.felix.http.session.context.created.a", now - 5000L);
+        attributes.put("org.apache.felix.http.session.context.lastaccessed.a", now - 1000L);
+        attributes.put("org.apache.felix.http.session.context.maxinactive.a", 60);
+        attributes.put("org.apache.felix.http.session.context.attr.a.foo", "bar");
+        attributes.put("other", "value");
+        final HttpSession containerSession = createContainerSession(attributes);
+
+        assertTrue(HttpSessionWrapper.hasSession("a", containerSession));
+        assertEquals(new HashSet<>(Arrays.asList("org.apache.felix.http.session.context.contexts",
+                "org.apache.felix.http.session.context.attr.a.foo", "other")), attributes.keySet());
+
+        final HttpSession a = new HttpSessionWrapper(containerSession, createContext("a"), new HttpConfig(), false);
+        assertFalse(a.isNew());
+        assertEquals(now - 5000L, a.getCreationTime());
+        assertEquals(60, a.getMaxInactiveInterval());
+        assertEquals("bar", a.getAttribute("foo"));
+    }
+
+    @Test
+    public void testConcurrentContexts() throws Exception
+    {
+        final HttpSession containerSession = createContainerSession(new ConcurrentHashMap<String, Object>());
+        final HttpConfig config = new HttpConfig();
+        final Thread[] threads = new Thread[8];
+        for(int i = 0; i < threads.length; i++)
+        {
+            final ExtServletContext context = createContext("context" + i);
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for(int j = 0; j < 100; j++)
+                    {
+                        new HttpSessionWrapper(containerSession, context, config, false);
+                    }
+                }
+            };
+        }
+        for(final Thread t : threads)
+        {
+            t.start();
+        }
+        for(final Thread t : threads)
+        {
+            t.join();
+        }
+        assertEquals(threads.length, HttpSessionWrapper.getSessionContextNames(containerSession).size());
+    }
 
-        return session;
+    private HttpSession createContainerSession(final Map<String, Object> attributes)
+    {
+        final HttpSession containerSession = mock(HttpSession.class);
+        when(containerSession.getAttributeNames()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+            }
+        });
+        when(containerSession.getAttribute(Mockito.anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return attributes.get(invocation.getArgument(0));
+            }
+        });
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                attributes.put((String)invocation.getArgument(0), invocation.getArgument(1));
+                return null;
+            }
+        }).when(containerSession).setAttribute(Mockito.anyString(), Mockito.any());
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                attributes.remove(invocation.getArgument(0));
+                return null;
+            }
+        }).when(containerSession).removeAttribute(Mockito.anyString());
+        return containerSession;
+    }
+
+    private ExtServletContext createContext(final String name)
+    {
+        final ExtServletContext context = mock(ExtServletContext.class);
+        when(context.getServletContextName()).thenReturn(name);
+        when(context.getHttpSessionListener()).thenReturn(mock(HttpSessionListener.class));
+        return context;
     }
 
     /**
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.http.base.internal.handler;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionListener;
+
+import org.apache.felix.http.base.internal.HttpConfig;
+import org.apache.felix.http.base.internal.context.ExtServletContext;
+
+/**
+ * Measures the session handling done by the dispatcher for each request, i.e.
+ * looking for expired context sessions and accessing the context session.
+ * This is not run as part of the build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.http.base.internal.handler.SessionDispatchBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+@SuppressWarnings("deprecation")
+public class SessionDispatchBenchmark
+{
+    private static final int[] ATTRIBUTES = { 0, 10, 100, 1000 };
+
+    private static final int CONTEXTS = 4;
+
+    /** Keeps the results alive. */
+    static volatile int sink;
+
+    public static void main(final String[] args)
+    {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        final HttpConfig config = new HttpConfig();
+        final ExtServletContext[] contexts = new ExtServletContext[CONTEXTS];
+        for (int i = 0; i < CONTEXTS; i++)
+        {
+            // stub only, as recorded invocations would dominate the measurement
+            contexts[i] = mock(ExtServletContext.class, withSettings().stubOnly());
+            when(contexts[i].getServletContextName()).thenReturn("context" + i);
+            when(contexts[i].getHttpSessionListener()).thenReturn(mock(HttpSessionListener.class, withSettings().stubOnly()));
+        }
+
+        System.out.println(String.format("%-12s %12s", "attributes", "ns/request"));
+        for (final int attributes : ATTRIBUTES)
+        {
+            final HttpSession session = new MapSession();
+            for (int i = 0; i < CONTEXTS; i++)
+            {
+                final HttpSession wrapper = new HttpSessionWrapper(session, contexts[i], config, false);
+                for (int j = 0; j < attributes / CONTEXTS; j++)
+                {
+                    wrapper.setAttribute("attribute" + j, j);
+                }
+            }
+
+            run(session, contexts, config, iterations);
+            final long start = System.nanoTime();
+            sink = run(session, contexts, config, iterations);
+            final long time = System.nanoTime() - start;
+            System.out.println(String.format("%-12d %12.1f", attributes, (double) time / iterations));
+        }
+    }
+
+    private static int run(final HttpSession session, final ExtServletContext[] contexts,
+            final HttpConfig config, final int iterations)
+    {
+        int result = 0;
+        for (int i = 0; i < iterations; i++)
+        {
+            // what the dispatcher and the request wrapper do for each request
+            result += HttpSessionWrapper.getExpiredSessionContextNames(session).size();
+            final ExtServletContext context = contexts[i % CONTEXTS];
+            if (HttpSessionWrapper.hasSession(context.getServletContextName(), session))
+            {
+                result += new HttpSessionWrapper(session, context, config, false).isNew() ? 1 : 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A container session keeping the attributes in a map.
+     */
+    private static final class MapSession implements HttpSession
+    {
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+        @Override
+        public long getCreationTime()
+        {
+            return 0;
+        }
+
+        @Override
+        public String getId()
+        {
+            return "session";
+        }
+
+        @Override
+        public long getLastAccessedTime()
+        {
+            return 0;
+        }
+
+        @Override
+        public ServletContext getServletContext()
+        {
+            return null;
+        }
+
+        @Override
+        public void setMaxInactiveInterval(final int interval)
+        {
+        }
+
+        @Override
+        public int getMaxInactiveInterval()
+        {
+            return 1800;
+        }
+
+        @Override
+        public javax.servlet.http.HttpSessionContext getSessionContext()
+        {
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(final String name)
+        {
+            return attributes.get(name);
+        }
+
+        @Override
+        public Object getValue(final String name)
+        {
+            return getAttribute(name);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames()
+        {
+            return Collections.enumeration(attributes.keySet());
+        }
+
+        @Override
+        public String[] getValueNames()
+        {
+            return attributes.keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public void setAttribute(final String name, final Object value)
+        {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public void putValue(final String name, final Object value)
+        {
+            setAttribute(name, value);
+        }
+
+        @Override
+        public void removeAttribute(final String name)
+        {
+            attributes.remove(name);
+        }
+
+        @Override
+        public void removeValue(final String name)
+        {
+            removeAttribute(name);
+        }
+
+        @Override
+        public void invalidate()
+        {
+            attributes.clear();
+        }
+
+        @Override
+        public boolean isNew()
+        {
+            return false;
+        }
+    }
+}
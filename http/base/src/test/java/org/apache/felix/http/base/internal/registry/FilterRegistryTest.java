@@ -16,21 +16,29 @@
  */
 package org.apache.felix.http.base.internal.registry;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
 import java.util.EventListener;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
 import javax.servlet.ServletContextListener;
 import javax.servlet.ServletException;
 
 import org.apache.felix.http.base.internal.context.ExtServletContext;
+import org.apache.felix.http.base.internal.handler.FilterHandler;
+import org.apache.felix.http.base.internal.handler.HttpServiceFilterHandler;
 import org.apache.felix.http.base.internal.handler.ListenerHandler;
 import org.apache.felix.http.base.internal.handler.WhiteboardListenerHandler;
+import org.apache.felix.http.base.internal.runtime.FilterInfo;
 import org.apache.felix.http.base.internal.runtime.ListenerInfo;
 import org.apache.felix.http.base.internal.runtime.dto.FailedDTOHolder;
 import org.junit.Test;
@@ -89,6 +97,37 @@ public class FilterRegistryTest {
         assertEmpty(dto, holder);
     }
 
+    @Test public void testFilterChainCache()
+    {
+        final FilterRegistry reg = new FilterRegistry();
+        assertEquals(0, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/foo/bar").length);
+
+        final FilterHandler h1 = createFilterHandler(1, "/foo.*");
+        reg.addFilter(h1);
+        final FilterHandler[] handlers = reg.getFilterHandlers(null, DispatcherType.REQUEST, "/foo/bar");
+        assertArrayEquals(new FilterHandler[] {h1}, handlers);
+        // cached per request uri and dispatcher type
+        assertSame(handlers, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/foo/bar"));
+        assertEquals(0, reg.getFilterHandlers(null, DispatcherType.FORWARD, "/foo/bar").length);
+        assertEquals(0, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/bar").length);
+
+        // changes to the filters are visible immediately
+        final FilterHandler h2 = createFilterHandler(2, ".*");
+        reg.addFilter(h2);
+        assertArrayEquals(new FilterHandler[] {h2, h1}, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/foo/bar"));
+        assertArrayEquals(new FilterHandler[] {h2}, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/bar"));
+
+        reg.removeFilter(h2.getFilterInfo(), true);
+        assertArrayEquals(new FilterHandler[] {h1}, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/foo/bar"));
+        assertEquals(0, reg.getFilterHandlers(null, DispatcherType.REQUEST, "/bar").length);
+    }
+
+    private static FilterHandler createFilterHandler(final int ranking, final String regex)
+    {
+        final FilterInfo info = new FilterInfo(null, regex, ranking, Collections.<String, String> emptyMap());
+        return new HttpServiceFilterHandler(mock(ExtServletContext.class), info, mock(Filter.class));
+    }
+
     private static ListenerInfo createListenerInfo(final long id, final int ranking, final Class<? extends EventListener> type) throws InvalidSyntaxException
     {
         final String[] typeNames = new String[1];
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.felix.http.base.internal.logger.SystemLogger;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+
+/**
+ * A request log writer which does not write on the request thread. Lines are
+ * put into a bounded queue and written in batches through a {@link FileChannel}
+ * by a single writer thread.
+ *
+ * The file is rolled at midnight and, if a maximum size is configured, whenever
+ * it exceeds that size. Rolled files are renamed to the file name followed by
+ * the date and, for files rolled by size, a sequence number. Rolled files older
+ * than the retain days are deleted.
+ *
+ * If the queue is full, lines are either dropped and counted or the request
+ * thread waits for the writer, depending on the {@link Overflow} policy.
+ */
+class AsyncRequestLogWriter extends AbstractLifeCycle implements RequestLog.Writer {
+
+    /**
+     * What to do with a line if the queue is full.
+     */
+    enum Overflow {
+        /** The line is dropped and counted. */
+        DROP,
+        /** The request thread waits until the line can be queued. */
+        BLOCK;
+
+        static Overflow fromString(String value) {
+            return "block".equalsIgnoreCase(value) ? BLOCK : DROP;
+        }
+    }
+
+    private static final String DEFAULT_FILENAME_DATE_FORMAT = "yyyy_MM_dd";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum time the writer thread waits for new lines, after which it checks for rolling. */
+    private static final long MAX_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Minimum time between warnings about dropped lines. */
+    private static final long DROPPED_WARNING_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final int capacity;
+    private final Overflow overflow;
+
+    private boolean append = true;
+    private int retainDays = 31;
+    private long maxFileSize;
+    private String filenameDateFormat = DEFAULT_FILENAME_DATE_FORMAT;
+
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile Thread writerThread;
+    private volatile boolean parked;
+    private volatile boolean running;
+
+    // only used by the writer thread
+    private FileChannel channel;
+    private long fileSize;
+    private long nextRollTime;
+    private long droppedReported;
+    private long droppedReportTime;
+
+    AsyncRequestLogWriter(String filename, int capacity, Overflow overflow) {
+        this.file = new File(filename).getAbsoluteFile();
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+    }
+
+    void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    void setRetainDays(int retainDays) {
+        this.retainDays = retainDays;
+    }
+
+    /**
+     * @param maxFileSize the size in bytes after which the file is rolled, 0 to only roll at midnight
+     */
+    void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    void setFilenameDateFormat(String filenameDateFormat) {
+        this.filenameDateFormat = filenameDateFormat != null ? filenameDateFormat : DEFAULT_FILENAME_DATE_FORMAT;
+    }
+
+    /**
+     * @return the number of lines dropped as the queue was full
+     */
+    long getDroppedLines() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of lines written to the file
+     */
+    long getWrittenLines() {
+        return written.get();
+    }
+
+    @Override
+    public void write(String line) throws IOException {
+        if (!running) {
+            dropped.incrementAndGet();
+            return;
+        }
+        while (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            if (overflow == Overflow.DROP || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            unparkWriter();
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        queue.offer(line);
+        unparkWriter();
+    }
+
+    private void unparkWriter() {
+        if (parked) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    @Override
+    protected synchronized void doStart() throws Exception {
+        openFile();
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Felix Jetty Request Log Writer " + file.getName());
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+        super.doStart();
+    }
+
+    @Override
+    protected synchronized void doStop() throws Exception {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            writerThread = null;
+        }
+        closeFile();
+        if (dropped.get() > 0) {
+            SystemLogger.warning("Dropped " + dropped.get() + " request log lines in total as the queue was full", null);
+        }
+        super.doStop();
+    }
+
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (true) {
+            String line = queue.poll();
+            if (line == null) {
+                if (!running) {
+                    // all lines have been written, queued ones are taken before stopping
+                    break;
+                }
+                parked = true;
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+                }
+                parked = false;
+                rollIfNeeded(0);
+                reportDropped();
+                continue;
+            }
+            try {
+                // take what is available in one batch
+                int lines = 0;
+                do {
+                    queued.decrementAndGet();
+                    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length + LINE_SEPARATOR.length > buffer.remaining()) {
+                        flush(buffer);
+                    }
+                    if (bytes.length + LINE_SEPARATOR.length > buffer.remaining()) {
+                        writeFully(ByteBuffer.wrap(bytes));
+                        writeFully(ByteBuffer.wrap(LINE_SEPARATOR));
+                    } else {
+                        buffer.put(bytes).put(LINE_SEPARATOR);
+                    }
+                    lines++;
+                } while (buffer.position() < BUFFER_SIZE / 2 && (line = queue.poll()) != null);
+                flush(buffer);
+                written.addAndGet(lines);
+            } catch (IOException e) {
+                buffer.clear();
+                SystemLogger.error("Error writing request log " + file, e);
+                reopenFile();
+            }
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        rollIfNeeded(buffer.remaining());
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        if (channel == null) {
+            throw new IOException("Request log file is not open");
+        }
+        while (buffer.hasRemaining()) {
+            fileSize += channel.write(buffer);
+        }
+    }
+
+    /**
+     * Rolls the file if it is past midnight or if the given number of bytes would
+     * exceed the maximum file size.
+     */
+    private void rollIfNeeded(int bytes) {
+        long now = System.currentTimeMillis();
+        boolean time = now >= nextRollTime;
+        boolean size = maxFileSize > 0 && fileSize > 0 && fileSize + bytes > maxFileSize;
+        if (time || size) {
+            try {
+                closeFile();
+                // files rolled at midnight are named after the day they belong to
+                rollFile(time ? nextRollTime - 1 : now, !time);
+                deleteExpiredFiles(now);
+            } catch (IOException e) {
+                SystemLogger.error("Error rolling request log " + file, e);
+            } finally {
+                reopenFile();
+            }
+        }
+    }
+
+    private void rollFile(long date, boolean sequenced) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+        String prefix = file.getName() + "." + new SimpleDateFormat(filenameDateFormat).format(new Date(date));
+        File target = new File(file.getParentFile(), prefix);
+        for (int i = 1; sequenced || target.exists(); i++) {
+            sequenced = false;
+            target = new File(file.getParentFile(), prefix + "." + i);
+        }
+        if (!file.renameTo(target)) {
+            throw new IOException("Unable to rename " + file + " to " + target);
+        }
+    }
+
+    private void deleteExpiredFiles(long now) {
+        if (retainDays <= 0) {
+            return;
+        }
+        long limit = now - TimeUnit.DAYS.toMillis(retainDays);
+        File[] files = file.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = file.getName() + ".";
+        for (File f : files) {
+            if (f.getName().startsWith(prefix) && f.lastModified() < limit && !f.delete()) {
+                SystemLogger.warning("Unable to delete expired request log " + f, null);
+            }
+        }
+    }
+
+    private void openFile() throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        channel = append
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // only the first file is truncated, files reopened after rolling are appended to
+        append = true;
+        fileSize = channel.size();
+        nextRollTime = nextMidnight(System.currentTimeMillis());
+    }
+
+    private void reopenFile() {
+        closeFile();
+        try {
+            openFile();
+        } catch (IOException e) {
+            SystemLogger.error("Error opening request log " + file, e);
+        }
+    }
+
+    private void closeFile() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                SystemLogger.error("Error closing request log " + file, e);
+            }
+            channel = null;
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.get();
+        long now = System.currentTimeMillis();
+        if (count != droppedReported && now - droppedReportTime >= DROPPED_WARNING_INTERVAL) {
+            SystemLogger.warning("Dropped " + (count - droppedReported) + " request log lines as the queue was full", null);
+            droppedReported = count;
+            droppedReportTime = now;
+        }
+    }
+
+    static long nextMidnight(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+}
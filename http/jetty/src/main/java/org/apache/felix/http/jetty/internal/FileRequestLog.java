@@ -24,7 +24,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.felix.http.base.internal.logger.SystemLogger;
-import org.eclipse.jetty.server.AsyncNCSARequestLog;
+import org.eclipse.jetty.server.AbstractNCSARequestLog;
 import org.eclipse.jetty.server.NCSARequestLog;
 import org.eclipse.jetty.server.RequestLog;
 import org.osgi.framework.BundleContext;
@@ -36,7 +36,7 @@ class FileRequestLog {
     public static final String DEFAULT_NAME = "file";
     public static final String SVC_PROP_FILEPATH = "filepath";
 
-    private final NCSARequestLog delegate;
+    private final AbstractNCSARequestLog delegate;
     private final String logFilePath;
     private final String serviceName;
     private ServiceRegistration<RequestLog> registration = null;
@@ -45,14 +45,22 @@ class FileRequestLog {
         logFilePath = config.getRequestLogFilePath();
         serviceName = config.getRequestLogFileServiceName() != null ? config.getRequestLogFileServiceName() : DEFAULT_NAME;
         if (config.isRequestLogFileAsync()) {
-            delegate = new AsyncNCSARequestLog(logFilePath, null);
+            // lines are written by a separate thread, not on the request thread
+            AsyncRequestLogWriter asyncWriter = new AsyncRequestLogWriter(logFilePath, config.getRequestLogFileQueueSize(),
+                    AsyncRequestLogWriter.Overflow.fromString(config.getRequestLogFileOverflow()));
+            asyncWriter.setAppend(config.isRequestLogFileAppend());
+            asyncWriter.setRetainDays(config.getRequestLogFileRetainDays());
+            asyncWriter.setFilenameDateFormat(config.getRequestLogFilenameDateFormat());
+            asyncWriter.setMaxFileSize(config.getRequestLogFileMaxSize());
+            delegate = new AbstractNCSARequestLog(asyncWriter);
         } else {
-            delegate = new NCSARequestLog(logFilePath);
+            NCSARequestLog ncsaLog = new NCSARequestLog(logFilePath);
+            ncsaLog.setAppend(config.isRequestLogFileAppend());
+            ncsaLog.setRetainDays(config.getRequestLogFileRetainDays());
+            ncsaLog.setFilenameDateFormat(config.getRequestLogFilenameDateFormat());
+            delegate = ncsaLog;
         }
 
-        delegate.setAppend(config.isRequestLogFileAppend());
-        delegate.setRetainDays(config.getRequestLogFileRetainDays());
-        delegate.setFilenameDateFormat(config.getRequestLogFilenameDateFormat());
         delegate.setExtended(config.isRequestLogFileExtended());
         delegate.setIgnorePaths(config.getRequestLogFileIgnorePaths());
         delegate.setLogCookies(config.isRequestLogFileLogCookies());
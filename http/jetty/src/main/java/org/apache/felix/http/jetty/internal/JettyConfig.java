@@ -192,6 +192,15 @@ public final class JettyConfig
     /** Felix specific property to enable file request logging to be asynchronous */
     public static final String FELIX_HTTP_REQUEST_LOG_FILE_ASYNC = "org.apache.felix.http.requestlog.file.async";
 
+    /** Felix specific property to specify the maximum number of lines queued by the asynchronous file request log */
+    public static final String FELIX_HTTP_REQUEST_LOG_FILE_QUEUE_SIZE = "org.apache.felix.http.requestlog.file.queuesize";
+
+    /** Felix specific property to specify what the asynchronous file request log does if its queue is full, either "drop" (default) or "block" */
+    public static final String FELIX_HTTP_REQUEST_LOG_FILE_OVERFLOW = "org.apache.felix.http.requestlog.file.overflow";
+
+    /** Felix specific property to specify the size in bytes after which the asynchronous file request log is rolled, 0 (default) to only roll daily */
+    public static final String FELIX_HTTP_REQUEST_LOG_FILE_MAX_SIZE = "org.apache.felix.http.requestlog.file.maxsize";
+
     /** Felix specific property to enable request logging to append to the log file rather than overwriting */
     public static final String FELIX_HTTP_REQUEST_LOG_FILE_APPEND = "org.apache.felix.http.requestlog.file.append";
 
@@ -569,6 +578,18 @@ public final class JettyConfig
         return getBooleanProperty(FELIX_HTTP_REQUEST_LOG_FILE_ASYNC, false);
     }
 
+    public int getRequestLogFileQueueSize() {
+        return getIntProperty(FELIX_HTTP_REQUEST_LOG_FILE_QUEUE_SIZE, 8192);
+    }
+
+    public String getRequestLogFileOverflow() {
+        return getProperty(FELIX_HTTP_REQUEST_LOG_FILE_OVERFLOW, "drop");
+    }
+
+    public long getRequestLogFileMaxSize() {
+        return getLongProperty(FELIX_HTTP_REQUEST_LOG_FILE_MAX_SIZE, 0);
+    }
+
     public boolean isRequestLogFileAppend() {
         return getBooleanProperty(FELIX_HTTP_REQUEST_LOG_FILE_APPEND, true);
     }
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.http.jetty.internal;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRequestLogWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesAllLinesInOrder() throws Exception {
+        File file = new File(folder.getRoot(), "logs/request.log");
+        AsyncRequestLogWriter writer = new AsyncRequestLogWriter(file.getPath(), 100000, AsyncRequestLogWriter.Overflow.BLOCK);
+        writer.start();
+        for (int i = 0; i < 10000; i++) {
+            writer.write("line " + i);
+        }
+        writer.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(10000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals("line " + i, lines.get(i));
+        }
+        assertEquals(10000, writer.getWrittenLines());
+        assertEquals(0, writer.getDroppedLines());
+    }
+
+    @Test
+    public void testBlockingDoesNotDropLines() throws Exception {
+        File file = new File(folder.getRoot(), "request.log");
+        final AsyncRequestLogWriter writer = new AsyncRequestLogWriter(file.getPath(), 4, AsyncRequestLogWriter.Overflow.BLOCK);
+        writer.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        try {
+                            writer.write("line");
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.stop();
+
+        assertEquals(4000, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        assertEquals(0, writer.getDroppedLines());
+    }
+
+    @Test
+    public void testDropsLinesIfNotRunning() throws Exception {
+        File file = new File(folder.getRoot(), "request.log");
+        AsyncRequestLogWriter writer = new AsyncRequestLogWriter(file.getPath(), 10, AsyncRequestLogWriter.Overflow.DROP);
+        writer.write("before start");
+        assertEquals(1, writer.getDroppedLines());
+    }
+
+    @Test
+    public void testRollsBySize() throws Exception {
+        File file = new File(folder.getRoot(), "request.log");
+        AsyncRequestLogWriter writer = new AsyncRequestLogWriter(file.getPath(), 100, AsyncRequestLogWriter.Overflow.BLOCK);
+        writer.setMaxFileSize(100);
+        writer.start();
+        for (int i = 0; i < 50; i++) {
+            writer.write("0123456789012345678");
+            Thread.sleep(1);
+        }
+        writer.stop();
+
+        File[] files = folder.getRoot().listFiles();
+        assertTrue("Expected rolled files", files.length > 1);
+        int lines = 0;
+        for (File f : files) {
+            assertTrue(f.getName().startsWith("request.log"));
+            lines += Files.readAllLines(f.toPath(), StandardCharsets.UTF_8).size();
+        }
+        assertEquals(50, lines);
+    }
+
+    @Test
+    public void testTruncatesIfNotAppending() throws Exception {
+        File file = new File(folder.getRoot(), "request.log");
+        Files.write(file.toPath(), "old\n".getBytes(StandardCharsets.UTF_8));
+        AsyncRequestLogWriter writer = new AsyncRequestLogWriter(file.getPath(), 10, AsyncRequestLogWriter.Overflow.BLOCK);
+        writer.setAppend(false);
+        writer.start();
+        writer.write("new");
+        writer.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        assertEquals("new", lines.get(0));
+    }
+}
@@ -23,6 +23,7 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 import javax.servlet.ServletException;
 
@@ -40,6 +41,10 @@ import org.apache.felix.httplite.servlet.HttpServletResponseImpl;
  * clients. A given persistent connection is limited in the number of
  * consecutive requests it is allowed to make before having its connection
  * closed as well as after a period of inactivity.
+ * <p>
+ * If a {@link ConnectionMonitor} is associated with the connection, it is
+ * handed to the monitor whenever it waits for its next request, rather than
+ * blocking the servicing thread until the request arrives.
 **/
 public class Connection
 {
@@ -57,8 +62,11 @@ public class Connection
     private OutputStream m_os;
     private int m_requestCount = 0;
     private final int m_requestLimit;
+    private final int m_timeout;
     private final ServiceRegistrationResolver m_resolver;
     private final Logger m_logger;
+    private final ConnectionMonitor m_monitor;
+    private long m_idleSince;
 
     /**
      * Constructs a connection with a default inactivity timeout and request limit.
@@ -84,10 +92,28 @@ public class Connection
      * @throws java.io.IOException If any I/O error occurs.
      */
     public Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        this(socket, timeout, requestLimit, resolver, logger, null);
+    }
+
+    /**
+     * Constructs a connection with the specified inactivity timeout and request limit,
+     * which is handed to the specified monitor while waiting for requests.
+     * @param socket The client socket.
+     * @param timeout The inactivity timeout of the connection in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     * @param monitor the monitor watching the connection while it is idle; can be <tt>null</tt>.
+     * @throws java.io.IOException If any I/O error occurs.
+     */
+    public Connection(final Socket socket, final int timeout, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger, final ConnectionMonitor monitor) throws IOException
     {
         m_socket = socket;
         m_resolver = resolver;
         m_logger = logger;
+        m_monitor = monitor;
+        m_timeout = timeout;
         m_socket.setSoTimeout(timeout);
         m_socket.setTcpNoDelay(true);
         m_requestLimit = requestLimit;
@@ -143,7 +169,8 @@ public class Connection
      * connection close, the inactivity timeout expires, the maximum request
      * limit was reached, or an I/O error occurred. When this method returns,
      * the associated socket will be closed, regardless of whether or not an
-     * expection was thrown.
+     * expection was thrown, unless the connection is handed to its monitor to
+     * wait for the next request.
      * @throws java.net.SocketTimeoutException If the inactivity timeout expired
      *         while trying to read from the socket.
      * @throws java.io.IOException If any I/O error occurs.
@@ -153,6 +180,7 @@ public class Connection
     {
         HttpServletRequestImpl request = m_resolver.getServletRequest(m_socket);
         HttpServletResponseImpl response = m_resolver.getServletResponse(m_os);
+        boolean idle = false;
 
         try
         {
@@ -160,6 +188,17 @@ public class Connection
             boolean close = false;
             while (!close)
             {
+                // If the next request does not arrive shortly, let the monitor
+                // wait for it instead of blocking this thread.
+                if ((m_monitor != null) && !awaitRequest(m_monitor.getLinger()))
+                {
+                    idle = m_monitor.addConnection(this);
+                    if (idle)
+                    {
+                        return;
+                    }
+                }
+
                 // Read the next request.
                 try
                 {
@@ -261,30 +300,107 @@ public class Connection
         }
         finally
         {
-            try
+            if (!idle)
             {
-                m_is.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket input stream.", ex);
-            }
-            try
-            {
-                m_os.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket output stream.", ex);
-            }
-            try
-            {
-                m_socket.close();
-            }
-            catch (IOException ex)
-            {
-                m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+                close();
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Waits for (part of) the next request to arrive, with a blocking read
+     * limited to the specified time.
+     * @param linger the time to wait in milliseconds.
+     * @return <tt>true</tt> if data is available or the stream has ended,
+     *         <tt>false</tt> if the time has elapsed.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    private boolean awaitRequest(final int linger) throws IOException
+    {
+        if (m_is.available() > 0)
+        {
+            return true;
+        }
+        m_os.flush();
+        if (linger == 0)
+        {
+            return false;
+        }
+
+        m_socket.setSoTimeout(linger);
+        try
+        {
+            m_is.mark(1);
+            m_is.read();
+            m_is.reset();
+            return true;
+        }
+        catch (SocketTimeoutException ex)
+        {
+            return false;
+        }
+        finally
+        {
+            m_socket.setSoTimeout(m_timeout);
+        }
+    }
+
+    /**
+     * Returns whether (part of) the next request is available to be read.
+     * @return <tt>true</tt> if data is available, <tt>false</tt> otherwise.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    boolean isReadable() throws IOException
+    {
+        return m_is.available() > 0;
+    }
+
+    /**
+     * Returns whether the inactivity timeout of this idle connection has expired.
+     * @param now the current time in milliseconds.
+     * @return <tt>true</tt> if the timeout has expired, <tt>false</tt> otherwise.
+    **/
+    boolean isExpired(final long now)
+    {
+        return (m_timeout > 0) && ((now - m_idleSince) >= m_timeout);
+    }
+
+    /**
+     * Marks the start of a period of inactivity of this connection.
+    **/
+    void setIdle()
+    {
+        m_idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes this connection along with its streams.
+    **/
+    void close()
+    {
+        try
+        {
+            m_is.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket input stream.", ex);
+        }
+        try
+        {
+            m_os.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket output stream.", ex);
+        }
+        try
+        {
+            m_socket.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+        }
+    }
+}
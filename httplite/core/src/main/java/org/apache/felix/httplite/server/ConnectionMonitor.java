@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.httplite.osgi.Logger;
+
+/**
+ * This class watches idle connections on a single thread, so that threads of
+ * the thread pool are not blocked by clients which do not send requests.
+ * A connection waits for its next request with a blocking read for a short
+ * linger time first, which covers new connections and the next request of
+ * an active persistent connection. Connections which stay idle for longer
+ * are added to the monitor, which periodically checks whether data is
+ * available to be read. Readable connections are handed to the thread pool;
+ * connections that stay idle for longer than their inactivity timeout are
+ * closed.
+ * <p>
+ * Since this implementation is restricted to Java 1.3, no selector is
+ * available and readiness is determined by polling the input streams of the
+ * idle connections. A shorter poll interval answers the requests of
+ * previously idle connections sooner, at the cost of checking all idle
+ * connections more often; a longer linger time takes threads of the thread
+ * pool for longer, but hands fewer connections to the monitor.
+**/
+public class ConnectionMonitor
+{
+    /**
+     * Default poll interval
+     */
+    public static final int DEFAULT_POLL_INTERVAL = 100;
+    /**
+     * Default linger time
+     */
+    public static final int DEFAULT_LINGER = 20;
+
+    private final ThreadPool m_threadPool;
+    private final int m_pollInterval;
+    private final int m_linger;
+    private final Logger m_logger;
+    private final List m_connectionList = new ArrayList();
+    private int m_state;
+    private Thread m_monitorThread;
+
+    /**
+     * Constructs a connection monitor handing readable connections to the
+     * specified thread pool.
+     * @param threadPool The thread pool servicing the readable connections.
+     * @param pollInterval The interval in milliseconds between checks of idle connections.
+     * @param linger The time in milliseconds a connection waits for its next
+     *        request before it is added to the monitor; <tt>0</tt> to add it immediately.
+     * @param logger Logger instance.
+    **/
+    public ConnectionMonitor(final ThreadPool threadPool, final int pollInterval, final int linger, final Logger logger)
+    {
+        m_threadPool = threadPool;
+        m_pollInterval = (pollInterval > 0) ? pollInterval : DEFAULT_POLL_INTERVAL;
+        m_linger = (linger >= 0) ? linger : DEFAULT_LINGER;
+        m_logger = logger;
+        m_state = Server.INACTIVE_STATE;
+    }
+
+    /**
+     * Starts the connection monitor if it is not already active.
+    **/
+    public synchronized void start()
+    {
+        if (m_state == Server.INACTIVE_STATE)
+        {
+            m_monitorThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    monitorConnections();
+                }
+            }, "HttpServerMonitor");
+            m_monitorThread.setDaemon(true);
+            m_state = Server.ACTIVE_STATE;
+            m_monitorThread.start();
+        }
+    }
+
+    /**
+     * Stops the connection monitor, closing all idle connections. This method
+     * blocks until the monitor thread has ended. If the calling thread is
+     * interrupted, the connections are closed without waiting for the monitor
+     * thread, which ends on its own, and the interrupt status is restored.
+    **/
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            if (m_state != Server.ACTIVE_STATE)
+            {
+                return;
+            }
+            m_state = Server.STOPPING_STATE;
+            thread = m_monitorThread;
+            notifyAll();
+        }
+
+        boolean interrupted = false;
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException ex)
+        {
+            interrupted = true;
+        }
+        finally
+        {
+            List connections;
+            synchronized (this)
+            {
+                connections = new ArrayList(m_connectionList);
+                m_connectionList.clear();
+                m_monitorThread = null;
+                m_state = Server.INACTIVE_STATE;
+            }
+            for (int i = 0; i < connections.size(); i++)
+            {
+                ((Connection) connections.get(i)).close();
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the time a connection waits for its next request before it is
+     * added to this monitor.
+     * @return the linger time in milliseconds.
+    **/
+    public int getLinger()
+    {
+        return m_linger;
+    }
+
+    /**
+     * Adds an idle connection to be watched by this monitor.
+     * @param connection the idle HTTP connection.
+     * @return <tt>true</tt> if the connection is watched by this monitor,
+     *         <tt>false</tt> if the monitor is not active.
+    **/
+    public synchronized boolean addConnection(final Connection connection)
+    {
+        if (m_state != Server.ACTIVE_STATE)
+        {
+            return false;
+        }
+        connection.setIdle();
+        m_connectionList.add(connection);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the number of idle connections watched by this monitor.
+     * @return the number of idle connections.
+    **/
+    public synchronized int getConnectionCount()
+    {
+        return m_connectionList.size();
+    }
+
+    /**
+     * This method is the main loop of the monitor thread.
+    **/
+    private void monitorConnections()
+    {
+        Thread self = Thread.currentThread();
+        List readable = new ArrayList();
+        List expired = new ArrayList();
+
+        while (true)
+        {
+            synchronized (this)
+            {
+                try
+                {
+                    while (isActive(self) && m_connectionList.isEmpty())
+                    {
+                        wait();
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    m_logger.log(Logger.LOG_DEBUG, "Connection monitor interrupted.");
+                    return;
+                }
+                if (!isActive(self))
+                {
+                    return;
+                }
+
+                long now = System.currentTimeMillis();
+                for (int i = m_connectionList.size() - 1; i >= 0; i--)
+                {
+                    Connection connection = (Connection) m_connectionList.get(i);
+                    try
+                    {
+                        if (connection.isReadable())
+                        {
+                            readable.add(m_connectionList.remove(i));
+                        }
+                        else if (connection.isExpired(now))
+                        {
+                            expired.add(m_connectionList.remove(i));
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        expired.add(m_connectionList.remove(i));
+                    }
+                }
+            }
+
+            // Hand readable connections to the thread pool and close expired
+            // ones outside of the lock, so new connections can be added.
+            for (int i = readable.size() - 1; i >= 0; i--)
+            {
+                Connection connection = (Connection) readable.get(i);
+                try
+                {
+                    m_threadPool.addConnection(connection);
+                }
+                catch (IllegalStateException ex)
+                {
+                    // The thread pool is stopping.
+                    connection.close();
+                }
+            }
+            for (int i = 0; i < expired.size(); i++)
+            {
+                m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                ((Connection) expired.get(i)).close();
+            }
+            readable.clear();
+            expired.clear();
+
+            synchronized (this)
+            {
+                try
+                {
+                    if (isActive(self))
+                    {
+                        wait(m_pollInterval);
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    m_logger.log(Logger.LOG_DEBUG, "Connection monitor interrupted.");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given thread is the thread of the active monitor. A
+     * monitor thread which was not waited for by {@link #stop()} ends once it
+     * notices it has been replaced.
+    **/
+    private boolean isActive(Thread thread)
+    {
+        return (m_state == Server.ACTIVE_STATE) && (m_monitorThread == thread);
+    }
+}
@@ -45,6 +45,14 @@ public class Server
      * Connection request limit property
      */
     public static final String CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP = "org.apache.felix.http.connection.requestlimit";
+    /**
+     * Idle connection poll interval property
+     */
+    public static final String CONFIG_PROPERTY_CONNECTION_POLLINTERVAL_PROP = "org.apache.felix.http.connection.pollinterval";
+    /**
+     * Connection linger time property
+     */
+    public static final String CONFIG_PROPERTY_CONNECTION_LINGER_PROP = "org.apache.felix.http.connection.linger";
     /**
      * Thread pool timeout property
      */
@@ -102,6 +110,7 @@ public class Server
     private Thread m_serverThread;
     private ServerSocket m_serverSocket;
     private final ThreadPool m_threadPool;
+    private final ConnectionMonitor m_connectionMonitor;
 
     private final int m_connectionTimeout;
     private final int m_connectionRequestLimit;
@@ -138,6 +147,13 @@ public class Server
      *       connections after which the connection is closed; the default value
      *       is 10000 milliseconds.
      *   </li>
+     *   <li><tt>org.apache.felix.http.connection.linger</tt> - the time a servicing thread waits
+     *       for the next request of a connection before handing it to the monitor of idle
+     *       connections; the default value is 20 milliseconds.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.connection.pollinterval</tt> - the interval at which idle
+     *       connections are checked for incoming requests; the default value is 100 milliseconds.
+     *   </li>
      * </ul>
      * The configuration properties cannot be changed after construction. The
      * web server is not active until it is started.
@@ -163,6 +179,11 @@ public class Server
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
         m_connectionRequestLimit = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP) == null) ? Connection.DEFAULT_CONNECTION_REQUESTLIMIT
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
+        int pollInterval = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_POLLINTERVAL_PROP) == null) ? ConnectionMonitor.DEFAULT_POLL_INTERVAL
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_POLLINTERVAL_PROP));
+        int linger = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_LINGER_PROP) == null) ? ConnectionMonitor.DEFAULT_LINGER
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_LINGER_PROP));
+        m_connectionMonitor = new ConnectionMonitor(m_threadPool, pollInterval, linger, m_logger);
     }
 
     /**
@@ -351,8 +372,9 @@ public class Server
     **/
     private void acceptConnections()
     {
-        // Start the thread pool.
+        // Start the thread pool and the monitor for idle connections.
         m_threadPool.start();
+        m_connectionMonitor.start();
 
         Socket socket;
 
@@ -368,9 +390,10 @@ public class Server
                 try
                 {
                     // Create connection object and add it to the thread pool
-                    // to be serviced.
+                    // to be serviced; it is handed to the monitor if its
+                    // first request does not arrive shortly.
                     Connection connection = new Connection(socket, m_connectionTimeout,
-                        m_connectionRequestLimit, m_resolver, m_logger);
+                        m_connectionRequestLimit, m_resolver, m_logger, m_connectionMonitor);
                     m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
                     m_threadPool.addConnection(connection);
                 }
@@ -405,6 +428,9 @@ public class Server
     {
         m_logger.log(Logger.LOG_DEBUG, "Waiting for thread pool threads to stop.");
 
+        // Close all idle connections.
+        m_connectionMonitor.stop();
+
         while (true)
         {
             try
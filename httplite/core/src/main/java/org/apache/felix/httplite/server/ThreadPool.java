@@ -303,7 +303,7 @@ public class ThreadPool
             try
             {
                 connection.process();
-                m_logger.log(Logger.LOG_DEBUG, "Connection closed normally.");
+                m_logger.log(Logger.LOG_DEBUG, "Connection processed normally.");
             }
             catch (SocketTimeoutException ex)
             {
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Tests that idle client connections do not occupy the threads servicing requests.
+ *
+ */
+public class TestIdleConnections extends AbstractHttpliteTestCase
+{
+
+    /**
+     * Number of idle connections, well above the default thread pool limit.
+     */
+    private static final int IDLE_CONNECTIONS = 100;
+
+    private static final int REQUESTS = 200;
+
+
+    public void testRequestsWithManyIdleConnections() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new BasicTestingServlet(), null, null );
+
+        Socket[] idle = new Socket[IDLE_CONNECTIONS];
+        try
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                idle[i] = new Socket( "localhost", DEFAULT_PORT );
+            }
+
+            long maxLatency = 0;
+            long start = System.currentTimeMillis();
+            for ( int i = 0; i < REQUESTS; i++ )
+            {
+                long requestStart = System.currentTimeMillis();
+
+                HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test", "GET" );
+                client.setReadTimeout( 5000 );
+                client.connect();
+                assertEquals( 200, client.getResponseCode() );
+                readInputAsByteArray( client.getInputStream() );
+
+                maxLatency = Math.max( maxLatency, System.currentTimeMillis() - requestStart );
+            }
+            long time = System.currentTimeMillis() - start;
+
+            System.out.println( REQUESTS + " requests with " + IDLE_CONNECTIONS + " idle connections: " + time
+                + "ms, max. latency " + maxLatency + "ms." );
+        }
+        finally
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                if ( idle[i] != null )
+                {
+                    idle[i].close();
+                }
+            }
+        }
+    }
+
+
+    public void testRequestOnPreviouslyIdleConnection() throws ServletException, NamespaceException, IOException,
+        InterruptedException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new BasicTestingServlet(), null, null );
+
+        Socket socket = new Socket( "localhost", DEFAULT_PORT );
+        try
+        {
+            socket.setSoTimeout( 5000 );
+
+            // Stay idle for a while, before sending the request.
+            Thread.sleep( 200 );
+
+            OutputStream os = socket.getOutputStream();
+            os.write( "GET /test HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes( "ISO-8859-1" ) );
+            os.flush();
+
+            InputStream is = socket.getInputStream();
+            String response = readInputAsString( is );
+            assertTrue( response, response.indexOf( " 200 " ) > 0 );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+}
@@ -138,8 +138,17 @@ public abstract class AbstractWebConsolePlugin extends HttpServlet
             }
             response.setContentType(type);
 
-            final ZipConfigurationWriter pw = ZipConfigurationWriter.create(response.getOutputStream());
-            printConfigurationInventory(pw, null, handler);
+            final ZipConfigurationWriter pw = ZipConfigurationWriter.create(response.getOutputStream(),
+                this.inventoryPrinterManager.getDumpTimeout(), this.inventoryPrinterManager.getDumpThreads(),
+                this.inventoryPrinterManager.getDumpSpoolDirectory());
+            if (handler == null)
+            {
+                pw.printInventories(this.inventoryPrinterManager.getHandlers(null));
+            }
+            else
+            {
+                pw.printInventory(null, handler);
+            }
             pw.finish();
         }
         else if (request.getPathInfo().endsWith(".nfo"))
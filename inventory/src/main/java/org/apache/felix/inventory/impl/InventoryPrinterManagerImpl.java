@@ -17,6 +17,7 @@
 package org.apache.felix.inventory.impl;
 
 import java.util.ArrayList;
+import java.io.File;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
@@ -31,6 +32,7 @@ import java.util.TreeSet;
 
 import org.apache.felix.inventory.Format;
 import org.apache.felix.inventory.InventoryPrinter;
+import org.apache.felix.inventory.impl.helper.ZipConfigurationWriter;
 import org.apache.felix.inventory.impl.webconsole.ConsoleConstants;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -38,6 +40,7 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
@@ -49,6 +52,15 @@ import org.osgi.util.tracker.ServiceTrackerCustomizer;
 public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
 {
 
+    /** Framework property for the seconds a printer may take when creating a zip. */
+    private static final String PROP_DUMP_TIMEOUT = "felix.inventory.dump.timeout";
+
+    /** Framework property for the number of printers called in parallel when creating a zip. */
+    private static final String PROP_DUMP_THREADS = "felix.inventory.dump.threads";
+
+    /** Directory in the bundle data area to spool the printer output to when creating a zip. */
+    private static final String DUMP_SPOOL_DIRECTORY = "spool";
+
     /** Bundle Context . */
     private final BundleContext bundleContext;
 
@@ -77,6 +89,7 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
     public InventoryPrinterManagerImpl(final BundleContext btx) throws InvalidSyntaxException
     {
         this.bundleContext = btx;
+        this.deleteSpoolFiles();
         this.cfgPrinterTracker = new ServiceTracker(this.bundleContext, InventoryPrinter.SERVICE, this);
         this.cfgPrinterTracker.open();
 
@@ -98,6 +111,72 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
         }, props);
     }
 
+    /**
+     * The time in milliseconds a printer may take when creating a zip.
+     */
+    public long getDumpTimeout()
+    {
+        final long seconds = getProperty(PROP_DUMP_TIMEOUT, ZipConfigurationWriter.DEFAULT_TIMEOUT / 1000);
+        return seconds * 1000;
+    }
+
+    /**
+     * The number of printers called in parallel when creating a zip.
+     */
+    public int getDumpThreads()
+    {
+        return (int) getProperty(PROP_DUMP_THREADS, ZipConfigurationWriter.DEFAULT_THREADS);
+    }
+
+    /**
+     * The directory in the bundle data area to spool the printer output to
+     * when creating a zip or {@code null} if the framework has no file
+     * system support.
+     */
+    public File getDumpSpoolDirectory()
+    {
+        final File directory = this.bundleContext.getDataFile(DUMP_SPOOL_DIRECTORY);
+        if (directory != null && (directory.isDirectory() || directory.mkdirs()))
+        {
+            return directory;
+        }
+        return null;
+    }
+
+    /**
+     * Deletes spool files left over if the bundle has not been stopped
+     * properly while creating a zip.
+     */
+    private void deleteSpoolFiles()
+    {
+        final File directory = this.bundleContext.getDataFile(DUMP_SPOOL_DIRECTORY);
+        final File[] files = directory == null ? null : directory.listFiles();
+        if (files != null)
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                files[i].delete();
+            }
+        }
+    }
+
+    private long getProperty(final String name, final long defaultValue)
+    {
+        final String value = this.bundleContext.getProperty(name);
+        if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.trim());
+            }
+            catch (final NumberFormatException nfe)
+            {
+                Activator.log(null, LogService.LOG_WARNING, "Ignoring invalid value for " + name + ": " + value, null);
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * Dispose this service
      */
@@ -18,34 +18,90 @@
  */
 package org.apache.felix.inventory.impl.helper;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.Activator;
 import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+import org.osgi.service.log.LogService;
 
 /**
  * The ZIP configuration writer creates a zip with
  * - txt output of a inventory printers (if supported)
  * - json output of a inventory printers (if supported)
  * - attachments from a inventory printer (if supported)
+ * <p>
+ * If a spool directory is given, the inventory printers are called in
+ * parallel, each printing into its own spool files in that directory. The zip
+ * is then assembled in the order of the printers by copying the spool files,
+ * so the memory used does not depend on the size of the output. A printer not
+ * completing within the timeout is abandoned and only a note is added to the
+ * zip. As the output may contain sensitive information, the spool directory
+ * should be private to the bundle, like its data area. Without a spool
+ * directory the printers are called in turn and write to the zip directly.
  */
 public class ZipConfigurationWriter extends ConfigurationWriter
 {
 
+    /** Default time in milliseconds a printer may take to print all its output. */
+    public static final long DEFAULT_TIMEOUT = 60000;
+
+    /** Default number of printers called in parallel. */
+    public static final int DEFAULT_THREADS = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
     private final ZipConfigurationWriter.ConfigZipOutputStream zip;
 
+    private final long timeout;
+
+    private final int threads;
+
+    private final File spoolDirectory;
+
     private int entryCounter;
 
     public static ZipConfigurationWriter create(final OutputStream out) throws IOException
+    {
+        return create(out, DEFAULT_TIMEOUT, DEFAULT_THREADS, null);
+    }
+
+    /**
+     * Creates a writer calling the printers in parallel.
+     *
+     * @param out The stream to write the zip to
+     * @param timeout The time in milliseconds a printer may take
+     * @param threads The maximum number of printers called in parallel
+     * @param spoolDirectory The directory to spool the output of the printers
+     *            to or {@code null} to call the printers in turn without
+     *            spooling their output
+     */
+    public static ZipConfigurationWriter create(final OutputStream out, final long timeout, final int threads,
+        final File spoolDirectory) throws IOException
     {
         final ZipConfigurationWriter.ConfigZipOutputStream zip = new ConfigZipOutputStream(out)
         {
@@ -53,14 +109,18 @@ public class ZipConfigurationWriter extends ConfigurationWriter
         zip.setLevel(Deflater.BEST_SPEED);
         zip.setMethod(ZipOutputStream.DEFLATED);
 
-        return new ZipConfigurationWriter(zip);
+        return new ZipConfigurationWriter(zip, timeout, threads, spoolDirectory);
     }
 
-    private ZipConfigurationWriter(final ZipConfigurationWriter.ConfigZipOutputStream zip) throws IOException
+    private ZipConfigurationWriter(final ZipConfigurationWriter.ConfigZipOutputStream zip, final long timeout,
+        final int threads, final File spoolDirectory) throws IOException
     {
         super(new OutputStreamWriter(zip, "UTF-8"));
 
         this.zip = zip;
+        this.timeout = timeout;
+        this.threads = Math.max(1, threads);
+        this.spoolDirectory = spoolDirectory;
         this.entryCounter = -1;
     }
 
@@ -82,6 +142,97 @@ public class ZipConfigurationWriter extends ConfigurationWriter
      */
     public void printInventory(final Format formatIgnored, final InventoryPrinterHandler handler)
         throws IOException
+    {
+        this.printInventories(new InventoryPrinterHandler[]
+            { handler });
+    }
+
+    /**
+     * Writes the plain text output, the JSON output and any attachements of
+     * all handlers to the ZIP file. If a spool directory is set, the handlers
+     * are called in parallel. Their output is added to the ZIP file in the
+     * given order.
+     *
+     * @param handlers The handlers to be called to generate the output
+     *
+     * @throws IOException if an error occurrs writing to the ZIP file.
+     */
+    public void printInventories(final InventoryPrinterHandler[] handlers) throws IOException
+    {
+        if (handlers.length == 0)
+        {
+            return;
+        }
+
+        if (this.spoolDirectory == null)
+        {
+            for (int i = 0; i < handlers.length; i++)
+            {
+                this.printDirect(handlers[i]);
+            }
+            return;
+        }
+
+        final Spool[] spools = new Spool[handlers.length];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            spools[i] = new Spool(handlers[i], getBaseName(handlers[i]), this.spoolDirectory);
+        }
+
+        final int poolSize = Math.min(this.threads, handlers.length);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue(), new ThreadFactory()
+            {
+                private int counter;
+
+                public synchronized Thread newThread(final Runnable r)
+                {
+                    final Thread thread = new Thread(r, "Apache Felix Inventory Printer " + (++this.counter));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            final Future[] futures = new Future[spools.length];
+            for (int i = 0; i < spools.length; i++)
+            {
+                futures[i] = executor.submit(spools[i]);
+            }
+
+            this.flush();
+            for (int i = 0; i < spools.length; i++)
+            {
+                try
+                {
+                    if (!this.writeSpool(spools[i], futures[i]))
+                    {
+                        // the abandoned printer keeps its thread, so add one for the remaining printers
+                        executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+                        executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+                    }
+                }
+                finally
+                {
+                    spools[i].dispose();
+                }
+            }
+        }
+        finally
+        {
+            // interrupts abandoned printers, which may still be running
+            executor.shutdownNow();
+            for (int i = 0; i < spools.length; i++)
+            {
+                spools[i].dispose();
+            }
+        }
+    }
+
+    /**
+     * Calls the handler writing its output directly to the ZIP file.
+     */
+    private void printDirect(final InventoryPrinterHandler handler) throws IOException
     {
         final String baseName = getBaseName(handler);
 
@@ -117,6 +268,142 @@ public class ZipConfigurationWriter extends ConfigurationWriter
         this.zip.endHandler();
     }
 
+    /**
+     * Waits for the spool to complete and copies it to the ZIP file.
+     *
+     * @return {@code false} if the printer has been abandoned as it did not
+     *         complete in time.
+     */
+    private boolean writeSpool(final Spool spool, final Future future) throws IOException
+    {
+        final InventoryPrinterHandler handler = spool.handler;
+        String failure = null;
+        boolean completed = true;
+        try
+        {
+            while (true)
+            {
+                // the timeout starts once the printer is called
+                final long started = spool.getStarted();
+                final long wait = started == 0 ? this.timeout : started + this.timeout - System.currentTimeMillis();
+                try
+                {
+                    future.get(Math.max(1, wait), TimeUnit.MILLISECONDS);
+                    break;
+                }
+                catch (final TimeoutException te)
+                {
+                    if (spool.getStarted() != 0 && wait <= 0)
+                    {
+                        throw te;
+                    }
+                }
+            }
+        }
+        catch (final TimeoutException te)
+        {
+            future.cancel(true);
+            spool.abandon();
+            completed = false;
+            failure = "Inventory printer " + handler.getTitle() + " did not complete within " + this.timeout + "ms.";
+            Activator.log(null, LogService.LOG_WARNING, failure, null);
+        }
+        catch (final ExecutionException ee)
+        {
+            failure = "Inventory printer " + handler.getTitle() + " failed: " + ee.getCause();
+            Activator.log(null, LogService.LOG_ERROR, failure, ee.getCause());
+        }
+        catch (final InterruptedException ie)
+        {
+            future.cancel(true);
+            spool.abandon();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for inventory printer " + handler.getTitle());
+        }
+
+        this.zip.handler(handler);
+
+        // the plain text output, which also contains a note if the printer failed
+        final File text = spool.getText();
+        if (text != null || failure != null)
+        {
+            final ZipEntry entry = new ZipEntry(spool.baseName.concat(".txt"));
+            entry.setTime(System.currentTimeMillis());
+            this.zip.putNextEntry(entry, Format.TEXT);
+            if (text != null)
+            {
+                copy(text, this.zip);
+            }
+            if (failure != null)
+            {
+                this.zip.write(("\n*** " + failure + " ***\n").getBytes("UTF-8"));
+            }
+            this.zip.closeEntry();
+        }
+
+        // the JSON format output
+        final File json = spool.getJson();
+        if (json != null)
+        {
+            final ZipEntry entry = new ZipEntry("json/" + spool.baseName + ".json");
+            entry.setTime(System.currentTimeMillis());
+            this.zip.putNextEntry(entry, Format.JSON);
+            copy(json, this.zip);
+            this.zip.closeEntry();
+        }
+
+        // any attachements from the handler
+        this.zip.attachements();
+        final File attachments = spool.getAttachments();
+        if (attachments != null)
+        {
+            final ZipInputStream in = new ZipInputStream(new FileInputStream(attachments));
+            try
+            {
+                ZipEntry spooled;
+                while ((spooled = in.getNextEntry()) != null)
+                {
+                    final ZipEntry entry = new ZipEntry(spooled.getName());
+                    entry.setTime(spooled.getTime());
+                    this.zip.putNextEntry(entry);
+                    copy(in, this.zip);
+                    this.zip.closeEntry();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        this.zip.endAttachements();
+
+        this.zip.endHandler();
+        return completed;
+    }
+
+    private static void copy(final File file, final OutputStream out) throws IOException
+    {
+        final InputStream in = new FileInputStream(file);
+        try
+        {
+            copy(in, out);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void copy(final InputStream in, final OutputStream out) throws IOException
+    {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int l;
+        while ((l = in.read(buffer)) > 0)
+        {
+            out.write(buffer, 0, l);
+        }
+    }
+
     private String getBaseName(final InventoryPrinterHandler handler)
     {
         final String title = handler.getTitle();
@@ -139,6 +426,254 @@ public class ZipConfigurationWriter extends ConfigurationWriter
             { new Integer(this.entryCounter), name });
     }
 
+    /**
+     * Calls a handler and spools its output into files in the spool
+     * directory. The files of a part are only published once the part is
+     * complete.
+     */
+    private static final class Spool implements Runnable
+    {
+
+        final InventoryPrinterHandler handler;
+
+        final String baseName;
+
+        private final File directory;
+
+        private long started;
+
+        private boolean done;
+
+        private boolean abandoned;
+
+        private File text;
+
+        private File json;
+
+        private File attachments;
+
+        Spool(final InventoryPrinterHandler handler, final String baseName, final File directory)
+        {
+            this.handler = handler;
+            this.baseName = baseName;
+            this.directory = directory;
+        }
+
+        public void run()
+        {
+            synchronized (this)
+            {
+                if (this.abandoned)
+                {
+                    return;
+                }
+                this.started = System.currentTimeMillis();
+            }
+            try
+            {
+                if (this.handler.supports(Format.TEXT))
+                {
+                    this.setText(this.print(Format.TEXT, ".txt"));
+                }
+                if (this.handler.supports(Format.JSON))
+                {
+                    this.setJson(this.print(Format.JSON, ".json"));
+                }
+                this.setAttachments(this.addAttachments());
+            }
+            catch (final IOException ioe)
+            {
+                throw new RuntimeException(ioe);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    this.done = true;
+                    if (this.abandoned)
+                    {
+                        this.delete();
+                    }
+                }
+            }
+        }
+
+        private File print(final Format format, final String suffix) throws IOException
+        {
+            final File file = File.createTempFile("inventory", suffix, this.directory);
+            boolean complete = false;
+            try
+            {
+                final PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"), BUFFER_SIZE));
+                try
+                {
+                    this.handler.print(pw, format, true);
+                }
+                finally
+                {
+                    pw.close();
+                }
+                if (pw.checkError())
+                {
+                    throw new IOException("Error writing spool file " + file);
+                }
+                complete = true;
+                return file;
+            }
+            finally
+            {
+                if (!complete)
+                {
+                    file.delete();
+                }
+            }
+        }
+
+        private File addAttachments() throws IOException
+        {
+            final File file = File.createTempFile("inventory", ".zip", this.directory);
+            boolean complete = false;
+            try
+            {
+                final AttachmentZipOutputStream zos = new AttachmentZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+                try
+                {
+                    this.handler.addAttachments(zos, this.baseName.concat("/"));
+                }
+                finally
+                {
+                    zos.close();
+                }
+                complete = !zos.empty;
+                return complete ? file : null;
+            }
+            finally
+            {
+                if (!complete)
+                {
+                    file.delete();
+                }
+            }
+        }
+
+        synchronized long getStarted()
+        {
+            return this.started;
+        }
+
+        synchronized File getText()
+        {
+            return this.text;
+        }
+
+        synchronized File getJson()
+        {
+            return this.json;
+        }
+
+        synchronized File getAttachments()
+        {
+            return this.attachments;
+        }
+
+        private synchronized void setText(final File file)
+        {
+            this.text = file;
+        }
+
+        private synchronized void setJson(final File file)
+        {
+            this.json = file;
+        }
+
+        private synchronized void setAttachments(final File file)
+        {
+            this.attachments = file;
+        }
+
+        /**
+         * Gives up on the printer. The spool files are deleted once it
+         * completes.
+         */
+        synchronized void abandon()
+        {
+            this.abandoned = true;
+            if (this.done)
+            {
+                this.delete();
+            }
+        }
+
+        /**
+         * Deletes the spool files once the output has been copied.
+         */
+        synchronized void dispose()
+        {
+            if (this.done || this.abandoned)
+            {
+                this.delete();
+            }
+            else
+            {
+                this.abandon();
+            }
+        }
+
+        private void delete()
+        {
+            this.text = delete(this.text);
+            this.json = delete(this.json);
+            this.attachments = delete(this.attachments);
+        }
+
+        private static File delete(final File file)
+        {
+            if (file != null && !file.delete())
+            {
+                file.deleteOnExit();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The spool for the attachments, which are not compressed as they are
+     * compressed when copied to the final zip.
+     */
+    private static final class AttachmentZipOutputStream extends ZipOutputStream
+    {
+
+        boolean empty = true;
+
+        AttachmentZipOutputStream(final OutputStream out)
+        {
+            super(out);
+            this.setLevel(Deflater.NO_COMPRESSION);
+        }
+
+        public void putNextEntry(final ZipEntry e) throws IOException
+        {
+            this.empty = false;
+            super.putNextEntry(e);
+        }
+
+        public void close() throws IOException
+        {
+            if (this.empty)
+            {
+                // a zip without entries can't be finished
+                this.def.end();
+                this.out.close();
+            }
+            else
+            {
+                super.close();
+            }
+        }
+    }
+
     private static class ConfigZipOutputStream extends ZipOutputStream
     {
 
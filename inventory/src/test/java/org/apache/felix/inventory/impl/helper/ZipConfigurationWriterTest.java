@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+
+public class ZipConfigurationWriterTest extends TestCase
+{
+
+    private File spool;
+
+    protected void setUp() throws IOException
+    {
+        this.spool = File.createTempFile("spool", ".test");
+        this.spool.delete();
+        this.spool.mkdir();
+    }
+
+    protected void tearDown()
+    {
+        final File[] files = this.spool.listFiles();
+        for (int i = 0; i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        this.spool.delete();
+    }
+
+    public void test_printInventories() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZipConfigurationWriter writer = ZipConfigurationWriter.create(out, 10000, 4, this.spool);
+        writer.printInventories(new InventoryPrinterHandler[]
+            { new Handler("first", 200, true), new Handler("second", 0, false), new Handler("third", 100, true) });
+        writer.finish();
+
+        final List names = new ArrayList();
+        final Map contents = read(out.toByteArray(), names);
+
+        // entries in the order of the handlers, even though the first one is the slowest
+        TestCase.assertEquals("000_first.txt", names.get(0));
+        TestCase.assertEquals("json/000_first.json", names.get(1));
+        TestCase.assertEquals("000_first/attachment.txt", names.get(2));
+        TestCase.assertEquals("001_second.txt", names.get(3));
+        TestCase.assertEquals("json/001_second.json", names.get(4));
+        TestCase.assertEquals("002_third.txt", names.get(5));
+        TestCase.assertEquals("index.json", names.get(names.size() - 1));
+
+        TestCase.assertEquals("text first", ((String) contents.get("000_first.txt")).trim());
+        TestCase.assertEquals("{\"json\":\"second\"}", ((String) contents.get("json/001_second.json")).trim());
+        TestCase.assertEquals("attachment third", contents.get("002_third/attachment.txt"));
+        TestCase.assertTrue(((String) contents.get("index.json")).indexOf("002_third/attachment.txt") > 0);
+
+        // the spool files are deleted once copied
+        TestCase.assertEquals(0, this.spool.list().length);
+    }
+
+    public void test_withoutSpoolDirectory() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZipConfigurationWriter writer = ZipConfigurationWriter.create(out);
+        writer.printInventories(new InventoryPrinterHandler[]
+            { new Handler("first", 0, true), new Handler("second", 0, false) });
+        writer.finish();
+
+        final List names = new ArrayList();
+        final Map contents = read(out.toByteArray(), names);
+
+        TestCase.assertEquals("000_first.txt", names.get(0));
+        TestCase.assertEquals("json/000_first.json", names.get(1));
+        TestCase.assertEquals("000_first/attachment.txt", names.get(2));
+        TestCase.assertEquals("001_second.txt", names.get(3));
+        TestCase.assertEquals("text second", ((String) contents.get("001_second.txt")).trim());
+        TestCase.assertEquals("attachment first", contents.get("000_first/attachment.txt"));
+    }
+
+    public void test_timeout() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ZipConfigurationWriter writer = ZipConfigurationWriter.create(out, 100, 1, this.spool);
+        writer.printInventories(new InventoryPrinterHandler[]
+            { new Handler("slow", 10000, true), new Handler("fast", 0, true) });
+        writer.finish();
+
+        final List names = new ArrayList();
+        final Map contents = read(out.toByteArray(), names);
+
+        TestCase.assertTrue(((String) contents.get("000_slow.txt")).indexOf("did not complete") > 0);
+        TestCase.assertFalse(names.contains("json/000_slow.json"));
+        TestCase.assertFalse(names.contains("000_slow/attachment.txt"));
+
+        // the fast printer is still called, although the only thread is blocked by the slow one
+        TestCase.assertEquals("text fast", ((String) contents.get("001_fast.txt")).trim());
+        TestCase.assertEquals("attachment fast", contents.get("001_fast/attachment.txt"));
+    }
+
+    private static Map read(final byte[] zip, final List names) throws IOException
+    {
+        final Map contents = new HashMap();
+        final ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+        ZipEntry entry;
+        while ((entry = in.getNextEntry()) != null)
+        {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int l;
+            while ((l = in.read(buffer)) > 0)
+            {
+                content.write(buffer, 0, l);
+            }
+            names.add(entry.getName());
+            contents.put(entry.getName(), new String(content.toByteArray(), "UTF-8"));
+        }
+        in.close();
+        return contents;
+    }
+
+    private static final class Handler implements InventoryPrinterHandler
+    {
+
+        private final String name;
+
+        private final long delay;
+
+        private final boolean attachment;
+
+        Handler(final String name, final long delay, final boolean attachment)
+        {
+            this.name = name;
+            this.delay = delay;
+            this.attachment = attachment;
+        }
+
+        public void print(final PrintWriter printWriter, final Format format, final boolean isZip)
+        {
+            if (format == Format.TEXT)
+            {
+                try
+                {
+                    Thread.sleep(this.delay);
+                }
+                catch (final InterruptedException ie)
+                {
+                    // ignore, like a printer not reacting to interruption
+                }
+                printWriter.println("text " + this.name);
+            }
+            else
+            {
+                printWriter.println("{\"json\":\"" + this.name + "\"}");
+            }
+        }
+
+        public void addAttachments(final ZipOutputStream zos, final String namePrefix) throws IOException
+        {
+            if (this.attachment)
+            {
+                zos.putNextEntry(new ZipEntry(namePrefix + "attachment.txt"));
+                zos.write(("attachment " + this.name).getBytes("UTF-8"));
+                zos.closeEntry();
+            }
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public String getTitle()
+        {
+            return this.name;
+        }
+
+        public Format[] getFormats()
+        {
+            return new Format[]
+                { Format.TEXT, Format.JSON };
+        }
+
+        public boolean supports(final Format format)
+        {
+            return format == Format.TEXT || format == Format.JSON;
+        }
+    }
+}
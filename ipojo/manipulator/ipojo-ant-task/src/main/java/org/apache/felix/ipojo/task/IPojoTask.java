@@ -26,6 +26,9 @@ import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * iPOJO Ant Task. This Ant task manipulates an input bundle.
@@ -72,6 +75,17 @@ public class IPojoTask extends Task {
      */
     private boolean m_ignoreLocalXSD = false;
 
+    /**
+     * Number of threads manipulating classes, 0 to use one thread per processor.
+     */
+    private int m_threads = 0;
+
+    /**
+     * Directory keeping the results of previous manipulations.
+     * If <code>null</code> the classes are always manipulated.
+     */
+    private File m_cacheDir;
+
     /**
      * The classpath.
      */
@@ -140,6 +154,25 @@ public class IPojoTask extends Task {
         m_ignoreLocalXSD = flag;
     }
 
+    /**
+     * Set the number of threads manipulating classes.
+     *
+     * @param threads : the number of threads, 0 to use one thread per processor.
+     */
+    public void setThreads(int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * Set the directory keeping the results of previous manipulations,
+     * enabling the incremental manipulation.
+     *
+     * @param dir : the cache directory
+     */
+    public void setCacheDir(File dir) {
+        m_cacheDir = dir;
+    }
+
     /**
      * Execute the Ant Task.
      *
@@ -231,6 +264,7 @@ public class IPojoTask extends Task {
         if (!m_ignoreLocalXSD) {
             pojo.setUseLocalXSD();
         }
+        pojo.setManipulationThreads(m_threads);
 
         Path classpath = getClasspath();
         classpath.addJavaRuntime();
@@ -247,6 +281,13 @@ public class IPojoTask extends Task {
         }
         m_classpath.add(element);
 
+        if (m_cacheDir != null) {
+            // The manipulated classes are not a dependency of the cache
+            List<String> dependencies = new ArrayList<String>(Arrays.asList(getClasspath().list()));
+            dependencies.removeAll(Arrays.asList(element.list()));
+            pojo.setManipulationCache(m_cacheDir, dependencies);
+        }
+
         ClassLoader loader = getProject().createClassLoader(getClasspath());
         if (m_input != null) {
             pojo.pojoization(m_input, m_output, m_metadata, loader);
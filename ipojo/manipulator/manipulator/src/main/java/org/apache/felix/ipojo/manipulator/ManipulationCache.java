@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator;
+
+import org.apache.felix.ipojo.manipulator.util.Constants;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@code ManipulationCache} keeps the results of the manipulation of component
+ * classes in a directory, so that unchanged classes are not manipulated again
+ * by the next build.
+ *
+ * Entries are keyed by the hash of the class bytecode, the component metadata,
+ * the manipulator version and the classpath. The classpath is part of the key
+ * as the stack map frames are computed by loading classes from it: jars are
+ * compared by size and modification time, directories by the content of their
+ * files. The classes being manipulated must not be part of this classpath, or
+ * any change would invalidate every entry. As inner classes are only known once
+ * the class is analyzed, an entry also records the hash of the bytecode of each
+ * of its inner classes, and the hash of the hierarchy of the manipulated classes
+ * resolved to compute the frames, which must still match for the entry to be used.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ManipulationCache {
+
+    private static final int MAGIC = 0x49504d32;
+
+    private static final String SUFFIX = ".manipulation";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The directory storing the entries.
+     */
+    private final File m_directory;
+
+    /**
+     * The hash of the classpath used to compute the frames.
+     */
+    private final byte[] m_classpathHash;
+
+    private int m_hits;
+
+    private int m_misses;
+
+    /**
+     * @param directory the directory storing the entries
+     * @param classpath the elements of the classpath the classes are manipulated with
+     * @throws IOException if a classpath directory cannot be read
+     */
+    public ManipulationCache(File directory, Iterable<String> classpath) throws IOException {
+        m_directory = directory;
+        m_classpathHash = hashClasspath(classpath);
+    }
+
+    /**
+     * Computes the key of the given class.
+     * @param bytecode the bytecode of the class
+     * @param metadata the component metadata
+     * @return the key
+     */
+    public String key(byte[] bytecode, Element metadata) {
+        MessageDigest digest = newDigest();
+        digest.update(bytecode);
+        digest.update(String.valueOf(metadata).getBytes(UTF8));
+        digest.update(String.valueOf(Constants.getVersion()).getBytes(UTF8));
+        digest.update(m_classpathHash);
+        return toHex(digest.digest());
+    }
+
+    private static byte[] hashClasspath(Iterable<String> classpath) throws IOException {
+        MessageDigest digest = newDigest();
+        for (String element : classpath) {
+            File file = new File(element);
+            digest.update(file.getAbsolutePath().getBytes(UTF8));
+            if (file.isDirectory()) {
+                hashDirectory(digest, file, "");
+            } else if (file.isFile()) {
+                digest.update(String.valueOf(file.length()).getBytes(UTF8));
+                digest.update(String.valueOf(file.lastModified()).getBytes(UTF8));
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void hashDirectory(MessageDigest digest, File directory, String path) throws IOException {
+        String[] names = directory.list();
+        if (names == null) {
+            throw new IOException("Cannot list the classpath directory " + directory);
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(directory, name);
+            String relative = path + "/" + name;
+            if (file.isDirectory()) {
+                hashDirectory(digest, file, relative);
+            } else {
+                digest.update(relative.getBytes(UTF8));
+                digest.update(hashFile(file));
+            }
+        }
+    }
+
+    private static byte[] hashFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            close(in);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Computes the hash of the given bytecode, as recorded for inner classes.
+     * @param bytecode the bytecode
+     * @return the hash
+     */
+    public String hash(byte[] bytecode) {
+        return toHex(newDigest().digest(bytecode));
+    }
+
+    /**
+     * Computes the hash of the hierarchy of the given class, as recorded for the classes
+     * resolved to compute the frames. Only the super types are relevant to the frames, so
+     * other changes of the class do not invalidate the entries.
+     * @param bytecode the bytecode
+     * @return the hash
+     */
+    public String hashHierarchy(byte[] bytecode) {
+        ClassReader reader = new ClassReader(bytecode);
+        MessageDigest digest = newDigest();
+        digest.update(String.valueOf(reader.getAccess() & Opcodes.ACC_INTERFACE).getBytes(UTF8));
+        digest.update(String.valueOf(reader.getSuperName()).getBytes(UTF8));
+        for (String itf : reader.getInterfaces()) {
+            digest.update((";" + itf).getBytes(UTF8));
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param key the key of the class
+     * @return the cached result of the manipulation, {@literal null} if there is none.
+     */
+    public Entry get(String key) {
+        File file = new File(m_directory, key + SUFFIX);
+        if (!file.isFile()) {
+            miss();
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                miss();
+                return null;
+            }
+            Entry entry = new Entry(readBytes(in), readElement(in));
+            for (int i = in.readInt(); i > 0; i--) {
+                entry.addInnerClass(in.readUTF(), in.readUTF(), readBytes(in));
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                entry.addResolvedClass(in.readUTF(), in.readUTF());
+            }
+            return entry;
+        } catch (IOException e) {
+            // Corrupted, will be replaced
+            miss();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Stores the result of the manipulation of a class.
+     * @param key the key of the class
+     * @param entry the result of the manipulation
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, Entry entry) throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs() && !m_directory.isDirectory()) {
+            throw new IOException("Cannot create the manipulation cache directory " + m_directory);
+        }
+        File file = new File(m_directory, key + SUFFIX);
+        File tmp = File.createTempFile(key, ".tmp", m_directory);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            writeBytes(out, entry.getManipulated());
+            writeElement(out, entry.getManipulationMetadata());
+            out.writeInt(entry.m_innerClasses.size());
+            for (int i = 0; i < entry.m_innerClasses.size(); i++) {
+                out.writeUTF(entry.m_innerClasses.get(i));
+                out.writeUTF(entry.m_innerHashes.get(i));
+                writeBytes(out, entry.m_innerManipulated.get(i));
+            }
+            out.writeInt(entry.m_resolvedClasses.size());
+            for (int i = 0; i < entry.m_resolvedClasses.size(); i++) {
+                out.writeUTF(entry.m_resolvedClasses.get(i));
+                out.writeUTF(entry.m_resolvedHashes.get(i));
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+                throw new IOException("Cannot write the manipulation cache entry " + file);
+            }
+        } finally {
+            close(out);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Records a cached entry that turned out to be used.
+     */
+    public synchronized void hit() {
+        m_hits++;
+    }
+
+    /**
+     * Records a class that had to be manipulated.
+     */
+    public synchronized void miss() {
+        m_misses++;
+    }
+
+    public synchronized int getHits() {
+        return m_hits;
+    }
+
+    public synchronized int getMisses() {
+        return m_misses;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupted entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeElement(DataOutputStream out, Element element) throws IOException {
+        writeString(out, element.getName());
+        writeString(out, element.getNameSpace());
+        Attribute[] attributes = element.getAttributes();
+        out.writeInt(attributes.length);
+        for (Attribute attribute : attributes) {
+            writeString(out, attribute.getName());
+            writeString(out, attribute.getNameSpace());
+            writeString(out, attribute.getValue());
+        }
+        Element[] elements = element.getElements();
+        out.writeInt(elements.length);
+        for (Element child : elements) {
+            writeElement(out, child);
+        }
+    }
+
+    private static Element readElement(DataInputStream in) throws IOException {
+        Element element = new Element(readString(in), readString(in));
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = readString(in);
+            String ns = readString(in);
+            element.addAttribute(new Attribute(name, ns, readString(in)));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            element.addElement(readElement(in));
+        }
+        return element;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    /**
+     * The result of the manipulation of a class and its inner classes.
+     */
+    public static class Entry {
+
+        private final byte[] m_manipulated;
+
+        private final Element m_manipulationMetadata;
+
+        private final List<String> m_innerClasses = new ArrayList<String>();
+
+        private final List<String> m_innerHashes = new ArrayList<String>();
+
+        private final List<byte[]> m_innerManipulated = new ArrayList<byte[]>();
+
+        private final List<String> m_resolvedClasses = new ArrayList<String>();
+
+        private final List<String> m_resolvedHashes = new ArrayList<String>();
+
+        public Entry(byte[] manipulated, Element manipulationMetadata) {
+            m_manipulated = manipulated;
+            m_manipulationMetadata = manipulationMetadata;
+        }
+
+        /**
+         * @param inner the internal name of the inner class
+         * @param hash the hash of the original bytecode of the inner class
+         * @param manipulated the manipulated bytecode of the inner class
+         */
+        public void addInnerClass(String inner, String hash, byte[] manipulated) {
+            m_innerClasses.add(inner);
+            m_innerHashes.add(hash);
+            m_innerManipulated.add(manipulated);
+        }
+
+        /**
+         * @param resolved the internal name of a class resolved to compute the frames
+         * @param hash the hash of the hierarchy of the class
+         */
+        public void addResolvedClass(String resolved, String hash) {
+            m_resolvedClasses.add(resolved);
+            m_resolvedHashes.add(hash);
+        }
+
+        public byte[] getManipulated() {
+            return m_manipulated;
+        }
+
+        public Element getManipulationMetadata() {
+            return m_manipulationMetadata;
+        }
+
+        public List<String> getInnerClasses() {
+            return m_innerClasses;
+        }
+
+        public String getInnerHash(int index) {
+            return m_innerHashes.get(index);
+        }
+
+        public byte[] getInnerManipulated(int index) {
+            return m_innerManipulated.get(index);
+        }
+
+        public List<String> getResolvedClasses() {
+            return m_resolvedClasses;
+        }
+
+        public String getResolvedHash(int index) {
+            return m_resolvedHashes.get(index);
+        }
+    }
+}
@@ -20,15 +20,35 @@
 package org.apache.felix.ipojo.manipulator;
 
 import org.apache.felix.ipojo.manipulation.Manipulator;
+import org.apache.felix.ipojo.metadata.Element;
+import org.objectweb.asm.ClassReader;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@code ManipulationEngine} is responsible to drive the component's
  * classes manipulation.
  *
+ * Classes are manipulated concurrently by a pool of threads, but the results are
+ * propagated to the visitor in the order of the manipulation units, so the outcome
+ * does not depend on the number of threads. If a {@link ManipulationCache} is set,
+ * classes that did not change since the previous manipulation are not manipulated
+ * again.
+ *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ManipulationEngine {
@@ -57,6 +77,16 @@ public class ManipulationEngine {
      */
     private ManipulationVisitor m_manipulationVisitor;
 
+    /**
+     * Number of threads manipulating classes.
+     */
+    private int m_threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Results of previous manipulations, may be {@literal null}.
+     */
+    private ManipulationCache m_cache;
+
     public ManipulationEngine(ClassLoader classLoader) {
         m_classLoader = classLoader;
     }
@@ -89,6 +119,22 @@ public class ManipulationEngine {
         m_store = store;
     }
 
+    /**
+     * @param threads the number of threads manipulating classes, 1 to manipulate them
+     *                in the calling thread.
+     */
+    public void setThreads(int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * @param cache the results of previous manipulations, {@literal null} to always
+     *              manipulate the classes.
+     */
+    public void setManipulationCache(ManipulationCache cache) {
+        m_cache = cache;
+    }
+
     /**
      * Manipulates classes of all the given component's.
      */
@@ -97,89 +143,363 @@ public class ManipulationEngine {
         // Iterates over the list of discovered components
         // Note that this list includes components from metadata.xml AND from annotations
 
-        for (ManipulationUnit info : m_manipulationUnits) {
+        List<Future<Outcome>> outcomes = new ArrayList<Future<Outcome>>();
+        ExecutorService executor = null;
+        int threads = Math.min(m_threads, m_manipulationUnits.size());
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+        }
 
-            byte[] bytecode;
-            try {
-                bytecode = m_store.read(info.getResourcePath());
-            } catch (IOException e) {
-                m_reporter.error("Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.");
-                return;
+        try {
+            for (final ManipulationUnit info : m_manipulationUnits) {
+                Callable<Outcome> task = new Callable<Outcome>() {
+                    public Outcome call() throws Exception {
+                        return manipulate(info);
+                    }
+                };
+                if (executor != null) {
+                    outcomes.add(executor.submit(task));
+                } else {
+                    outcomes.add(new Immediate(task));
+                }
             }
 
-            // Is the visitor interested in this component ?
-            ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(info.getComponentMetadata());
+            for (int i = 0; i < outcomes.size(); i++) {
+                ManipulationUnit info = m_manipulationUnits.get(i);
+                Outcome outcome = get(outcomes.get(i));
 
-            if (result != null) {
-                // Should always be the case
+                if (outcome.m_warning != null) {
+                    m_reporter.warn(outcome.m_warning);
+                }
 
-                // Manipulation preparation
-                Manipulator manipulator = new Manipulator(m_classLoader);
-                try {
-                    manipulator.prepare(bytecode);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
+                if (outcome.m_readError != null) {
+                    m_reporter.error(outcome.m_readError);
                     return;
                 }
 
-                // Inner class preparation
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                        manipulator.prepareInnerClass(inner, innerClassBytecode);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find or analyze inner class '" + resourcePath + "'");
-                        return;
-                    }
-                }
+                // Is the visitor interested in this component ?
+                ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(info.getComponentMetadata());
 
-                // Now manipulate the classes.
-                try {
-                    byte[] out = manipulator.manipulate(bytecode);
-                    // Call the visitor
-                    result.visitManipulatedResource(info.getResourcePath(), out);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
+                if (result != null) {
+                    // Should always be the case
 
-                // Visit inner classes
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find inner class '" + resourcePath + "'");
-                        return;
+                    // Propagate the resources manipulated before any error
+                    for (int j = 0; j < outcome.m_paths.size(); j++) {
+                        result.visitManipulatedResource(outcome.m_paths.get(j), outcome.m_resources.get(j));
                     }
 
-                    // Manipulate inner class
-                    // Notice that (for performance reason) re-use the class version information
-                    // discovered in the main class instead of re-parsing the inner class to find
-                    // its own class version
-                    try {
-                        byte[] manipulated = manipulator.manipulateInnerClass(inner, innerClassBytecode);
-                        // Propagate manipulated resource
-                        result.visitManipulatedResource(resourcePath, manipulated);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot manipulate inner class '" + resourcePath + "'");
+                    if (outcome.m_error != null) {
+                        m_reporter.error(outcome.m_error);
                         return;
                     }
+
+                    // Compute manipulation metadata
+                    result.visitClassStructure(outcome.m_structure);
+
+                    // All resources have been manipulated for this component
+                    result.visitEnd();
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Manipulates the class of the given component and its inner classes. This does not
+     * call the visitor, and can hence run concurrently.
+     * @param info the component
+     * @return the manipulated resources, or the error preventing the manipulation.
+     */
+    private Outcome manipulate(ManipulationUnit info) {
+        Outcome outcome = new Outcome();
+
+        byte[] bytecode;
+        try {
+            bytecode = read(info.getResourcePath());
+        } catch (IOException e) {
+            outcome.m_readError = "Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.";
+            return outcome;
+        }
+
+        String key = null;
+        if (m_cache != null) {
+            key = m_cache.key(bytecode, info.getComponentMetadata());
+            if (replay(info, m_cache.get(key), outcome)) {
+                m_cache.hit();
+                return outcome;
+            }
+        }
+
+        // Manipulation preparation
+        RecordingClassLoader loader = null;
+        Manipulator manipulator;
+        if (m_cache != null) {
+            loader = new RecordingClassLoader(m_classLoader);
+            manipulator = new Manipulator(loader);
+        } else {
+            manipulator = new Manipulator(m_classLoader);
+        }
+        try {
+            manipulator.prepare(bytecode);
+        } catch (IOException e) {
+            outcome.m_error = "Cannot analyze the class " + info.getClassName() + " : " + e.getMessage();
+            return outcome;
+        }
+
+        // Inner class preparation
+        List<byte[]> innerClassBytecodes = new ArrayList<byte[]>();
+        for (String inner : manipulator.getInnerClasses()) {
+            // Get the bytecode and start manipulation
+            String resourcePath = inner + ".class";
+            byte[] innerClassBytecode;
+            try {
+                innerClassBytecode = read(resourcePath);
+                manipulator.prepareInnerClass(inner, innerClassBytecode);
+            } catch (IOException e) {
+                outcome.m_error = "Cannot find or analyze inner class '" + resourcePath + "'";
+                return outcome;
+            }
+            innerClassBytecodes.add(innerClassBytecode);
+        }
+
+        // Now manipulate the classes.
+        byte[] out;
+        try {
+            out = manipulator.manipulate(bytecode);
+            outcome.add(info.getResourcePath(), out);
+        } catch (IOException e) {
+            outcome.m_error = "Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage();
+            return outcome;
+        }
+
+        // Manipulate inner classes
+        // Notice that (for performance reason) re-use the class version information
+        // discovered in the main class instead of re-parsing the inner class to find
+        // its own class version
+        int index = 0;
+        for (String inner : manipulator.getInnerClasses()) {
+            String resourcePath = inner + ".class";
+            try {
+                outcome.add(resourcePath, manipulator.manipulateInnerClass(inner, innerClassBytecodes.get(index++)));
+            } catch (IOException e) {
+                outcome.m_error = "Cannot manipulate inner class '" + resourcePath + "'";
+                return outcome;
+            }
+        }
+
+        outcome.m_structure = manipulator.getManipulationMetadata();
+
+        if (m_cache != null) {
+            ManipulationCache.Entry entry = new ManipulationCache.Entry(out, outcome.m_structure);
+            index = 0;
+            for (String inner : manipulator.getInnerClasses()) {
+                // Resources of inner classes follow the one of the class
+                entry.addInnerClass(inner, m_cache.hash(innerClassBytecodes.get(index)), outcome.m_resources.get(++index));
+            }
+            recordResolvedClasses(entry, loader.getLoadedClasses());
+            try {
+                m_cache.put(key, entry);
+            } catch (IOException e) {
+                // The class will simply be manipulated again next time
+                outcome.m_warning = "Cannot cache the manipulation of the class " + info.getClassName() + " : " + e.getMessage();
+            }
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Records the hierarchy of the classes of the store loaded to compute the frames, and
+     * of their super types found in the store. Classes that are not in the store come from
+     * the classpath, which is part of the key.
+     */
+    private void recordResolvedClasses(ManipulationCache.Entry entry, Collection<String> loaded) {
+        Set<String> visited = new HashSet<String>();
+        LinkedList<String> queue = new LinkedList<String>();
+        for (String name : loaded) {
+            queue.add(name.replace('.', '/'));
+        }
+        while (!queue.isEmpty()) {
+            String name = queue.removeFirst();
+            if (!visited.add(name)) {
+                continue;
+            }
+            byte[] bytecode = readIfPresent(name + ".class");
+            if (bytecode == null) {
+                continue;
+            }
+            ClassReader reader = new ClassReader(bytecode);
+            entry.addResolvedClass(name, m_cache.hashHierarchy(bytecode));
+            if (reader.getSuperName() != null) {
+                queue.add(reader.getSuperName());
+            }
+            queue.addAll(Arrays.asList(reader.getInterfaces()));
+        }
+    }
+
+    /**
+     * Fills the outcome with a cached manipulation, if its inner classes and the hierarchy
+     * of the classes resolved to compute its frames did not change.
+     * @return {@literal true} if the cached manipulation can be used.
+     */
+    private boolean replay(ManipulationUnit info, ManipulationCache.Entry entry, Outcome outcome) {
+        if (entry == null) {
+            return false;
+        }
+        List<String> inners = entry.getInnerClasses();
+        for (int i = 0; i < inners.size(); i++) {
+            try {
+                if (!entry.getInnerHash(i).equals(m_cache.hash(read(inners.get(i) + ".class")))) {
+                    m_cache.miss();
+                    return false;
                 }
+            } catch (IOException e) {
+                // Manipulate it to report the error
+                m_cache.miss();
+                return false;
+            }
+        }
+        List<String> resolved = entry.getResolvedClasses();
+        for (int i = 0; i < resolved.size(); i++) {
+            byte[] bytecode = readIfPresent(resolved.get(i) + ".class");
+            if (bytecode == null || !entry.getResolvedHash(i).equals(m_cache.hashHierarchy(bytecode))) {
+                m_cache.miss();
+                return false;
+            }
+        }
+        outcome.add(info.getResourcePath(), entry.getManipulated());
+        for (int i = 0; i < inners.size(); i++) {
+            outcome.add(inners.get(i) + ".class", entry.getInnerManipulated(i));
+        }
+        outcome.m_structure = entry.getManipulationMetadata();
+        return true;
+    }
+
+    private byte[] read(String path) throws IOException {
+        // Stores are not required to be thread safe
+        synchronized (m_store) {
+            return m_store.read(path);
+        }
+    }
+
+    /**
+     * @return the resource, {@literal null} if the store does not contain it.
+     */
+    private byte[] readIfPresent(String path) {
+        try {
+            return read(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Outcome get(Future<Outcome> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while manipulating classes");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The manipulated resources of a component, in the order they are propagated to the
+     * visitor, followed by the error that stopped the manipulation, if any.
+     */
+    private static class Outcome {
+
+        private String m_readError;
+
+        private String m_error;
 
-                // Compute manipulation metadata
-                result.visitClassStructure(manipulator.getManipulationMetadata());
+        private String m_warning;
 
-                // All resources have been manipulated for this component
-                result.visitEnd();
+        private final List<String> m_paths = new ArrayList<String>();
+
+        private final List<byte[]> m_resources = new ArrayList<byte[]>();
+
+        private Element m_structure;
+
+        private void add(String path, byte[] resource) {
+            m_paths.add(path);
+            m_resources.add(resource);
+        }
+    }
+
+    /**
+     * A classloader recording the classes the manipulator loads to compute the frames.
+     */
+    private static class RecordingClassLoader extends ClassLoader {
+
+        private final ClassLoader m_loader;
+
+        private final Set<String> m_loaded = new LinkedHashSet<String>();
+
+        private RecordingClassLoader(ClassLoader loader) {
+            super(loader);
+            m_loader = loader;
+        }
+
+        @Override
+        public Class<?> loadClass(String name) throws ClassNotFoundException {
+            synchronized (m_loaded) {
+                m_loaded.add(name);
             }
+            return m_loader.loadClass(name);
+        }
+
+        private Collection<String> getLoadedClasses() {
+            synchronized (m_loaded) {
+                return new ArrayList<String>(m_loaded);
+            }
+        }
+    }
+
+    /**
+     * A future running its task in the calling thread when asked for its result, used
+     * when classes are not manipulated concurrently.
+     */
+    private static class Immediate implements Future<Outcome> {
+
+        private final Callable<Outcome> m_task;
+
+        private Immediate(Callable<Outcome> task) {
+            m_task = task;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return false;
+        }
+
+        public Outcome get() throws ExecutionException {
+            try {
+                return m_task.call();
+            } catch (Exception e) {
+                throw new ExecutionException(e);
+            }
+        }
+
+        public Outcome get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
         }
     }
 }
@@ -63,6 +63,20 @@ public class Pojoization {
      */
     private boolean m_useLocalXSD = false;
 
+    /**
+     * Number of threads manipulating classes, {@literal 0} to use
+     * one thread per processor.
+     */
+    private int m_threads;
+
+    /**
+     * Directory keeping the results of previous manipulations, {@literal null}
+     * if classes are always manipulated.
+     */
+    private File m_cacheDirectory;
+
+    private Iterable<String> m_cacheClasspath;
+
     /**
      * Reporter for error reporting.
      */
@@ -103,6 +117,28 @@ public class Pojoization {
         m_useLocalXSD = true;
     }
 
+    /**
+     * Sets the number of threads manipulating classes.
+     * @param threads the number of threads, {@literal 0} to use one thread per processor.
+     */
+    public void setManipulationThreads(int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * Enables the incremental manipulation: the results of the manipulation
+     * are kept in the given directory, so that classes that did not change
+     * are not manipulated again. As the manipulation depends on the classes
+     * of the classpath, any change to it invalidates the cache.
+     * @param directory the cache directory, {@literal null} to disable the cache.
+     * @param classpath the elements of the classpath the classes are manipulated with,
+     *                  without the manipulated classes themselves.
+     */
+    public void setManipulationCache(File directory, Iterable<String> classpath) {
+        m_cacheDirectory = directory;
+        m_cacheClasspath = classpath;
+    }
+
     /**
      * @return all the errors (fatal) reported by the manipulation process.
      */
@@ -345,6 +381,18 @@ public class Pojoization {
         engine.setResourceStore(store);
         engine.setReporter(m_reporter);
         engine.setManipulationVisitor(visitor);
+        if (m_threads > 0) {
+            engine.setThreads(m_threads);
+        }
+        ManipulationCache cache = null;
+        if (m_cacheDirectory != null) {
+            try {
+                cache = new ManipulationCache(m_cacheDirectory, m_cacheClasspath);
+                engine.setManipulationCache(cache);
+            } catch (IOException e) {
+                m_reporter.warn("Cannot use the manipulation cache, all classes are manipulated: " + e.getMessage());
+            }
+        }
 
         try {
 
@@ -380,6 +428,11 @@ public class Pojoization {
         // Start the manipulation
         engine.generate();
 
+        if (cache != null) {
+            m_reporter.info("Incremental manipulation: " + cache.getHits() + " classes unchanged, "
+                    + cache.getMisses() + " classes manipulated");
+        }
+
         // Tell the visitor that we have finished
         visitor.visitEnd();
 
@@ -19,23 +19,38 @@
 
 package org.apache.felix.ipojo.manipulator;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
 
 import junit.framework.TestCase;
 import org.apache.felix.ipojo.manipulator.util.Streams;
 import org.apache.felix.ipojo.manipulator.util.Strings;
+import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
+import org.mockito.ArgumentCaptor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import test.ClusterDaemon;
 import test.PojoWithInner;
+import test.frames.Drawing;
+import test.frames.Shape;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -56,10 +71,29 @@ public class ManipulationEngineTestCase extends TestCase {
     @InjectMocks
     private ManipulationEngine engine = new ManipulationEngine(this.getClass().getClassLoader());
 
+    private File folder;
+
 
     @Override
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        folder = File.createTempFile("manipulation", ".test");
+        assertTrue(folder.delete() && folder.mkdir());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        delete(folder);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
     }
 
     public void testManipulationOfSimpleClass() throws Exception {
@@ -105,6 +139,158 @@ public class ManipulationEngineTestCase extends TestCase {
 
     }
 
+    public void testIncrementalManipulation() throws Exception {
+
+        File directory = new File(folder, "cache");
+        ManipulationCache cache = new ManipulationCache(directory, Collections.<String>emptyList());
+
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+
+        String innerPath = Strings.asResourcePath(PojoWithInner.MyInner.class.getName());
+        when(store.read(innerPath)).thenReturn(from(PojoWithInner.MyInner.class));
+
+        String path = Strings.asResourcePath(PojoWithInner.class.getName());
+        when(store.read(path)).thenReturn(from(PojoWithInner.class));
+
+        Element metadata = new Element("component", "");
+        metadata.addAttribute(new Attribute("classname", PojoWithInner.class.getName()));
+        engine.addManipulationUnit(new ManipulationUnit(path, metadata));
+        engine.setManipulationCache(cache);
+        engine.generate();
+
+        ArgumentCaptor<byte[]> manipulated = ArgumentCaptor.forClass(byte[].class);
+        ArgumentCaptor<Element> structure = ArgumentCaptor.forClass(Element.class);
+        verify(result).visitManipulatedResource(eq(path), manipulated.capture());
+        verify(result).visitClassStructure(structure.capture());
+        assertEquals(0, cache.getHits());
+
+        // Manipulate the unchanged class again
+        ManipulationResultVisitor second = mock(ManipulationResultVisitor.class);
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(second);
+        ManipulationEngine incremental = new ManipulationEngine(this.getClass().getClassLoader());
+        incremental.setResourceStore(store);
+        incremental.setReporter(reporter);
+        incremental.setManipulationVisitor(visitor);
+        incremental.setManipulationCache(cache);
+        incremental.addManipulationUnit(new ManipulationUnit(path, metadata));
+        incremental.generate();
+
+        ArgumentCaptor<byte[]> cached = ArgumentCaptor.forClass(byte[].class);
+        ArgumentCaptor<Element> cachedStructure = ArgumentCaptor.forClass(Element.class);
+        verify(second).visitManipulatedResource(eq(path), cached.capture());
+        verify(second).visitManipulatedResource(eq(innerPath), any(byte[].class));
+        verify(second).visitClassStructure(cachedStructure.capture());
+        verify(second).visitEnd();
+        assertEquals(1, cache.getHits());
+        assertTrue(Arrays.equals(manipulated.getValue(), cached.getValue()));
+        assertEquals(structure.getValue().toString(), cachedStructure.getValue().toString());
+    }
+
+    public void testIncrementalManipulationIgnoresUnrelatedChanges() throws Exception {
+
+        ManipulationCache cache = new ManipulationCache(new File(folder, "cache"), Collections.<String>emptyList());
+
+        String path = Strings.asResourcePath(Drawing.class.getName());
+        String square = Strings.asResourcePath(Shape.Square.class.getName());
+        String circle = Strings.asResourcePath(Shape.Circle.class.getName());
+        String unrelated = Strings.asResourcePath(ClusterDaemon.class.getName());
+        when(store.read(path)).thenReturn(from(Drawing.class));
+        when(store.read(square)).thenReturn(from(Shape.Square.class));
+        when(store.read(circle)).thenReturn(from(Shape.Circle.class));
+        when(store.read(Strings.asResourcePath(Shape.class.getName()))).thenReturn(from(Shape.class));
+        when(store.read(unrelated)).thenReturn(from(ClusterDaemon.class));
+
+        Element metadata = new Element("component", "");
+        metadata.addAttribute(new Attribute("classname", Drawing.class.getName()));
+        manipulate(cache, path, metadata);
+        assertEquals(0, cache.getHits());
+
+        // Edit an unrelated class, and the body of a class resolved to compute the frames
+        when(store.read(unrelated)).thenReturn(edit(from(ClusterDaemon.class), null));
+        when(store.read(square)).thenReturn(edit(from(Shape.Square.class), null));
+        manipulate(cache, path, metadata);
+        assertEquals(1, cache.getHits());
+
+        // Change the hierarchy of a class resolved to compute the frames
+        when(store.read(circle)).thenReturn(edit(from(Shape.Circle.class), "java/lang/Object"));
+        manipulate(cache, path, metadata);
+        assertEquals(1, cache.getHits());
+    }
+
+    private void manipulate(ManipulationCache cache, String path, Element metadata) {
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(mock(ManipulationResultVisitor.class));
+        ManipulationEngine incremental = new ManipulationEngine(this.getClass().getClassLoader());
+        incremental.setResourceStore(store);
+        incremental.setReporter(reporter);
+        incremental.setManipulationVisitor(visitor);
+        incremental.setManipulationCache(cache);
+        incremental.addManipulationUnit(new ManipulationUnit(path, metadata));
+        incremental.generate();
+    }
+
+    /**
+     * Adds a field to the given class, and changes its superclass if one is given.
+     */
+    private static byte[] edit(byte[] bytecode, final String superName) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(bytecode).accept(new ClassVisitor(Opcodes.ASM5, writer) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String parent, String[] interfaces) {
+                super.visit(version, access, name, signature, superName != null ? superName : parent, interfaces);
+                visitField(Opcodes.ACC_PRIVATE, "edited", "I", null, null).visitEnd();
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    public void testCacheKeyDependsOnClasspath() throws Exception {
+
+        File classes = new File(folder, "classes");
+        assertTrue(classes.mkdir());
+        File superclass = new File(classes, "Super.class");
+        write(superclass, new byte[] {1});
+        Iterable<String> classpath = Collections.singletonList(classes.getAbsolutePath());
+
+        byte[] bytecode = from(ClusterDaemon.class);
+        Element metadata = new Element("component", "");
+        String key = new ManipulationCache(folder, classpath).key(bytecode, metadata);
+        assertEquals(key, new ManipulationCache(folder, classpath).key(bytecode, metadata));
+
+        // A changed class of the classpath may change the computed frames
+        write(superclass, new byte[] {2});
+        assertFalse(key.equals(new ManipulationCache(folder, classpath).key(bytecode, metadata)));
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testConcurrentManipulationKeepsOrder() throws Exception {
+
+        when(visitor.visitManipulationResult(any(Element.class))).thenReturn(result);
+        when(store.read(anyString())).thenReturn(from(ClusterDaemon.class));
+
+        String path = Strings.asResourcePath(ClusterDaemon.class.getName());
+        Element[] metadatas = new Element[8];
+        for (int i = 0; i < metadatas.length; i++) {
+            metadatas[i] = new Element("component" + i, "");
+            engine.addManipulationUnit(new ManipulationUnit(path, metadatas[i]));
+        }
+        engine.setThreads(4);
+        engine.generate();
+
+        InOrder order = inOrder(visitor);
+        for (Element metadata : metadatas) {
+            order.verify(visitor).visitManipulationResult(metadata);
+        }
+        verify(result, times(metadatas.length)).visitEnd();
+    }
+
     private byte[] from(Class<?> type) throws IOException {
         ClassLoader loader = type.getClassLoader();
         InputStream is = loader.getResourceAsStream(Strings.asResourcePath(type.getName()));
@@ -124,6 +124,22 @@ public class ManipulatorMojo extends AbstractMojo {
      */
     private boolean m_ignoreEmbeddedXSD;
 
+    /**
+     * Number of threads manipulating classes, 0 to use one thread per processor.
+     *
+     * @parameter alias="threads" expression="${ipojo.threads}" default-value="0"
+     */
+    private int m_threads;
+
+    /**
+     * Keeps the results of the manipulation in the build directory, so that classes
+     * that did not change are not manipulated again by the next build. Any change
+     * to the classpath, including the classes of the project, invalidates the results.
+     *
+     * @parameter alias="incremental" expression="${ipojo.incremental}" default-value="false"
+     */
+    private boolean m_incremental;
+
     private boolean isXML() {
         return m_metadata != null && (m_metadata.indexOf('<') > -1);
     }
@@ -159,10 +175,13 @@ public class ManipulatorMojo extends AbstractMojo {
         if (classes.isDirectory()) {
             urls.add(classes.getAbsolutePath());
         }
+        // The classes of the project are manipulated, they are not a dependency of the cache
+        Set<String> dependencies = new LinkedHashSet<String>();
         for (Artifact artifact : artifacts) {
             File file = artifact.getFile();
             if (file != null && file.isFile()) {
                 urls.add(file.getAbsolutePath());
+                dependencies.add(file.getAbsolutePath());
             }
         }
         getLog().debug("Compute classpath: " + urls);
@@ -258,6 +277,10 @@ public class ManipulatorMojo extends AbstractMojo {
         if (!m_ignoreEmbeddedXSD) {
             pojo.setUseLocalXSD();
         }
+        pojo.setManipulationThreads(m_threads);
+        if (m_incremental) {
+            pojo.setManipulationCache(new File(m_buildDirectory + File.separator + "ipojo-cache"), dependencies);
+        }
 
         // Executes the pojoization.
         if (is == null) {
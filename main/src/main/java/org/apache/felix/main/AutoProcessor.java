@@ -20,7 +20,12 @@ package org.apache.felix.main;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.osgi.framework.*;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.osgi.service.startlevel.*;
 
 public class AutoProcessor
@@ -80,32 +85,107 @@ public class AutoProcessor
      * The property name prefix for the launcher's auto-start property.
     **/
     public static final String AUTO_START_PROP = "felix.auto.start";
+    /**
+     * The property name used to specify the number of threads installing
+     * and starting bundles concurrently. The default is <tt>1</tt>, which
+     * processes bundles one after another.
+    **/
+    public static final String AUTO_THREADS_PROP = "felix.auto.threads";
+    /**
+     * The property name used to print how long installing, resolving and
+     * starting the bundles of each start level took. The default is
+     * <tt>false</tt>.
+    **/
+    public static final String AUTO_TIMING_PROP = "felix.auto.timing";
 
     /**
      * Used to instigate auto-deploy directory process and auto-install/auto-start
      * configuration property processing during.
+     * <p>
+     * Bundles are installed concurrently, then resolved together, and finally
+     * started in ascending start level order, where bundles with the same start
+     * level are started concurrently. The number of threads is specified by
+     * the {@link #AUTO_THREADS_PROP} property. If the {@link #AUTO_TIMING_PROP}
+     * property is <tt>true</tt>, the duration of each phase is printed.
+     * </p>
      * @param configMap Map of configuration properties.
      * @param context The system bundle context.
     **/
     public static void process(Map configMap, BundleContext context)
     {
         configMap = (configMap == null) ? new HashMap() : configMap;
-        processAutoDeploy(configMap, context);
-        processAutoProperties(configMap, context);
+
+        int threads = 1;
+        if (configMap.get(AUTO_THREADS_PROP) != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(configMap.get(AUTO_THREADS_PROP).toString().trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                System.err.println("Invalid property: " + AUTO_THREADS_PROP);
+            }
+        }
+        ExecutorService executor = (threads > 1)
+            ? Executors.newFixedThreadPool(threads) : null;
+        boolean timing = "true".equalsIgnoreCase(
+            String.valueOf(configMap.get(AUTO_TIMING_PROP)).trim());
+
+        try
+        {
+            // Bundles installed or updated, which are resolved together.
+            List installed = Collections.synchronizedList(new ArrayList());
+            // Start tasks by start level.
+            SortedMap startMap = new TreeMap();
+
+            long time = System.currentTimeMillis();
+            processAutoDeploy(configMap, context, executor, installed, startMap);
+            processAutoProperties(configMap, context, executor, installed, startMap);
+            time = printTiming(timing, "install", time);
+
+            if (!installed.isEmpty())
+            {
+                FrameworkWiring wiring = (FrameworkWiring)
+                    context.getBundle(0).adapt(FrameworkWiring.class);
+                if (wiring != null)
+                {
+                    wiring.resolveBundles(installed);
+                }
+            }
+            time = printTiming(timing, "resolve", time);
+
+            for (Iterator it = startMap.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry entry = (Map.Entry) it.next();
+                runAll(executor, (List) entry.getValue());
+                time = printTiming(timing, "start level " + entry.getKey(), time);
+            }
+        }
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdown();
+            }
+        }
     }
 
     /**
      * <p>
      * Processes bundles in the auto-deploy directory, performing the
-     * specified deploy actions.
+     * specified deploy actions. Bundles to start are added to the given
+     * start map.
      * </p>
      */
-    private static void processAutoDeploy(Map configMap, BundleContext context)
+    private static void processAutoDeploy(
+        Map configMap, final BundleContext context, ExecutorService executor,
+        final List installed, SortedMap startMap)
     {
         // Determine if auto deploy actions to perform.
         String action = (String) configMap.get(AUTO_DEPLOY_ACTION_PROPERTY);
         action = (action == null) ? "" : action;
-        List actionList = new ArrayList();
+        final List actionList = new ArrayList();
         StringTokenizer st = new StringTokenizer(action, ",");
         while (st.hasMoreTokens())
         {
@@ -170,44 +250,60 @@ public class AutoProcessor
             }
 
             // Install bundle JAR files and remember the bundle objects.
-            final List startBundleList = new ArrayList();
+            final Bundle[] deployed = new Bundle[jarList.size()];
+            List tasks = new ArrayList();
             for (int i = 0; i < jarList.size(); i++)
             {
                 // Look up the bundle by location, removing it from
                 // the map of installed bundles so the remaining bundles
                 // indicate which bundles may need to be uninstalled.
-                Bundle b = (Bundle) installedBundleMap.remove(
-                    ((File) jarList.get(i)).toURI().toString());
+                final String location = ((File) jarList.get(i)).toURI().toString();
+                final Bundle existing = (Bundle) installedBundleMap.remove(location);
+                final int index = i;
 
-                try
+                tasks.add(new Runnable()
                 {
-                    // If the bundle is not already installed, then install it
-                    // if the 'install' action is present.
-                    if ((b == null) && actionList.contains(AUTO_DEPLOY_INSTALL_VALUE))
-                    {
-                        b = context.installBundle(
-                            ((File) jarList.get(i)).toURI().toString());
-                    }
-                    // If the bundle is already installed, then update it
-                    // if the 'update' action is present.
-                    else if ((b != null) && actionList.contains(AUTO_DEPLOY_UPDATE_VALUE))
+                    public void run()
                     {
-                        b.update();
+                        Bundle b = existing;
+                        try
+                        {
+                            // If the bundle is not already installed, then install it
+                            // if the 'install' action is present.
+                            if ((b == null) && actionList.contains(AUTO_DEPLOY_INSTALL_VALUE))
+                            {
+                                b = context.installBundle(location);
+                                installed.add(b);
+                            }
+                            // If the bundle is already installed, then update it
+                            // if the 'update' action is present.
+                            else if ((b != null) && actionList.contains(AUTO_DEPLOY_UPDATE_VALUE))
+                            {
+                                b.update();
+                                installed.add(b);
+                            }
+                            deployed[index] = b;
+                        }
+                        catch (BundleException ex)
+                        {
+                            System.err.println("Auto-deploy install: "
+                                + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : ""));
+                        }
                     }
+                });
+            }
+            runAll(executor, tasks);
 
-                    // If we have found and/or successfully installed a bundle,
-                    // then add it to the list of bundles to potentially start
-                    // and also set its start level accordingly.
-                    if ((b != null) && !isFragment(b))
-                    {
-                        startBundleList.add(b);
-                        sl.setBundleStartLevel(b, startLevel);
-                    }
-                }
-                catch (BundleException ex)
+            // If we have found and/or successfully installed a bundle,
+            // then add it to the list of bundles to potentially start
+            // and also set its start level accordingly.
+            final List startBundleList = new ArrayList();
+            for (int i = 0; i < deployed.length; i++)
+            {
+                if ((deployed[i] != null) && !isFragment(deployed[i]))
                 {
-                    System.err.println("Auto-deploy install: "
-                        + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : ""));
+                    startBundleList.add(deployed[i]);
+                    sl.setBundleStartLevel(deployed[i], startLevel);
                 }
             }
 
@@ -240,15 +336,22 @@ public class AutoProcessor
             {
                 for (int i = 0; i < startBundleList.size(); i++)
                 {
-                    try
+                    final Bundle b = (Bundle) startBundleList.get(i);
+                    getTasks(startMap, startLevel).add(new Runnable()
                     {
-                        ((Bundle) startBundleList.get(i)).start();
-                    }
-                    catch (BundleException ex)
-                    {
-                        System.err.println("Auto-deploy start: "
-                            + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : ""));
-                    }
+                        public void run()
+                        {
+                            try
+                            {
+                                b.start();
+                            }
+                            catch (BundleException ex)
+                            {
+                                System.err.println("Auto-deploy start: "
+                                    + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : ""));
+                            }
+                        }
+                    });
                 }
             }
         }
@@ -257,14 +360,17 @@ public class AutoProcessor
     /**
      * <p>
      * Processes the auto-install and auto-start properties from the
-     * specified configuration properties.
+     * specified configuration properties. Bundles to start are added
+     * to the given start map.
      * </p>
      */
-    private static void processAutoProperties(Map configMap, BundleContext context)
+    private static void processAutoProperties(
+        Map configMap, final BundleContext context, ExecutorService executor,
+        final List installed, SortedMap startMap)
     {
         // Retrieve the Start Level service, since it will be needed
         // to set the start level of the installed bundles.
-        StartLevel sl = (StartLevel) context.getService(
+        final StartLevel sl = (StartLevel) context.getService(
             context.getServiceReference(org.osgi.service.startlevel.StartLevel.class.getName()));
 
         // Retrieve all auto-install and auto-start properties and install
@@ -276,6 +382,7 @@ public class AutoProcessor
         // property name, where "n" is the desired start level for the list
         // of bundles. If no start level is specified, the default start
         // level is assumed.
+        List tasks = new ArrayList();
         for (Iterator i = configMap.keySet().iterator(); i.hasNext(); )
         {
             String key = ((String) i.next()).toLowerCase();
@@ -306,47 +413,119 @@ public class AutoProcessor
             StringTokenizer st = new StringTokenizer((String) configMap.get(key), "\" ", true);
             for (String location = nextLocation(st); location != null; location = nextLocation(st))
             {
-                try
+                final String bundleLocation = location;
+                final int bundleStartLevel = startLevel;
+                tasks.add(new Runnable()
                 {
-                    Bundle b = context.installBundle(location, null);
-                    sl.setBundleStartLevel(b, startLevel);
-                }
-                catch (Exception ex)
-                {
-                    System.err.println("Auto-properties install: " + location + " ("
-                        + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : "") + ")");
+                    public void run()
+                    {
+                        try
+                        {
+                            Bundle b = context.installBundle(bundleLocation, null);
+                            sl.setBundleStartLevel(b, bundleStartLevel);
+                            installed.add(b);
+                        }
+                        catch (Exception ex)
+                        {
+                            System.err.println("Auto-properties install: " + bundleLocation + " ("
+                                + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : "") + ")");
 if (ex.getCause() != null)
     ex.printStackTrace();
-                }
-            }
-        }
+                        }
+                    }
+                });
 
-        // Now loop through the auto-start bundles and start them.
-        for (Iterator i = configMap.keySet().iterator(); i.hasNext(); )
-        {
-            String key = ((String) i.next()).toLowerCase();
-            if (key.startsWith(AUTO_START_PROP))
-            {
-                StringTokenizer st = new StringTokenizer((String) configMap.get(key), "\" ", true);
-                for (String location = nextLocation(st); location != null; location = nextLocation(st))
+                // Remember the auto-start bundles to start them later on.
+                if (key.startsWith(AUTO_START_PROP))
                 {
-                    // Installing twice just returns the same bundle.
-                    try
+                    getTasks(startMap, startLevel).add(new Runnable()
                     {
-                        Bundle b = context.installBundle(location, null);
-                        if (b != null)
+                        public void run()
                         {
-                            b.start();
+                            // Installing twice just returns the same bundle.
+                            try
+                            {
+                                Bundle b = context.installBundle(bundleLocation, null);
+                                if (b != null)
+                                {
+                                    b.start();
+                                }
+                            }
+                            catch (Exception ex)
+                            {
+                                System.err.println("Auto-properties start: " + bundleLocation + " ("
+                                    + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : "") + ")");
+                            }
                         }
-                    }
-                    catch (Exception ex)
-                    {
-                        System.err.println("Auto-properties start: " + location + " ("
-                            + ex + ((ex.getCause() != null) ? " - " + ex.getCause() : "") + ")");
-                    }
+                    });
                 }
             }
         }
+        runAll(executor, tasks);
+    }
+
+    /**
+     * Prints the time elapsed since the given time if timing is enabled.
+     * @return the current time.
+     */
+    private static long printTiming(boolean timing, String phase, long time)
+    {
+        long now = System.currentTimeMillis();
+        if (timing)
+        {
+            System.err.println("Auto-processing " + phase + ": " + (now - time) + " ms");
+        }
+        return now;
+    }
+
+    private static List getTasks(SortedMap startMap, int startLevel)
+    {
+        Integer key = Integer.valueOf(startLevel);
+        List tasks = (List) startMap.get(key);
+        if (tasks == null)
+        {
+            tasks = new ArrayList();
+            startMap.put(key, tasks);
+        }
+        return tasks;
+    }
+
+    /**
+     * Runs the given tasks using the executor, or in the calling thread if
+     * there is none, and waits for all of them to finish.
+     */
+    private static void runAll(ExecutorService executor, List tasks)
+    {
+        if ((executor == null) || (tasks.size() < 2))
+        {
+            for (int i = 0; i < tasks.size(); i++)
+            {
+                ((Runnable) tasks.get(i)).run();
+            }
+            return;
+        }
+
+        List futures = new ArrayList(tasks.size());
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            futures.add(executor.submit((Runnable) tasks.get(i)));
+        }
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try
+            {
+                ((Future) futures.get(i)).get();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException ex)
+            {
+                System.err.println("Auto-processing: " + ex.getCause());
+            }
+        }
     }
 
     private static String nextLocation(StringTokenizer st)
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.wiring.FrameworkWiring;
+import org.osgi.service.startlevel.StartLevel;
+
+public class AutoProcessorTest extends TestCase
+{
+    private BundleContext context;
+    private StartLevel startLevel;
+    private FrameworkWiring wiring;
+    private Map bundles;
+    private List installThreads;
+
+    protected void setUp() throws Exception
+    {
+        context = Mockito.mock(BundleContext.class);
+        startLevel = Mockito.mock(StartLevel.class);
+        wiring = Mockito.mock(FrameworkWiring.class);
+        bundles = new HashMap();
+        installThreads = Collections.synchronizedList(new ArrayList());
+
+        ServiceReference ref = Mockito.mock(ServiceReference.class);
+        Mockito.when(context.getServiceReference(StartLevel.class.getName())).thenReturn(ref);
+        Mockito.when(context.getService(ref)).thenReturn(startLevel);
+        Mockito.when(startLevel.getInitialBundleStartLevel()).thenReturn(1);
+
+        Bundle systemBundle = Mockito.mock(Bundle.class);
+        Mockito.when(context.getBundle(0)).thenReturn(systemBundle);
+        Mockito.when(systemBundle.adapt(FrameworkWiring.class)).thenReturn(wiring);
+
+        Mockito.when(context.installBundle(Mockito.anyString(), (InputStream) Mockito.isNull()))
+            .thenAnswer(new Answer()
+            {
+                public Object answer(InvocationOnMock invocation)
+                {
+                    installThreads.add(Thread.currentThread());
+                    return getBundle((String) invocation.getArguments()[0]);
+                }
+            });
+    }
+
+    private synchronized Bundle getBundle(String location)
+    {
+        Bundle bundle = (Bundle) bundles.get(location);
+        if (bundle == null)
+        {
+            bundle = Mockito.mock(Bundle.class, location);
+            Mockito.when(bundle.getLocation()).thenReturn(location);
+            Mockito.when(bundle.getHeaders()).thenReturn(new Hashtable());
+            bundles.put(location, bundle);
+        }
+        return bundle;
+    }
+
+    public void testProcessedOneByOneByDefault() throws Exception
+    {
+        Map config = new HashMap();
+        config.put(AutoProcessor.AUTO_START_PROP + ".1", "a b c");
+
+        AutoProcessor.process(config, context);
+
+        InOrder inOrder = Mockito.inOrder(context);
+        inOrder.verify(context).installBundle("a", null);
+        inOrder.verify(context).installBundle("b", null);
+        inOrder.verify(context).installBundle("c", null);
+        for (int i = 0; i < installThreads.size(); i++)
+        {
+            assertSame(Thread.currentThread(), installThreads.get(i));
+        }
+        Mockito.verify(getBundle("a")).start();
+        Mockito.verify(getBundle("b")).start();
+        Mockito.verify(getBundle("c")).start();
+    }
+
+    public void testProcessedConcurrently() throws Exception
+    {
+        Map config = new HashMap();
+        config.put(AutoProcessor.AUTO_THREADS_PROP, "4");
+        config.put(AutoProcessor.AUTO_START_PROP + ".2", "c d");
+        config.put(AutoProcessor.AUTO_START_PROP + ".1", "a b");
+        config.put(AutoProcessor.AUTO_INSTALL_PROP + ".3", "e");
+
+        AutoProcessor.process(config, context);
+
+        // installed bundles are resolved together
+        ArgumentCaptor<Collection> resolved = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(wiring).resolveBundles(resolved.capture());
+        assertEquals(5, resolved.getValue().size());
+        Mockito.verify(startLevel).setBundleStartLevel(getBundle("a"), 1);
+        Mockito.verify(startLevel).setBundleStartLevel(getBundle("c"), 2);
+        Mockito.verify(startLevel).setBundleStartLevel(getBundle("e"), 3);
+
+        // bundles are started by ascending start level
+        InOrder inOrder = Mockito.inOrder(getBundle("a"), getBundle("c"));
+        inOrder.verify(getBundle("a")).start();
+        inOrder.verify(getBundle("c")).start();
+        inOrder = Mockito.inOrder(getBundle("b"), getBundle("d"));
+        inOrder.verify(getBundle("b")).start();
+        inOrder.verify(getBundle("d")).start();
+        Mockito.verify(getBundle("e"), Mockito.never()).start();
+    }
+
+    public void testTiming() throws Exception
+    {
+        Map config = new HashMap();
+        config.put(AutoProcessor.AUTO_START_PROP + ".2", "b");
+        config.put(AutoProcessor.AUTO_START_PROP + ".1", "a");
+
+        assertEquals("", processAndCaptureErr(config));
+
+        config.put(AutoProcessor.AUTO_TIMING_PROP, "true");
+        String err = processAndCaptureErr(config);
+        assertTrue(err, err.indexOf("Auto-processing install: ") >= 0);
+        assertTrue(err, err.indexOf("Auto-processing resolve: ") >= 0);
+        assertTrue(err, err.indexOf("Auto-processing start level 1: ") >= 0);
+        assertTrue(err, err.indexOf("Auto-processing start level 1: ")
+            < err.indexOf("Auto-processing start level 2: "));
+    }
+
+    private String processAndCaptureErr(Map config)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(out, true));
+        try
+        {
+            AutoProcessor.process(config, context);
+        }
+        finally
+        {
+            System.setErr(err);
+        }
+        return out.toString();
+    }
+
+    public void testInvalidThreadsProperty() throws Exception
+    {
+        Map config = new HashMap();
+        config.put(AutoProcessor.AUTO_THREADS_PROP, "many");
+        config.put(AutoProcessor.AUTO_INSTALL_PROP, "a");
+
+        AutoProcessor.process(config, context);
+
+        Mockito.verify(context).installBundle("a", null);
+        Mockito.verify(getBundle("a"), Mockito.never()).start();
+    }
+}
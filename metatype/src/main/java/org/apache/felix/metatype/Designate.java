@@ -28,6 +28,8 @@ package org.apache.felix.metatype;
 public class Designate extends OptionalAttributes
 {
 
+    private static final long serialVersionUID = 1L;
+
     private String pid;
 
     private String factoryPid;
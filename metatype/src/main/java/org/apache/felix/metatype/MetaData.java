@@ -32,11 +32,14 @@ import java.util.Map;
  */
 public class MetaData extends OptionalAttributes
 {
+    private static final long serialVersionUID = 1L;
+
     private String namespace;
     private String localePrefix;
     private Map /* String -> OCD */ objectClassDefinitions;
     private List /* Designate */ designates;
-    private URL source;
+    // bundle entry URLs are not serializable in all frameworks, restored from the bundle
+    private transient URL source;
 
     public String getLocalePrefix()
     {
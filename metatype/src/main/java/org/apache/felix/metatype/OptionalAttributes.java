@@ -19,12 +19,20 @@
 package org.apache.felix.metatype;
 
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 
-public class OptionalAttributes
+/**
+ * The <code>OptionalAttributes</code> class is the base class of the elements
+ * of the meta type descriptor. The elements are serializable to be kept in
+ * the persistent meta type index.
+ */
+public class OptionalAttributes implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     private Map optionalAttributes;
 
 
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.felix.metatype.MetaData;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>MetaTypeIndex</code> keeps the parsed meta type documents and the
+ * localization properties of bundles in files in the data area of this
+ * bundle, so they do not have to be read from the bundles again. The files of
+ * a bundle are only used as long as neither the bundle nor the fragments
+ * attached to it have been modified.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class MetaTypeIndex
+{
+
+    /** Version of the index files. */
+    private static final int VERSION = 2;
+
+    private static final String METATYPE_SUFFIX = ".metatype";
+
+    private static final String L10N_SUFFIX = ".l10n";
+
+    private final File directory;
+
+
+    MetaTypeIndex( final File directory )
+    {
+        this.directory = directory;
+    }
+
+
+    /**
+     * Returns the meta data parsed from the meta type documents of the bundle
+     * or <code>null</code> if the bundle is not in the index.
+     */
+    MetaData[] getMetaData( final Bundle bundle )
+    {
+        final Object[] content = ( Object[] ) read( bundle, METATYPE_SUFFIX );
+        if ( content == null )
+        {
+            return null;
+        }
+
+        // restore the source of the documents, which are not serialized
+        final String[] sources = ( String[] ) content[0];
+        final MetaData[] metaData = ( MetaData[] ) content[1];
+        try
+        {
+            for ( int i = 0; i < metaData.length; i++ )
+            {
+                metaData[i].setSource( sources[i] == null ? null : new URL( sources[i] ) );
+            }
+        }
+        catch ( MalformedURLException mue )
+        {
+            return null;
+        }
+        return metaData;
+    }
+
+
+    /**
+     * Adds the meta data parsed from the meta type documents of the bundle.
+     */
+    void putMetaData( final Bundle bundle, final MetaData[] metaData )
+    {
+        final String[] sources = new String[metaData.length];
+        for ( int i = 0; i < metaData.length; i++ )
+        {
+            final URL source = metaData[i].getSource();
+            sources[i] = source == null ? null : source.toExternalForm();
+        }
+        write( bundle, METATYPE_SUFFIX, new Object[]
+            { sources, metaData } );
+    }
+
+
+    /**
+     * Returns the properties of the localization resources of the bundle
+     * mapped by their resource names or <code>null</code> if the bundle is
+     * not in the index. The properties have no defaults.
+     */
+    public Map getResources( final Bundle bundle )
+    {
+        return ( Map ) read( bundle, L10N_SUFFIX );
+    }
+
+
+    /**
+     * Sets the properties of the localization resources of the bundle,
+     * mapped by their resource names. The defaults of the properties are not
+     * added.
+     */
+    public void putResources( final Bundle bundle, final Map resources )
+    {
+        write( bundle, L10N_SUFFIX, resources );
+    }
+
+
+    /**
+     * Removes the bundle from the index.
+     */
+    void remove( final long bundleId )
+    {
+        getFile( bundleId, METATYPE_SUFFIX ).delete();
+        getFile( bundleId, L10N_SUFFIX ).delete();
+    }
+
+
+    private File getFile( final long bundleId, final String suffix )
+    {
+        return new File( this.directory, String.valueOf( bundleId ).concat( suffix ) );
+    }
+
+
+    private Object read( final Bundle bundle, final String suffix )
+    {
+        final File file = getFile( bundle.getBundleId(), suffix );
+        if ( !file.exists() )
+        {
+            return null;
+        }
+
+        ObjectInputStream ois = null;
+        try
+        {
+            ois = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            if ( ois.readInt() != VERSION || ois.readLong() != bundle.getLastModified()
+                || !ois.readUTF().equals( bundle.getLocation() ) || !ois.readUTF().equals( getFragments( bundle ) ) )
+            {
+                // outdated, the bundle has been updated or reinstalled or
+                // other fragments are attached
+                return null;
+            }
+            return ois.readObject();
+        }
+        catch ( Exception e )
+        {
+            Activator.log( LogService.LOG_DEBUG, "read: Ignoring unreadable index file " + file + " : " + e );
+            file.delete();
+            return null;
+        }
+        finally
+        {
+            close( ois );
+        }
+    }
+
+
+    private void write( final Bundle bundle, final String suffix, final Object content )
+    {
+        final File file = getFile( bundle.getBundleId(), suffix );
+        final File tmpFile = new File( this.directory, file.getName() + ".tmp" + Thread.currentThread().getId() );
+        ObjectOutputStream oos = null;
+        try
+        {
+            if ( !this.directory.isDirectory() && !this.directory.mkdirs() )
+            {
+                throw new IOException( "Unable to create directory " + this.directory );
+            }
+            oos = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+            oos.writeInt( VERSION );
+            oos.writeLong( bundle.getLastModified() );
+            oos.writeUTF( bundle.getLocation() );
+            oos.writeUTF( getFragments( bundle ) );
+            oos.writeObject( content );
+            oos.close();
+            oos = null;
+            Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( IOException ioe )
+        {
+            Activator.log( LogService.LOG_WARNING, "write: Unable to write index file " + file + " : " + ioe );
+            tmpFile.delete();
+        }
+        finally
+        {
+            close( oos );
+        }
+    }
+
+
+    /**
+     * Returns the ids and last modification times of the fragments attached
+     * to the bundle, as they may provide meta type documents and
+     * localization resources, too.
+     */
+    static String getFragments( final Bundle bundle )
+    {
+        final BundleWiring wiring = bundle.adapt( BundleWiring.class );
+        final List wires = ( wiring == null ) ? null : wiring.getProvidedWires( HostNamespace.HOST_NAMESPACE );
+        if ( wires == null || wires.isEmpty() )
+        {
+            return "";
+        }
+
+        final Map fragments = new TreeMap();
+        for ( Iterator wi = wires.iterator(); wi.hasNext(); )
+        {
+            final Bundle fragment = ( ( BundleWire ) wi.next() ).getRequirer().getBundle();
+            fragments.put( Long.valueOf( fragment.getBundleId() ), Long.valueOf( fragment.getLastModified() ) );
+        }
+        return fragments.toString();
+    }
+
+
+    private static void close( final Closeable closeable )
+    {
+        if ( closeable != null )
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException ignore )
+            {
+            }
+        }
+    }
+}
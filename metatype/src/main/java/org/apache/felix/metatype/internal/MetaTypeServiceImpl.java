@@ -19,15 +19,19 @@
 package org.apache.felix.metatype.internal;
 
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.metatype.MetaData;
 import org.apache.felix.metatype.MetaDataReader;
+import org.apache.felix.metatype.internal.l10n.BundleResources;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -51,7 +55,20 @@ import org.osgi.service.metatype.MetaTypeService;
 class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 {
 
-    private final Map<Long, SoftReference<MetaTypeInformationImpl>> bundleMetaTypeInformation;
+    /**
+     * The name of the framework property setting the maximum number of bundles
+     * whose <code>MetaTypeInformation</code> is kept in memory.
+     */
+    static final String PROP_CACHE_SIZE = "felix.metatype.cache.size";
+
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** The name of the directory in the data area containing the index. */
+    static final String INDEX_DIRECTORY = "index";
+
+    private final Map<Long, MetaTypeInformationImpl> bundleMetaTypeInformation;
+
+    private final MetaTypeIndex index;
 
     private final ManagedServiceTracker managedServiceTracker;
 
@@ -65,7 +82,24 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
      */
     MetaTypeServiceImpl( BundleContext bundleContext )
     {
-        this.bundleMetaTypeInformation = new ConcurrentHashMap<Long, SoftReference<MetaTypeInformationImpl>>();
+        final int cacheSize = getCacheSize( bundleContext );
+        this.bundleMetaTypeInformation = Collections.synchronizedMap( new LinkedHashMap<Long, MetaTypeInformationImpl>(
+            16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long, MetaTypeInformationImpl> eldest )
+            {
+                // not disposed as it might still be in use, created again on demand
+                return size() > cacheSize;
+            }
+        } );
+
+        final File indexDirectory = bundleContext.getDataFile( INDEX_DIRECTORY );
+        this.index = ( indexDirectory == null ) ? null : new MetaTypeIndex( indexDirectory );
+        BundleResources.setIndex( this.index );
 
         bundleContext.addBundleListener( this );
 
@@ -86,6 +120,24 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
     }
 
 
+    private static int getCacheSize( BundleContext bundleContext )
+    {
+        final String value = bundleContext.getProperty( PROP_CACHE_SIZE );
+        if ( value != null )
+        {
+            try
+            {
+                return Math.max( 1, Integer.parseInt( value.trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                Activator.log( LogService.LOG_WARNING, "Ignoring invalid " + PROP_CACHE_SIZE + " value: " + value );
+            }
+        }
+        return DEFAULT_CACHE_SIZE;
+    }
+
+
     void dispose()
     {
         this.providerTracker.close();
@@ -98,17 +150,17 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
     {
         if ( event.getType() == BundleEvent.STOPPING )
         {
-            SoftReference<MetaTypeInformationImpl> mtir = this.bundleMetaTypeInformation.remove( new Long( event.getBundle()
+            MetaTypeInformationImpl mti = this.bundleMetaTypeInformation.remove( new Long( event.getBundle()
                 .getBundleId() ) );
-            if ( mtir != null )
+            if ( mti != null )
             {
-                MetaTypeInformationImpl mti = mtir.get();
-                if ( mti != null )
-                {
-                    mti.dispose();
-                }
+                mti.dispose();
             }
         }
+        else if ( event.getType() == BundleEvent.UNINSTALLED && this.index != null )
+        {
+            this.index.remove( event.getBundle().getBundleId() );
+        }
     }
 
 
@@ -163,32 +215,50 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 
     private MetaTypeInformationImpl fromDocuments( Bundle bundle )
     {
-        MetaDataReader reader = new MetaDataReader();
-
-        // get the descriptors, return nothing if none
-        Enumeration<URL> docs = bundle.findEntries( METATYPE_DOCUMENTS_LOCATION, null, false );
-        if ( docs == null || !docs.hasMoreElements() )
+        MetaData[] metaData = ( this.index == null ) ? null : this.index.getMetaData( bundle );
+        if ( metaData == null )
         {
-            return null;
-        }
+            // get the descriptors, return nothing if none
+            Enumeration<URL> docs = bundle.findEntries( METATYPE_DOCUMENTS_LOCATION, null, false );
+            if ( docs == null || !docs.hasMoreElements() )
+            {
+                return null;
+            }
 
-        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
-        while ( docs.hasMoreElements() )
-        {
-            URL doc = docs.nextElement();
-            try
+            MetaDataReader reader = new MetaDataReader();
+            List<MetaData> parsed = new ArrayList<MetaData>();
+            boolean complete = true;
+            while ( docs.hasMoreElements() )
             {
-                MetaData metaData = reader.parse( doc );
-                if ( metaData != null )
+                URL doc = docs.nextElement();
+                try
+                {
+                    MetaData md = reader.parse( doc );
+                    if ( md != null )
+                    {
+                        parsed.add( md );
+                    }
+                }
+                catch ( IOException ioe )
                 {
-                    cmti.addMetaData( metaData );
+                    Activator.log( LogService.LOG_ERROR, "fromDocuments: Error accessing document " + doc + " : " + ioe.getMessage(), null );
+                    complete = false;
                 }
             }
-            catch ( IOException ioe )
+            metaData = parsed.toArray( new MetaData[parsed.size()] );
+
+            // documents which could not be read are tried again next time
+            if ( complete && this.index != null )
             {
-                Activator.log( LogService.LOG_ERROR, "fromDocuments: Error accessing document " + doc + " : " + ioe.getMessage(), null );
+                this.index.putMetaData( bundle, metaData );
             }
         }
+
+        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
+        for ( int i = 0; i < metaData.length; i++ )
+        {
+            cmti.addMetaData( metaData[i] );
+        }
         return cmti;
     }
 
@@ -292,14 +362,12 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
             }
         }
 
-        this.bundleMetaTypeInformation.put( new Long( bundle.getBundleId() ),
-            new SoftReference<MetaTypeInformationImpl>( mti ) );
+        this.bundleMetaTypeInformation.put( new Long( bundle.getBundleId() ), mti );
     }
 
 
     private MetaTypeInformationImpl getMetaTypeInformationInternal( final Bundle bundle )
     {
-        SoftReference<MetaTypeInformationImpl> mtir = this.bundleMetaTypeInformation.get( new Long( bundle.getBundleId() ) );
-        return ( mtir == null ) ? null : mtir.get();
+        return this.bundleMetaTypeInformation.get( new Long( bundle.getBundleId() ) );
     }
 }
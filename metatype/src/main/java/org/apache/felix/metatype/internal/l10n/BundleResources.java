@@ -30,7 +30,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.felix.metatype.internal.MetaTypeIndex;
 import org.osgi.framework.Bundle;
 import org.osgi.service.metatype.MetaTypeService;
 
@@ -48,32 +50,30 @@ public class BundleResources
 
     private Map resourcesByLocale;
 
-    private static Map resourcesByBundle = null;
+    /** The properties of the resources in the index, mapped by resource name, <code>null</code> if not read yet. */
+    private Map indexedResources;
 
+    /** Whether resources have been added to <code>indexedResources</code> since it has been written. */
+    private boolean indexChanged;
 
-    public static Resources getResources( Bundle bundle, String basename, String locale )
-    {
-        BundleResources bundleResources = null;
+    private static final Map resourcesByBundle = new ConcurrentHashMap();
 
-        if ( resourcesByBundle != null )
-        {
-            // the bundle has been uninstalled, ensure removed from the cache
-            // and return null (e.g. no resources now)
-            if ( bundle.getState() == Bundle.UNINSTALLED )
-            {
-                resourcesByBundle.remove( new Long( bundle.getBundleId() ) );
-                return null;
-            }
+    /** The index keeping the properties loaded from bundles, may be <code>null</code>. */
+    private static volatile MetaTypeIndex index;
 
-            // else check whether we know the bundle already
-            bundleResources = ( BundleResources ) resourcesByBundle.get( new Long( bundle.getBundleId() ) );
-        }
-        else
+
+    public static Resources getResources( Bundle bundle, String basename, String locale )
+    {
+        // the bundle has been uninstalled, ensure removed from the cache
+        // and return null (e.g. no resources now)
+        if ( bundle.getState() == Bundle.UNINSTALLED )
         {
-            // create the cache to be used for a newly created BundleResources
-            resourcesByBundle = new HashMap();
+            resourcesByBundle.remove( new Long( bundle.getBundleId() ) );
+            return null;
         }
 
+        // else check whether we know the bundle already
+        BundleResources bundleResources = ( BundleResources ) resourcesByBundle.get( new Long( bundle.getBundleId() ) );
         if ( bundleResources == null )
         {
             bundleResources = new BundleResources( bundle );
@@ -84,9 +84,16 @@ public class BundleResources
     }
 
 
+    public static void setIndex( MetaTypeIndex metaTypeIndex )
+    {
+        index = metaTypeIndex;
+    }
+
+
     public static void clearResourcesCache()
     {
-        resourcesByBundle = null;
+        resourcesByBundle.clear();
+        index = null;
     }
 
 
@@ -104,7 +111,7 @@ public class BundleResources
     }
 
 
-    private Resources getResources( String basename, String locale )
+    private synchronized Resources getResources( String basename, String locale )
     {
         // ensure locale - use VM default locale if null
         if ( locale == null )
@@ -127,6 +134,7 @@ public class BundleResources
         {
             // otherwise clear the cache
             resourcesByLocale.clear();
+            indexedResources = null;
         }
 
         // get the list of potential resource names files
@@ -150,6 +158,14 @@ public class BundleResources
             }
         }
 
+        // write the resources loaded from the bundle to the index at once
+        final MetaTypeIndex metaTypeIndex = index;
+        if ( indexChanged && metaTypeIndex != null )
+        {
+            metaTypeIndex.putResources( bundle, indexedResources );
+        }
+        indexChanged = false;
+
         // just return from the cache again
         return ( Resources ) resourcesByLocale.get( key );
     }
@@ -165,6 +181,24 @@ public class BundleResources
         resourceName += ".properties";
 
         Properties props = new Properties( parentProperties );
+
+        // properties already loaded from this version of the bundle
+        final MetaTypeIndex metaTypeIndex = index;
+        if ( metaTypeIndex != null && indexedResources == null )
+        {
+            indexedResources = metaTypeIndex.getResources( bundle );
+            if ( indexedResources == null )
+            {
+                indexedResources = new HashMap();
+            }
+        }
+        final Properties indexed = ( metaTypeIndex == null ) ? null : ( Properties ) indexedResources.get( resourceName );
+        if ( indexed != null )
+        {
+            props.putAll( indexed );
+            return props;
+        }
+
         // FELIX-5173 - allow the resource to be provided by fragments as well...
         URL resURL = bundle.getResource( resourceName );
 
@@ -186,6 +220,7 @@ public class BundleResources
             catch ( IOException ex )
             {
                 // File doesn't exist, just continue loop
+                return props;
             }
             finally
             {
@@ -202,6 +237,14 @@ public class BundleResources
             }
         }
 
+        if ( metaTypeIndex != null )
+        {
+            // without the defaults, which are indexed on their own
+            final Properties copy = new Properties();
+            copy.putAll( props );
+            indexedResources.put( resourceName, copy );
+            indexChanged = true;
+        }
         return props;
     }
 
@@ -17,7 +17,7 @@
  * under the License.
  */
 
-@Version("1.2.0")
+@Version("1.3.0")
 package org.apache.felix.metatype;
 
 import org.osgi.annotation.versioning.Version;
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.OCD;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import junit.framework.TestCase;
+
+
+/**
+ * The <code>MetaTypeIndexTest</code> class tests the {@link MetaTypeIndex}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class MetaTypeIndexTest extends TestCase
+{
+
+    private static final long FRAGMENT_ID = 6;
+
+    private File directory;
+
+    private long lastModified;
+
+    private Bundle fragment;
+
+    private long fragmentLastModified;
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        directory = File.createTempFile( "metatype", "index" );
+        directory.delete();
+        lastModified = 1;
+        fragment = null;
+        fragmentLastModified = 1;
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( int i = 0; i < files.length; i++ )
+            {
+                files[i].delete();
+            }
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+
+    public void testMetaData() throws Exception
+    {
+        MetaTypeIndex index = new MetaTypeIndex( directory );
+        Bundle bundle = createBundle( 5 );
+        assertNull( index.getMetaData( bundle ) );
+
+        MetaData md = new MetaData();
+        md.setSource( new URL( "file:/metatype/metatype.xml" ) );
+        OCD ocd = new OCD();
+        ocd.setId( "ocd" );
+        AD ad = new AD();
+        ad.setID( "ad" );
+        ad.setType( "Integer" );
+        ad.setDefaultValue( "5" );
+        ocd.addAttributeDefinition( ad );
+        md.addObjectClassDefinition( ocd );
+        index.putMetaData( bundle, new MetaData[]
+            { md } );
+
+        MetaData[] indexed = index.getMetaData( bundle );
+        assertNotNull( indexed );
+        assertEquals( 1, indexed.length );
+        assertEquals( md.getSource(), indexed[0].getSource() );
+        OCD indexedOcd = ( OCD ) indexed[0].getObjectClassDefinitions().get( "ocd" );
+        AD indexedAd = ( AD ) indexedOcd.getAttributeDefinitions().get( "ad" );
+        assertEquals( ad.getType(), indexedAd.getType() );
+        assertEquals( "5", indexedAd.getDefaultValue()[0] );
+
+        // not used once the bundle is modified
+        lastModified++;
+        assertNull( index.getMetaData( bundle ) );
+    }
+
+
+    public void testResources() throws Exception
+    {
+        MetaTypeIndex index = new MetaTypeIndex( directory );
+        Bundle bundle = createBundle( 5 );
+        assertNull( index.getResources( bundle ) );
+
+        Properties props = new Properties();
+        props.setProperty( "key", "value" );
+        Map resources = new HashMap();
+        resources.put( "l10n.properties", props );
+        resources.put( "l10n_de.properties", new Properties() );
+        index.putResources( bundle, resources );
+
+        Map indexed = index.getResources( bundle );
+        assertEquals( "value", ( ( Properties ) indexed.get( "l10n.properties" ) ).getProperty( "key" ) );
+        assertTrue( ( ( Properties ) indexed.get( "l10n_de.properties" ) ).isEmpty() );
+
+        index.remove( bundle.getBundleId() );
+        assertNull( index.getResources( bundle ) );
+    }
+
+
+    public void testFragments() throws Exception
+    {
+        MetaTypeIndex index = new MetaTypeIndex( directory );
+        Bundle bundle = createBundle( 5 );
+        index.putResources( bundle, new HashMap() );
+        assertNotNull( index.getResources( bundle ) );
+
+        // not used once a fragment is attached
+        fragment = createBundle( FRAGMENT_ID );
+        assertNull( index.getResources( bundle ) );
+
+        index.putResources( bundle, new HashMap() );
+        assertNotNull( index.getResources( bundle ) );
+
+        // nor once the fragment is modified
+        fragmentLastModified++;
+        assertNull( index.getResources( bundle ) );
+    }
+
+
+    private Bundle createBundle( final long bundleId )
+    {
+        return ( Bundle ) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]
+            { Bundle.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if ( "getBundleId".equals( method.getName() ) )
+                {
+                    return bundleId;
+                }
+                if ( "getLastModified".equals( method.getName() ) )
+                {
+                    return bundleId == FRAGMENT_ID ? fragmentLastModified : lastModified;
+                }
+                if ( "getLocation".equals( method.getName() ) )
+                {
+                    return "test";
+                }
+                if ( "adapt".equals( method.getName() ) && args[0] == BundleWiring.class && fragment != null
+                    && bundleId != FRAGMENT_ID )
+                {
+                    return createWiring( fragment );
+                }
+                return null;
+            }
+        } );
+    }
+
+
+    private static BundleWiring createWiring( final Bundle fragment )
+    {
+        final BundleRevision revision = ( BundleRevision ) createProxy( BundleRevision.class, "getBundle", fragment );
+        final BundleWire wire = ( BundleWire ) createProxy( BundleWire.class, "getRequirer", revision );
+        return ( BundleWiring ) createProxy( BundleWiring.class, "getProvidedWires",
+            Collections.singletonList( wire ) );
+    }
+
+
+    private static Object createProxy( final Class type, final String methodName, final Object result )
+    {
+        return Proxy.newProxyInstance( MetaTypeIndexTest.class.getClassLoader(), new Class[]
+            { type }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                return methodName.equals( method.getName() ) ? result : null;
+            }
+        } );
+    }
+}
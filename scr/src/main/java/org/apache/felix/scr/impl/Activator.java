@@ -91,6 +91,9 @@ public class Activator extends AbstractExtender
     //  thread acting upon configurations
     private ComponentActorThread m_componentActor;
 
+    // pool enabling independent components concurrently, null if disabled
+    private ComponentActivationScheduler m_activationScheduler;
+
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
     private ComponentCommands m_componentCommands;
@@ -193,9 +196,17 @@ public class Activator extends AbstractExtender
         t.setDaemon( true );
         t.start();
 
+        // create the optional concurrent activation scheduler
+        if ( m_configuration.activationParallelism() > 1 )
+        {
+            m_activationScheduler = new ComponentActivationScheduler( this.logger,
+                m_configuration.activationParallelism() );
+        }
+
         super.doStart();
 
-        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration);
+        m_componentCommands = new ComponentCommands(m_context, runtime, m_configuration,
+            m_componentRegistry.getActivationStatistics());
         m_componentCommands.register();
         m_componentCommands.updateProvideScrInfoService(m_configuration.infoAsService());
         m_configuration.setScrCommand(m_componentCommands);
@@ -377,6 +388,13 @@ public class Activator extends AbstractExtender
             m_componentActor = null;
         }
 
+        // terminate the activation scheduler
+        if ( m_activationScheduler != null )
+        {
+            m_activationScheduler.terminate();
+            m_activationScheduler = null;
+        }
+
         // close the LogService tracker now
         if ( logger != null )
         {
@@ -549,6 +567,7 @@ public class Activator extends AbstractExtender
         try
         {
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
+                m_activationScheduler,
                 context, m_configuration, cached);
             ga.initialEnable();
             if (cached == null)
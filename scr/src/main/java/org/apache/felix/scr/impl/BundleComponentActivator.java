@@ -83,6 +83,9 @@ public class BundleComponentActivator implements ComponentActivator
     // thread acting upon configurations
     private final ComponentActorThread m_componentActor;
 
+    // pool enabling independent components concurrently, null if disabled
+    private final ComponentActivationScheduler m_activationScheduler;
+
     // true as long as the dispose method is not called
     private final AtomicBoolean m_active = new AtomicBoolean( true );
     private final CountDownLatch m_closeLatch = new CountDownLatch( 1 );
@@ -243,6 +246,7 @@ public class BundleComponentActivator implements ComponentActivator
     public BundleComponentActivator(final ScrLogger scrLogger,
             final ComponentRegistry componentRegistry,
             final ComponentActorThread componentActor,
+            final ComponentActivationScheduler activationScheduler,
             final BundleContext context,
             final ScrConfiguration configuration,
             final List<ComponentMetadata> cachedComponentMetadata)
@@ -253,6 +257,7 @@ public class BundleComponentActivator implements ComponentActivator
         // keep the parameters for later
         m_componentRegistry = componentRegistry;
         m_componentActor = componentActor;
+        m_activationScheduler = activationScheduler;
         m_context = context;
         m_bundle = context.getBundle();
 
@@ -337,7 +342,31 @@ public class BundleComponentActivator implements ComponentActivator
     void initialEnable()
     {
         //enable all the enabled components
-        for ( ComponentHolder<?> componentHolder : m_holders )
+        if ( m_activationScheduler != null && m_holders.size() > 1 )
+        {
+            final List<List<ComponentHolder<?>>> groups = ComponentActivationScheduler.partition( m_holders );
+            if ( groups.size() > 1 )
+            {
+                logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : Enabling {0} independent component groups concurrently", null,
+                    groups.size() );
+
+                m_activationScheduler.enable( groups, new ComponentActivationScheduler.GroupEnabler()
+                {
+                    @Override
+                    public void enable( final List<ComponentHolder<?>> group )
+                    {
+                        initialEnable( group );
+                    }
+                } );
+                return;
+            }
+        }
+        initialEnable( m_holders );
+    }
+
+    private void initialEnable( final List<ComponentHolder<?>> holders )
+    {
+        for ( ComponentHolder<?> componentHolder : holders )
         {
             logger.log( LogService.LOG_DEBUG, "BundleComponentActivator : May enable component holder {0}", null,
                 componentHolder.getComponentMetadata().getName() );
@@ -760,6 +789,12 @@ public class BundleComponentActivator implements ComponentActivator
         m_componentRegistry.leaveCreate( serviceReference );
     }
 
+    @Override
+    public void recordActivation(String componentName, long nanos)
+    {
+        m_componentRegistry.getActivationStatistics().record( componentName, nanos );
+    }
+
     @Override
     public <T> void missingServicePresent(ServiceReference<T> serviceReference)
     {
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.apache.felix.scr.impl.manager.ComponentHolder;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>ComponentActivationScheduler</code> enables the components of a
+ * bundle concurrently on a bounded pool of threads. It is only used if the
+ * {@link org.apache.felix.scr.impl.manager.ScrConfiguration#PROP_ACTIVATION_PARALLELISM}
+ * configuration is set to a value larger than one.
+ * <p>
+ * Components are partitioned into groups such that components providing a
+ * service interface and components referencing that interface end up in the
+ * same group. Each group is enabled on a single thread in declaration order,
+ * so the ordering of the serial case is kept for dependent components, while
+ * independent groups are enabled in parallel. State changes of the individual
+ * component managers are still guarded by their own state locks.
+ */
+class ComponentActivationScheduler
+{
+
+    private final ScrLogger logger;
+
+    private final ThreadPoolExecutor executor;
+
+
+    ComponentActivationScheduler( final ScrLogger log, final int parallelism )
+    {
+        logger = log;
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        executor = new ThreadPoolExecutor( parallelism, parallelism, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( final Runnable r )
+                {
+                    final Thread t = new Thread( r, "SCR Component Activator-" + threadCounter.incrementAndGet() );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Enables the given groups of component holders and waits for all of them
+     * to be processed. If the scheduler has already been terminated, the
+     * groups are enabled on the calling thread.
+     */
+    void enable( final List<List<ComponentHolder<?>>> groups, final GroupEnabler enabler )
+    {
+        final List<Future<?>> futures = new ArrayList<>( groups.size() );
+        for ( final List<ComponentHolder<?>> group : groups )
+        {
+            final Runnable task = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    enabler.enable( group );
+                }
+
+
+                @Override
+                public String toString()
+                {
+                    return "Enable component group of " + group.size();
+                }
+            };
+
+            try
+            {
+                futures.add( executor.submit( task ) );
+            }
+            catch ( final RejectedExecutionException ree )
+            {
+                task.run();
+            }
+        }
+
+        boolean interrupted = false;
+        for ( final Future<?> future : futures )
+        {
+            for ( ;; )
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch ( final InterruptedException ie )
+                {
+                    interrupted = true;
+                }
+                catch ( final ExecutionException ee )
+                {
+                    logger.log( LogService.LOG_ERROR, "Unexpected problem enabling components", ee.getCause() );
+                    break;
+                }
+            }
+        }
+        if ( interrupted )
+        {
+            // restore interrupt status
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    void terminate()
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * Partitions the component holders into groups of components which may
+     * depend on each other through the services they provide and reference.
+     * The order of the holders within a group as well as the order of the
+     * groups follow the declaration order.
+     */
+    static List<List<ComponentHolder<?>>> partition( final List<ComponentHolder<?>> holders )
+    {
+        final int[] parent = new int[holders.size()];
+        for ( int i = 0; i < parent.length; i++ )
+        {
+            parent[i] = i;
+        }
+
+        // union all components sharing a service interface name, either by
+        // providing or by referencing it
+        final Map<String, Integer> interfaceOwner = new HashMap<>();
+        for ( int i = 0; i < holders.size(); i++ )
+        {
+            final ComponentMetadata metadata = holders.get( i ).getComponentMetadata();
+            final ServiceMetadata serviceMetadata = metadata.getServiceMetadata();
+            if ( serviceMetadata != null && serviceMetadata.getProvides() != null )
+            {
+                for ( final String provided : serviceMetadata.getProvides() )
+                {
+                    union( parent, interfaceOwner, provided, i );
+                }
+            }
+            for ( final ReferenceMetadata reference : metadata.getDependencies() )
+            {
+                union( parent, interfaceOwner, reference.getInterface(), i );
+            }
+        }
+
+        final Map<Integer, List<ComponentHolder<?>>> groups = new LinkedHashMap<>();
+        for ( int i = 0; i < holders.size(); i++ )
+        {
+            final int root = find( parent, i );
+            List<ComponentHolder<?>> group = groups.get( root );
+            if ( group == null )
+            {
+                group = new ArrayList<>();
+                groups.put( root, group );
+            }
+            group.add( holders.get( i ) );
+        }
+        return new ArrayList<>( groups.values() );
+    }
+
+
+    private static void union( final int[] parent, final Map<String, Integer> interfaceOwner, final String name,
+        final int index )
+    {
+        if ( name == null )
+        {
+            return;
+        }
+        final Integer owner = interfaceOwner.get( name );
+        if ( owner == null )
+        {
+            interfaceOwner.put( name, index );
+        }
+        else
+        {
+            final int a = find( parent, owner );
+            final int b = find( parent, index );
+            // keep the lowest index as root to preserve declaration order
+            if ( a < b )
+            {
+                parent[b] = a;
+            }
+            else if ( b < a )
+            {
+                parent[a] = b;
+            }
+        }
+    }
+
+
+    private static int find( final int[] parent, int i )
+    {
+        while ( parent[i] != i )
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Callback used to enable one group of component holders.
+     */
+    interface GroupEnabler
+    {
+        void enable( List<ComponentHolder<?>> group );
+    }
+}
@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import org.apache.felix.scr.impl.manager.ActivationStatistics;
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.info.ScrInfo;
 import org.apache.felix.service.command.Converter;
@@ -70,6 +71,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
     private final BundleContext context;
     private final ServiceComponentRuntime scr;
     private final ScrConfiguration scrConfig;
+    private final ActivationStatistics activationStatistics;
     private final ServiceTracker<Object, ServiceRegistration<?>> gogoRuntimeTracker;
 
     private final Comparator<ComponentConfigurationDTO> configDtoComparator = new Comparator<ComponentConfigurationDTO>() {
@@ -100,6 +102,7 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         svcProps = new Hashtable<>();
         svcProps.put("osgi.command.scope", "scr");
         svcProps.put("osgi.command.function", new String[] {
+                "activations",
                 "config",
                 "disable",
                 "enable",
@@ -133,10 +136,12 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         }
     }
 
-    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig) {
+    protected ComponentCommands(BundleContext context, ServiceComponentRuntime scr, ScrConfiguration scrConfig,
+            ActivationStatistics activationStatistics) {
         this.context = context;
         this.scr = scr;
         this.scrConfig = scrConfig;
+        this.activationStatistics = activationStatistics;
         this.gogoRuntimeTracker = new ServiceTracker<>(context, "org.apache.felix.service.command.CommandProcessor", this);
     }
 
@@ -234,12 +239,25 @@ public class ComponentCommands implements ServiceTrackerCustomizer<Object, Servi
         out.put("Stop timeout ms", Long.toString(scrConfig.stopTimeout()));
         out.put("Global extender", Boolean.toString(scrConfig.globalExtender()));
         out.put("Info Service registered", scrConfig.infoAsService() ? "Supported" : "Unsupported");
+        out.put("Activation parallelism", Integer.toString(scrConfig.activationParallelism()));
 
         StringBuilder builder = new StringBuilder();
         printColumnsAligned("SCR Configuration", out, '=', builder);
         return builder.toString();
     }
 
+    @Descriptor("Show the activation time histograms of all components")
+    public String activations() {
+        Map<String,String> out = new LinkedHashMap<>();
+        for (Map.Entry<String, ActivationStatistics.Histogram> entry : activationStatistics.getHistograms().entrySet()) {
+            out.put(entry.getKey(), entry.getValue().toString());
+        }
+
+        StringBuilder builder = new StringBuilder();
+        printColumnsAligned("Component Activation Times", out, '=', builder);
+        return builder.toString();
+    }
+
     public Object convert(Class<?> desiredType, Object in) throws Exception {
         return null;
     }
@@ -38,6 +38,7 @@ import org.apache.felix.scr.impl.inject.ComponentMethodsImpl;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.AbstractComponentManager;
+import org.apache.felix.scr.impl.manager.ActivationStatistics;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.ConfigurableComponentHolder;
@@ -129,6 +130,8 @@ public class ComponentRegistry
 
     private final ScrConfiguration m_configuration;
 
+    private final ActivationStatistics m_activationStatistics = new ActivationStatistics();
+
     public ComponentRegistry( final ScrConfiguration scrConfiguration, final ScrLogger logger )
     {
         m_configuration = scrConfiguration;
@@ -139,6 +142,11 @@ public class ComponentRegistry
 
     }
 
+    public ActivationStatistics getActivationStatistics()
+    {
+        return m_activationStatistics;
+    }
+
     //---------- ComponentManager registration by component Id
 
     /**
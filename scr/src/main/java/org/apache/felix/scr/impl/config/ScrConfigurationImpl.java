@@ -83,6 +83,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private boolean cacheMetadata;
 
+    private int activationParallelism;
+
     private long lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
 
     private long stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
@@ -178,6 +180,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
                         cacheMetadata = false;
+                        activationParallelism = 0;
                     }
                     else
                     {
@@ -190,6 +193,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
                         cacheMetadata = getDefaultCacheMetadata();
+                        activationParallelism = getDefaultActivationParallelism();
                     }
                 }
                 else
@@ -210,6 +214,7 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
                 cacheMetadata = VALUE_TRUE.equalsIgnoreCase(
                     String.valueOf(config.get(PROP_CACHE_METADATA)));
+                activationParallelism = getActivationParallelism( config.get( PROP_ACTIVATION_PARALLELISM ) );
             }
             if ( scrCommand != null )
             {
@@ -279,6 +284,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return cacheMetadata;
     }
 
+    @Override
+    public int activationParallelism()
+    {
+        return activationParallelism;
+    }
+
     @Override
     public long serviceChangecountTimeout()
     {
@@ -348,6 +359,31 @@ public class ScrConfigurationImpl implements ScrConfiguration
             bundleContext.getProperty(PROP_CACHE_METADATA));
     }
 
+    private int getDefaultActivationParallelism()
+    {
+        return getActivationParallelism( bundleContext.getProperty( PROP_ACTIVATION_PARALLELISM ) );
+    }
+
+    private int getActivationParallelism( final Object value )
+    {
+        if ( value instanceof Number )
+        {
+            return ( ( Number ) value ).intValue();
+        }
+        if ( value != null )
+        {
+            try
+            {
+                return Integer.parseInt( value.toString().trim() );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to serial enablement
+            }
+        }
+        return 0;
+    }
+
     private int getLogLevel( final Object levelObject )
     {
         if ( levelObject != null )
@@ -117,6 +117,16 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 new String[] { String.valueOf(this.configuration.stopTimeout())},
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTIVATION_PARALLELISM,
+                "Activation parallelism",
+                "Number of threads used to enable independent components of a bundle concurrently. "
+                    + "Components sharing a service interface are always enabled on the same thread "
+                    + "in declaration order. A value of one or less enables all components serially.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.activationParallelism())},
+                0, null, null) );
+
         adList.add( new AttributeDefinitionImpl(
                 ScrConfiguration.PROP_GLOBAL_EXTENDER,
                 "Global Extender",
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.scr.impl.inject;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -34,6 +37,7 @@ import org.apache.felix.scr.impl.manager.DependencyManager;
 import org.apache.felix.scr.impl.manager.RefPair;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.service.log.LogService;
 
 /**
@@ -42,10 +46,15 @@ import org.osgi.service.log.LogService;
  */
 public class ComponentConstructor<S>
 {
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final Field[] activationFields;
     private final ValueType[] activationFieldTypes;
 
     private final Constructor<S> constructor;
+    private final MethodHandle constructorHandle;
+    private final Class<?>[] constructorParameterTypes;
+    private final String componentClassName;
     private final ValueType[] constructorArgTypes;
     private final ReferenceMetadata[] constructorRefs;
 
@@ -211,14 +220,19 @@ public class ComponentConstructor<S>
             activationFields = null;
         }
 
+        componentClassName = componentClass.getName();
         if ( constructor == null )
         {
+            constructorHandle = null;
+            constructorParameterTypes = null;
             logger.log(LogService.LOG_ERROR,
                     "Constructor with {0} arguments not found. Component will fail.", null,
                     componentMetadata.getNumberOfConstructorParameters() );
         }
         else
         {
+            constructorParameterTypes = constructor.getParameterTypes();
+            constructorHandle = toMethodHandle(constructor, logger);
             logger.log(LogService.LOG_DEBUG,
                     "Found constructor with {0} arguments : {1}", null,
                     componentMetadata.getNumberOfConstructorParameters(), found );
@@ -258,9 +272,9 @@ public class ComponentConstructor<S>
 
                 if ( refMetadata == null )
                 {
-                    args[i] = ValueUtils.getValue(constructor.getDeclaringClass().getName(),
+                    args[i] = ValueUtils.getValue(componentClassName,
                             constructorArgTypes[i],
-                            constructor.getParameterTypes()[i],
+                            constructorParameterTypes[i],
                             componentContext,
                             null);
                 }
@@ -280,9 +294,9 @@ public class ComponentConstructor<S>
                             {
                                 refPair.getServiceObject(componentContext, componentContext.getBundleContext());
                             }
-                            ref = ValueUtils.getValue(constructor.getDeclaringClass().getName(),
+                            ref = ValueUtils.getValue(componentClassName,
                                     constructorArgTypes[i],
-                                    constructor.getParameterTypes()[i],
+                                    constructorParameterTypes[i],
                                     componentContext,
                                     refPair);
                             if ( refMetadata.isMultiple() && ref != null )
@@ -306,14 +320,14 @@ public class ComponentConstructor<S>
                 }
             }
         }
-        final S component = constructor.newInstance(args);
+        final S component = instantiate(args);
 
         // activation fields
         for(int i = 0; i<activationFieldTypes.length; i++)
         {
             if ( activationFieldTypes[i] != null && activationFieldTypes[i] != ValueType.ignore )
             {
-                final Object value = ValueUtils.getValue(constructor.getDeclaringClass().getName(),
+                final Object value = ValueUtils.getValue(componentClassName,
                         activationFieldTypes[i],
                         activationFields[i].getType(),
                         componentContext,
@@ -325,6 +339,45 @@ public class ComponentConstructor<S>
         return component;
     }
 
+    @IgnoreJRERequirement
+    @SuppressWarnings("unchecked")
+    private S instantiate(final Object[] args) throws Exception
+    {
+        if ( constructorHandle == null )
+        {
+            return constructor.newInstance(args);
+        }
+        try
+        {
+            return (S) constructorHandle.invokeExact(args == null ? NO_ARGS : args);
+        }
+        catch ( final Throwable t )
+        {
+            throw MethodHandleUtils.toReflectionException(t);
+        }
+    }
+
+    /**
+     * Creates a method handle for the constructor taking a spread argument
+     * array or returns <code>null</code> if the constructor is not accessible
+     * through a method handle in which case reflection is used.
+     */
+    private static MethodHandle toMethodHandle(final Constructor<?> c, final ComponentLogger logger)
+    {
+        try
+        {
+            return MethodHandleUtils.wrapTargetExceptions(MethodHandles.lookup().unreflectConstructor(c))
+                .asSpreader(Object[].class, c.getParameterTypes().length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+        catch ( final Throwable t )
+        {
+            logger.log(LogService.LOG_DEBUG,
+                    "Cannot create method handle for constructor {0}, using reflection", t, c );
+            return null;
+        }
+    }
+
     private String getNames(final List<ReferenceMetadata> refs)
     {
         final StringBuilder sb = new StringBuilder();
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.InvocationTargetException;
+
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+
+/**
+ * Utility methods for calling component code through method handles while
+ * reporting failures like reflection does: only exceptions thrown by the
+ * component code are wrapped in an {@link InvocationTargetException}, while
+ * arguments not matching the parameter types lead to an
+ * {@link IllegalArgumentException}.
+ */
+@IgnoreJRERequirement
+public class MethodHandleUtils
+{
+
+    private static final MethodHandle THROW_TARGET_EXCEPTION;
+
+    static
+    {
+        try
+        {
+            THROW_TARGET_EXCEPTION = MethodHandles.lookup().findStatic( MethodHandleUtils.class,
+                    "throwTargetException", MethodType.methodType( Object.class, Throwable.class ) );
+        }
+        catch ( final ReflectiveOperationException e )
+        {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    private MethodHandleUtils()
+    {
+    }
+
+    /**
+     * Returns a handle calling the target and wrapping any exception thrown
+     * by it in an {@link InvocationTargetException}. Adaptations applied to
+     * the returned handle, like {@code asSpreader} or {@code asType}, happen
+     * outside of it, so their failures are not taken for exceptions of the
+     * target.
+     * @param target The handle of the component code
+     * @return The wrapping handle
+     */
+    public static MethodHandle wrapTargetExceptions( final MethodHandle target )
+    {
+        final MethodType type = target.type();
+        final MethodHandle handler = MethodHandles.dropArguments(
+                THROW_TARGET_EXCEPTION.asType( MethodType.methodType( type.returnType(), Throwable.class ) ),
+                1, type.parameterList() );
+        return MethodHandles.catchException( target, Throwable.class, handler );
+    }
+
+    /**
+     * Translates a failure of invoking a handle created by
+     * {@link #wrapTargetExceptions(MethodHandle)} into what reflection
+     * reports.
+     * @param t The failure
+     * @return The exception to throw for failures not caused by the target
+     * @throws InvocationTargetException If the target has thrown an exception
+     */
+    public static RuntimeException toReflectionException( final Throwable t ) throws InvocationTargetException
+    {
+        if ( t instanceof InvocationTargetException )
+        {
+            throw (InvocationTargetException) t;
+        }
+        if ( t instanceof ClassCastException || t instanceof WrongMethodTypeException )
+        {
+            // the arguments do not match the parameters of the target
+            return new IllegalArgumentException( t.getMessage(), t );
+        }
+        if ( t instanceof RuntimeException )
+        {
+            return (RuntimeException) t;
+        }
+        if ( t instanceof Error )
+        {
+            throw (Error) t;
+        }
+        // not thrown by a handle of a method not declaring it
+        return new IllegalStateException( t );
+    }
+
+    private static Object throwTargetException( final Throwable t ) throws InvocationTargetException
+    {
+        throw new InvocationTargetException( t );
+    }
+}
@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.inject.field;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -31,6 +34,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import org.apache.felix.scr.impl.inject.BindParameters;
 import org.apache.felix.scr.impl.inject.ClassUtils;
 import org.apache.felix.scr.impl.inject.InitReferenceMethod;
+import org.apache.felix.scr.impl.inject.MethodHandleUtils;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.ReferenceMethod;
 import org.apache.felix.scr.impl.inject.ValueUtils;
@@ -40,6 +44,7 @@ import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.manager.ComponentContextImpl;
 import org.apache.felix.scr.impl.manager.RefPair;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.log.LogService;
 
@@ -57,6 +62,11 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Method handles to set and get the field, null if reflection is used. */
+    private volatile MethodHandle fieldSetter;
+
+    private volatile MethodHandle fieldGetter;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -293,9 +303,24 @@ public class FieldHandler
         return MethodResult.VOID;
     }
 
+    @IgnoreJRERequirement
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
+        final MethodHandle setter = fieldSetter;
+        if ( setter != null )
+        {
+            try
+            {
+                setter.invokeExact(componentInstance, value);
+            }
+            catch ( final Throwable t )
+            {
+                // as with reflection, a value not matching the field type is reported wrapped
+                throw new InvocationTargetException(MethodHandleUtils.toReflectionException(t));
+            }
+            return;
+        }
         try
         {
             field.set(componentInstance, value);
@@ -310,9 +335,22 @@ public class FieldHandler
         }
     }
 
+    @IgnoreJRERequirement
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
+        final MethodHandle getter = fieldGetter;
+        if ( getter != null )
+        {
+            try
+            {
+                return getter.invokeExact(componentInstance);
+            }
+            catch ( final Throwable t )
+            {
+                throw new InvocationTargetException(MethodHandleUtils.toReflectionException(t));
+            }
+        }
         try
         {
             return field.get(componentInstance);
@@ -439,6 +477,8 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            fieldSetter = null;
+            fieldGetter = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -448,6 +488,8 @@ public class FieldHandler
         else
         {
             field = result.field;
+            fieldSetter = toSetter(result.field);
+            fieldGetter = toGetter(result.field);
             if (!result.usable)
             {
                 valueType = ValueType.ignore;
@@ -463,6 +505,36 @@ public class FieldHandler
         }
     }
 
+    /**
+     * Creates a setter handle for the (already accessible) field or returns
+     * <code>null</code> to use reflection, for example for final fields.
+     */
+    private static MethodHandle toSetter(final Field f)
+    {
+        try
+        {
+            return MethodHandles.lookup().unreflectSetter(f)
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+        catch ( final Throwable t )
+        {
+            return null;
+        }
+    }
+
+    private static MethodHandle toGetter(final Field f)
+    {
+        try
+        {
+            return MethodHandles.lookup().unreflectGetter(f)
+                .asType(MethodType.methodType(Object.class, Object.class));
+        }
+        catch ( final Throwable t )
+        {
+            return null;
+        }
+    }
+
     public static final class ReferenceMethodImpl
         implements ReferenceMethod
     {
@@ -256,7 +256,11 @@ public class ActivateMethod extends BaseMethod<ActivatorParameter, Object> imple
     @Override
     protected Object[] getParameters( Method method, ActivatorParameter rawParameter )
     {
-        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Class<?>[] parameterTypes = getParameterTypes();
+        if ( parameterTypes.length == 0 )
+        {
+            return NO_PARAMETERS;
+        }
         final ActivatorParameter ap = rawParameter;
         final Object[] param = new Object[parameterTypes.length];
         for ( int i = 0; i < param.length; i++ )
@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -29,9 +32,11 @@ import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.BaseParameter;
 import org.apache.felix.scr.impl.inject.ClassUtils;
+import org.apache.felix.scr.impl.inject.MethodHandleUtils;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 import org.osgi.service.log.LogService;
 
 
@@ -41,6 +46,17 @@ import org.osgi.service.log.LogService;
 public abstract class BaseMethod<P extends BaseParameter, T>
 {
 
+    /**
+     * Shared parameter array for methods not taking any parameter.
+     */
+    protected static final Object[] NO_PARAMETERS = new Object[0];
+
+    /**
+     * Type all method handles are adapted to: the component instance and
+     * the spread parameter array returning the (possibly null) result.
+     */
+    private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class, Object[].class );
+
     private final DSVersion dsVersion;
     private final boolean configurableServiceProperties;
 
@@ -49,6 +65,11 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    // resolved once per component class together with m_method
+    private volatile MethodHandle m_methodHandle;
+
+    private volatile Class<?>[] m_parameterTypes;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -96,6 +117,15 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return m_method;
     }
 
+    /**
+     * Returns the parameter types of the resolved method. The returned array
+     * is cached and must not be modified.
+     */
+    protected final Class<?>[] getParameterTypes()
+    {
+        return m_parameterTypes;
+    }
+
     protected final Class<?> getComponentClass()
     {
         return m_componentClass;
@@ -109,6 +139,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
         if (m_method != null)
         {
+            m_parameterTypes = m_method.getParameterTypes();
+            m_methodHandle = toMethodHandle( m_method, logger );
             setTypes(methodInfo.getTypes());
             m_state = Resolved.INSTANCE;
             logger.log( LogService.LOG_DEBUG, "Found {0} method: {1}", null,
@@ -131,6 +163,29 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     }
 
 
+    /**
+     * Creates a method handle for the (already accessible) method taking the
+     * component instance and a spread parameter array. Returns
+     * <code>null</code> if no handle can be created in which case the method
+     * is called through reflection.
+     */
+    private MethodHandle toMethodHandle( final Method method, final ComponentLogger logger )
+    {
+        try
+        {
+            return MethodHandleUtils.wrapTargetExceptions( MethodHandles.lookup().unreflect( method ) )
+                .asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( INVOKER_TYPE );
+        }
+        catch ( final Throwable t )
+        {
+            logger.log( LogService.LOG_DEBUG, "Cannot create method handle for {0}: {1}, using reflection", t,
+                    getMethodNamePrefix(), method );
+            return null;
+        }
+    }
+
+
     State getState()
     {
         return m_state;
@@ -239,7 +294,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                     logger.log(LogService.LOG_DEBUG, "invoking {0}: {1}: parameters {2}", null, getMethodNamePrefix(),
                             getMethodName(), Arrays.asList(getParametersForLogging(params)));
                 }
-                final Object result = m_method.invoke(componentInstance, params);
+                final Object result = invokeHandle(componentInstance, params);
                 logger.log(LogService.LOG_DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
                 return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map<String, Object>) result);
@@ -277,6 +332,25 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return MethodResult.VOID;
     }
 
+    @IgnoreJRERequirement
+    private Object invokeHandle( final Object componentInstance, final Object[] params )
+            throws IllegalAccessException, InvocationTargetException
+    {
+        final MethodHandle handle = m_methodHandle;
+        if ( handle == null )
+        {
+            return m_method.invoke( componentInstance, params );
+        }
+        try
+        {
+            return handle.invokeExact( componentInstance, params );
+        }
+        catch ( final Throwable t )
+        {
+            throw MethodHandleUtils.toReflectionException( t );
+        }
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
@@ -670,13 +670,15 @@ implements org.apache.felix.scr.impl.inject.ReferenceMethod
     @Override
     protected Object[] getParameters( Method method, BindParameters bp )
     {
-        ComponentContextImpl<?> key = bp.getComponentContext();
-        Object[] result = new Object[ m_paramTypes.size()];
-        RefPair<?, ?> refPair = bp.getRefPair();
+        final Class<?>[] parameterTypes = getParameterTypes();
+        final ComponentContextImpl<?> key = bp.getComponentContext();
+        final Object[] result = new Object[ m_paramTypes.size()];
+        final RefPair<?, ?> refPair = bp.getRefPair();
+        final String componentClassName = getComponentClass().getName();
         int i = 0;
         for ( ValueUtils.ValueType pt: m_paramTypes )
         {
-            result[i] = ValueUtils.getValue(getComponentClass().getName(), pt, method.getParameterTypes()[i], key, refPair);
+            result[i] = ValueUtils.getValue(componentClassName, pt, parameterTypes[i], key, refPair);
             i++;
         }
         return result;
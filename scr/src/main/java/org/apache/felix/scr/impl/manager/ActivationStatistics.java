@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * The <code>ActivationStatistics</code> class collects per component
+ * histograms of the time spent creating, binding and activating component
+ * instances. Recording is lock free so it may be called from any thread
+ * activating a component.
+ */
+public class ActivationStatistics
+{
+
+    private final ConcurrentMap<String, Histogram> m_histograms = new ConcurrentHashMap<>();
+
+
+    /**
+     * Records a single activation of the named component.
+     *
+     * @param componentName the name of the component activated
+     * @param nanos the time taken by the activation in nanoseconds
+     */
+    public void record( final String componentName, final long nanos )
+    {
+        Histogram histogram = m_histograms.get( componentName );
+        if ( histogram == null )
+        {
+            final Histogram newHistogram = new Histogram();
+            histogram = m_histograms.putIfAbsent( componentName, newHistogram );
+            if ( histogram == null )
+            {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record( nanos );
+    }
+
+
+    /**
+     * Returns a snapshot of the histograms sorted by component name.
+     */
+    public Map<String, Histogram> getHistograms()
+    {
+        return new TreeMap<>( m_histograms );
+    }
+
+
+    public void clear()
+    {
+        m_histograms.clear();
+    }
+
+
+    /**
+     * Histogram of activation times with power-of-two microsecond buckets.
+     * Bucket <code>i</code> counts activations taking less than
+     * <code>2^i</code> microseconds (and at least <code>2^(i-1)</code>),
+     * the last bucket counts everything longer.
+     */
+    public static final class Histogram
+    {
+
+        public static final int BUCKETS = 24;
+
+        private final AtomicLongArray m_buckets = new AtomicLongArray( BUCKETS );
+
+        private final AtomicLong m_count = new AtomicLong();
+
+        private final AtomicLong m_totalNanos = new AtomicLong();
+
+        private final AtomicLong m_maxNanos = new AtomicLong();
+
+
+        void record( final long nanos )
+        {
+            final long micros = Math.max( 0, nanos / 1000 );
+            final int bucket = Math.min( BUCKETS - 1, 64 - Long.numberOfLeadingZeros( micros ) );
+            m_buckets.incrementAndGet( bucket );
+            m_count.incrementAndGet();
+            m_totalNanos.addAndGet( nanos );
+
+            long max = m_maxNanos.get();
+            while ( nanos > max && !m_maxNanos.compareAndSet( max, nanos ) )
+            {
+                max = m_maxNanos.get();
+            }
+        }
+
+
+        public long getCount()
+        {
+            return m_count.get();
+        }
+
+
+        public long getTotalNanos()
+        {
+            return m_totalNanos.get();
+        }
+
+
+        public long getMaxNanos()
+        {
+            return m_maxNanos.get();
+        }
+
+
+        public long getBucket( final int bucket )
+        {
+            return m_buckets.get( bucket );
+        }
+
+
+        /**
+         * Returns the exclusive upper bound of the given bucket in
+         * microseconds or <code>-1</code> for the unbounded last bucket.
+         */
+        public static long getBucketLimitMicros( final int bucket )
+        {
+            return bucket == BUCKETS - 1 ? -1 : 1L << bucket;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            final long count = getCount();
+            final StringBuilder b = new StringBuilder();
+            b.append( "count=" ).append( count );
+            b.append( ", avg=" ).append( count == 0 ? 0 : getTotalNanos() / count / 1000 ).append( "us" );
+            b.append( ", max=" ).append( getMaxNanos() / 1000 ).append( "us" );
+            b.append( ", buckets=[" );
+            boolean first = true;
+            for ( int i = 0; i < BUCKETS; i++ )
+            {
+                final long value = getBucket( i );
+                if ( value > 0 )
+                {
+                    if ( !first )
+                    {
+                        b.append( ", " );
+                    }
+                    first = false;
+                    final long limit = getBucketLimitMicros( i );
+                    b.append( limit < 0 ? ">=" + ( 1L << ( i - 1 ) ) : "<" + limit ).append( "us:" ).append( value );
+                }
+            }
+            return b.append( ']' ).toString();
+        }
+    }
+}
@@ -47,6 +47,9 @@ public interface ComponentActivator extends ExtendedServiceListenerContext<Exten
     <S, T> void registerMissingDependency(DependencyManager<S, T> dependencyManager,
                                               ServiceReference<T> serviceReference, int trackingCount);
 
+    /** Record the time taken to create and activate an instance of the named component. */
+    void recordActivation(String componentName, long nanos);
+
     <T> void missingServicePresent(ServiceReference<T> serviceReference);
 
     void enableComponent(String name);
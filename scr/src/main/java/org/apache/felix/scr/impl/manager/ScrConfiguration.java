@@ -70,6 +70,8 @@ public interface ScrConfiguration
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
 
+    String PROP_ACTIVATION_PARALLELISM = "ds.activation.parallelism";
+
     /**
      * Returns the current log level.
      * @return
@@ -101,4 +103,11 @@ public interface ScrConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads used to enable independent components
+     * of a bundle concurrently. A value of one or less disables concurrent
+     * enablement.
+     */
+    int activationParallelism();
+
 }
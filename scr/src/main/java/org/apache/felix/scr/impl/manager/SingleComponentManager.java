@@ -224,6 +224,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
     @SuppressWarnings("unchecked")
     protected S createImplementationObject( Bundle usingBundle, SetImplementationObject<S> setter, ComponentContextImpl<S> componentContext )
     {
+        final long start = System.nanoTime();
         S implementationObject = null;
 
         // 1. Load the component implementation class
@@ -384,6 +385,8 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
                 return null;
             }
 
+            m_container.getActivator().recordActivation( getComponentMetadata().getName(), System.nanoTime() - start );
+
             //this may cause a getService as properties now match a filter.
             setServiceProperties( result, null );
         }
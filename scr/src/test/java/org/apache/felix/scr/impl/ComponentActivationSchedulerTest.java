@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.ComponentHolder;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.mockito.Mockito;
+
+import junit.framework.TestCase;
+
+public class ComponentActivationSchedulerTest extends TestCase
+{
+
+    public void test_partition_independent()
+    {
+        final ComponentHolder<?> a = holder( "a", new String[] { "A" } );
+        final ComponentHolder<?> b = holder( "b", new String[] { "B" } );
+        final ComponentHolder<?> c = holder( "c", null );
+
+        final List<List<ComponentHolder<?>>> groups = ComponentActivationScheduler.partition( list( a, b, c ) );
+        assertEquals( 3, groups.size() );
+        assertEquals( Collections.singletonList( a ), groups.get( 0 ) );
+        assertEquals( Collections.singletonList( b ), groups.get( 1 ) );
+        assertEquals( Collections.singletonList( c ), groups.get( 2 ) );
+    }
+
+    public void test_partition_dependent_keeps_declaration_order()
+    {
+        final ComponentHolder<?> a = holder( "a", null, "B" );
+        final ComponentHolder<?> x = holder( "x", new String[] { "X" } );
+        final ComponentHolder<?> b = holder( "b", new String[] { "B" }, "C" );
+        final ComponentHolder<?> c = holder( "c", new String[] { "C" } );
+
+        final List<List<ComponentHolder<?>>> groups = ComponentActivationScheduler.partition( list( a, x, b, c ) );
+        assertEquals( 2, groups.size() );
+        assertEquals( Arrays.asList( a, b, c ), groups.get( 0 ) );
+        assertEquals( Collections.singletonList( x ), groups.get( 1 ) );
+    }
+
+    public void test_enable_runs_all_groups()
+    {
+        final ComponentHolder<?> a = holder( "a", new String[] { "A" } );
+        final ComponentHolder<?> b = holder( "b", new String[] { "B" } );
+        final List<ComponentHolder<?>> enabled = Collections.synchronizedList( new ArrayList<ComponentHolder<?>>() );
+
+        final ComponentActivationScheduler scheduler = new ComponentActivationScheduler( new MockScrLogger(), 2 );
+        try
+        {
+            scheduler.enable( ComponentActivationScheduler.partition( list( a, b ) ),
+                new ComponentActivationScheduler.GroupEnabler()
+                {
+                    @Override
+                    public void enable( List<ComponentHolder<?>> group )
+                    {
+                        enabled.addAll( group );
+                    }
+                } );
+        }
+        finally
+        {
+            scheduler.terminate();
+        }
+
+        assertEquals( 2, enabled.size() );
+        assertTrue( enabled.contains( a ) );
+        assertTrue( enabled.contains( b ) );
+    }
+
+    private static List<ComponentHolder<?>> list( ComponentHolder<?>... holders )
+    {
+        return Arrays.asList( holders );
+    }
+
+    private static ComponentHolder<?> holder( final String name, final String[] provides, final String... references )
+    {
+        final ComponentMetadata metadata = new ComponentMetadata( DSVersion.DS13 );
+        metadata.setName( name );
+        if ( provides != null )
+        {
+            final ServiceMetadata service = new ServiceMetadata();
+            for ( String provide : provides )
+            {
+                service.addProvide( provide );
+            }
+            metadata.setService( service );
+        }
+        for ( String reference : references )
+        {
+            final ReferenceMetadata rm = new ReferenceMetadata();
+            rm.setName( reference );
+            rm.setInterface( reference );
+            metadata.addDependency( rm );
+        }
+
+        final ComponentHolder<?> holder = Mockito.mock( ComponentHolder.class );
+        Mockito.doReturn( metadata ).when( holder ).getComponentMetadata();
+        return holder;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+
+/**
+ * Compares calling component methods and setting reference fields through
+ * reflection with the method handles SCR uses, created like in BaseMethod
+ * and FieldHandler. This is not run as part of the build, run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.apache.felix.scr.impl.inject.InvocationBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class InvocationBenchmark
+{
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class, Object[].class );
+
+    /** Keeps the results alive. */
+    static volatile Object sink;
+
+
+    public static class Component
+    {
+        private Object service;
+
+        private int count;
+
+
+        protected void activate()
+        {
+            count++;
+        }
+
+
+        protected void bind( final Object service )
+        {
+            this.service = service;
+        }
+    }
+
+
+    public static void main( final String[] args ) throws Throwable
+    {
+        final int iterations = args.length > 0 ? Integer.parseInt( args[0] ) : 10000000;
+
+        final Method activate = Component.class.getDeclaredMethod( "activate" );
+        final Method bind = Component.class.getDeclaredMethod( "bind", Object.class );
+        final Field field = Component.class.getDeclaredField( "service" );
+        activate.setAccessible( true );
+        bind.setAccessible( true );
+        field.setAccessible( true );
+
+        final MethodHandle activateHandle = toHandle( activate );
+        final MethodHandle bindHandle = toHandle( bind );
+        final MethodHandle setter = MethodHandles.lookup().unreflectSetter( field )
+                .asType( MethodType.methodType( void.class, Object.class, Object.class ) );
+
+        final Component component = new Component();
+        final Object service = new Object();
+        final Object[] noArgs = new Object[0];
+
+        System.out.println( String.format( "%-24s %12s %12s", "call", "reflection", "handle" ) );
+        for ( int round = 0; round < 2; round++ )
+        {
+            // the first round warms up
+            final boolean print = round > 0;
+
+            long start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                sink = activate.invoke( component, noArgs );
+            }
+            final long activateReflection = System.nanoTime() - start;
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                sink = activateHandle.invokeExact( ( Object ) component, noArgs );
+            }
+            final long activateMethodHandle = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                sink = bind.invoke( component, new Object[] { service } );
+            }
+            final long bindReflection = System.nanoTime() - start;
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                sink = bindHandle.invokeExact( ( Object ) component, new Object[] { service } );
+            }
+            final long bindMethodHandle = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                field.set( component, service );
+            }
+            final long fieldReflection = System.nanoTime() - start;
+            start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ )
+            {
+                setter.invokeExact( ( Object ) component, service );
+            }
+            final long fieldMethodHandle = System.nanoTime() - start;
+
+            if ( print )
+            {
+                print( "activate()", activateReflection, activateMethodHandle, iterations );
+                print( "bind(Object)", bindReflection, bindMethodHandle, iterations );
+                print( "field", fieldReflection, fieldMethodHandle, iterations );
+            }
+        }
+    }
+
+
+    private static MethodHandle toHandle( final Method method ) throws IllegalAccessException
+    {
+        return MethodHandleUtils.wrapTargetExceptions( MethodHandles.lookup().unreflect( method ) )
+                .asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( INVOKER_TYPE );
+    }
+
+
+    private static void print( final String name, final long reflection, final long handle, final int iterations )
+    {
+        System.out.println( String.format( "%-24s %12.1f %12.1f", name + " [ns]", ( double ) reflection / iterations,
+                ( double ) handle / iterations ) );
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+
+import junit.framework.TestCase;
+
+
+public class MethodHandleUtilsTest extends TestCase
+{
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType( Object.class, Object.class, Object[].class );
+
+    private static final RuntimeException FAILURE = new IllegalStateException( "failure" );
+
+
+    public static class Component
+    {
+        public Component( final String value )
+        {
+            if ( "fail".equals( value ) )
+            {
+                throw FAILURE;
+            }
+        }
+
+        public String echo( final String value )
+        {
+            return value;
+        }
+
+        public void fail( final String value )
+        {
+            throw FAILURE;
+        }
+
+        public void error()
+        {
+            throw new AssertionError( "error" );
+        }
+
+        public void castFailure()
+        {
+            // a ClassCastException thrown by the component itself
+            final Object o = "string";
+            ( ( Integer ) o ).intValue();
+        }
+    }
+
+
+    public void test_result() throws Throwable
+    {
+        assertEquals( "value", invoke( "echo", new Object[] { "value" } ) );
+    }
+
+
+    public void test_target_exception() throws Throwable
+    {
+        try
+        {
+            invoke( "fail", new Object[] { "value" } );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( final InvocationTargetException ite )
+        {
+            assertSame( FAILURE, ite.getCause() );
+        }
+    }
+
+
+    public void test_target_error() throws Throwable
+    {
+        try
+        {
+            invoke( "error", new Object[0] );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( final InvocationTargetException ite )
+        {
+            assertTrue( ite.getCause() instanceof AssertionError );
+        }
+    }
+
+
+    public void test_target_class_cast_exception() throws Throwable
+    {
+        try
+        {
+            invoke( "castFailure", new Object[0] );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( final InvocationTargetException ite )
+        {
+            assertTrue( ite.getCause() instanceof ClassCastException );
+        }
+    }
+
+
+    public void test_argument_type_mismatch() throws Throwable
+    {
+        try
+        {
+            invoke( "echo", new Object[] { Integer.valueOf( 1 ) } );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            assertTrue( iae.getCause() instanceof ClassCastException );
+        }
+    }
+
+
+    public void test_argument_count_mismatch() throws Throwable
+    {
+        try
+        {
+            invoke( "echo", new Object[0] );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            // expected, not reported as an exception of the component
+        }
+    }
+
+
+    public void test_instance_type_mismatch() throws Throwable
+    {
+        final MethodHandle handle = toHandle( "echo" );
+        try
+        {
+            invoke( handle, "not a component", new Object[] { "value" } );
+            fail( "Expected IllegalArgumentException" );
+        }
+        catch ( final IllegalArgumentException iae )
+        {
+            assertTrue( iae.getCause() instanceof ClassCastException );
+        }
+    }
+
+
+    public void test_constructor() throws Throwable
+    {
+        final MethodHandle handle = MethodHandleUtils.wrapTargetExceptions(
+                MethodHandles.lookup().unreflectConstructor( Component.class.getConstructor( String.class ) ) )
+                .asSpreader( Object[].class, 1 )
+                .asType( MethodType.methodType( Object.class, Object[].class ) );
+        try
+        {
+            final Object component = handle.invokeExact( new Object[] { "value" } );
+            assertTrue( component instanceof Component );
+            final Object failed = handle.invokeExact( new Object[] { "fail" } );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( final Throwable t )
+        {
+            try
+            {
+                throw MethodHandleUtils.toReflectionException( t );
+            }
+            catch ( final InvocationTargetException ite )
+            {
+                assertSame( FAILURE, ite.getCause() );
+            }
+        }
+    }
+
+
+    public void test_call_site_type_mismatch() throws Throwable
+    {
+        final MethodHandle handle = toHandle( "echo" );
+        try
+        {
+            // the call site does not use the result, so its type is not the one of the handle
+            handle.invokeExact( ( Object ) new Component( null ), new Object[] { "value" } );
+            fail( "Expected WrongMethodTypeException" );
+        }
+        catch ( final Throwable t )
+        {
+            assertTrue( MethodHandleUtils.toReflectionException( t ) instanceof IllegalArgumentException );
+        }
+    }
+
+
+    private Object invoke( final String name, final Object[] args ) throws Throwable
+    {
+        return invoke( toHandle( name ), new Component( null ), args );
+    }
+
+
+    private Object invoke( final MethodHandle handle, final Object instance, final Object[] args ) throws Throwable
+    {
+        try
+        {
+            return handle.invokeExact( instance, args );
+        }
+        catch ( final Throwable t )
+        {
+            throw MethodHandleUtils.toReflectionException( t );
+        }
+    }
+
+
+    private MethodHandle toHandle( final String name ) throws Exception
+    {
+        for ( final java.lang.reflect.Method m : Component.class.getMethods() )
+        {
+            if ( m.getName().equals( name ) )
+            {
+                return MethodHandleUtils.wrapTargetExceptions( MethodHandles.lookup().unreflect( m ) )
+                        .asSpreader( Object[].class, m.getParameterTypes().length )
+                        .asType( INVOKER_TYPE );
+            }
+        }
+        throw new NoSuchMethodException( name );
+    }
+}
@@ -21,11 +21,13 @@ package org.apache.felix.scr.impl.inject.methods;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.ActivatorParameter;
 import org.apache.felix.scr.impl.inject.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.MockComponentLogger;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
@@ -300,6 +302,29 @@ public class ActivateMethodTest extends TestCase
     }
 
 
+    public static class ThrowingObject
+    {
+        static final RuntimeException FAILURE = new IllegalStateException( "activate failed" );
+
+        public void activate()
+        {
+            throw FAILURE;
+        }
+    }
+
+
+    public void test_exception_of_method_reported_unwrapped() throws Exception
+    {
+        ComponentContainer<?> container = newContainer();
+        SingleComponentManager<?> icm = new SingleComponentManager( container, new ComponentMethodsImpl() );
+        ActivateMethod am = new ActivateMethod( "activate", true, ThrowingObject.class, DSVersion.DS11, false, false );
+
+        final MethodResult failure = new MethodResult( true, new HashMap<String, Object>() );
+        assertSame( failure, am.invoke( new ThrowingObject(), new ActivatorParameter( new ComponentContextImpl( icm, m_bundle, null ), -1 ), failure ) );
+        assertSame( ThrowingObject.FAILURE, failure.getResult().get( "exception" ) );
+    }
+
+
     private ComponentContainer newContainer()
     {
         final ComponentMetadata metadata = newMetadata();
@@ -130,6 +130,11 @@ public class SingleComponentManagerTest
 
         }
 
+        @Override
+        public void recordActivation(String componentName, long nanos)
+        {
+        }
+
         @Override
         public <T> void missingServicePresent(ServiceReference<T> serviceReference)
         {
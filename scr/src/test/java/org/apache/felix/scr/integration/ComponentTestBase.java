@@ -750,7 +750,7 @@ public abstract class ComponentTestBase
 
         protected InfoWriter(ServiceComponentRuntime scrService)
         {
-            super( null, scrService, null );
+            super( null, scrService, null, null );
         }
 
     }
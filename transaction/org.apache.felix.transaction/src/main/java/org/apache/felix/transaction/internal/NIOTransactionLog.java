@@ -0,0 +1,644 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.transaction.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link TransactionLog} writing to two preallocated segment files through a {@link FileChannel}.
+ *
+ * Only prepare records need to be durable.  Threads preparing concurrently append their
+ * records and then wait for a single forced write covering all of them (group commit):
+ * while one thread forces the channel, the records of the others accumulate and are
+ * forced together by the next one.  Commit and rollback records are appended without
+ * forcing, since a lost completion record merely causes the transaction to be completed
+ * again at recovery.
+ *
+ * Records are framed by their length and a CRC-32 checksum, which includes the generation
+ * of the segment.  When the active segment is full, all prepare records not yet completed
+ * are copied to the other segment, which then becomes the active one.  Each segment is
+ * therefore self-contained and only the segment with the latest generation is replayed.
+ * The records are verified and decoded in parallel at recovery.
+ */
+public class NIOTransactionLog implements TransactionLog {
+
+    private static final Logger log = LoggerFactory.getLogger(NIOTransactionLog.class);
+
+    private static final int MAGIC = 0x46544c31; // "FTL1"
+    // magic, generation, checksum
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+    // length, checksum
+    private static final int FRAME_SIZE = 4 + 4;
+
+    private static final byte PREPARE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte ROLLBACK = 3;
+
+    private static final int PREALLOCATE_CHUNK = 64 * 1024;
+
+    private final File[] files;
+    private final XidFactory xidFactory;
+    private final int segmentSize;
+    private final int recoveryThreads;
+
+    private final FileChannel[] channels = new FileChannel[2];
+    private boolean started;
+
+    /** index of the active segment */
+    private int active;
+    private long generation;
+    /** write position in the active segment */
+    private int position;
+    /** prepare records not completed yet, by log mark */
+    private final Map<Long, ByteBuffer> pending = new LinkedHashMap<Long, ByteBuffer>();
+    private long nextMark;
+
+    /** in-doubt transactions found when opening the log */
+    private Map<Xid, Recovery.XidBranchesPair> recovered;
+
+    /** sequence number of the last record written */
+    private volatile long written;
+    /** sequence number of the last record known to be on disk */
+    private long forced;
+    private boolean forcing;
+    private final Object forceLock = new Object();
+
+    // statistics, guarded by forceLock
+    private long forceCount;
+    private long forceTime;
+    private long forceBytes;
+    private long forceRecords;
+    private long forcedBytesMark;
+    /** number of bytes appended, guarded by this log */
+    private long writtenBytes;
+
+    public NIOTransactionLog(String logFileDir, String logFileName, String logFileExt, int segmentSize, int recoveryThreads, XidFactory xidFactory) {
+        this.files = new File[] {
+            new File(logFileDir, logFileName + "_1." + logFileExt),
+            new File(logFileDir, logFileName + "_2." + logFileExt)
+        };
+        this.xidFactory = xidFactory;
+        this.segmentSize = segmentSize;
+        this.recoveryThreads = recoveryThreads;
+    }
+
+    public synchronized void doStart() throws IOException {
+        if (started) {
+            return;
+        }
+        File dir = files[0].getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create transaction log directory " + dir);
+        }
+        try {
+            for (int i = 0; i < files.length; i++) {
+                channels[i] = new RandomAccessFile(files[i], "rw").getChannel();
+                preallocate(channels[i]);
+            }
+            long[] generations = new long[] { readHeader(channels[0]), readHeader(channels[1]) };
+            if (generations[0] < 0 && generations[1] < 0) {
+                // new log
+                active = 0;
+                generation = 1;
+                position = HEADER_SIZE;
+                recovered = new HashMap<Xid, Recovery.XidBranchesPair>();
+                writeHeader(channels[active], generation);
+            } else {
+                active = generations[0] >= generations[1] ? 0 : 1;
+                generation = generations[active];
+                replay();
+                // Continue in a new generation, so that records written before a failure
+                // but beyond the end of the replayed log can never become valid again
+                switchSegment();
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        started = true;
+    }
+
+    public synchronized void doStop() throws IOException {
+        if (!started) {
+            return;
+        }
+        started = false;
+        try {
+            channels[active].force(false);
+        } finally {
+            closeChannels();
+            pending.clear();
+            recovered = null;
+        }
+    }
+
+    public void begin(Xid xid) throws LogException {
+    }
+
+    public Object prepare(Xid xid, List branches) throws LogException {
+        Long mark;
+        long seq;
+        synchronized (this) {
+            checkStarted();
+            mark = Long.valueOf(nextMark++);
+            ByteBuffer record = encodePrepare(mark.longValue(), xid, branches);
+            try {
+                seq = append(record);
+            } catch (IOException e) {
+                throw new LogException("Unable to write prepare record", e);
+            }
+            pending.put(mark, record);
+        }
+        force(seq);
+        return mark;
+    }
+
+    public void commit(Xid xid, Object logMark) throws LogException {
+        complete(COMMIT, logMark);
+    }
+
+    public void rollback(Xid xid, Object logMark) throws LogException {
+        complete(ROLLBACK, logMark);
+    }
+
+    public synchronized Collection recover(XidFactory xidFactory) throws LogException {
+        if (!started) {
+            try {
+                doStart();
+            } catch (IOException e) {
+                throw new LogException("Unable to open transaction log", e);
+            }
+        }
+        Collection result = new ArrayList<Recovery.XidBranchesPair>(recovered.values());
+        recovered.clear();
+        return result;
+    }
+
+    public String getXMLStats() {
+        synchronized (forceLock) {
+            return "<NIOTransactionLog>"
+                + "<forces>" + forceCount + "</forces>"
+                + "<forcedRecords>" + forceRecords + "</forcedRecords>"
+                + "<forcedBytes>" + forceBytes + "</forcedBytes>"
+                + "<averageForceTime>" + getAverageForceTime() + "</averageForceTime>"
+                + "</NIOTransactionLog>";
+        }
+    }
+
+    public int getAverageForceTime() {
+        synchronized (forceLock) {
+            return forceCount == 0 ? 0 : (int) (forceTime / forceCount / 1000000L);
+        }
+    }
+
+    public int getAverageBytesPerForce() {
+        synchronized (forceLock) {
+            return forceCount == 0 ? 0 : (int) (forceBytes / forceCount);
+        }
+    }
+
+    private void complete(byte type, Object logMark) throws LogException {
+        long mark = ((Long) logMark).longValue();
+        ByteBuffer record = ByteBuffer.allocate(1 + 8);
+        record.put(type).putLong(mark).flip();
+        synchronized (this) {
+            checkStarted();
+            if (pending.remove(logMark) == null) {
+                // Not prepared in this log (or completed already), nothing to log
+                return;
+            }
+            try {
+                append(record);
+            } catch (IOException e) {
+                throw new LogException("Unable to write completion record", e);
+            }
+        }
+    }
+
+    private void checkStarted() {
+        if (!started) {
+            throw new IllegalStateException("Transaction log is not started");
+        }
+    }
+
+    /**
+     * Writes a record to the active segment, switching segments if it is full.
+     * Must be called while holding the lock on this log.
+     *
+     * @return the sequence number of the record, to be passed to {@link #force(long)}
+     */
+    private long append(ByteBuffer record) throws IOException, LogException {
+        int size = FRAME_SIZE + record.remaining();
+        if (position + size > segmentSize) {
+            switchSegment();
+            if (position + size > segmentSize) {
+                throw new LogException("Transaction log segment of " + segmentSize + " bytes is full");
+            }
+        }
+        position += write(channels[active], position, generation, record);
+        writtenBytes += size;
+        return ++written;
+    }
+
+    /**
+     * Copies all pending prepare records to the other segment and makes it the active one.
+     * The header of the new segment is written once all records are on disk, so that a
+     * failure while switching segments leaves the previous segment to be replayed.
+     */
+    private void switchSegment() throws IOException {
+        int next = 1 - active;
+        long nextGeneration = generation + 1;
+        FileChannel channel = channels[next];
+        int pos = HEADER_SIZE;
+        for (Iterator<ByteBuffer> it = pending.values().iterator(); it.hasNext();) {
+            ByteBuffer record = it.next().duplicate();
+            if (pos + FRAME_SIZE + record.remaining() > segmentSize) {
+                throw new IOException("Transaction log segment of " + segmentSize + " bytes is too small for the pending transactions");
+            }
+            pos += write(channel, pos, nextGeneration, record);
+        }
+        channel.force(false);
+        writeHeader(channel, nextGeneration);
+        active = next;
+        generation = nextGeneration;
+        position = pos;
+        // all pending records are on disk now
+        long seq = written;
+        synchronized (forceLock) {
+            if (seq > forced) {
+                forced = seq;
+                forceLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number is on disk.  The first waiting
+     * thread forces the channel, covering all records written meanwhile; the others wait for it.
+     */
+    private void force(long seq) throws LogException {
+        while (true) {
+            synchronized (forceLock) {
+                while (forcing && forced < seq) {
+                    try {
+                        forceLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new LogException("Interrupted while waiting for the transaction log to be forced");
+                    }
+                }
+                if (forced >= seq) {
+                    return;
+                }
+                forcing = true;
+            }
+
+            // Force without holding any lock, so that other records can be appended meanwhile
+            long target;
+            long bytes;
+            FileChannel channel;
+            synchronized (this) {
+                target = written;
+                bytes = writtenBytes;
+                channel = channels[active];
+            }
+            long start = System.nanoTime();
+            IOException failure = null;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            synchronized (forceLock) {
+                forcing = false;
+                if (failure == null) {
+                    forceCount++;
+                    forceTime += System.nanoTime() - start;
+                    forceBytes += bytes - forcedBytesMark;
+                    forcedBytesMark = bytes;
+                    if (target > forced) {
+                        forceRecords += target - forced;
+                        forced = target;
+                    }
+                }
+                forceLock.notifyAll();
+            }
+            if (failure != null) {
+                throw new LogException("Unable to force transaction log", failure);
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        FileChannel channel = channels[active];
+        ByteBuffer segment = ByteBuffer.allocate(segmentSize);
+        readFully(channel, 0, segment);
+        segment.flip();
+
+        // Scan the frames; their contents are verified and decoded in parallel below
+        List<int[]> frames = new ArrayList<int[]>();
+        int pos = HEADER_SIZE;
+        while (pos + FRAME_SIZE <= segment.limit()) {
+            int length = segment.getInt(pos);
+            if (length <= 0 || pos + FRAME_SIZE + length > segment.limit()) {
+                break;
+            }
+            frames.add(new int[] { pos, length });
+            pos += FRAME_SIZE + length;
+        }
+
+        List<Object> records = decode(segment, frames);
+
+        pending.clear();
+        recovered = new LinkedHashMap<Xid, Recovery.XidBranchesPair>();
+        Map<Long, Recovery.XidBranchesPair> inDoubt = new LinkedHashMap<Long, Recovery.XidBranchesPair>();
+        long maxMark = -1;
+        position = HEADER_SIZE;
+        for (int i = 0; i < records.size(); i++) {
+            Object record = records.get(i);
+            if (record == null) {
+                // Incomplete or stale record, the end of the log
+                break;
+            }
+            int[] frame = frames.get(i);
+            if (record instanceof Recovery.XidBranchesPair) {
+                Recovery.XidBranchesPair pair = (Recovery.XidBranchesPair) record;
+                Long mark = (Long) pair.getMark();
+                inDoubt.put(mark, pair);
+                ByteBuffer data = ByteBuffer.allocate(frame[1]);
+                data.put((ByteBuffer) segment.duplicate().position(frame[0] + FRAME_SIZE).limit(frame[0] + FRAME_SIZE + frame[1]));
+                data.flip();
+                pending.put(mark, data);
+                maxMark = Math.max(maxMark, mark.longValue());
+            } else {
+                Long mark = (Long) record;
+                inDoubt.remove(mark);
+                pending.remove(mark);
+                maxMark = Math.max(maxMark, mark.longValue());
+            }
+            position = frame[0] + FRAME_SIZE + frame[1];
+        }
+        for (Iterator<Recovery.XidBranchesPair> it = inDoubt.values().iterator(); it.hasNext();) {
+            Recovery.XidBranchesPair pair = it.next();
+            recovered.put(pair.getXid(), pair);
+        }
+        nextMark = maxMark + 1;
+        log.debug("Recovered {} in doubt transactions from the transaction log", Integer.valueOf(recovered.size()));
+    }
+
+    /**
+     * Verifies and decodes the given frames, using up to {@link #recoveryThreads} threads.
+     *
+     * @return for each frame either a {@link Recovery.XidBranchesPair} for a prepare record,
+     *         the log mark for a completion record, or <code>null</code> for an invalid record.
+     */
+    private List<Object> decode(final ByteBuffer segment, final List<int[]> frames) throws IOException {
+        final Object[] records = new Object[frames.size()];
+        int threads = Math.min(recoveryThreads, frames.size() / 1024 + 1);
+        if (threads <= 1) {
+            decode(segment, frames, records, 0, frames.size());
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Object>> futures = new ArrayList<Future<Object>>();
+                int chunk = (frames.size() + threads - 1) / threads;
+                for (int i = 0; i < frames.size(); i += chunk) {
+                    final int from = i;
+                    final int to = Math.min(frames.size(), i + chunk);
+                    futures.add(executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            decode(segment.duplicate(), frames, records, from, to);
+                            return null;
+                        }
+                    }));
+                }
+                for (Iterator<Future<Object>> it = futures.iterator(); it.hasNext();) {
+                    it.next().get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException("Interrupted while recovering the transaction log").initCause(e);
+            } catch (ExecutionException e) {
+                throw (IOException) new IOException("Unable to recover the transaction log").initCause(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+        List<Object> result = new ArrayList<Object>(records.length);
+        for (int i = 0; i < records.length; i++) {
+            result.add(records[i]);
+        }
+        return result;
+    }
+
+    private void decode(ByteBuffer segment, List<int[]> frames, Object[] records, int from, int to) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] data = new byte[0];
+        for (int i = from; i < to; i++) {
+            int[] frame = frames.get(i);
+            int length = frame[1];
+            if (data.length < length) {
+                data = new byte[length];
+            }
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(frame[0] + 4);
+            int checksum = buffer.getInt();
+            buffer.get(data, 0, length);
+            if (checksum != checksum(crc, generation, data, length)) {
+                records[i] = null;
+                continue;
+            }
+            ByteBuffer record = ByteBuffer.wrap(data, 0, length);
+            byte type = record.get();
+            long mark = record.getLong();
+            if (type == PREPARE) {
+                records[i] = decodePrepare(mark, record);
+            } else if (type == COMMIT || type == ROLLBACK) {
+                records[i] = Long.valueOf(mark);
+            } else {
+                records[i] = null;
+            }
+        }
+    }
+
+    private static ByteBuffer encodePrepare(long mark, Xid xid, List branches) throws LogException {
+        try {
+            byte[] globalId = xid.getGlobalTransactionId();
+            byte[] branchId = xid.getBranchQualifier();
+            int size = 1 + 8 + 4 + 1 + globalId.length + 1 + branchId.length + 2;
+            byte[][] data = new byte[branches.size() * 2][];
+            int i = 0;
+            for (Iterator it = branches.iterator(); it.hasNext();) {
+                TransactionBranchInfo branch = (TransactionBranchInfo) it.next();
+                data[i] = branch.getBranchXid().getBranchQualifier();
+                data[i + 1] = branch.getResourceName().getBytes("UTF-8");
+                size += 1 + data[i].length + 2 + data[i + 1].length;
+                i += 2;
+            }
+            ByteBuffer record = ByteBuffer.allocate(size);
+            record.put(PREPARE).putLong(mark).putInt(xid.getFormatId());
+            record.put((byte) globalId.length).put(globalId);
+            record.put((byte) branchId.length).put(branchId);
+            record.putShort((short) branches.size());
+            for (i = 0; i < data.length; i += 2) {
+                record.put((byte) data[i].length).put(data[i]);
+                record.putShort((short) data[i + 1].length).put(data[i + 1]);
+            }
+            record.flip();
+            return record;
+        } catch (UnsupportedEncodingException e) {
+            throw new LogException(e);
+        }
+    }
+
+    private Recovery.XidBranchesPair decodePrepare(long mark, ByteBuffer record) throws UnsupportedEncodingException {
+        int formatId = record.getInt();
+        byte[] globalId = new byte[record.get() & 0xff];
+        record.get(globalId);
+        byte[] branchId = new byte[record.get() & 0xff];
+        record.get(branchId);
+        Xid xid = xidFactory.recover(formatId, globalId, branchId);
+        Recovery.XidBranchesPair pair = new Recovery.XidBranchesPair(xid, Long.valueOf(mark));
+        int count = record.getShort() & 0xffff;
+        for (int i = 0; i < count; i++) {
+            byte[] branchBranchId = new byte[record.get() & 0xff];
+            record.get(branchBranchId);
+            byte[] name = new byte[record.getShort() & 0xffff];
+            record.get(name);
+            pair.addBranch(new TransactionBranchInfoImpl(xidFactory.recover(formatId, globalId, branchBranchId), new String(name, "UTF-8")));
+        }
+        return pair;
+    }
+
+    private static int write(FileChannel channel, int pos, long generation, ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        byte[] data = new byte[length];
+        record.duplicate().get(data);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE + length);
+        frame.putInt(length).putInt(checksum(new CRC32(), generation, data, length)).put(data).flip();
+        while (frame.hasRemaining()) {
+            pos += channel.write(frame, pos);
+        }
+        return FRAME_SIZE + length;
+    }
+
+    private static int checksum(CRC32 crc, long generation, byte[] data, int length) {
+        crc.reset();
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (generation >>> i) & 0xff);
+        }
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(generation).putInt(checksum(new CRC32(), generation, new byte[0], 0)).flip();
+        int pos = 0;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * @return the generation of the segment, or -1 if it has no valid header
+     */
+    private static long readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, 0, header);
+        if (header.position() < HEADER_SIZE) {
+            return -1;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            return -1;
+        }
+        long generation = header.getLong();
+        if (header.getInt() != checksum(new CRC32(), generation, new byte[0], 0)) {
+            return -1;
+        }
+        return generation;
+    }
+
+    private static void readFully(FileChannel channel, long pos, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                break;
+            }
+            pos += read;
+        }
+    }
+
+    private void preallocate(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size >= segmentSize) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate(PREALLOCATE_CHUNK);
+        while (size < segmentSize) {
+            zeros.clear();
+            zeros.limit((int) Math.min(PREALLOCATE_CHUNK, segmentSize - size));
+            size += channel.write(zeros, size);
+        }
+        channel.force(true);
+    }
+
+    private void closeChannels() {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                try {
+                    channels[i].close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                channels[i] = null;
+            }
+        }
+    }
+}
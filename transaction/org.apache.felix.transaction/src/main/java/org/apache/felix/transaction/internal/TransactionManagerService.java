@@ -46,6 +46,7 @@ public class TransactionManagerService {
 
     public static final String TRANSACTION_TIMEOUT = "felix.transaction.timeout";
     public static final String RECOVERABLE = "felix.transaction.recoverable";
+    public static final String LOG_TYPE = "felix.transaction.log";
     public static final String HOWL_BUFFER_CLASS_NAME = "felix.transaction.howl.bufferClassName";
     public static final String HOWL_BUFFER_SIZE = "felix.transaction.howl.bufferSize";
     public static final String HOWL_CHECKSUM_ENABLED = "felix.transaction.howl.checksumEnabled";
@@ -59,9 +60,17 @@ public class TransactionManagerService {
     public static final String HOWL_MIN_BUFFERS = "felix.transaction.howl.minBuffers";
     public static final String HOWL_THREADS_WAITING_FORCE_THRESHOLD = "felix.transaction.howl.threadsWaitingForceThreshold";
     public static final String HOWL_LOG_FILE_DIR = "felix.transaction.howl.logFileDir";
+    public static final String NIO_LOG_FILE_DIR = "felix.transaction.nio.logFileDir";
+    public static final String NIO_LOG_FILE_NAME = "felix.transaction.nio.logFileName";
+    public static final String NIO_LOG_FILE_EXT = "felix.transaction.nio.logFileExt";
+    public static final String NIO_SEGMENT_SIZE = "felix.transaction.nio.segmentSize";
+    public static final String NIO_RECOVERY_THREADS = "felix.transaction.nio.recoveryThreads";
 
     public static final int DEFAULT_TRANSACTION_TIMEOUT = 600; // 600 seconds -> 10 minutes
     public static final boolean DEFAULT_RECOVERABLE = false;   // not recoverable by default
+    public static final String LOG_TYPE_HOWL = "howl";
+    public static final String LOG_TYPE_NIO = "nio";
+    public static final String DEFAULT_LOG_TYPE = LOG_TYPE_HOWL;
 
     private static final String PLATFORM_TRANSACTION_MANAGER_CLASS = "org.springframework.transaction.PlatformTransactionManager";
 
@@ -85,7 +94,39 @@ public class TransactionManagerService {
         // XID factory
         XidFactory xidFactory = new XidFactoryImpl(pid.getBytes());
         // Transaction log
-        if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE)) {
+        String logType = getString(LOG_TYPE, DEFAULT_LOG_TYPE);
+        if (!LOG_TYPE_HOWL.equals(logType) && !LOG_TYPE_NIO.equals(logType)) {
+            throw new ConfigurationException(LOG_TYPE, "Property " + LOG_TYPE + " must be either " + LOG_TYPE_HOWL + " or " + LOG_TYPE_NIO);
+        }
+        if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE) && LOG_TYPE_NIO.equals(logType)) {
+            String logFileDir = getString(NIO_LOG_FILE_DIR, null);
+            if (logFileDir == null || logFileDir.length() == 0 || !new File(logFileDir).isAbsolute()) {
+                throw new ConfigurationException(NIO_LOG_FILE_DIR, "Property should be set to an absolute directory");
+            }
+            String logFileName = getString(NIO_LOG_FILE_NAME, "transaction");
+            String logFileExt = getString(NIO_LOG_FILE_EXT, "log");
+            int segmentSizeKBytes = getInt(NIO_SEGMENT_SIZE, 4096);
+            if (segmentSizeKBytes < 64 || segmentSizeKBytes > 1024 * 1024) {
+                throw new ConfigurationException(NIO_SEGMENT_SIZE, "segmentSize must be between 64 and 1048576");
+            }
+            int recoveryThreads = getInt(NIO_RECOVERY_THREADS, Runtime.getRuntime().availableProcessors());
+            if (recoveryThreads < 1) {
+                throw new ConfigurationException(NIO_RECOVERY_THREADS, "recoveryThreads must be > 0");
+            }
+            NIOTransactionLog nioLog = new NIOTransactionLog(logFileDir,
+                                                             logFileName,
+                                                             logFileExt,
+                                                             segmentSizeKBytes * 1024,
+                                                             recoveryThreads,
+                                                             xidFactory);
+            try {
+                // Open the log now, the transaction manager recovers in its constructor
+                nioLog.doStart();
+            } catch (IOException e) {
+                throw new ConfigurationException(NIO_LOG_FILE_DIR, "Unable to open transaction log", e);
+            }
+            transactionLog = nioLog;
+        } else if (getBool(RECOVERABLE, DEFAULT_RECOVERABLE)) {
             String bufferClassName = getString(HOWL_BUFFER_CLASS_NAME, "org.objectweb.howl.log.BlockLogBuffer");
             int bufferSizeKBytes = getInt(HOWL_BUFFER_SIZE, 32);
             if (bufferSizeKBytes < 1 || bufferSizeKBytes > 32) {
@@ -172,6 +213,9 @@ public class TransactionManagerService {
         if (transactionLog instanceof HOWLLog) {
             ((HOWLLog) transactionLog).doStop();
         }
+        if (transactionLog instanceof NIOTransactionLog) {
+            ((NIOTransactionLog) transactionLog).doStop();
+        }
     }
 
     private String getString(String property, String dflt) throws ConfigurationException {
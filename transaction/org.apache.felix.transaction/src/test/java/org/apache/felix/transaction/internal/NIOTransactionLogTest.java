@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.transaction.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.xa.Xid;
+
+import junit.framework.TestCase;
+
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidFactoryImpl;
+
+public class NIOTransactionLogTest extends TestCase {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private File dir;
+    private XidFactory xidFactory;
+    private List<NIOTransactionLog> logs;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("txlog", ".test");
+        dir.delete();
+        xidFactory = new XidFactoryImpl("test".getBytes());
+        logs = new ArrayList<NIOTransactionLog>();
+    }
+
+    protected void tearDown() throws Exception {
+        for (Iterator<NIOTransactionLog> it = logs.iterator(); it.hasNext();) {
+            it.next().doStop();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public void testReplayAfterRestart() throws Exception {
+        NIOTransactionLog log = open(SEGMENT_SIZE);
+        Xid committed = xidFactory.createXid();
+        Xid inDoubt = xidFactory.createXid();
+        Xid rolledBack = xidFactory.createXid();
+        Object committedMark = log.prepare(committed, branches(committed, 1));
+        log.prepare(inDoubt, branches(inDoubt, 2));
+        Object rolledBackMark = log.prepare(rolledBack, branches(rolledBack, 1));
+        log.commit(committed, committedMark);
+        log.rollback(rolledBack, rolledBackMark);
+        close(log);
+
+        log = open(SEGMENT_SIZE);
+        Collection recovered = log.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        Recovery.XidBranchesPair pair = (Recovery.XidBranchesPair) recovered.iterator().next();
+        assertSameXid(inDoubt, pair.getXid());
+        assertEquals(2, pair.getBranches().size());
+        Set<String> names = new HashSet<String>();
+        for (Iterator it = pair.getBranches().iterator(); it.hasNext();) {
+            names.add(((TransactionBranchInfo) it.next()).getResourceName());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(new String[] { "resource0", "resource1" })), names);
+
+        // new marks do not collide with the recovered one
+        Xid next = xidFactory.createXid();
+        assertFalse(pair.getMark().equals(log.prepare(next, branches(next, 1))));
+
+        // completing the recovered transaction is logged, too
+        log.commit(pair.getXid(), pair.getMark());
+        close(log);
+
+        log = open(SEGMENT_SIZE);
+        recovered = log.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        assertSameXid(next, ((Recovery.XidBranchesPair) recovered.iterator().next()).getXid());
+    }
+
+    public void testTornTailRecord() throws Exception {
+        NIOTransactionLog log = open(SEGMENT_SIZE);
+        Xid first = xidFactory.createXid();
+        Xid torn = xidFactory.createXid();
+        log.prepare(first, branches(first, 1));
+        log.prepare(torn, branches(torn, 1));
+        close(log);
+
+        // a bit of the last record did not make it to disk
+        RandomAccessFile file = new RandomAccessFile(activeSegment(), "rw");
+        try {
+            file.seek(16);
+            int second = 16 + 8 + file.readInt();
+            file.seek(second);
+            int length = file.readInt();
+            file.seek(second + 8 + length - 1);
+            int last = file.read();
+            file.seek(second + 8 + length - 1);
+            file.write(last ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        assertRecovered(new Xid[] { first });
+    }
+
+    public void testPartialTailRecord() throws Exception {
+        NIOTransactionLog log = open(SEGMENT_SIZE);
+        Xid first = xidFactory.createXid();
+        Xid partial = xidFactory.createXid();
+        log.prepare(first, branches(first, 1));
+        log.prepare(partial, branches(partial, 1));
+        close(log);
+
+        // only the frame of the last record has been written, its data is still zero
+        RandomAccessFile file = new RandomAccessFile(activeSegment(), "rw");
+        try {
+            file.seek(16);
+            int second = 16 + 8 + file.readInt();
+            file.seek(second);
+            int length = file.readInt();
+            file.seek(second + 8);
+            file.write(new byte[length]);
+        } finally {
+            file.close();
+        }
+
+        NIOTransactionLog reopened = assertRecovered(new Xid[] { first });
+
+        // the log continues after the valid records, the stale tail is never replayed again
+        Xid next = xidFactory.createXid();
+        reopened.prepare(next, branches(next, 1));
+        close(reopened);
+        assertRecovered(new Xid[] { first, next });
+    }
+
+    public void testSegmentRollover() throws Exception {
+        NIOTransactionLog log = open(1024);
+        Xid inDoubt = xidFactory.createXid();
+        log.prepare(inDoubt, branches(inDoubt, 1));
+        // far more records than fit into one segment
+        for (int i = 0; i < 200; i++) {
+            Xid xid = xidFactory.createXid();
+            Object mark = log.prepare(xid, branches(xid, 2));
+            if (i % 2 == 0) {
+                log.commit(xid, mark);
+            } else {
+                log.rollback(xid, mark);
+            }
+        }
+        Xid last = xidFactory.createXid();
+        log.prepare(last, branches(last, 1));
+        close(log);
+
+        assertRecovered(new Xid[] { inDoubt, last });
+    }
+
+    public void testSegmentTooSmallForPendingTransactions() throws Exception {
+        NIOTransactionLog log = open(1024);
+        try {
+            for (int i = 0; i < 100; i++) {
+                Xid xid = xidFactory.createXid();
+                log.prepare(xid, branches(xid, 1));
+            }
+            fail("expected the log to be full");
+        } catch (Exception expected) {
+            // the pending transactions do not fit into a segment
+        }
+    }
+
+    public void testConcurrentGroupCommit() throws Exception {
+        final NIOTransactionLog log = open(SEGMENT_SIZE);
+        final int threads = 8;
+        final int transactions = 50;
+        final List<Xid> inDoubt = Collections.synchronizedList(new ArrayList<Xid>());
+        final Set<Object> marks = Collections.synchronizedSet(new HashSet<Object>());
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            Xid xid = xidFactory.createXid();
+                            Object mark = log.prepare(xid, branches(xid, 1));
+                            assertTrue("duplicate log mark " + mark, marks.add(mark));
+                            if (i == transactions - 1) {
+                                inDoubt.add(xid);
+                            } else {
+                                log.commit(xid, mark);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+        }
+        assertEquals(Collections.EMPTY_LIST, failures);
+        assertEquals(threads * transactions, marks.size());
+        // every prepare waited for a force, but concurrent prepares share them
+        assertTrue(log.getXMLStats(), forces(log) <= threads * transactions);
+        close(log);
+
+        assertRecovered(inDoubt.toArray(new Xid[inDoubt.size()]));
+    }
+
+    private NIOTransactionLog open(int segmentSize) throws IOException {
+        NIOTransactionLog log = new NIOTransactionLog(dir.getPath(), "txlog", "log", segmentSize, 2, xidFactory);
+        log.doStart();
+        logs.add(log);
+        return log;
+    }
+
+    private void close(NIOTransactionLog log) throws IOException {
+        log.doStop();
+        logs.remove(log);
+    }
+
+    private NIOTransactionLog assertRecovered(Xid[] expected) throws Exception {
+        NIOTransactionLog log = open(SEGMENT_SIZE);
+        Collection recovered = log.recover(xidFactory);
+        Set<String> actual = new HashSet<String>();
+        for (Iterator it = recovered.iterator(); it.hasNext();) {
+            actual.add(toString(((Recovery.XidBranchesPair) it.next()).getXid()));
+        }
+        Set<String> expectedIds = new HashSet<String>();
+        for (int i = 0; i < expected.length; i++) {
+            expectedIds.add(toString(expected[i]));
+        }
+        assertEquals(expectedIds, actual);
+        return log;
+    }
+
+    /**
+     * The segment with the latest generation, which is the active one after a restart.
+     */
+    private File activeSegment() throws IOException {
+        File[] segments = new File[] { new File(dir, "txlog_1.log"), new File(dir, "txlog_2.log") };
+        long[] generations = new long[2];
+        for (int i = 0; i < segments.length; i++) {
+            RandomAccessFile file = new RandomAccessFile(segments[i], "r");
+            try {
+                generations[i] = file.readInt() == 0 ? -1 : file.readLong();
+            } finally {
+                file.close();
+            }
+        }
+        return generations[0] >= generations[1] ? segments[0] : segments[1];
+    }
+
+    private List<TransactionBranchInfo> branches(Xid xid, int count) {
+        List<TransactionBranchInfo> branches = new ArrayList<TransactionBranchInfo>();
+        for (int i = 0; i < count; i++) {
+            branches.add(new TransactionBranchInfoImpl(xidFactory.createBranch(xid, i + 1), "resource" + i));
+        }
+        return branches;
+    }
+
+    private static long forces(NIOTransactionLog log) {
+        String stats = log.getXMLStats();
+        int start = stats.indexOf("<forces>") + "<forces>".length();
+        return Long.parseLong(stats.substring(start, stats.indexOf("</forces>")));
+    }
+
+    private static void assertSameXid(Xid expected, Xid actual) {
+        assertEquals(toString(expected), toString(actual));
+    }
+
+    private static String toString(Xid xid) {
+        return xid.getFormatId() + ":" + Arrays.toString(xid.getGlobalTransactionId()) + ":" + Arrays.toString(xid.getBranchQualifier());
+    }
+}
@@ -19,6 +19,9 @@ package org.apache.felix.useradmin.filestore;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,22 +29,33 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
+import org.osgi.service.useradmin.Role;
 import org.osgi.service.useradmin.UserAdminEvent;
 import org.osgi.service.useradmin.UserAdminListener;
 
 
 /**
  * Provides an implementation of {@link RoleRepositoryStore} using Java Serialization.
+ * <p>
+ * Changed roles are appended to a journal, rather than rewriting the entire 
+ * repository upon each change. Once the journal grows larger than the last 
+ * stored repository, it is compacted by storing the entire repository again.
+ * Each stored repository is followed by its generation, so a journal left
+ * over from before the last compaction is not replayed.
+ * </p>
  */
 public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implements Runnable, UserAdminListener, ManagedService {
 
@@ -58,8 +72,17 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     private static final TimeUnit DEFAULT_WRITE_DELAY_TIMEUNIT = TimeUnit.MILLISECONDS;
 
     private static final String FILE_NAME = "ua_repo.dat";
+    /** Marks the generation following the stored entries ("UAG1"). */
+    private static final int GENERATION_MAGIC = 0x55414731;
+    private static final String JOURNAL_FILE_NAME = "ua_repo.journal";
+    /** The minimal size of the journal (in bytes) before it is compacted. */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
 
     private final File m_file;
+    private final RoleRepositorySerializer m_serializer;
+    private final RoleRepositoryJournal m_journal;
+    /** The names of the roles changed since the last flush. */
+    private final ConcurrentMap m_changedRoles;
     private final AtomicReference m_timerRef;
 
     /**
@@ -79,6 +102,9 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      */
     public RoleRepositoryFileStore(File baseDir, boolean backgroundWriteEnabled) {
         m_file = new File(baseDir, FILE_NAME);
+        m_serializer = new RoleRepositorySerializer();
+        m_journal = new RoleRepositoryJournal(new File(baseDir, JOURNAL_FILE_NAME), m_serializer);
+        m_changedRoles = new ConcurrentHashMap();
         
         m_timerRef = new AtomicReference();
 
@@ -88,6 +114,8 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
     
     public void roleChanged(UserAdminEvent event) {
+        m_changedRoles.put(event.getRole().getName(), Boolean.TRUE);
+
         scheduleTask();
     }
 
@@ -116,7 +144,11 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Stops this store service.
+     * Stops this store service, storing the entire repository to disk.
+     * <p>
+     * The repository is always stored completely, as the events of roles
+     * changed just before stopping might not have been delivered yet.
+     * </p>
      */
     public void stop() throws IOException {
         ResettableTimer timer = (ResettableTimer) m_timerRef.get();
@@ -130,7 +162,15 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
         }
 
         // Write the latest version to disk...
-        flush();
+        synchronized (this) {
+            try {
+                compact();
+                m_changedRoles.clear();
+            } finally {
+                // Do not leak the journal in case the final write failed...
+                m_journal.close();
+            }
+        }
     }
 
     /**
@@ -185,7 +225,7 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Retrieves the serialized repository from disk.
+     * Retrieves the serialized repository from disk, including all changes in the journal.
      * 
      * @return the retrieved repository, never <code>null</code>.
      * @throws IOException in case the retrieval of the repository failed.
@@ -194,12 +234,22 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
         InputStream is = null;
 
         try {
-            is = new BufferedInputStream(new FileInputStream(m_file));
+            Map entries = new HashMap();
+            long generation = 0;
+            try {
+                is = new BufferedInputStream(new FileInputStream(m_file));
+
+                m_serializer.readEntries(is, entries);
+                generation = readGeneration(is);
+            } catch (FileNotFoundException exception) {
+                // Don't bother; file does not exist...
+            }
+
+            int changes = m_journal.replay(entries, generation);
 
-            return new RoleRepositorySerializer().deserialize(is);
-        } catch (FileNotFoundException exception) {
-            // Don't bother; file does not exist...
-            return Collections.emptyMap();
+            // The journal can refer to roles that were removed before the 
+            // repository was last stored; leave those out in that case...
+            return m_serializer.resolveEntries(entries, changes == 0 /* strict */);
         } catch (IOException exception) {
             exception.printStackTrace();
             throw exception;
@@ -209,20 +259,54 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Stores the given repository to disk as serialized objects.
+     * Stores the given repository to disk as serialized objects, with the
+     * generation of the current journal.
      * 
      * @param roleRepository the repository to store, cannot be <code>null</code>.
      * @throws IOException in case storing the repository failed.
      */
     protected void store(Map roleRepository) throws IOException {
+        store(roleRepository, m_journal.getGeneration());
+    }
+
+    /**
+     * Stores the given repository to disk as serialized objects.
+     * <p>
+     * The repository is first written to a temporary file, which replaces the
+     * existing repository once it is completely written.
+     * </p>
+     * 
+     * @param roleRepository the repository to store, cannot be <code>null</code>;
+     * @param generation the generation of the repository, used to detect stale journals.
+     * @throws IOException in case storing the repository failed.
+     */
+    protected void store(Map roleRepository, long generation) throws IOException {
+        File tmpFile = new File(m_file.getPath().concat(".tmp"));
+        FileOutputStream fos = null;
         OutputStream os = null;
 
         try {
-            os = new BufferedOutputStream(new FileOutputStream(m_file));
+            fos = new FileOutputStream(tmpFile);
+            os = new BufferedOutputStream(fos);
+
+            m_serializer.serialize(roleRepository, os);
 
-            new RoleRepositorySerializer().serialize(roleRepository, os);
+            DataOutputStream dos = new DataOutputStream(os);
+            dos.writeInt(GENERATION_MAGIC);
+            dos.writeLong(generation);
+            dos.flush();
+            fos.getFD().sync();
         } finally {
             closeSafely(os);
+            closeSafely(fos);
+        }
+
+        if (!tmpFile.renameTo(m_file)) {
+            // Not all platforms allow an existing file to be replaced...
+            m_file.delete();
+            if (!tmpFile.renameTo(m_file)) {
+                throw new IOException("Failed to replace repository file: " + m_file);
+            }
         }
     }
 
@@ -242,12 +326,75 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Flushes the current repository to disk.
+     * Stores the entire repository to disk, and drops all journaled changes.
+     * <p>
+     * The repository is stored with a new generation before the journal is
+     * reset, so the journal is ignored in case the reset does not happen.
+     * </p>
      * 
      * @throws IOException in case of problems storing the repository.
      */
-    private void flush() throws IOException {
-        store(new HashMap(m_entries));
+    private void compact() throws IOException {
+        long generation = m_journal.getGeneration() + 1;
+        store(new HashMap(m_entries), generation);
+        m_journal.reset(generation);
+    }
+
+    /**
+     * Reads the generation following the entries of a stored repository.
+     * 
+     * @param is the input stream positioned after the entries, cannot be <code>null</code>.
+     * @return the generation, or 0 for repositories stored without one.
+     * @throws IOException in case of I/O problems.
+     */
+    private long readGeneration(InputStream is) throws IOException {
+        DataInputStream dis = new DataInputStream(is);
+        try {
+            if (dis.readInt() == GENERATION_MAGIC) {
+                return dis.readLong();
+            }
+        } catch (EOFException exception) {
+            // Stored without a generation...
+        }
+        return 0;
+    }
+
+    /**
+     * Flushes all changed roles to the journal, compacting it if it has grown too large.
+     * 
+     * @throws IOException in case of problems storing the changed roles.
+     */
+    private synchronized void flush() throws IOException {
+        List names = new ArrayList(m_changedRoles.keySet());
+        if (names.isEmpty()) {
+            return;
+        }
+
+        int size = names.size();
+        String[] changedNames = new String[size];
+        Role[] changedRoles = new Role[size];
+        for (int i = 0; i < size; i++) {
+            String name = (String) names.get(i);
+            // Remove it first, so concurrent changes cause it to be flushed again...
+            m_changedRoles.remove(name);
+
+            changedNames[i] = name;
+            changedRoles[i] = (Role) m_entries.get(name);
+        }
+
+        try {
+            m_journal.append(changedNames, changedRoles);
+        } catch (IOException exception) {
+            // Retry upon the next flush...
+            for (int i = 0; i < size; i++) {
+                m_changedRoles.put(changedNames[i], Boolean.TRUE);
+            }
+            throw exception;
+        }
+
+        if (m_journal.length() > Math.max(MIN_COMPACTION_SIZE, m_file.length())) {
+            compact();
+        }
     }
 
     /**
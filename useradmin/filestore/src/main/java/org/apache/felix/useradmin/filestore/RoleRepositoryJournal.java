@@ -0,0 +1,274 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.filestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Provides an append-only journal of changed and removed roles.
+ * <p>
+ * Each record holds the complete state of a single role (or the fact that
+ * it is removed), framed by its length and CRC-32 checksum. Upon replay,
+ * the journal is read up to the first incomplete or corrupt record, which
+ * can only be the result of an interrupted write. The remainder of the
+ * journal is truncated, so new records are appended to a consistent file.
+ * </p>
+ * <p>
+ * The header of the journal holds the generation of the stored repository
+ * its records apply to. Storing the repository and resetting the journal
+ * cannot be done atomically, so a journal of an older generation than the
+ * stored repository is left over from an interrupted compaction, and is
+ * dropped rather than replayed.
+ * </p>
+ */
+final class RoleRepositoryJournal {
+
+    /** Marks the start of a journal file ("UAJ2"). */
+    private static final int MAGIC = 0x55414A32;
+    /** The magic followed by the generation. */
+    private static final int HEADER_SIZE = 12;
+
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+
+    private final File m_file;
+    private final RoleRepositorySerializer m_serializer;
+    private final ByteArrayOutputStream m_buffer;
+
+    private RandomAccessFile m_raf;
+    private int m_recordCount;
+    private long m_generation;
+
+    /**
+     * Creates a new {@link RoleRepositoryJournal} instance.
+     *
+     * @param file the file to keep the journal in, cannot be <code>null</code>;
+     * @param serializer the serializer to use for the journaled roles, cannot be <code>null</code>.
+     */
+    public RoleRepositoryJournal(File file, RoleRepositorySerializer serializer) {
+        m_file = file;
+        m_serializer = serializer;
+        m_buffer = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Opens this journal and applies all records to the given entries.
+     *
+     * @param entries the entries to update, as read by {@link RoleRepositorySerializer#readEntries(java.io.InputStream, Map)},
+     *        cannot be <code>null</code>;
+     * @param generation the generation of the stored repository the entries are read from, >= 0.
+     * @return the number of applied records, >= 0.
+     * @throws IOException in case of I/O problems reading the journal.
+     */
+    public synchronized int replay(Map entries, long generation) throws IOException {
+        close();
+
+        m_raf = new RandomAccessFile(m_file, "rw");
+        m_recordCount = 0;
+        m_generation = generation;
+
+        if (m_raf.length() < HEADER_SIZE || m_raf.readInt() != MAGIC) {
+            // New or unusable journal; start over...
+            truncate();
+            return 0;
+        }
+        long journalGeneration = m_raf.readLong();
+        if (journalGeneration < generation) {
+            // Stale journal, its changes are already stored...
+            truncate();
+            return 0;
+        }
+        m_generation = journalGeneration;
+
+        long validLength = HEADER_SIZE;
+        long length = m_raf.length();
+        CRC32 crc = new CRC32();
+
+        while (validLength < length) {
+            byte[] record;
+            try {
+                int size = m_raf.readInt();
+                int checksum = m_raf.readInt();
+                if (size <= 0 || size > length - m_raf.getFilePointer()) {
+                    break;
+                }
+                record = new byte[size];
+                m_raf.readFully(record);
+
+                crc.reset();
+                crc.update(record, 0, size);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException e) {
+                // Incomplete record...
+                break;
+            }
+
+            apply(record, entries);
+
+            validLength = m_raf.getFilePointer();
+            m_recordCount++;
+        }
+
+        if (validLength < length) {
+            // Drop the partially written record(s)...
+            m_raf.setLength(validLength);
+        }
+        m_raf.seek(validLength);
+
+        return m_recordCount;
+    }
+
+    /**
+     * Appends the given roles to this journal and forces them to disk.
+     *
+     * @param names the names of the changed roles, cannot be <code>null</code>;
+     * @param roles the current roles for each of the given names, a <code>null</code>-value denotes a removed role.
+     * @throws IOException in case of I/O problems writing the journal.
+     */
+    public synchronized void append(String[] names, Role[] roles) throws IOException {
+        ensureOpen();
+
+        m_buffer.reset();
+        DataOutputStream dos = new DataOutputStream(m_buffer);
+
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBuffer);
+
+        for (int i = 0; i < names.length; i++) {
+            recordBuffer.reset();
+            if (roles[i] == null) {
+                record.write(OP_REMOVE);
+                record.writeUTF(names[i]);
+            } else {
+                record.write(OP_PUT);
+                m_serializer.writeEntry(roles[i], record);
+            }
+            record.flush();
+
+            byte[] data = recordBuffer.toByteArray();
+            crc.reset();
+            crc.update(data, 0, data.length);
+
+            dos.writeInt(data.length);
+            dos.writeInt((int) crc.getValue());
+            dos.write(data);
+        }
+        dos.flush();
+
+        // Write all records at once, and make sure they're on disk...
+        m_raf.write(m_buffer.toByteArray());
+        m_raf.getFD().sync();
+        m_recordCount += names.length;
+    }
+
+    /**
+     * Closes this journal.
+     */
+    public synchronized void close() throws IOException {
+        if (m_raf != null) {
+            try {
+                m_raf.close();
+            } finally {
+                m_raf = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records in this journal, >= 0.
+     */
+    public synchronized int getRecordCount() {
+        return m_recordCount;
+    }
+
+    /**
+     * @return the generation of the stored repository the records of this journal apply to, >= 0.
+     */
+    public synchronized long getGeneration() {
+        return m_generation;
+    }
+
+    /**
+     * @return the length of this journal, in bytes.
+     */
+    public synchronized long length() throws IOException {
+        return (m_raf == null) ? m_file.length() : m_raf.length();
+    }
+
+    /**
+     * Drops all records from this journal, to be called after the complete repository is stored.
+     *
+     * @param generation the generation of the stored repository, > {@link #getGeneration()}.
+     * @throws IOException in case of I/O problems truncating the journal.
+     */
+    public synchronized void reset(long generation) throws IOException {
+        ensureOpen();
+        m_generation = generation;
+        truncate();
+    }
+
+    /**
+     * Applies a single record to the given entries.
+     */
+    private void apply(byte[] record, Map entries) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+
+        int op = dis.read();
+        if (OP_PUT == op) {
+            Object entry = m_serializer.readEntry(dis);
+            String name = (entry instanceof StubGroupImpl) ? ((StubGroupImpl) entry).getName() : ((Role) entry).getName();
+            entries.put(name, entry);
+        } else if (OP_REMOVE == op) {
+            entries.remove(dis.readUTF());
+        } else {
+            throw new IOException("Invalid journal; unknown operation: " + op);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (m_raf == null) {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            if (m_raf.length() < HEADER_SIZE) {
+                truncate();
+            } else {
+                m_raf.seek(m_raf.length());
+            }
+        }
+    }
+
+    private void truncate() throws IOException {
+        m_raf.setLength(0);
+        m_raf.writeInt(MAGIC);
+        m_raf.writeLong(m_generation);
+        m_raf.getFD().sync();
+        m_recordCount = 0;
+    }
+}
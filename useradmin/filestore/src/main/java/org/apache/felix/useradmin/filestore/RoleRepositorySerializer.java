@@ -80,15 +80,105 @@ final class RoleRepositorySerializer {
         }
         writeRepository(roleRepository, new DataOutputStream(os));
     }
+
+    /**
+     * Reads all entries of a serialized repository from the given input stream
+     * without resolving the members of groups.
+     * 
+     * @param is the input stream to read the entries from, cannot be <code>null</code>;
+     * @param entries the map to add the read entries to, cannot be <code>null</code>. 
+     *        Groups are added as {@link StubGroupImpl}s.
+     * @throws IOException in case of I/O problems.
+     */
+    void readEntries(InputStream is, Map entries) throws IOException {
+        DataInputStream dis = new DataInputStream(is);
+
+        int entryCount = dis.readInt();
+        while (entryCount-- > 0) {
+            Object entry = readEntry(dis);
+            entries.put(getEntryName(entry), entry);
+        }
+    }
+
+    /**
+     * Reads a single role from the given input stream, as written by {@link #writeEntry(Role, DataOutputStream)}.
+     * 
+     * @param dis the input stream to read the data from, cannot be <code>null</code>.
+     * @return the read role, or a {@link StubGroupImpl} in case a group was read, never <code>null</code>.
+     * @throws IOException in case of I/O problems.
+     */
+    Object readEntry(DataInputStream dis) throws IOException {
+        int type = dis.readInt();
+
+        if (Role.GROUP == type) {
+            return readGroup(dis);
+        } else if (Role.USER == type) {
+            return readUser(dis);
+        }
+        return readRole(dis);
+    }
+
+    /**
+     * Writes a single role to the given output stream.
+     * 
+     * @param role the role to write, cannot be <code>null</code>;
+     * @param dos the output stream to write the data to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems.
+     */
+    void writeEntry(Role role, DataOutputStream dos) throws IOException {
+        int type = role.getType();
+
+        dos.writeInt(type);
+
+        if (Role.GROUP == type) {
+            writeGroup((Group) role, dos);
+        } else if (Role.USER == type) {
+            writeUser((User) role, dos);
+        } else {
+            writeRole(role, dos);
+        }
+    }
+
+    /**
+     * Resolves the given entries into a role repository.
+     * 
+     * @param entries the entries to resolve, as read by {@link #readEntries(InputStream, Map)}, cannot be <code>null</code>;
+     * @param strict <code>true</code> if unknown group members should be reported, 
+     *        <code>false</code> if they should be left out.
+     * @return a {@link Map} representing the role repository, never <code>null</code>.
+     * @throws IOException in case a referenced role was not found and <code>strict</code> is <code>true</code>.
+     */
+    Map resolveEntries(Map entries, boolean strict) throws IOException {
+        Map repository = new HashMap();
+
+        List stubGroups = new ArrayList();
+
+        Iterator entriesIter = entries.values().iterator();
+        while (entriesIter.hasNext()) {
+            Object entry = entriesIter.next();
+            if (entry instanceof StubGroupImpl) {
+                stubGroups.add(entry);
+            } else {
+                Role role = (Role) entry;
+                repository.put(role.getName(), role);
+            }
+        }
+
+        // Post processing stage: replace all stub groups with real group implementations...
+        addGroups(repository, stubGroups, strict);
+
+        return repository;
+    }
     
     /**
      * Adds all groups, based on the given stub groups.
      * 
      * @param repository the repository to add the groups to, cannot be <code>null</code>;
-     * @param stubGroups the list with stub groups to replace, cannot be <code>null</code>.
+     * @param stubGroups the list with stub groups to replace, cannot be <code>null</code>;
+     * @param strict <code>true</code> if unknown members should be reported, <code>false</code> to leave them out.
      * @throws IOException in case a referenced role was not found in the repository.
      */
-    private void addGroups(Map repository, List stubGroups) throws IOException {
+    private void addGroups(Map repository, List stubGroups, boolean strict) throws IOException {
         // First create "empty" groups in the repository; we'll fill them in later on...
         Iterator sgIter = stubGroups.iterator();
         while (sgIter.hasNext()) {
@@ -111,7 +201,7 @@ final class RoleRepositorySerializer {
 
                 Group group = (Group) repository.get(stubGroup.getName());
                 if (group != null) {
-                    resolveGroupMembers(stubGroup, group, repository);
+                    resolveGroupMembers(stubGroup, group, repository, strict);
                     stubGroups.remove(stubGroup);
                 }
             }
@@ -160,6 +250,19 @@ final class RoleRepositorySerializer {
         }
     }
 
+    /**
+     * Returns the name of a given entry.
+     * 
+     * @param entry the role or stub group to return the name for, cannot be <code>null</code>.
+     * @return the name of the entry, never <code>null</code>.
+     */
+    private String getEntryName(Object entry) {
+        if (entry instanceof StubGroupImpl) {
+            return ((StubGroupImpl) entry).getName();
+        }
+        return ((Role) entry).getName();
+    }
+
     /**
      * Returns the role with the given name from the given repository.
      * 
@@ -242,34 +345,11 @@ final class RoleRepositorySerializer {
      * @throws IOException in case of I/O problems.
      */
     private Map readRepository(DataInputStream dis) throws IOException {
-        Map repository = new HashMap();
-        
-        int entryCount = dis.readInt();
-        
-        List stubGroups = new ArrayList();
-        
-        // Keep reading until no more types can be read...
-        while (entryCount-- > 0) {
-            int type = dis.readInt();
-            
-            Role role = null;
-            if (Role.GROUP == type) {
-                stubGroups.add(readGroup(dis));
-            } else if (Role.USER == type) {
-                role = readUser(dis);
-            } else {
-                role = readRole(dis);
-            }
-            
-            if (role != null) {
-                repository.put(role.getName(), role);
-            }
-        }
-        
-        // Post processing stage: replace all stub groups with real group implementations...
-        addGroups(repository, stubGroups);
-        
-        return repository;
+        Map entries = new HashMap();
+
+        readEntries(dis, entries);
+
+        return resolveEntries(entries, true /* strict */);
     }
     
     /**
@@ -307,11 +387,12 @@ final class RoleRepositorySerializer {
      * Resolves all basic and required group members for a given group, based on the names from the given stub group.
      * 
      * @param stubGroup the stub group to convert, cannot be <code>null</code>;
-     * @param repository the repository to take the roles from, cannot be <code>null</code>.
+     * @param repository the repository to take the roles from, cannot be <code>null</code>;
+     * @param strict <code>true</code> if unknown members should be reported, <code>false</code> to leave them out.
      * @return a concrete {@link Group} instance with all members resolved, or <code>null</code> if not all members could be resolved.
      * @throws IOException in case a referenced role was not found in the repository.
      */
-    private void resolveGroupMembers(StubGroupImpl stubGroup, Group group, Map repository) throws IOException {
+    private void resolveGroupMembers(StubGroupImpl stubGroup, Group group, Map repository, boolean strict) throws IOException {
         List names = stubGroup.getMemberNames();
         int size = names.size();
 
@@ -319,7 +400,10 @@ final class RoleRepositorySerializer {
             String name = (String) names.get(i);
             Role role = getRoleFromRepository(repository, name);
             if (role == null) {
-                throw new IOException("Unable to find referenced basic member: " + name);
+                if (strict) {
+                    throw new IOException("Unable to find referenced basic member: " + name);
+                }
+                continue;
             }
             group.addMember(role);
         }
@@ -331,7 +415,10 @@ final class RoleRepositorySerializer {
             String name = (String) names.get(i);
             Role role = getRoleFromRepository(repository, name);
             if (role == null) {
-                throw new IOException("Unable to find referenced required member: " + name);
+                if (strict) {
+                    throw new IOException("Unable to find referenced required member: " + name);
+                }
+                continue;
             }
             group.addRequiredMember(role);
         }
@@ -426,19 +513,7 @@ final class RoleRepositorySerializer {
         dos.writeInt(values.size());
         
         while (valuesIter.hasNext()) {
-            Role role = (Role) valuesIter.next();
-            
-            int type = role.getType();
-            
-            dos.writeInt(type);
-            
-            if (Role.GROUP == type) {
-                writeGroup((Group) role, dos);
-            } else if (Role.USER == type) {
-                writeUser((User) role, dos);
-            } else {
-                writeRole(role, dos);
-            }
+            writeEntry((Role) valuesIter.next(), dos);
         }
     }
     
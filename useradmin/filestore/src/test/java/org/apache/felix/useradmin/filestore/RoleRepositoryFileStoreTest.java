@@ -17,11 +17,16 @@
 package org.apache.felix.useradmin.filestore;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.util.Properties;
 
 import junit.framework.TestCase;
 
 import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+import org.osgi.service.useradmin.UserAdminEvent;
 
 /**
  * Test cases for {@link RoleRepositoryFileStore}.
@@ -181,9 +186,169 @@ public class RoleRepositoryFileStoreTest extends TestCase {
         m_store.updated(null);
     }
 
+    /**
+     * Tests that changed roles are journaled and restored upon the next start.
+     */
+    public void testChangedRolesAreJournaledOk() throws Exception {
+        File baseDir = createBaseDir();
+        try {
+            RoleRepositoryFileStore store = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store.start();
+
+            User user = (User) store.addRole("user1", Role.USER);
+            user.getCredentials().put("password", "secret");
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, user));
+            Group group = (Group) store.addRole("group1", Role.GROUP);
+            group.addMember(user);
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, group));
+            Role user2 = store.addRole("user2", Role.USER);
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, user2));
+            // Flush the changes to the journal...
+            store.run();
+
+            store.removeRole("user2");
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_REMOVED, user2));
+            store.run();
+
+            assertFalse(new File(baseDir, "ua_repo.dat").exists());
+
+            // Simulate a restart without a proper shutdown...
+            RoleRepositoryFileStore store2 = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store2.start();
+
+            assertEquals(2, store2.getRoles(null).length);
+            assertNull(store2.getRoleByName("user2"));
+            User user1 = (User) store2.getRoleByName("user1");
+            assertEquals("secret", user1.getCredentials().get("password"));
+            assertSame(user1, ((Group) store2.getRoleByName("group1")).getMembers()[0]);
+
+            store.stop();
+            store2.stop();
+
+            assertTrue(new File(baseDir, "ua_repo.dat").exists());
+        } finally {
+            deleteBaseDir(baseDir);
+        }
+    }
+
+    /**
+     * Tests that stopping the store stores roles whose change events have not been delivered yet.
+     */
+    public void testStopStoresRolesWithoutEventsOk() throws Exception {
+        File baseDir = createBaseDir();
+        try {
+            RoleRepositoryFileStore store = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store.start();
+
+            // Add roles without delivering their events...
+            User user = (User) store.addRole("user1", Role.USER);
+            user.getCredentials().put("password", "secret");
+            store.addRole("user2", Role.USER);
+
+            store.stop();
+
+            RoleRepositoryFileStore store2 = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store2.start();
+
+            assertNotNull(store2.getRoleByName("user2"));
+            assertEquals("secret", ((User) store2.getRoleByName("user1")).getCredentials().get("password"));
+
+            store2.stop();
+        } finally {
+            deleteBaseDir(baseDir);
+        }
+    }
+
+    /**
+     * Tests that a journal left over from an interrupted compaction is not replayed.
+     */
+    public void testStaleJournalIsIgnoredOk() throws Exception {
+        File baseDir = createBaseDir();
+        try {
+            File journal = new File(baseDir, "ua_repo.journal");
+
+            RoleRepositoryFileStore store = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store.start();
+
+            User user = (User) store.addRole("user1", Role.USER);
+            user.getCredentials().put("password", "old");
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, user));
+            Role user2 = store.addRole("user2", Role.USER);
+            store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, user2));
+            store.run();
+
+            byte[] staleJournal = readFile(journal);
+
+            user.getCredentials().put("password", "new");
+            store.removeRole("user2");
+            store.stop();
+
+            // Simulate a crash after storing the repository, but before resetting the journal...
+            writeFile(journal, staleJournal);
+
+            RoleRepositoryFileStore store2 = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store2.start();
+
+            assertNull(store2.getRoleByName("user2"));
+            assertEquals("new", ((User) store2.getRoleByName("user1")).getCredentials().get("password"));
+
+            // Changes made after the restart are journaled and replayed...
+            Role user3 = store2.addRole("user3", Role.USER);
+            store2.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CREATED, user3));
+            store2.run();
+
+            RoleRepositoryFileStore store3 = new RoleRepositoryFileStore(baseDir, false /* disable background writes */);
+            store3.start();
+
+            assertNotNull(store3.getRoleByName("user3"));
+            assertNull(store3.getRoleByName("user2"));
+
+            store2.stop();
+            store3.stop();
+        } finally {
+            deleteBaseDir(baseDir);
+        }
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
 
         m_store = new RoleRepositoryFileStore(new File(System.getProperty("java.io.tmpdir")), false /* disable background writes */);
     }
+
+    private File createBaseDir() throws Exception {
+        File baseDir = File.createTempFile("ua_repo", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+        return baseDir;
+    }
+
+    private byte[] readFile(File file) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void writeFile(File file, byte[] data) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void deleteBaseDir(File baseDir) {
+        File[] files = baseDir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        baseDir.delete();
+    }
 }
@@ -0,0 +1,210 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.filestore;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.useradmin.RoleFactory;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+
+/**
+ * Test cases for {@link RoleRepositoryJournal}.
+ */
+public class RoleRepositoryJournalTest extends TestCase {
+
+    private File m_file;
+    private RoleRepositoryJournal m_journal;
+
+    /**
+     * Tests that replaying an empty journal does not change anything.
+     */
+    public void testReplayEmptyJournalOk() throws Exception {
+        Map entries = new HashMap();
+
+        assertEquals(0, m_journal.replay(entries, 0));
+        assertTrue(entries.isEmpty());
+    }
+
+    /**
+     * Tests that changed and removed roles are replayed in order.
+     */
+    public void testReplayChangedAndRemovedRolesOk() throws Exception {
+        User user1 = (User) RoleFactory.createRole(Role.USER, "user1");
+        user1.getCredentials().put("password", "secret");
+        User user2 = (User) RoleFactory.createRole(Role.USER, "user2");
+        Group group1 = (Group) RoleFactory.createRole(Role.GROUP, "group1");
+        group1.addMember(user1);
+        group1.addMember(user2);
+
+        m_journal.replay(new HashMap(), 0);
+        m_journal.append(new String[] { "user1", "user2", "group1" }, new Role[] { user1, user2, group1 });
+
+        user1.getCredentials().put("password", "changed");
+        m_journal.append(new String[] { "user1", "user2" }, new Role[] { user1, null });
+        m_journal.close();
+
+        Map entries = new HashMap();
+        assertEquals(5, m_journal.replay(entries, 0));
+        assertEquals(2, entries.size());
+
+        Map repository = new RoleRepositorySerializer().resolveEntries(entries, false /* strict */);
+
+        User user = (User) repository.get("user1");
+        assertEquals("changed", user.getCredentials().get("password"));
+
+        Group group = (Group) repository.get("group1");
+        assertEquals(1, group.getMembers().length);
+        assertSame(user, group.getMembers()[0]);
+    }
+
+    /**
+     * Tests that an incomplete record at the end of the journal is dropped.
+     */
+    public void testReplayIncompleteRecordOk() throws Exception {
+        User user1 = (User) RoleFactory.createRole(Role.USER, "user1");
+        User user2 = (User) RoleFactory.createRole(Role.USER, "user2");
+
+        m_journal.replay(new HashMap(), 0);
+        m_journal.append(new String[] { "user1" }, new Role[] { user1 });
+        long length = m_journal.length();
+        m_journal.append(new String[] { "user2" }, new Role[] { user2 });
+        m_journal.close();
+
+        // Simulate an interrupted write...
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        Map entries = new HashMap();
+        assertEquals(1, m_journal.replay(entries, 0));
+        assertTrue(entries.containsKey("user1"));
+        assertFalse(entries.containsKey("user2"));
+        assertEquals(length, m_journal.length());
+
+        // New records should be appended after the last complete one...
+        m_journal.append(new String[] { "user2" }, new Role[] { user2 });
+        m_journal.close();
+
+        entries.clear();
+        assertEquals(2, m_journal.replay(entries, 0));
+        assertTrue(entries.containsKey("user2"));
+    }
+
+    /**
+     * Tests that a corrupt record and all records following it are dropped.
+     */
+    public void testReplayCorruptRecordOk() throws Exception {
+        User user1 = (User) RoleFactory.createRole(Role.USER, "user1");
+
+        m_journal.replay(new HashMap(), 0);
+        long length = m_journal.length();
+        m_journal.append(new String[] { "user1" }, new Role[] { user1 });
+        m_journal.close();
+
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        raf.seek(raf.length() - 1);
+        int lastByte = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(lastByte ^ 0xFF);
+        raf.close();
+
+        Map entries = new HashMap();
+        assertEquals(0, m_journal.replay(entries, 0));
+        assertTrue(entries.isEmpty());
+        assertEquals(length, m_journal.length());
+    }
+
+    /**
+     * Tests that resetting the journal drops all records.
+     */
+    public void testResetOk() throws Exception {
+        m_journal.replay(new HashMap(), 0);
+        m_journal.append(new String[] { "user1" }, new Role[] { RoleFactory.createRole(Role.USER, "user1") });
+        assertEquals(1, m_journal.getRecordCount());
+
+        m_journal.reset(1);
+        assertEquals(0, m_journal.getRecordCount());
+        m_journal.close();
+
+        Map entries = new HashMap();
+        assertEquals(0, m_journal.replay(entries, 0));
+        assertTrue(entries.isEmpty());
+    }
+
+    /**
+     * Tests that a journal of an older generation than the stored repository is dropped.
+     */
+    public void testReplayStaleGenerationOk() throws Exception {
+        m_journal.replay(new HashMap(), 1);
+        m_journal.append(new String[] { "user1" }, new Role[] { RoleFactory.createRole(Role.USER, "user1") });
+        m_journal.close();
+
+        // Simulate an interrupted compaction, which stored generation 2...
+        Map entries = new HashMap();
+        assertEquals(0, m_journal.replay(entries, 2));
+        assertTrue(entries.isEmpty());
+        assertEquals(2, m_journal.getGeneration());
+        m_journal.close();
+
+        // The dropped records are not replayed again...
+        assertEquals(0, m_journal.replay(entries, 2));
+        assertTrue(entries.isEmpty());
+    }
+
+    /**
+     * Tests that a journal of the same generation as the stored repository is replayed.
+     */
+    public void testReplaySameGenerationOk() throws Exception {
+        m_journal.replay(new HashMap(), 3);
+        m_journal.append(new String[] { "user1" }, new Role[] { RoleFactory.createRole(Role.USER, "user1") });
+        m_journal.close();
+
+        Map entries = new HashMap();
+        assertEquals(1, m_journal.replay(entries, 3));
+        assertTrue(entries.containsKey("user1"));
+        assertEquals(3, m_journal.getGeneration());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_file = File.createTempFile("ua_repo", ".journal");
+        m_file.delete();
+
+        m_journal = new RoleRepositoryJournal(m_file, new RoleRepositorySerializer());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        m_journal.close();
+        m_file.delete();
+
+        super.tearDown();
+    }
+}
@@ -33,7 +33,6 @@ public class AuthorizationImpl implements Authorization {
     private final String m_name;
     private final User m_user;
     private final RoleRepository m_roleManager;
-    private final RoleChecker m_roleChecker;
 
     /**
      * Creates a new {@link AuthorizationImpl} instance for the given {@link User}.
@@ -54,7 +53,6 @@ public class AuthorizationImpl implements Authorization {
         m_user = user;
         m_roleManager = roleManager;
         m_name = (user != null) ? user.getName() : null;
-        m_roleChecker = new RoleChecker();
     }
 
     /**
@@ -73,7 +71,7 @@ public class AuthorizationImpl implements Authorization {
             // No role found, so it is never implied...
             return false;
         }
-        return m_roleChecker.isImpliedBy(role, m_user);
+        return m_roleManager.isImpliedBy(role, m_user);
     }
 
     /**
@@ -85,7 +83,7 @@ public class AuthorizationImpl implements Authorization {
         Iterator rolesIter = m_roleManager.getRoles(null /* filter */).iterator();
         while (rolesIter.hasNext()) {
             Role role = (Role) rolesIter.next();
-            if (!Role.USER_ANYONE.equals(role.getName()) && m_roleChecker.isImpliedBy(role, m_user)) {
+            if (!Role.USER_ANYONE.equals(role.getName()) && m_roleManager.isImpliedBy(role, m_user)) {
                 result.add(role.getName());
             }
         }
@@ -0,0 +1,331 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.useradmin.RoleRepositoryStore;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Caches the transitive group memberships of users, allowing implied roles
+ * to be checked with a single lookup.
+ * <p>
+ * For each user, the names of all groups implied by that user are computed
+ * once with a {@link RoleChecker}. When a group is added or removed, or its
+ * members change, only the memberships of that group and of the groups
+ * containing it are recomputed for the cached users. Removing a user only
+ * drops its own memberships. Changes to properties or credentials do not
+ * affect the memberships and leave the cache intact.
+ * </p>
+ */
+final class MembershipCache implements RoleChangeListener {
+
+    /** The keys used by groups to report membership changes. */
+    private static final String BASIC_MEMBER = "basicMember";
+    private static final String REQUIRED_MEMBER = "requiredMember";
+
+    /** The key used for the anonymous user. */
+    private static final String ANONYMOUS = "";
+
+    /**
+     * The groups implied by a single user.
+     */
+    private static final class Memberships {
+        /** The user, or <code>null</code> for the anonymous user. */
+        final Role m_user;
+        /** The names of the implied groups. */
+        final Set m_groupNames;
+
+        Memberships(Role user, Set groupNames) {
+            m_user = user;
+            m_groupNames = groupNames;
+        }
+    }
+
+    /**
+     * The memberships computed for a single state of the repository.
+     */
+    private static final class Snapshot {
+        /** group name -> group, not modified once published. */
+        final Map m_groups;
+        /** user name -> memberships. */
+        final Map m_memberships = new ConcurrentHashMap();
+        /** Identical membership sets are shared between users. */
+        final Map m_canonical = new HashMap();
+
+        Snapshot(Map groups) {
+            m_groups = groups;
+        }
+
+        Set canonicalize(Set memberships) {
+            synchronized (m_canonical) {
+                Set result = (Set) m_canonical.get(memberships);
+                if (result == null) {
+                    result = Collections.unmodifiableSet(memberships);
+                    m_canonical.put(memberships, result);
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Returns the names of the given group and of all groups containing
+         * it, directly or through other groups.
+         */
+        Set getAffectedGroups(String name) {
+            Set result = new HashSet();
+            result.add(name);
+
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                Iterator iter = m_groups.values().iterator();
+                while (iter.hasNext()) {
+                    Group group = (Group) iter.next();
+                    if (!result.contains(group.getName())
+                        && (containsAny(group.getMembers(), result) || containsAny(group.getRequiredMembers(), result))) {
+                        result.add(group.getName());
+                        changed = true;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static boolean containsAny(Role[] roles, Set names) {
+            for (int i = 0; (roles != null) && (i < roles.length); i++) {
+                if (names.contains(roles[i].getName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final RoleRepositoryStore m_store;
+    private final RoleChecker m_roleChecker;
+
+    /** Incremented upon each change, used to detect concurrent changes. */
+    private final AtomicLong m_generation;
+
+    private volatile Snapshot m_snapshot;
+
+    /**
+     * Creates a new {@link MembershipCache} instance.
+     *
+     * @param store the store to obtain the groups from, cannot be <code>null</code>.
+     */
+    public MembershipCache(RoleRepositoryStore store) {
+        m_store = store;
+        m_roleChecker = new RoleChecker();
+        m_generation = new AtomicLong();
+    }
+
+    /**
+     * Verifies whether the given role is implied by the memberships of the given user.
+     *
+     * @param role the role to check, cannot be <code>null</code>;
+     * @param user the user to check the memberships of, can be <code>null</code> for the anonymous user.
+     * @return <code>true</code> if the given user has the given role, <code>false</code> otherwise.
+     * @throws Exception in case the groups could not be obtained from the store.
+     */
+    public boolean isImpliedBy(Role role, Role user) throws Exception {
+        if (!(role instanceof Group)) {
+            return m_roleChecker.isImpliedBy(role, user);
+        }
+        return getMemberships(user).contains(role.getName());
+    }
+
+    /**
+     * Drops all cached memberships.
+     */
+    public void invalidate() {
+        synchronized (m_generation) {
+            m_generation.incrementAndGet();
+            m_snapshot = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyAdded(Role role, Object key, Object value) {
+        updateIfMembershipChanged(role, key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+        updateIfMembershipChanged(role, key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyRemoved(Role role, Object key) {
+        updateIfMembershipChanged(role, key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roleAdded(Role role) {
+        roleChanged(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roleRemoved(Role role) {
+        roleChanged(role);
+    }
+
+    /**
+     * Returns the names of all groups implied by the given user.
+     */
+    private Set getMemberships(Role user) throws Exception {
+        Snapshot snapshot = m_snapshot;
+        if (snapshot == null) {
+            long generation = m_generation.get();
+            snapshot = new Snapshot(getGroups());
+            synchronized (m_generation) {
+                // Only publish the snapshot if nothing changed in the meantime...
+                if (generation == m_generation.get()) {
+                    m_snapshot = snapshot;
+                }
+            }
+        }
+
+        String key = (user == null) ? ANONYMOUS : user.getName();
+        Memberships result = (Memberships) snapshot.m_memberships.get(key);
+        if (result == null) {
+            Set memberships = new HashSet();
+            Iterator iter = snapshot.m_groups.values().iterator();
+            while (iter.hasNext()) {
+                Group group = (Group) iter.next();
+                if (m_roleChecker.isImpliedBy(group, user)) {
+                    memberships.add(group.getName());
+                }
+            }
+            result = new Memberships(user, snapshot.canonicalize(memberships));
+            snapshot.m_memberships.put(key, result);
+        }
+        return result.m_groupNames;
+    }
+
+    /**
+     * Returns all groups currently in the store.
+     */
+    private Map getGroups() throws Exception {
+        Role[] roles = m_store.getRoles(null);
+        Map groups = new HashMap();
+        for (int i = 0; i < roles.length; i++) {
+            if (roles[i].getType() == Role.GROUP) {
+                groups.put(roles[i].getName(), roles[i]);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Updates the cached memberships after the given role is added or removed.
+     */
+    private void roleChanged(Role role) {
+        if (role.getType() == Role.GROUP) {
+            groupChanged(role.getName());
+            return;
+        }
+
+        synchronized (m_generation) {
+            m_generation.incrementAndGet();
+            Snapshot snapshot = m_snapshot;
+            if (snapshot != null) {
+                snapshot.m_memberships.remove(role.getName());
+            }
+        }
+    }
+
+    /**
+     * Recomputes the memberships of the given group, and of all groups
+     * containing it, for all cached users.
+     */
+    private void groupChanged(String name) {
+        synchronized (m_generation) {
+            m_generation.incrementAndGet();
+            Snapshot snapshot = m_snapshot;
+            if (snapshot == null) {
+                return;
+            }
+
+            Set affected = snapshot.getAffectedGroups(name);
+            Map groups = new HashMap(snapshot.m_groups);
+            try {
+                // The store can return copies of its roles, so reload the
+                // changed groups, as well as the groups containing them...
+                Iterator iter = affected.iterator();
+                while (iter.hasNext()) {
+                    String groupName = (String) iter.next();
+                    Role group = m_store.getRoleByName(groupName);
+                    if ((group != null) && (group.getType() == Role.GROUP)) {
+                        groups.put(groupName, group);
+                    } else {
+                        groups.remove(groupName);
+                    }
+                }
+            }
+            catch (Exception e) {
+                m_snapshot = null;
+                return;
+            }
+
+            Snapshot updated = new Snapshot(groups);
+            Iterator iter = snapshot.m_memberships.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                Memberships memberships = (Memberships) entry.getValue();
+
+                Set groupNames = new HashSet(memberships.m_groupNames);
+                groupNames.removeAll(affected);
+                Iterator affectedIter = affected.iterator();
+                while (affectedIter.hasNext()) {
+                    Group group = (Group) groups.get(affectedIter.next());
+                    if ((group != null) && m_roleChecker.isImpliedBy(group, memberships.m_user)) {
+                        groupNames.add(group.getName());
+                    }
+                }
+                updated.m_memberships.put(entry.getKey(), new Memberships(memberships.m_user, updated.canonicalize(groupNames)));
+            }
+            m_snapshot = updated;
+        }
+    }
+
+    private void updateIfMembershipChanged(Role role, Object key) {
+        if ((role.getType() == Role.GROUP) && (BASIC_MEMBER.equals(key) || REQUIRED_MEMBER.equals(key))) {
+            groupChanged(role.getName());
+        }
+    }
+}
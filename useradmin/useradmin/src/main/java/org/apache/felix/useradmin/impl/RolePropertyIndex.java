@@ -0,0 +1,294 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.useradmin.RoleRepositoryStore;
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Provides a secondary index on a fixed set of role properties, allowing
+ * {@link RoleRepository#getRoles(String, String)} to find roles without
+ * scanning the whole store.
+ * <p>
+ * The index is built lazily upon its first use and kept up-to-date by the
+ * role change events. As the events do not tell whether a property or a
+ * credential is changed, the indexed properties of a changed role are
+ * always re-read from the role itself.
+ * </p>
+ * <p>
+ * Only exact matches of a single key/value pair, as used by
+ * <code>UserAdmin.getUser()</code>, are served from this index. Arbitrary
+ * filters passed to {@link RoleRepository#getRoles(String)}, including
+ * substring and presence filters, are always evaluated by the store.
+ * </p>
+ */
+final class RolePropertyIndex implements RoleChangeListener {
+
+    private final RoleRepositoryStore m_store;
+    /** The (lower case) names of the indexed properties. */
+    private final Set m_keys;
+    /** key -> (value -> set of role names). */
+    private final Map m_index;
+    /** role name -> (key -> indexed values), used to remove stale entries. */
+    private final Map m_entries;
+    /** The keys for which non-string values are found, these cannot be looked up. */
+    private final Set m_unindexable;
+
+    private boolean m_built;
+
+    /**
+     * Creates a new {@link RolePropertyIndex} instance.
+     *
+     * @param store the store to build the index from, cannot be <code>null</code>;
+     * @param keys the names of the properties to index, cannot be <code>null</code>.
+     */
+    public RolePropertyIndex(RoleRepositoryStore store, String[] keys) {
+        m_store = store;
+        m_keys = new HashSet();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i].trim();
+            if (!"".equals(key)) {
+                m_keys.add(key.toLowerCase());
+            }
+        }
+        m_index = new HashMap();
+        m_entries = new HashMap();
+        m_unindexable = new HashSet();
+    }
+
+    /**
+     * Returns whether the given key/value pair can be looked up in this index.
+     *
+     * @param key the key to search for, cannot be <code>null</code>;
+     * @param value the value to search for, cannot be <code>null</code>.
+     * @return <code>true</code> if the key is indexed and the value is a plain value without any filter meta characters.
+     */
+    public boolean canLookup(String key, String value) {
+        if (!m_keys.contains(key.toLowerCase())) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '*' || ch == '(' || ch == ')' || ch == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the names of all roles whose property with the given key has the given value.
+     *
+     * @param key the key to search for, cannot be <code>null</code>;
+     * @param value the value to search for, cannot be <code>null</code>.
+     * @return a set with role names, or <code>null</code> if the given key cannot be looked up using this index.
+     * @throws Exception in case the index had to be built and the store could not be accessed.
+     */
+    public synchronized Set lookup(String key, String value) throws Exception {
+        ensureBuilt();
+
+        if (m_unindexable.contains(key.toLowerCase())) {
+            return null;
+        }
+
+        Map values = (Map) m_index.get(key.toLowerCase());
+        Set names = (values == null) ? null : (Set) values.get(value);
+        if (names == null) {
+            return Collections.EMPTY_SET;
+        }
+        return new HashSet(names);
+    }
+
+    /**
+     * Drops the index, it will be rebuilt upon its next use.
+     */
+    public synchronized void invalidate() {
+        m_index.clear();
+        m_entries.clear();
+        m_unindexable.clear();
+        m_built = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyAdded(Role role, Object key, Object value) {
+        update(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+        update(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyRemoved(Role role, Object key) {
+        update(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roleAdded(Role role) {
+        update(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void roleRemoved(Role role) {
+        if (m_built) {
+            remove(role.getName());
+        }
+    }
+
+    /**
+     * Builds the index from all roles in the store, if not already done.
+     */
+    private void ensureBuilt() throws Exception {
+        if (m_built) {
+            return;
+        }
+        Role[] roles = m_store.getRoles(null);
+        for (int i = 0; i < roles.length; i++) {
+            add(roles[i]);
+        }
+        m_built = true;
+    }
+
+    /**
+     * Re-indexes the given role.
+     *
+     * @param role the role to re-index, cannot be <code>null</code>.
+     */
+    private synchronized void update(Role role) {
+        if (m_built) {
+            remove(role.getName());
+            add(role);
+        }
+    }
+
+    /**
+     * Adds all indexed properties of the given role to this index.
+     */
+    private void add(Role role) {
+        Dictionary properties = role.getProperties();
+        if (properties == null || properties.isEmpty()) {
+            return;
+        }
+
+        Map indexed = null;
+        for (Iterator iter = m_keys.iterator(); iter.hasNext();) {
+            String key = (String) iter.next();
+            Object value = getIgnoreCase(properties, key);
+            if (value == null) {
+                continue;
+            }
+
+            if (value instanceof String) {
+                index(key, (String) value, role.getName());
+            } else {
+                // only string values are indexed, others need to be matched by the store...
+                m_unindexable.add(key);
+                continue;
+            }
+
+            if (indexed == null) {
+                indexed = new HashMap();
+            }
+            indexed.put(key, value);
+        }
+
+        if (indexed != null) {
+            m_entries.put(role.getName(), indexed);
+        }
+    }
+
+    /**
+     * Removes all indexed properties of the role with the given name from this index.
+     */
+    private void remove(String roleName) {
+        Map indexed = (Map) m_entries.remove(roleName);
+        if (indexed == null) {
+            return;
+        }
+
+        for (Iterator iter = indexed.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry entry = (Map.Entry) iter.next();
+            unindex((String) entry.getKey(), (String) entry.getValue(), roleName);
+        }
+    }
+
+    private void index(String key, String value, String roleName) {
+        Map values = (Map) m_index.get(key);
+        if (values == null) {
+            values = new HashMap();
+            m_index.put(key, values);
+        }
+        Set names = (Set) values.get(value);
+        if (names == null) {
+            names = new HashSet(2);
+            values.put(value, names);
+        }
+        names.add(roleName);
+    }
+
+    private void unindex(String key, String value, String roleName) {
+        Map values = (Map) m_index.get(key);
+        if (values == null) {
+            return;
+        }
+        Set names = (Set) values.get(value);
+        if (names != null) {
+            names.remove(roleName);
+            if (names.isEmpty()) {
+                values.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the given key, which is matched case-insensitive
+     * like LDAP filters do.
+     */
+    private static Object getIgnoreCase(Dictionary properties, String lowerCaseKey) {
+        Object value = properties.get(lowerCaseKey);
+        if (value != null) {
+            return value;
+        }
+        for (Enumeration keys = properties.keys(); keys.hasMoreElements();) {
+            Object key = keys.nextElement();
+            if ((key instanceof String) && lowerCaseKey.equalsIgnoreCase((String) key)) {
+                return properties.get(key);
+            }
+        }
+        return null;
+    }
+}
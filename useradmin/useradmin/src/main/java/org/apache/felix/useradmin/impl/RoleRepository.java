@@ -19,6 +19,7 @@ package org.apache.felix.useradmin.impl;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.felix.useradmin.BackendException;
@@ -95,6 +96,9 @@ public final class RoleRepository {
     private final RoleRepositoryStore m_store;
     private final CopyOnWriteArrayList m_listeners;
     private final RoleChangeReflector m_roleChangeReflector;
+    private final RoleChecker m_roleChecker;
+    private final RolePropertyIndex m_propertyIndex;
+    private final MembershipCache m_membershipCache;
     
     /**
      * Creates a new {@link RoleRepository} instance.
@@ -102,10 +106,41 @@ public final class RoleRepository {
      * @param store the {@link RoleRepositoryStore} to use, cannot be <code>null</code>.
      */
     public RoleRepository(RoleRepositoryStore store) {
+        this(store, null, false);
+    }
+
+    /**
+     * Creates a new {@link RoleRepository} instance.
+     * <p>
+     * The index and the cache are maintained from the role changes made 
+     * through this repository, hence they should only be used if the store
+     * is not changed by other means.
+     * </p>
+     * 
+     * @param store the {@link RoleRepositoryStore} to use, cannot be <code>null</code>;
+     * @param indexedKeys the names of the role properties to index for {@link #getRoles(String, String)}, can be <code>null</code> or empty to disable indexing;
+     * @param cacheMemberships <code>true</code> to cache the group memberships of users, <code>false</code> to always compute them.
+     */
+    public RoleRepository(RoleRepositoryStore store, String[] indexedKeys, boolean cacheMemberships) {
         m_store = store;
         
         m_listeners = new CopyOnWriteArrayList();
         m_roleChangeReflector = new RoleChangeReflector();
+        m_roleChecker = new RoleChecker();
+
+        if (indexedKeys != null && indexedKeys.length > 0) {
+            m_propertyIndex = new RolePropertyIndex(store, indexedKeys);
+            m_listeners.add(m_propertyIndex);
+        } else {
+            m_propertyIndex = null;
+        }
+
+        if (cacheMemberships) {
+            m_membershipCache = new MembershipCache(store);
+            m_listeners.add(m_membershipCache);
+        } else {
+            m_membershipCache = null;
+        }
     }
 
     /**
@@ -216,6 +251,21 @@ public final class RoleRepository {
         List matchingRoles = new ArrayList();
 
         try {
+            if (m_propertyIndex != null && m_propertyIndex.canLookup(key, value)) {
+                Set names = m_propertyIndex.lookup(key, value);
+                if (names != null) {
+                    Iterator iter = names.iterator();
+                    while (iter.hasNext()) {
+                        String name = (String) iter.next();
+                        Role role = isPredefinedRole(name) ? null : m_store.getRoleByName(name);
+                        if (role != null) {
+                            matchingRoles.add(wireChangeListener(role));
+                        }
+                    }
+                    return matchingRoles;
+                }
+            }
+
             String criteria = "(".concat(key).concat("=").concat(value).concat(")");
 
             Role[] roles = m_store.getRoles(criteria);
@@ -233,6 +283,39 @@ public final class RoleRepository {
         return matchingRoles;
     }
 
+    /**
+     * Verifies whether the given role is implied by the memberships of the given user.
+     * 
+     * @param role the role to check, cannot be <code>null</code>;
+     * @param user the user to check the memberships of, can be <code>null</code> for the anonymous user.
+     * @return <code>true</code> if the given user has the given role, <code>false</code> otherwise.
+     */
+    public boolean isImpliedBy(Role role, Role user) {
+        if (m_membershipCache == null) {
+            return m_roleChecker.isImpliedBy(role, user);
+        }
+
+        try {
+            return m_membershipCache.isImpliedBy(role, user);
+        }
+        catch (Exception e) {
+            throw new BackendException("Failed to get memberships!", e);
+        }
+    }
+
+    /**
+     * Drops all indexes and cached memberships, for example, after the 
+     * underlying store has been replaced.
+     */
+    public void invalidateCaches() {
+        if (m_propertyIndex != null) {
+            m_propertyIndex.invalidate();
+        }
+        if (m_membershipCache != null) {
+            m_membershipCache.invalidate();
+        }
+    }
+
     /**
      * Removes a given role from this manager.
      * 
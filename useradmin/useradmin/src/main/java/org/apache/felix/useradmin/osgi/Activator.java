@@ -28,6 +28,17 @@ import org.osgi.service.useradmin.UserAdmin;
  */
 public class Activator implements BundleActivator {
 
+    /**
+     * Framework property with a comma-separated list of role property names 
+     * to index for {@link UserAdmin#getUser(String, String)}.
+     */
+    public static final String INDEXED_PROPERTIES = "org.apache.felix.useradmin.index.properties";
+    /**
+     * Framework property to enable the caching of the group memberships of 
+     * users, defaults to <code>false</code>.
+     */
+    public static final String CACHE_MEMBERSHIPS = "org.apache.felix.useradmin.cache.memberships";
+
     private volatile ServiceContext m_context;
 
     /**
@@ -69,7 +80,12 @@ public class Activator implements BundleActivator {
         EventDispatcher eventDispatcher = new EventDispatcher(eventAdmin, listenerList);
         RoleRepositoryStoreHelper store = new RoleRepositoryStoreHelper(context);
 
-        RoleRepository roleRepository = new RoleRepository(store);
+        String indexedProperties = context.getProperty(INDEXED_PROPERTIES);
+        String[] indexedKeys = (indexedProperties == null) ? null : indexedProperties.split(",");
+        boolean cacheMemberships = Boolean.valueOf(context.getProperty(CACHE_MEMBERSHIPS)).booleanValue();
+
+        RoleRepository roleRepository = new RoleRepository(store, indexedKeys, cacheMemberships);
+        store.setRoleRepository(roleRepository);
 
         return new ServiceContext(eventAdmin, listenerList, eventDispatcher, roleRepository, store);
     }
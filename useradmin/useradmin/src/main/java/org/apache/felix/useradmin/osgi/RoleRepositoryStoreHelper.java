@@ -17,7 +17,9 @@
 package org.apache.felix.useradmin.osgi;
 
 import org.apache.felix.useradmin.RoleRepositoryStore;
+import org.apache.felix.useradmin.impl.RoleRepository;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.useradmin.Role;
 import org.osgi.util.tracker.ServiceTracker;
 
@@ -30,6 +32,8 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepositoryStore {
 	
+    private volatile RoleRepository m_roleRepository;
+
     /**
      * Creates a new {@link RoleRepositoryStoreHelper} instance.
      * 
@@ -39,6 +43,26 @@ class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepository
         super(context, RoleRepositoryStore.class.getName(), null /* customizer */);
     }
 
+    /**
+     * Sets the role repository whose caches are to be dropped when the tracked store changes.
+     * 
+     * @param roleRepository the role repository to notify, can be <code>null</code>.
+     */
+    public void setRoleRepository(RoleRepository roleRepository) {
+        m_roleRepository = roleRepository;
+    }
+
+    public Object addingService(ServiceReference reference) {
+        Object result = super.addingService(reference);
+        storeChanged();
+        return result;
+    }
+
+    public void removedService(ServiceReference reference, Object service) {
+        super.removedService(reference, service);
+        storeChanged();
+    }
+
     public Role addRole(String roleName, int type) throws Exception {
         RoleRepositoryStore store = getStore();
         if (store != null) {
@@ -84,4 +108,14 @@ class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepository
     private RoleRepositoryStore getStore() {
         return (RoleRepositoryStore) getService();
     }
+
+    /**
+     * Drops the caches of the role repository as they might no longer match the tracked store.
+     */
+    private void storeChanged() {
+        RoleRepository roleRepository = m_roleRepository;
+        if (roleRepository != null) {
+            roleRepository.invalidateCaches();
+        }
+    }
 }
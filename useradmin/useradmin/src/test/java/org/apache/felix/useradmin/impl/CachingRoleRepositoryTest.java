@@ -0,0 +1,231 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+
+/**
+ * Test cases for {@link RoleRepository} with its property index and membership cache enabled.
+ */
+public class CachingRoleRepositoryTest extends TestCase {
+
+    private RoleRepository m_roleRepository;
+    private Role m_anyone;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_roleRepository = new RoleRepository(new MemoryRoleRepositoryStore(), new String[] { "key", " mail " }, true);
+
+        m_anyone = m_roleRepository.getRoleByName(Role.USER_ANYONE);
+    }
+
+    /**
+     * Tests that the index follows additions, changes and removals of indexed properties.
+     */
+    public void testGetRolesWithIndexedKeyFollowsPropertyChangesOk() throws Exception {
+        Role role1 = m_roleRepository.addRole("foo", Role.USER);
+        role1.getProperties().put("key", "value1");
+        Role role2 = m_roleRepository.addRole("bar", Role.GROUP);
+        role2.getProperties().put("key", "value2");
+
+        assertSameRoles(new Role[]{ role1 }, m_roleRepository.getRoles("key", "value1"));
+        assertSameRoles(new Role[]{ role2 }, m_roleRepository.getRoles("KEY", "value2"));
+
+        role1.getProperties().put("key", "value2");
+
+        assertSameRoles(new Role[0], m_roleRepository.getRoles("key", "value1"));
+        assertSameRoles(new Role[]{ role1, role2 }, m_roleRepository.getRoles("key", "value2"));
+
+        role2.getProperties().remove("key");
+
+        assertSameRoles(new Role[]{ role1 }, m_roleRepository.getRoles("key", "value2"));
+
+        m_roleRepository.removeRole("foo");
+
+        assertSameRoles(new Role[0], m_roleRepository.getRoles("key", "value2"));
+    }
+
+    /**
+     * Tests that indexed keys are matched case-insensitive, and values with wildcards fall back to the store.
+     */
+    public void testGetRolesWithIndexedKeyIgnoresCaseOk() throws Exception {
+        Role role1 = m_roleRepository.addRole("foo", Role.USER);
+        role1.getProperties().put("Mail", "foo@example.com");
+        Role role2 = m_roleRepository.addRole("bar", Role.USER);
+        role2.getProperties().put("mail", "bar@example.com");
+
+        assertSameRoles(new Role[]{ role1 }, m_roleRepository.getRoles("mail", "foo@example.com"));
+        assertSameRoles(new Role[]{ role2 }, m_roleRepository.getRoles("MAIL", "bar@example.com"));
+        assertSameRoles(new Role[]{ role1, role2 }, m_roleRepository.getRoles("mail", "*@example.com"));
+    }
+
+    /**
+     * Tests that non-string values of an indexed key fall back to the store.
+     */
+    public void testGetRolesWithNonStringValueFallsBackOk() throws Exception {
+        Role role1 = m_roleRepository.addRole("foo", Role.USER);
+        role1.getProperties().put("key", new byte[] { 'a' });
+        Role role2 = m_roleRepository.addRole("bar", Role.USER);
+        role2.getProperties().put("key", "b");
+
+        assertSameRoles(new Role[]{ role2 }, m_roleRepository.getRoles("key", "b"));
+    }
+
+    /**
+     * Tests that the cached memberships are dropped when the members of a group change.
+     */
+    public void testImpliedRolesFollowMembershipChangesOk() throws Exception {
+        Group citizens = createGroup("citizen");
+        citizens.addRequiredMember(m_anyone);
+        Group voters = createGroup("voter");
+        voters.addRequiredMember(citizens);
+        voters.addMember(m_anyone);
+
+        User elmer = createUser("elmer");
+
+        AuthorizationImpl auth = new AuthorizationImpl(elmer, m_roleRepository);
+        assertFalse(auth.hasRole("citizen"));
+        assertFalse(auth.hasRole("voter"));
+
+        citizens.addMember(elmer);
+
+        auth = new AuthorizationImpl(elmer, m_roleRepository);
+        assertTrue(auth.hasRole("citizen"));
+        assertTrue(auth.hasRole("voter"));
+
+        citizens.removeMember(elmer);
+
+        auth = new AuthorizationImpl(elmer, m_roleRepository);
+        assertFalse(auth.hasRole("citizen"));
+        assertFalse(auth.hasRole("voter"));
+    }
+
+    /**
+     * Tests that the cached memberships are dropped when a group is removed.
+     */
+    public void testImpliedRolesFollowRoleRemovalOk() throws Exception {
+        Group citizens = createGroup("citizen");
+        User elmer = createUser("elmer");
+        citizens.addMember(elmer);
+
+        assertTrue(m_roleRepository.isImpliedBy(citizens, elmer));
+        assertTrue(new AuthorizationImpl(elmer, m_roleRepository).hasRole("citizen"));
+
+        m_roleRepository.removeRole("citizen");
+
+        assertFalse(new AuthorizationImpl(elmer, m_roleRepository).hasRole("citizen"));
+    }
+
+    /**
+     * Tests that membership changes update the cached memberships without reloading all groups.
+     */
+    public void testImpliedRolesUpdatedIncrementallyOk() throws Exception {
+        final int[] loads = new int[1];
+        m_roleRepository = new RoleRepository(new MemoryRoleRepositoryStore() {
+            public Role[] getRoles(String filterValue) throws Exception {
+                if (filterValue == null) {
+                    loads[0]++;
+                }
+                return super.getRoles(filterValue);
+            }
+        }, null, true);
+        m_anyone = m_roleRepository.getRoleByName(Role.USER_ANYONE);
+
+        Group admins = createGroup("admins");
+        Group staff = createGroup("staff");
+        staff.addMember(admins);
+        User elmer = createUser("elmer");
+        User bugs = createUser("bugs");
+        bugs.getProperties().put("key", "value");
+
+        assertFalse(m_roleRepository.isImpliedBy(staff, elmer));
+        assertFalse(m_roleRepository.isImpliedBy(staff, bugs));
+        assertEquals(1, loads[0]);
+
+        admins.addMember(elmer);
+
+        assertTrue(m_roleRepository.isImpliedBy(admins, elmer));
+        assertTrue(m_roleRepository.isImpliedBy(staff, elmer));
+        assertFalse(m_roleRepository.isImpliedBy(staff, bugs));
+
+        // Groups added later are picked up as well...
+        Group everybody = createGroup("everybody");
+        everybody.addMember(m_anyone);
+        admins.addRequiredMember(everybody);
+
+        assertTrue(m_roleRepository.isImpliedBy(everybody, bugs));
+        assertTrue(m_roleRepository.isImpliedBy(staff, elmer));
+        assertEquals(1, loads[0]);
+
+        // Each removal scans all groups to remove the role as member...
+        m_roleRepository.removeRole("everybody");
+
+        assertFalse(m_roleRepository.isImpliedBy(everybody, bugs));
+        assertTrue(m_roleRepository.isImpliedBy(staff, elmer));
+
+        m_roleRepository.removeRole("elmer");
+        elmer = createUser("elmer");
+
+        assertFalse(m_roleRepository.isImpliedBy(admins, elmer));
+        assertFalse(m_roleRepository.isImpliedBy(staff, elmer));
+        assertEquals(3, loads[0]);
+    }
+
+    /**
+     * Tests that the anonymous user only implies groups with user.anyone as member.
+     */
+    public void testImpliedRolesForAnonymousUserOk() throws Exception {
+        Group everybody = createGroup("everybody");
+        everybody.addMember(m_anyone);
+        Group admins = createGroup("admins");
+        admins.addMember(createUser("elmer"));
+
+        AuthorizationImpl auth = new AuthorizationImpl(m_roleRepository);
+        assertTrue(auth.hasRole("everybody"));
+        assertFalse(auth.hasRole("admins"));
+    }
+
+    private void assertSameRoles(Role[] expected, Collection roles) {
+        assertEquals("Collections not of equal length!", expected.length, roles.size());
+
+        List e = new ArrayList(Arrays.asList(expected));
+        e.removeAll(roles);
+
+        assertTrue("Not seen: " + e, e.isEmpty());
+    }
+
+    private Group createGroup(String name) {
+        return (Group) m_roleRepository.addRole(name, Role.GROUP);
+    }
+
+    private User createUser(String name) {
+        return (User) m_roleRepository.addRole(name, Role.USER);
+    }
+}
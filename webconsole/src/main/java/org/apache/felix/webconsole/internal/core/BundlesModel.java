@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+
+/**
+ * The <code>BundlesModel</code> keeps the localized headers and the summaries
+ * shown in the bundle list of the {@link BundlesServlet}. The cached data of a
+ * bundle is dropped whenever a bundle event is fired for the bundle.
+ * <p>
+ * Each event increments the generation of the model. The generation is part
+ * of the token identifying the state of the model, which is used as the ETag
+ * of the bundle list and to find the bundles changed since an earlier token.
+ */
+final class BundlesModel implements SynchronousBundleListener
+{
+
+    // the number of uninstalled bundles remembered for delta requests
+    private static final int MAX_UNINSTALLED = 1000;
+
+    // distinguishes the tokens of this model from those of an earlier instance
+    private final String id = Long.toString( System.currentTimeMillis(), 36 );
+
+    // the generation of the last change per bundle id
+    private final Map<Long, Long> changes = new HashMap<Long, Long>();
+
+    private final Set<Long> uninstalled = new HashSet<Long>();
+
+    private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+
+    private long generation;
+
+    // the oldest generation from which changes can be computed
+    private long oldestGeneration;
+
+
+    /**
+     * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+     */
+    @Override
+    public synchronized void bundleChanged( final BundleEvent event )
+    {
+        final Long bundleId = new Long( event.getBundle().getBundleId() );
+        generation++;
+        changes.put( bundleId, new Long( generation ) );
+        entries.remove( bundleId );
+
+        if ( event.getType() == BundleEvent.UNINSTALLED )
+        {
+            uninstalled.add( bundleId );
+            if ( uninstalled.size() > MAX_UNINSTALLED )
+            {
+                for ( Iterator<Long> i = uninstalled.iterator(); i.hasNext(); )
+                {
+                    changes.remove( i.next() );
+                }
+                uninstalled.clear();
+                oldestGeneration = generation;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the token of the current state of the model. The token has to be
+     * taken before the bundles are looked at.
+     */
+    synchronized String getToken()
+    {
+        return id + '-' + generation;
+    }
+
+
+    /**
+     * Returns the ids of the bundles changed, installed or uninstalled after
+     * the state identified by the token.
+     *
+     * @return the bundle ids or <code>null</code> if the token is not known,
+     *      in which case all bundles have to be considered changed.
+     */
+    synchronized Set<Long> getChangedSince( final String token )
+    {
+        final int sep = token.lastIndexOf( '-' );
+        if ( sep == -1 || !id.equals( token.substring( 0, sep ) ) )
+        {
+            return null;
+        }
+
+        final long since;
+        try
+        {
+            since = Long.parseLong( token.substring( sep + 1 ) );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return null;
+        }
+        if ( since < oldestGeneration || since > generation )
+        {
+            return null;
+        }
+
+        final Set<Long> changed = new HashSet<Long>();
+        for ( Iterator<Map.Entry<Long, Long>> i = changes.entrySet().iterator(); i.hasNext(); )
+        {
+            final Map.Entry<Long, Long> change = i.next();
+            if ( change.getValue().longValue() > since )
+            {
+                changed.add( change.getKey() );
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * Returns the headers of the bundle localized for the given locale.
+     */
+    Dictionary<String, String> getHeaders( final Bundle bundle, final String locale )
+    {
+        final Long bundleId = new Long( bundle.getBundleId() );
+        final long start;
+        synchronized ( this )
+        {
+            final Entry entry = entries.get( bundleId );
+            final Dictionary<String, String> headers = entry == null ? null : entry.headers.get( locale );
+            if ( headers != null )
+            {
+                return headers;
+            }
+            start = generation;
+        }
+
+        final Dictionary<String, String> headers = bundle.getHeaders( locale );
+        synchronized ( this )
+        {
+            if ( !hasChanged( bundleId, start ) )
+            {
+                getEntry( bundleId ).headers.put( locale, headers );
+            }
+        }
+        return headers;
+    }
+
+
+    /**
+     * Returns the summary of the bundle cached for the given locale.
+     *
+     * @return the summary or <code>null</code> if none is cached
+     */
+    synchronized Map<String, Object> getSummary( final Bundle bundle, final String locale )
+    {
+        final Entry entry = entries.get( new Long( bundle.getBundleId() ) );
+        return entry == null ? null : entry.summaries.get( locale );
+    }
+
+
+    /**
+     * Caches the summary of the bundle for the given locale, unless the bundle
+     * changed after the given token was taken.
+     */
+    synchronized void putSummary( final Bundle bundle, final String locale, final String token,
+        final Map<String, Object> summary )
+    {
+        final Long bundleId = new Long( bundle.getBundleId() );
+        final long start = Long.parseLong( token.substring( token.lastIndexOf( '-' ) + 1 ) );
+        if ( !hasChanged( bundleId, start ) )
+        {
+            getEntry( bundleId ).summaries.put( locale, summary );
+        }
+    }
+
+
+    private boolean hasChanged( final Long bundleId, final long since )
+    {
+        final Long changed = changes.get( bundleId );
+        return since < oldestGeneration || ( changed != null && changed.longValue() > since );
+    }
+
+
+    private Entry getEntry( final Long bundleId )
+    {
+        Entry entry = entries.get( bundleId );
+        if ( entry == null )
+        {
+            entry = new Entry();
+            entries.put( bundleId, entry );
+        }
+        return entry;
+    }
+
+    private static final class Entry
+    {
+        final Map<String, Dictionary<String, String>> headers = new HashMap<String, Dictionary<String, String>>();
+
+        final Map<String, Map<String, Object>> summaries = new HashMap<String, Map<String, Object>>();
+    }
+}
@@ -31,12 +31,14 @@ import java.util.Date;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.jar.JarFile;
@@ -94,6 +96,9 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     // an LDAP filter, that is used to search manifest headers, see FELIX-1441
     private static final String FILTER_PARAM = "filter";
 
+    // the token of an earlier bundle list, to only get the bundles changed since
+    private static final String SINCE_PARAM = "since";
+
     private static final String FIELD_STARTLEVEL = "bundlestartlevel";
 
     private static final String FIELD_START = "bundlestart";
@@ -117,6 +122,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private ServiceRegistration configurationPrinter;
     private ServiceTracker bundleInfoTracker;
 
+    // the cached bundle list, maintained from bundle events
+    private BundlesModel model;
+    private BundleContext modelContext;
+
     // templates
     private final String TEMPLATE_MAIN;
 
@@ -140,6 +149,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         bundleInfoTracker = new ServiceTracker( bundleContext, BundleInfoProvider.class.getName(), null);
         bundleInfoTracker.open();
 
+        modelContext = BundleContextUtil.getWorkingBundleContext( bundleContext );
+        model = new BundlesModel();
+        modelContext.addBundleListener( model );
+
         // bootdelegation property parsing from Apache Felix R4SearchPolicyCore
         String bootDelegation = bundleContext.getProperty( Constants.FRAMEWORK_BOOTDELEGATION );
         bootDelegation = ( bootDelegation == null ) ? "java.*" : bootDelegation + ",java.*";
@@ -182,6 +195,20 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             bundleInfoTracker = null;
         }
 
+        if ( model != null )
+        {
+            try
+            {
+                modelContext.removeBundleListener( model );
+            }
+            catch ( IllegalStateException ise )
+            {
+                // the bundle context is not valid any more
+            }
+            model = null;
+            modelContext = null;
+        }
+
         super.deactivate();
     }
 
@@ -196,7 +223,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     {
         try
         {
-            final Map map = createObjectStructure(null, null, null, true, Locale.ENGLISH, null, null );
+            final Map map = createObjectStructure(null, null, null, true, Locale.ENGLISH, null, null, null );
 
             pw.println( "Status: " + map.get( "status" ) );
             pw.println();
@@ -292,11 +319,15 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         }
         if ( reqInfo.extension.equals("json")  )
         {
+            if ( reqInfo.bundle == null && isNotModified( request, response ) )
+            {
+                return;
+            }
             final String pluginRoot = ( String ) request.getAttribute( WebConsoleConstants.ATTR_PLUGIN_ROOT );
             final String servicesRoot = getServicesRoot( request );
             try
             {
-                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), request.getParameter(SINCE_PARAM), null );
             }
             catch (InvalidSyntaxException e)
             {
@@ -424,7 +455,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final String servicesRoot = getServicesRoot( req );
             try
             {
-                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), bundleException );
+                this.renderJSON( resp, null, pluginRoot, servicesRoot, req.getLocale(), req.getParameter(FILTER_PARAM), null, bundleException );
             }
             catch (InvalidSyntaxException e)
             {
@@ -437,6 +468,35 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         }
     }
 
+    /**
+     * Sets the ETag of the bundle list, which changes with every bundle event,
+     * and checks it against the <code>If-None-Match</code> request header.
+     *
+     * @return <code>true</code> if the client has the current list, in which
+     *      case the response has been completed
+     */
+    private boolean isNotModified( final HttpServletRequest request, final HttpServletResponse response )
+    {
+        final BundlesModel model = this.model;
+        if ( model == null )
+        {
+            return false;
+        }
+
+        final String etag = "\"" + model.getToken() + '-' + request.getLocale() + "\"";
+        response.setHeader( "ETag", etag );
+        response.setHeader( "Cache-Control", "no-cache" );
+        response.setHeader( "Vary", "Accept-Language" );
+
+        final String ifNoneMatch = request.getHeader( "If-None-Match" );
+        if ( ifNoneMatch != null && ifNoneMatch.indexOf( etag ) != -1 )
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return true;
+        }
+        return false;
+    }
+
     private String getServicesRoot(HttpServletRequest request)
     {
         return ( ( String ) request.getAttribute( WebConsoleConstants.ATTR_APP_ROOT ) ) +
@@ -524,7 +584,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         StringWriter w = new StringWriter();
         try
         {
-            writeJSON(w, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+            writeJSON(w, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null, null );
         }
         catch (InvalidSyntaxException e)
         {
@@ -536,34 +596,49 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         response.getWriter().print(TEMPLATE_MAIN);
     }
 
-    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
+    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final String since, final BundleException be )
             throws IOException, InvalidSyntaxException
     {
         response.setContentType( "application/json" );
         response.setCharacterEncoding( "UTF-8" );
 
         final PrintWriter pw = response.getWriter();
-        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, be);
+        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, since, be);
     }
 
 
-    private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
+    private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final String since, final BundleException be )
             throws IOException, InvalidSyntaxException
     {
-        final Map<String, Object> map = createObjectStructure( bundle, pluginRoot, servicesRoot, false, locale, filter, be );
+        final Map<String, Object> map = createObjectStructure( bundle, pluginRoot, servicesRoot, false, locale, filter, since, be );
         final JSONWriter writer = new JSONWriter(pw);
 
         writer.value(map);
     }
 
+    /**
+     * Creates the bundle list. The summaries of the bundles are taken from the
+     * model, unless details are requested. If the token of an earlier list is
+     * given and neither a bundle nor a filter, only the bundles changed since
+     * are listed and the ids of the bundles uninstalled since are added as
+     * <code>removed</code>.
+     */
     private Map<String, Object> createObjectStructure( final Bundle bundle, final String pluginRoot,
-            final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final BundleException be ) throws IOException, InvalidSyntaxException
+            final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter,
+            final String since, final BundleException be ) throws IOException, InvalidSyntaxException
     {
+        // the token has to be taken before looking at the bundles
+        final BundlesModel model = this.model;
+        final boolean details = fullDetails || bundle != null;
+        final String token = ( model == null || details ) ? null : model.getToken();
+
         final Bundle[] allBundles = this.getBundles();
         final List<Object> status = getStatusLine(allBundles);
         final String statusLine = (String) status.remove(5);
+        final String localeString = locale.toString();
         // filter bundles by headers
-        final Bundle[] bundles;
+        Bundle[] bundles;
+        List<Long> removed = null;
         if (bundle != null)
         {
             bundles = new Bundle[] { bundle };
@@ -572,10 +647,11 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         {
             Filter f = getBundleContext().createFilter(filter);
             ArrayList<Bundle> list = new ArrayList<Bundle>(allBundles.length);
-            final String localeString = locale.toString();
             for (int i = 0, size = allBundles.length; i < size; i++)
             {
-                if (f.match(allBundles[i].getHeaders(localeString)))
+                final Dictionary<String, String> headers = model != null ? model.getHeaders( allBundles[i], localeString )
+                    : allBundles[i].getHeaders(localeString);
+                if (f.match(headers))
                 {
                     list.add(allBundles[i]);
                 }
@@ -585,9 +661,23 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         else
         {
             bundles = allBundles;
-        }
 
-        Util.sort( bundles, locale );
+            final Set<Long> changed = ( token != null && since != null ) ? model.getChangedSince( since ) : null;
+            if ( changed != null )
+            {
+                ArrayList<Bundle> list = new ArrayList<Bundle>(changed.size());
+                for (int i = 0; i < allBundles.length; i++)
+                {
+                    if ( changed.remove( new Long( allBundles[i].getBundleId() ) ) )
+                    {
+                        list.add(allBundles[i]);
+                    }
+                }
+                bundles = list.toArray(new Bundle[list.size()]);
+                // what is left has been uninstalled
+                removed = new ArrayList<Long>( changed );
+            }
+        }
 
         final Map<String, Object> map = new LinkedHashMap<String, Object>();
 
@@ -604,17 +694,91 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         // add raw status
         map.put( "s", status.toArray() );
 
-        final Object[] bundlesArray = new Object[bundles.length];
-        for ( int i = 0; i < bundles.length; i++ )
+        final Object[] bundlesArray;
+        if ( token != null )
         {
-            bundlesArray[i] =
-                    bundleInfo( bundles[i], fullDetails || bundle != null, pluginRoot, servicesRoot, locale );
+            bundlesArray = new Object[bundles.length];
+            for ( int i = 0; i < bundles.length; i++ )
+            {
+                Map<String, Object> summary = model.getSummary( bundles[i], localeString );
+                if ( summary == null )
+                {
+                    summary = bundleInfo( bundles[i], false, pluginRoot, servicesRoot, locale, null );
+                    model.putSummary( bundles[i], localeString, token, summary );
+                }
+                bundlesArray[i] = summary;
+            }
+            // sorting the summaries does not need the headers of the bundles
+            Arrays.sort( bundlesArray, SUMMARY_COMPARATOR );
+
+            if ( filter == null )
+            {
+                map.put( "token", token );
+            }
+            if ( removed != null )
+            {
+                map.put( "removed", removed.toArray() );
+            }
+        }
+        else
+        {
+            Util.sort( bundles, locale );
+
+            final Map<Long, List<ExportedPackage>> imports = details ? getImportedPackages() : null;
+            bundlesArray = new Object[bundles.length];
+            for ( int i = 0; i < bundles.length; i++ )
+            {
+                bundlesArray[i] = bundleInfo( bundles[i], details, pluginRoot, servicesRoot, locale, imports );
+            }
         }
 
         map.put("data", bundlesArray);
         return map;
     }
 
+    /**
+     * Orders bundle summaries like {@link Util#sort(Bundle[], Locale)} orders
+     * the bundles: the system bundle first, then by name, version and id.
+     */
+    private static final Comparator<Object> SUMMARY_COMPARATOR = new Comparator<Object>()
+    {
+        @Override
+        public int compare( final Object o1, final Object o2 )
+        {
+            final Map<?, ?> b1 = ( Map<?, ?> ) o1;
+            final Map<?, ?> b2 = ( Map<?, ?> ) o2;
+            final long id1 = ( ( Long ) b1.get( "id" ) ).longValue();
+            final long id2 = ( ( Long ) b2.get( "id" ) ).longValue();
+            if ( id1 == id2 )
+            {
+                return 0;
+            }
+            else if ( id1 == 0 )
+            {
+                return -1;
+            }
+            else if ( id2 == 0 )
+            {
+                return 1;
+            }
+
+            final int nameComp = ( ( String ) b1.get( "name" ) ).compareToIgnoreCase( ( String ) b2.get( "name" ) );
+            if ( nameComp != 0 )
+            {
+                return nameComp;
+            }
+
+            final int versionComp = Version.parseVersion( ( String ) b1.get( "version" ) ).compareTo(
+                Version.parseVersion( ( String ) b2.get( "version" ) ) );
+            if ( versionComp != 0 )
+            {
+                return versionComp;
+            }
+
+            return id1 < id2 ? -1 : 1;
+        }
+    };
+
     private List<Object> getStatusLine(final Bundle[] bundles)
     {
         List<Object> ret = new ArrayList<Object>();
@@ -686,7 +850,8 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final boolean details,
             final String pluginRoot,
             final String servicesRoot,
-            final Locale locale )
+            final Locale locale,
+            final Map<Long, List<ExportedPackage>> imports )
     {
         final Map<String, Object> result = new LinkedHashMap<String, Object>();
         result.put("id", bundle.getBundleId() );
@@ -703,7 +868,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
         if ( details )
         {
-            bundleDetails( result, bundle, pluginRoot, servicesRoot, locale );
+            bundleDetails( result, bundle, pluginRoot, servicesRoot, locale, imports );
         }
 
         return result;
@@ -767,7 +932,8 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final Bundle bundle,
             final String pluginRoot,
             final String servicesRoot,
-            final Locale locale)
+            final Locale locale,
+            final Map<Long, List<ExportedPackage>> imports )
     {
         final Dictionary<String, String> headers = bundle.getHeaders( locale == null ? null : locale.toString() );
 
@@ -800,7 +966,7 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         }
         else
         {
-            listImportExport( props, bundle, pluginRoot );
+            listImportExport( props, bundle, pluginRoot, imports );
         }
 
         if ( bundle.getState() != Bundle.UNINSTALLED )
@@ -868,7 +1034,47 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     }
 
 
-    private void listImportExport( List props, Bundle bundle, final String pluginRoot )
+    /**
+     * Returns the packages imported by each bundle, from a single pass over
+     * the exported packages, or <code>null</code> if there are no exported
+     * packages at all.
+     */
+    private Map<Long, List<ExportedPackage>> getImportedPackages()
+    {
+        final PackageAdmin packageAdmin = getPackageAdmin();
+        final ExportedPackage[] exports = packageAdmin == null ? null
+            : packageAdmin.getExportedPackages( ( Bundle ) null );
+        if ( exports == null || exports.length == 0 )
+        {
+            return null;
+        }
+
+        final Map<Long, List<ExportedPackage>> imports = new HashMap<Long, List<ExportedPackage>>();
+        for ( int i = 0; i < exports.length; i++ )
+        {
+            final Bundle[] importers = exports[i].getImportingBundles();
+            final Set<Long> importerIds = new HashSet<Long>();
+            for ( int j = 0; importers != null && j < importers.length; j++ )
+            {
+                final Long importerId = new Long( importers[j].getBundleId() );
+                if ( importerIds.add( importerId ) )
+                {
+                    List<ExportedPackage> list = imports.get( importerId );
+                    if ( list == null )
+                    {
+                        list = new ArrayList<ExportedPackage>();
+                        imports.put( importerId, list );
+                    }
+                    list.add( exports[i] );
+                }
+            }
+        }
+        return imports;
+    }
+
+
+    private void listImportExport( List props, Bundle bundle, final String pluginRoot,
+        final Map<Long, List<ExportedPackage>> importedPackages )
     {
         PackageAdmin packageAdmin = getPackageAdmin();
         if ( packageAdmin == null )
@@ -921,28 +1127,13 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             keyVal( props, "Exported Packages", "---" );
         }
 
-        exports = packageAdmin.getExportedPackages( ( Bundle ) null );
-        if ( exports != null && exports.length > 0 )
+        if ( importedPackages != null )
         {
-            // collect import packages first
-            final List imports = new ArrayList();
-            for ( int i = 0; i < exports.length; i++ )
-            {
-                final ExportedPackage ep = exports[i];
-                final Bundle[] importers = ep.getImportingBundles();
-                for ( int j = 0; importers != null && j < importers.length; j++ )
-                {
-                    if ( importers[j].getBundleId() == bundle.getBundleId() )
-                    {
-                        imports.add( ep );
-
-                        break;
-                    }
-                }
-            }
+            // import packages are collected for all bundles at once
+            final List imports = importedPackages.get( new Long( bundle.getBundleId() ) );
             // now sort
             Object[] val;
-            if ( imports.size() > 0 )
+            if ( imports != null && imports.size() > 0 )
             {
                 final ExportedPackage[] packages = ( ExportedPackage[] ) imports.toArray( new ExportedPackage[imports
                                                                                                               .size()] );
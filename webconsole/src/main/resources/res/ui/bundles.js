@@ -130,7 +130,63 @@ function entrySetupState( /* Object */ bundle, tr, id) {
 }
 
 function loadData() {
-    $.get(pluginRoot + "/.json", null, renderData, "json"); 
+	if (lastBundleData && lastBundleData.token && !drawDetails) {
+		// only get the bundles changed since the last full list
+		$.get(pluginRoot + "/.json", {'since' : lastBundleData.token}, function(data) {
+			renderData( data.removed ? mergeData(lastBundleData, data) : data );
+		}, "json");
+	} else {
+		$.get(pluginRoot + "/.json", null, renderData, "json");
+	}
+}
+
+function mergeData( /* Object */ data, /* Object */ delta ) {
+	var changed = {};
+	for ( var idx in delta.data ) {
+		changed[delta.data[idx].id] = delta.data[idx];
+	}
+	var removed = {};
+	for ( var idx in delta.removed ) {
+		removed[delta.removed[idx]] = true;
+	}
+	var merged = [];
+	for ( var idx in data.data ) {
+		var id = data.data[idx].id;
+		if ( removed[id] ) continue;
+		merged.push( changed[id] ? changed[id] : data.data[idx] );
+		delete changed[id];
+	}
+	for ( var id in changed ) {
+		merged.push( changed[id] );
+	}
+	// changed bundles may have a new name or version
+	merged.sort( compareBundles );
+	return { 'status' : delta.status, 's' : delta.s, 'token' : delta.token, 'data' : merged };
+}
+
+// orders the bundles like the server does: the system bundle first, then by name, version and id
+function compareBundles( /* Object */ b1, /* Object */ b2 ) {
+	if ( b1.id == b2.id ) return 0;
+	if ( b1.id == 0 ) return -1;
+	if ( b2.id == 0 ) return 1;
+	var n1 = b1.name.toLowerCase();
+	var n2 = b2.name.toLowerCase();
+	if ( n1 != n2 ) return n1 < n2 ? -1 : 1;
+	var v = compareVersions( b1.version, b2.version );
+	if ( v != 0 ) return v;
+	return b1.id < b2.id ? -1 : 1;
+}
+
+function compareVersions( /* String */ v1, /* String */ v2 ) {
+	var p1 = v1 ? v1.split('.') : [];
+	var p2 = v2 ? v2.split('.') : [];
+	for ( var i = 0; i < 3; i++ ) {
+		var c = (parseInt(p1[i], 10) || 0) - (parseInt(p2[i], 10) || 0);
+		if ( c != 0 ) return c < 0 ? -1 : 1;
+	}
+	var q1 = p1.slice(3).join('.');
+	var q2 = p2.slice(3).join('.');
+	return q1 == q2 ? 0 : (q1 < q2 ? -1 : 1);
 }
 
 function changeDataEntryState(/* long */ id, /* String */ action) {
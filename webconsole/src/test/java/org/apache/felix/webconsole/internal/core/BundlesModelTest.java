@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BundlesModelTest {
+    @Test
+    public void testHeadersAreCachedUntilBundleEvent() {
+        Bundle bundle = bundle(5);
+        Dictionary<String, String> headers = new Hashtable<String, String>();
+        Mockito.when(bundle.getHeaders("en")).thenReturn(headers);
+
+        BundlesModel model = new BundlesModel();
+        assertSame(headers, model.getHeaders(bundle, "en"));
+        assertSame(headers, model.getHeaders(bundle, "en"));
+        Mockito.verify(bundle, Mockito.times(1)).getHeaders("en");
+
+        model.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        model.getHeaders(bundle, "en");
+        Mockito.verify(bundle, Mockito.times(2)).getHeaders("en");
+    }
+
+    @Test
+    public void testSummaryIsNotCachedIfBundleChanged() {
+        Bundle bundle = bundle(5);
+        Map<String, Object> summary = new HashMap<String, Object>();
+
+        BundlesModel model = new BundlesModel();
+        String token = model.getToken();
+        model.putSummary(bundle, "en", token, summary);
+        assertSame(summary, model.getSummary(bundle, "en"));
+
+        token = model.getToken();
+        model.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        assertNull(model.getSummary(bundle, "en"));
+        model.putSummary(bundle, "en", token, summary);
+        assertNull(model.getSummary(bundle, "en"));
+    }
+
+    @Test
+    public void testChangedSince() {
+        Bundle bundle5 = bundle(5);
+        Bundle bundle6 = bundle(6);
+
+        BundlesModel model = new BundlesModel();
+        String token = model.getToken();
+        assertEquals(Collections.emptySet(), model.getChangedSince(token));
+
+        model.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle5));
+        assertFalse(token.equals(model.getToken()));
+        assertEquals(Collections.singleton(5L), model.getChangedSince(token));
+
+        String token2 = model.getToken();
+        model.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, bundle6));
+        assertEquals(Collections.singleton(6L), model.getChangedSince(token2));
+
+        assertNull(model.getChangedSince("unknown-1"));
+        assertNull(model.getChangedSince(token.substring(0, token.lastIndexOf('-')) + "-99"));
+    }
+
+    private static Bundle bundle(long id) {
+        Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleId()).thenReturn(id);
+        return bundle;
+    }
+}